@@ -72,8 +72,8 @@ import edu.utah.ece.async.ibiosim.dataModels.util.observe.BioObserver;
  *    <li>-sErr [value]: positive double for relative error</li>
  *    <li>-sd [value]: long for random seed</li>
  *    <li>-r [value]: integer for number of runs</li>
- *    <li>-sim [value]: simulation type. Options are: ode, hode, ssa, hssa, dfba, jode, jssa.</li>
- *    <li>-data [value]: graph data type. Options are: csv, tsd.</li>
+ *    <li>-sim [value]: simulation type. Options are: ode, hode, ssa, hssa, hnrm, htau, dfba, jode, jssa.</li>
+ *    <li>-data [value]: graph data type. Options are: csv, tsd, btsd.</li>
  *  </ul>
  *  <li>Input file: (Combine archive, SED-ML, or SBML.</li>
  * </ul>
@@ -534,6 +534,16 @@ public class Analysis implements BioObserver
           properties.setSim("SSA-Direct (Hierarchical)");
           properties.setSsa();
         }
+        else if(value.equals("hnrm"))
+        {
+          properties.setSim("SSA-NRM (Hierarchical)");
+          properties.setSsa();
+        }
+        else if(value.equals("htau"))
+        {
+          properties.setSim("SSA-Tau (Hierarchical)");
+          properties.setSsa();
+        }
         else if(value.equals("dfba"))
         {
           properties.setSim("Mixed-Hierarchical");
@@ -564,6 +574,10 @@ public class Analysis implements BioObserver
         {
           simProperties.setPrinter_id(GraphData.TSD_DATA_TYPE);
         }
+        else if(value.equals("btsd"))
+        {
+          simProperties.setPrinter_id(GraphData.BTSD_DATA_TYPE);
+        }
       }
     }
   }
@@ -343,6 +343,8 @@ public class Run extends CoreObservable implements ActionListener
       if (!sg.getStop())
       {
         message.setLog("Performing steady state Markov chain analysis.");
+        sg.setSteadyStateMethod(properties.getSimulationProperties().getSteadyStateMethod());
+        sg.setRelaxation(properties.getSimulationProperties().getRelaxation());
         PerformSteadyStateMarkovAnalysisThread performMarkovAnalysis = new PerformSteadyStateMarkovAnalysisThread(sg, null);
         if (filename.contains(".lpn"))
         {
@@ -521,6 +523,16 @@ public class Run extends CoreObservable implements ActionListener
       dynSim = new DynamicSimulation(SimulationType.HIERARCHICAL_DIRECT);
       dynSim.addObservable(this);
     }
+    else if (sim.equals("SSA-NRM (Hierarchical)"))
+    {
+      dynSim = new DynamicSimulation(SimulationType.HIERARCHICAL_NRM);
+      dynSim.addObservable(this);
+    }
+    else if (sim.equals("SSA-Tau (Hierarchical)"))
+    {
+      dynSim = new DynamicSimulation(SimulationType.HIERARCHICAL_TAU);
+      dynSim.addObservable(this);
+    }
     else if (sim.equals("Mixed-Hierarchical"))
     {
       dynSim = new DynamicSimulation(SimulationType.HIERARCHICAL_MIXED);
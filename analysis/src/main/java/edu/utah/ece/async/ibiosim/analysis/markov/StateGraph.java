@@ -16,12 +16,13 @@ package edu.utah.ece.async.ibiosim.analysis.markov;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.text.NumberFormat;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Observable;
-import java.util.Queue;
-import java.util.Stack;
 
 import javax.swing.JProgressBar;
 
@@ -29,9 +30,15 @@ import edu.utah.ece.async.ibiosim.dataModels.util.Message;
 import edu.utah.ece.async.ibiosim.dataModels.util.dataparser.DataParser;
 import edu.utah.ece.async.ibiosim.dataModels.util.exceptions.BioSimException;
 import edu.utah.ece.async.ibiosim.dataModels.util.observe.CoreObservable;
+import edu.utah.ece.async.lema.verification.lpn.CompiledTransition;
 import edu.utah.ece.async.lema.verification.lpn.ExprTree;
 import edu.utah.ece.async.lema.verification.lpn.LPN;
 import edu.utah.ece.async.lema.verification.lpn.Translator;
+import edu.utah.ece.async.lema.verification.platu.platuLpn.DualHashMap;
+import edu.utah.ece.async.lema.verification.markov.PackedStateSpace;
+import edu.utah.ece.async.lema.verification.markov.SparseRateMatrix;
+import edu.utah.ece.async.lema.verification.markov.SteadyStateSolver;
+import edu.utah.ece.async.lema.verification.markov.TransientSolver;
 
 /**
  * 
@@ -42,9 +49,48 @@ import edu.utah.ece.async.lema.verification.lpn.Translator;
  * @version %I%
  */
 public class StateGraph extends CoreObservable implements Runnable {
-	// private HashMap<String, LinkedList<State>> stateGraph;
+	/*
+	 * The value of an unknown Boolean variable in a variable vector.
+	 */
+	private static final int UNKNOWN = -1;
 
-	private ArrayList<State> stateGraph;
+	private List<State> stateGraph;
+
+	private PackedStateSpace stateSpace;
+
+	/*
+	 * The layout of a packed state: the values of the integer variables in the order of
+	 * integerIndices, then two bits per Boolean variable from booleanBase, one for true and
+	 * one for unknown, the bits of the marked places from markingBase and the bits of the
+	 * pending persistent transitions from persistentBase. The indices are positions in the
+	 * variable vector of the LPN.
+	 */
+	private DualHashMap<String, Integer> varIndexMap;
+
+	private int[] integerIndices, booleanIndices;
+
+	private int booleanBase, markingBase, persistentBase, width;
+
+	private String[] placeNames, transitionNames;
+
+	private int[][] presets, postsets;
+
+	private boolean[] persistentTransitions;
+
+	/*
+	 * The probabilities, total exit rates (-1 when not computed) and colors of the states and
+	 * the positions of the transitions disabled by pruning.
+	 */
+	private double[] currentProbs, piProbs, transitionSums;
+
+	private int[] colors;
+
+	private BitSet disabled;
+
+	/*
+	 * Variables added to the states by the analysis, with NaN for the states without a value.
+	 */
+	private HashMap<String, double[]> addedVariables;
 
 	private ArrayList<String> variables;
 
@@ -56,9 +102,13 @@ public class StateGraph extends CoreObservable implements Runnable {
 
 	private DataParser probData;
 
-	private int waitingThreads, threadCount;
+	private TransientSolver transientSolver;
+
+	private SteadyStateSolver steadyStateSolver;
+
+	private SteadyStateSolver.Method steadyStateMethod;
 
-	private boolean phase1, phase2;
+	private double relaxation;
 	
 	private double totalUsedMemory, usedMemory;
 
@@ -68,18 +118,42 @@ public class StateGraph extends CoreObservable implements Runnable {
 		this.lhpn = lhpn;
 		stop = false;
 		markovResults = null;
+		steadyStateMethod = SteadyStateSolver.Method.POWER;
+		relaxation = 1;
+	}
+
+	/**
+	 * Sets the iterative method used by steady-state analysis. POWER, the default, gives the
+	 * limiting distribution from the initial state. The Jacobi-type methods converge faster
+	 * on chains with a single closed class.
+	 */
+	public void setSteadyStateMethod(SteadyStateSolver.Method steadyStateMethod) {
+		this.steadyStateMethod = steadyStateMethod;
+	}
+
+	/**
+	 * Sets the relaxation factor used by the SOR and damped Jacobi steady-state methods.
+	 */
+	public void setRelaxation(double relaxation) {
+		this.relaxation = relaxation;
 	}
 	
 	public Property createProperty(String label, String property) {
 		return new Property(label, property);
 	}
 
+	/**
+	 * Explores the states reachable from the initial state. Each state is packed into int
+	 * words, the values of the integer variables followed by bits for the Boolean variables,
+	 * the marked places and the persistent transitions that are still pending, and
+	 * is deduplicated by a PackedStateSpace, which also holds the transitions between states.
+	 * The enabling conditions, rates and assignments are evaluated on the variable vectors
+	 * with the transitions compiled by the LPN.
+	 */
 	public void buildStateGraph(JProgressBar progress) {
 		System.gc();
 		long initialMemory = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
-		stateGraph = new ArrayList<State>();// HashMap<String,
-		// LinkedList<State>>();
-		HashMap<String, LinkedList<Integer>> stateLocations = new HashMap<String, LinkedList<Integer>>();
+		transientSolver = null;
 		variables = new ArrayList<String>();
 		for (String var : lhpn.getBooleanVars()) {
 			variables.add(var);
@@ -87,237 +161,242 @@ public class StateGraph extends CoreObservable implements Runnable {
 		for (String var : lhpn.getIntVars()) {
 			variables.add(var);
 		}
-		HashMap<String, String> allVariables = new HashMap<String, String>();
-		for (String var : lhpn.getBooleanVars()) {
-			allVariables.put(var, lhpn.getInitialVal(var));
-		}
-		for (String var : lhpn.getContVars()) {
-			allVariables.put(var, lhpn.getInitialVal(var));
+		createLayout();
+		stateSpace = new PackedStateSpace(width);
+		addedVariables = new HashMap<String, double[]>();
+		int[] vector = new int[varIndexMap.size()];
+		for (String var : variables) {
+			vector[varIndexMap.get(var)] = getInitialValue(var);
+		}
+		boolean[] marked = new boolean[placeNames.length];
+		for (int p = 0; p < placeNames.length; p++) {
+			marked[p] = lhpn.getPlace(placeNames[p]).isMarked();
+		}
+		boolean[] persistent = new boolean[transitionNames.length];
+		int[] words = new int[width];
+		int[] enabled = new int[transitionNames.length];
+		int numEnabled = findEnabledTransitions(vector, marked, persistent, enabled);
+		pack(vector, marked, persistent, words);
+		int counter = stateSpace.add(words) + 1;
+		if (progress != null) {
+			progress.setString("States found: " + counter);
 		}
-		for (String var : lhpn.getIntVars()) {
-			allVariables.put(var, lhpn.getInitialVal(var));
+		// Pairs of a state and a transition enabled in it.
+		int[] transitionsToFire = new int[64];
+		int stackSize = 0;
+		for (int i = 0; i < numEnabled; i++) {
+			transitionsToFire = push(transitionsToFire, stackSize, 0, enabled[i]);
+			stackSize += 2;
+		}
+		int[] newVector = new int[vector.length];
+		while (stackSize != 0 && !stop) {
+			stackSize -= 2;
+			int source = transitionsToFire[stackSize];
+			int fire = transitionsToFire[stackSize + 1];
+			stateSpace.get(source, words);
+			unpack(words, vector, marked, persistent);
+			CompiledTransition compiledFire = lhpn.getCompiledTransition(transitionNames[fire]);
+			for (int p : presets[fire]) {
+				marked[p] = false;
+			}
+			for (int p : postsets[fire]) {
+				marked[p] = true;
+			}
+			System.arraycopy(vector, 0, newVector, 0, vector.length);
+			compiledFire.assign(vector, newVector);
+			persistent[fire] = false;
+			numEnabled = findEnabledTransitions(newVector, marked, persistent, enabled);
+			pack(newVector, marked, persistent, words);
+			int target = stateSpace.indexOf(words);
+			if (target < 0) {
+				target = stateSpace.add(words);
+				counter++;
+				if (progress != null) {
+					progress.setString("States found: " + counter);
+				}
+				for (int i = 0; i < numEnabled; i++) {
+					transitionsToFire = push(transitionsToFire, stackSize, target, enabled[i]);
+					stackSize += 2;
+				}
+			}
+			stateSpace.addTransition(source, target, compiledFire.evaluateRate(vector), fire);
 		}
-		ArrayList<String> markedPlaces = new ArrayList<String>();
-		for (String place : lhpn.getPlaceList()) {
-			if (lhpn.getPlace(place).isMarked()) {
-				markedPlaces.add(place);
+		int size = stateSpace.size();
+		currentProbs = new double[size];
+		piProbs = new double[size];
+		transitionSums = new double[size];
+		Arrays.fill(transitionSums, -1);
+		colors = new int[size];
+		disabled = new BitSet();
+		stateGraph = new StateList();
+		totalUsedMemory = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+		usedMemory = (totalUsedMemory - initialMemory) / 1000000;
+		totalUsedMemory = totalUsedMemory /1000000;
+	}
+
+	/**
+	 * Numbers the variables, places and transitions of the LPN and lays out the words of a
+	 * packed state.
+	 */
+	private void createLayout() {
+		varIndexMap = lhpn.getVarIndexMap();
+		String[] booleans = lhpn.getBooleanVars();
+		String[] integers = lhpn.getIntVars();
+		booleanIndices = new int[booleans.length];
+		for (int i = 0; i < booleans.length; i++) {
+			booleanIndices[i] = varIndexMap.get(booleans[i]);
+		}
+		integerIndices = new int[integers.length];
+		for (int i = 0; i < integers.length; i++) {
+			integerIndices[i] = varIndexMap.get(integers[i]);
+		}
+		placeNames = lhpn.getPlaceList();
+		HashMap<String, Integer> placeIndices = new HashMap<String, Integer>();
+		for (int p = 0; p < placeNames.length; p++) {
+			placeIndices.put(placeNames[p], p);
+		}
+		transitionNames = lhpn.getTransitionList();
+		presets = new int[transitionNames.length][];
+		postsets = new int[transitionNames.length][];
+		persistentTransitions = new boolean[transitionNames.length];
+		for (int t = 0; t < transitionNames.length; t++) {
+			String[] preset = lhpn.getPreset(transitionNames[t]);
+			presets[t] = new int[preset.length];
+			for (int i = 0; i < preset.length; i++) {
+				presets[t][i] = placeIndices.get(preset[i]);
+			}
+			String[] postset = lhpn.getPostset(transitionNames[t]);
+			postsets[t] = new int[postset.length];
+			for (int i = 0; i < postset.length; i++) {
+				postsets[t][i] = placeIndices.get(postset[i]);
+			}
+			persistentTransitions[t] = lhpn.getTransition(transitionNames[t]).isPersistent();
+		}
+		booleanBase = integerIndices.length;
+		markingBase = booleanBase + words(2 * booleanIndices.length);
+		persistentBase = markingBase + words(placeNames.length);
+		width = persistentBase + words(transitionNames.length);
+	}
+
+	/**
+	 * Converts the initial value of a Boolean or integer variable to an int. An integer
+	 * variable initialized to a range starts at its lower bound.
+	 */
+	private int getInitialValue(String var) {
+		String value = lhpn.getInitialVal(var);
+		if (lhpn.isBoolean(var)) {
+			if (value.equalsIgnoreCase("unknown")) {
+				return UNKNOWN;
 			}
+			return value.equalsIgnoreCase("true") || value.equals("1") ? 1 : 0;
 		}
-		// LinkedList<State> markings = new LinkedList<State>();
-		LinkedList<Integer> markings = new LinkedList<Integer>();
-		int counter = 0;
-		State state = new State(markedPlaces.toArray(new String[0]), new StateTransitionPair[0], "S" + counter,
-				createStateVector(variables, allVariables), copyAllVariables(allVariables));
-		// markings.add(state);
-		counter++;
-		if (progress != null) {
-			progress.setString("States found: " + counter);
+		if (value.contains(",")) {
+			value = value.split(",")[0].replace("[", "");
 		}
-		stateGraph.add(state);// .put(createStateVector(variables,
-		// allVariables), markings);
-		markings.add(stateGraph.size() - 1);
-		stateLocations.put(createStateVector(variables, allVariables), markings);
-		Stack<Transition> transitionsToFire = new Stack<Transition>();
-		for (String transition : lhpn.getTransitionList()) {
+		return (int) Double.parseDouble(value);
+	}
+
+	/**
+	 * The number of int words holding the given number of bits.
+	 */
+	private static int words(int bits) {
+		return (bits + 31) >>> 5;
+	}
+
+	/**
+	 * Finds the transitions that can fire in a state and updates the persistent transitions
+	 * still pending in it. A persistent transition stays pending while its enabling condition
+	 * is false, but not when its rate is zero or its preset is not marked.
+	 * @return
+	 * 		The number of transitions written to enabled.
+	 */
+	private int findEnabledTransitions(int[] vector, boolean[] marked, boolean[] persistent, int[] enabled) {
+		int numEnabled = 0;
+		for (int t = 0; t < transitionNames.length; t++) {
+			CompiledTransition compiled = lhpn.getCompiledTransition(transitionNames[t]);
 			boolean addToStack = true;
-			if (lhpn.getEnablingTree(transition) != null
-					&& lhpn.getEnablingTree(transition).evaluateExpr(allVariables) == 0.0
-					&& !state.containsPersistentTransition(transition)) {
+			if (compiled.isEnablingFalse(vector) && !persistent[t]) {
 				addToStack = false;
 			}
-			else if (lhpn.getTransition(transition).isPersistent() && !state.containsPersistentTransition(transition)) {
-				state.addPersistentTransition(transition);
+			else if (persistentTransitions[t]) {
+				persistent[t] = true;
 			}
-			if (lhpn.getTransitionRateTree(transition) != null
-					&& lhpn.getTransitionRateTree(transition).evaluateExpr(allVariables) == 0.0) {
+			if (compiled.isRateZero(vector)) {
 				addToStack = false;
-				state.removePersistentTransition(transition);
+				persistent[t] = false;
 			}
-			if (lhpn.getPreset(transition).length != 0) {
-				for (String place : lhpn.getPreset(transition)) {
-					if (!markedPlaces.contains(place)) {
+			if (presets[t].length != 0) {
+				for (int p : presets[t]) {
+					if (!marked[p]) {
 						addToStack = false;
-						state.removePersistentTransition(transition);
+						persistent[t] = false;
 					}
 				}
 			}
 			else {
 				addToStack = false;
-				state.removePersistentTransition(transition);
+				persistent[t] = false;
 			}
-
 			if (addToStack) {
-				transitionsToFire.push(new Transition(transition, copyArrayList(markedPlaces), state));
+				enabled[numEnabled++] = t;
 			}
 		}
-		while (transitionsToFire.size() != 0 && !stop) {
-			Transition fire = transitionsToFire.pop();
-			markedPlaces = fire.getMarkedPlaces();
-			allVariables = copyAllVariables(fire.getState().getVariables());
-			for (String place : lhpn.getPreset(fire.getTransition())) {
-				markedPlaces.remove(place);
-			}
-			for (String place : lhpn.getPostset(fire.getTransition())) {
-				markedPlaces.add(place);
-			}
-			for (String key : allVariables.keySet()) {
-				if (lhpn.getBoolAssignTree(fire.getTransition(), key) != null) {
-					double eval = lhpn.getBoolAssignTree(fire.getTransition(), key).evaluateExpr(allVariables);
-					if (eval == 0.0) {
-						allVariables.put(key, "false");
-					}
-					else {
-						allVariables.put(key, "true");
-					}
-				}
-				if (lhpn.getContAssignTree(fire.getTransition(), key) != null) {
-					allVariables.put(key,
-							"" + lhpn.getContAssignTree(fire.getTransition(), key).evaluateExpr(allVariables));
-				}
-				if (lhpn.getIntAssignTree(fire.getTransition(), key) != null) {
-					allVariables.put(key,
-							"" + ((int) lhpn.getIntAssignTree(fire.getTransition(), key).evaluateExpr(allVariables)));
-				}
-			}
-			if (!stateLocations.containsKey(createStateVector(variables, allVariables))) {
-				markings = new LinkedList<Integer>();
-			}
-			else {
-				markings = stateLocations.get(createStateVector(variables, allVariables));
-			}
-			ArrayList<String> transitions = new ArrayList<String>();
-			for (String trans : fire.getState().getPersistentTransitions()) {
-				if (!fire.getTransition().equals(trans)) {
-					transitions.add(trans);
-				}
-			}
-			for (String transition : lhpn.getTransitionList()) {
-				if (lhpn.getEnablingTree(transition) != null
-						&& lhpn.getEnablingTree(transition).evaluateExpr(allVariables) != 0.0
-						&& lhpn.getTransition(transition).isPersistent() && !transitions.contains(transition)) {
-					if (lhpn.getPreset(transition).length != 0) {
-						boolean add = true;
-						for (String place : lhpn.getPreset(transition)) {
-							if (!markedPlaces.contains(place)) {
-								add = false;
-							}
-						}
-						if (add) {
-							transitions.add(transition);
-						}
-					}
-				}
-			}
-			boolean add = true;
-			boolean same = true;
-			for (Integer index : markings) {// State mark : stateGraph) {
-				State mark = stateGraph.get(index);
-				for (String place : mark.getMarkings()) {
-					if (!markedPlaces.contains(place)) {
-						same = false;
-						break;
-					}
-				}
-				for (String place : markedPlaces) {
-					boolean contains = false;
-					for (String place2 : mark.getMarkings()) {
-						if (place2.equals(place)) {
-							contains = true;
-							break;
-						}
-					}
-					if (!contains) {
-						same = false;
-						break;
-					}
-				}
-				for (String trans : mark.getPersistentTransitions()) {
-					if (!transitions.contains(trans)) {
-						same = false;
-						break;
-					}
-				}
-				for (String trans : transitions) {
-					boolean contains = false;
-					for (String trans2 : mark.getPersistentTransitions()) {
-						if (trans2.equals(trans)) {
-							contains = true;
-							break;
-						}
-					}
-					if (!contains) {
-						same = false;
-						break;
-					}
-				}
-				if (same) {
-					add = false;
-					fire.getState().addNextState(
-							mark,
-							lhpn.getTransitionRateTree(fire.getTransition()).evaluateExpr(
-									fire.getState().getVariables()), fire.getTransition());
-				}
-				same = true;
+		return numEnabled;
+	}
+
+	private static int[] push(int[] stack, int size, int state, int transition) {
+		if (size + 2 > stack.length) {
+			stack = Arrays.copyOf(stack, stack.length << 1);
+		}
+		stack[size] = state;
+		stack[size + 1] = transition;
+		return stack;
+	}
+
+	private void pack(int[] vector, boolean[] marked, boolean[] persistent, int[] words) {
+		Arrays.fill(words, 0);
+		for (int i = 0; i < integerIndices.length; i++) {
+			words[i] = vector[integerIndices[i]];
+		}
+		for (int i = 0; i < booleanIndices.length; i++) {
+			int value = vector[booleanIndices[i]];
+			int bits = value < 0 ? 2 : (value != 0 ? 1 : 0);
+			words[booleanBase + (i >>> 4)] |= bits << ((i & 15) << 1);
+		}
+		for (int p = 0; p < marked.length; p++) {
+			if (marked[p]) {
+				words[markingBase + (p >>> 5)] |= 1 << (p & 31);
 			}
-			if (add) {
-				state = new State(markedPlaces.toArray(new String[0]), new StateTransitionPair[0], "S" + counter,
-						createStateVector(variables, allVariables), copyAllVariables(allVariables));
-				// markings.add(state);
-				fire.getState().addNextState(state,
-						lhpn.getTransitionRateTree(fire.getTransition()).evaluateExpr(fire.getState().getVariables()),
-						fire.getTransition());
-				ArrayList<String> persistentTrans = new ArrayList<String>();
-				for (String trans : fire.getState().getPersistentTransitions()) {
-					if (!fire.getTransition().equals(trans)) {
-						persistentTrans.add(trans);
-					}
-				}
-				state.setPersistentTransitions(persistentTrans.toArray(new String[0]));
-				counter++;
-				if (progress != null) {
-					progress.setString("States found: " + counter);
-				}
-				stateGraph.add(state);// .put(createStateVector(variables,
-				// allVariables), markings);
-				markings.add(stateGraph.size() - 1);
-				stateLocations.put(createStateVector(variables, allVariables), markings);
-				for (String transition : lhpn.getTransitionList()) {
-					boolean addToStack = true;
-					if (lhpn.getEnablingTree(transition) != null
-							&& lhpn.getEnablingTree(transition).evaluateExpr(allVariables) == 0.0
-							&& !state.containsPersistentTransition(transition)) {
-						addToStack = false;
-					}
-					else if (lhpn.getTransition(transition).isPersistent()
-							&& !state.containsPersistentTransition(transition)) {
-						state.addPersistentTransition(transition);
-					}
-					if (lhpn.getTransitionRateTree(transition) != null
-							&& lhpn.getTransitionRateTree(transition).evaluateExpr(allVariables) == 0.0) {
-						addToStack = false;
-						state.removePersistentTransition(transition);
-					}
-					if (lhpn.getPreset(transition).length != 0) {
-						for (String place : lhpn.getPreset(transition)) {
-							if (!markedPlaces.contains(place)) {
-								addToStack = false;
-								state.removePersistentTransition(transition);
-							}
-						}
-					}
-					else {
-						addToStack = false;
-						state.removePersistentTransition(transition);
-					}
-					if (addToStack) {
-						transitionsToFire.push(new Transition(transition, copyArrayList(markedPlaces), state));
-					}
-				}
+		}
+		for (int t = 0; t < persistent.length; t++) {
+			if (persistent[t]) {
+				words[persistentBase + (t >>> 5)] |= 1 << (t & 31);
 			}
 		}
-		totalUsedMemory = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
-		usedMemory = (totalUsedMemory - initialMemory) / 1000000;
-		totalUsedMemory = totalUsedMemory /1000000;
+	}
+
+	private void unpack(int[] words, int[] vector, boolean[] marked, boolean[] persistent) {
+		for (int i = 0; i < integerIndices.length; i++) {
+			vector[integerIndices[i]] = words[i];
+		}
+		for (int i = 0; i < booleanIndices.length; i++) {
+			int bits = (words[booleanBase + (i >>> 4)] >>> ((i & 15) << 1)) & 3;
+			vector[booleanIndices[i]] = bits == 2 ? UNKNOWN : bits;
+		}
+		for (int p = 0; p < marked.length; p++) {
+			marked[p] = ((words[markingBase + (p >>> 5)] >>> (p & 31)) & 1) != 0;
+		}
+		for (int t = 0; t < persistent.length; t++) {
+			persistent[t] = ((words[persistentBase + (t >>> 5)] >>> (t & 31)) & 1) != 0;
+		}
+	}
+
+	/**
+	 * Gets the value of a Boolean variable in the words of a state as "true", "false" or "unknown".
+	 */
+	private String getBoolean(int state, int i) {
+		int bits = (stateSpace.getWord(state, booleanBase + (i >>> 4)) >>> ((i & 15) << 1)) & 3;
+		return bits == 2 ? "unknown" : (bits == 1 ? "true" : "false");
 	}
 
 	public boolean canPerformMarkovianAnalysis() {
@@ -525,32 +604,10 @@ public class StateGraph extends CoreObservable implements Runnable {
 					for (State m : stateGraph) {
 						Gamma = Math.max(m.getTransitionSum(0.0, null), Gamma);
 					}
-					// Compute K
-					int K = 0;
-					double xi = 1;
-					double delta = 1;
-					double eta = (1 - error) / (Math.pow(Math.E, ((0 - Gamma) * timeStep)));
-					while (delta < eta) {
-						K = K + 1;
-						xi = xi * ((Gamma * timeStep) / K);
-						delta = delta + xi;
-					}
 					double step = Math.min(Math.min(timeStep, lowerbound), nextPrint);
 					for (double i = 0; i < lowerbound; i += step) {
 						step = Math.min(Math.min(timeStep, lowerbound - i), nextPrint - i);
-						if (step != timeStep) {
-							// Compute K
-							K = 0;
-							xi = 1;
-							delta = 1;
-							eta = (1 - error) / (Math.pow(Math.E, ((0 - Gamma) * step)));
-							while (delta < eta) {
-								K = K + 1;
-								xi = xi * ((Gamma * step) / K);
-								delta = delta + xi;
-							}
-						}
-						if (!performTransientMarkovianAnalysis(step, Gamma, K, progress)) {
+						if (!performTransientMarkovianAnalysis(step, Gamma, error, progress)) {
 							return false;
 						}
 						double prob = 0;
@@ -612,32 +669,10 @@ public class StateGraph extends CoreObservable implements Runnable {
 				for (State m : stateGraph) {
 					Gamma = Math.max(m.getTransitionSum(0.0, null), Gamma);
 				}
-				// Compute K
-				int K = 0;
-				double xi = 1;
-				double delta = 1;
-				double eta = (1 - error) / (Math.pow(Math.E, ((0 - Gamma) * timeStep)));
-				while (delta < eta) {
-					K = K + 1;
-					xi = xi * ((Gamma * timeStep) / K);
-					delta = delta + xi;
-				}
 				double step = Math.min(Math.min(timeStep, upperbound - lowerbound), nextPrint - lowerbound);
 				for (double i = 0; i < upperbound; i += step) {
 					step = Math.min(Math.min(timeStep, upperbound - i), nextPrint - lowerbound - i);
-					if (step != timeStep) {
-						// Compute K
-						K = 0;
-						xi = 1;
-						delta = 1;
-						eta = (1 - error) / (Math.pow(Math.E, ((0 - Gamma) * step)));
-						while (delta < eta) {
-							K = K + 1;
-							xi = xi * ((Gamma * step) / K);
-							delta = delta + xi;
-						}
-					}
-					if (!performTransientMarkovianAnalysis(step, Gamma, K, progress)) {
+					if (!performTransientMarkovianAnalysis(step, Gamma, error, progress)) {
 						return false;
 					}
 					failureProb = 0;
@@ -764,31 +799,9 @@ public class StateGraph extends CoreObservable implements Runnable {
 				for (State m : stateGraph) {
 					Gamma = Math.max(m.getTransitionSum(0.0, null), Gamma);
 				}
-				// Compute K
-				int K = 0;
-				double xi = 1;
-				double delta = 1;
-				double eta = (1 - error) / (Math.pow(Math.E, ((0 - Gamma) * timeStep)));
-				while (delta < eta) {
-					K = K + 1;
-					xi = xi * ((Gamma * timeStep) / K);
-					delta = delta + xi;
-				}
 				for (double i = 0; i < timeLimit; i += timeStep) {
 					double step = Math.min(timeStep, timeLimit - i);
-					if (step == timeLimit - i) {
-						// Compute K
-						K = 0;
-						xi = 1;
-						delta = 1;
-						eta = (1 - error) / (Math.pow(Math.E, ((0 - Gamma) * step)));
-						while (delta < eta) {
-							K = K + 1;
-							xi = xi * ((Gamma * step) / K);
-							delta = delta + xi;
-						}
-					}
-					stop = !performTransientMarkovianAnalysis(step, Gamma, K, progress);
+					stop = !performTransientMarkovianAnalysis(step, Gamma, error, progress);
 					if (progress!=null) {
 						progress.setValue((int) i);
 					}
@@ -862,32 +875,10 @@ public class StateGraph extends CoreObservable implements Runnable {
 					for (State m : stateGraph) {
 						Gamma = Math.max(m.getTransitionSum(0.0, null), Gamma);
 					}
-					// Compute K
-					int K = 0;
-					double xi = 1;
-					double delta = 1;
-					double eta = (1 - error) / (Math.pow(Math.E, ((0 - Gamma) * timeStep)));
-					while (delta < eta) {
-						K = K + 1;
-						xi = xi * ((Gamma * timeStep) / K);
-						delta = delta + xi;
-					}
 					double step = Math.min(timeStep, lowerbound);
 					for (double i = 0; i < lowerbound; i += step) {
 						step = Math.min(timeStep, lowerbound - i);
-						if (step != timeStep) {
-							// Compute K
-							K = 0;
-							xi = 1;
-							delta = 1;
-							eta = (1 - error) / (Math.pow(Math.E, ((0 - Gamma) * step)));
-							while (delta < eta) {
-								K = K + 1;
-								xi = xi * ((Gamma * step) / K);
-								delta = delta + xi;
-							}
-						}
-						performTransientMarkovianAnalysis(step, Gamma, K, null);
+						performTransientMarkovianAnalysis(step, Gamma, error, null);
 					}
 				}
 				else {
@@ -925,32 +916,10 @@ public class StateGraph extends CoreObservable implements Runnable {
 				for (State m : stateGraph) {
 					Gamma = Math.max(m.getTransitionSum(0.0, null), Gamma);
 				}
-				// Compute K
-				int K = 0;
-				double xi = 1;
-				double delta = 1;
-				double eta = (1 - error) / (Math.pow(Math.E, ((0 - Gamma) * timeStep)));
-				while (delta < eta) {
-					K = K + 1;
-					xi = xi * ((Gamma * timeStep) / K);
-					delta = delta + xi;
-				}
 				double step = Math.min(timeStep, upperbound - lowerbound);
 				for (double i = 0; i < upperbound; i += step) {
 					step = Math.min(timeStep, upperbound - i);
-					if (step != timeStep) {
-						// Compute K
-						K = 0;
-						xi = 1;
-						delta = 1;
-						eta = (1 - error) / (Math.pow(Math.E, ((0 - Gamma) * step)));
-						while (delta < eta) {
-							K = K + 1;
-							xi = xi * ((Gamma * step) / K);
-							delta = delta + xi;
-						}
-					}
-					performTransientMarkovianAnalysis(step, Gamma, K, null);
+					performTransientMarkovianAnalysis(step, Gamma, error, null);
 				}
 				//double failureProb = 0;
 				double successProb = 0;
@@ -993,227 +962,70 @@ public class StateGraph extends CoreObservable implements Runnable {
 		return id;
 	}
 
-	private synchronized boolean performTransientMarkovianAnalysis(double timeLimit, double Gamma, int K,
+	private boolean performTransientMarkovianAnalysis(double timeLimit, double Gamma, double error,
 			JProgressBar progress) {
 		if (timeLimit == 0.0) {
 			return true;
 		}
-		int progressValue = 0;
-		if (progress != null) {
-			progressValue = progress.getValue();
+		if (transientSolver == null) {
+			transientSolver = new TransientSolver(buildRateMatrix());
 		}
-		// Approximate pi(t)
-		threadCount = 4;
-		waitingThreads = threadCount;
-		phase1 = true;
-		phase2 = false;
-		ArrayList<TransientMarkovMatrixMultiplyThread> threads = new ArrayList<TransientMarkovMatrixMultiplyThread>();
-		for (int i = 0; i < threadCount; i++) {
-			TransientMarkovMatrixMultiplyThread thread = new TransientMarkovMatrixMultiplyThread(this);
-			thread.start((i * stateGraph.size()) / threadCount, ((i + 1) * stateGraph.size()) / threadCount, Gamma,
-					timeLimit, K);
-			threads.add(thread);
-		}
-		for (int k = 1; k <= K && !stop; k++) {
-			while (waitingThreads != 0) {
-				try {
-					notifyAll();
-					wait();
-				}
-				catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-			if (stop) {
-				for (TransientMarkovMatrixMultiplyThread thread : threads) {
-					try {
-						thread.join();
-					}
-					catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-				}
-				return false;
-			}
-			phase1 = false;
-			phase2 = true;
-			while (waitingThreads != threadCount) {
-				try {
-					notifyAll();
-					wait();
-				}
-				catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-			if (stop) {
-				for (TransientMarkovMatrixMultiplyThread thread : threads) {
-					try {
-						thread.join();
-					}
-					catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-				}
-				return false;
-			}
-			phase1 = true;
-			phase2 = false;
-			if (progress != null) {
-				progress.setValue(progressValue + ((int) ((timeLimit * k) / K)));
-			}
-			/*
-			 * for (State m : stateGraph) { //for (String state :
-			 * stateGraph.keySet()) { // for (State m : stateGraph.get(state)) {
-			 * double nextProb = m.getCurrentProb() (1 -
-			 * (m.getTransitionSum(0.0, null) / Gamma)); for
-			 * (StateTransitionPair prev : m.getPrevStatesWithTrans()) { // if
-			 * (lhpn.getTransitionRateTree(prev.getTransition()) // != null) {
-			 * // prob = //
-			 * lhpn.getTransitionRateTree(prev.getTransition()).evaluateExpr
-			 * (prev.getState().getVariables()); // } nextProb +=
-			 * (prev.getState().getCurrentProb() * (prev.getTransition() /
-			 * Gamma)); } m.setNextProb(nextProb * ((Gamma * timeLimit) / k));
-			 * m.setPiProb(m.getPiProb() + m.getNextProb()); //} } if (stop) {
-			 * return false; } for (State m : stateGraph) { //for (String state
-			 * : stateGraph.keySet()) { //for (State m : stateGraph.get(state))
-			 * { m.setCurrentProbToNext(); //} } progress.setValue(progressValue
-			 * + ((int) ((timeLimit * k) / K)));
-			 */
+		if (stop) {
+			transientSolver.stop();
 		}
-		try {
-			while (waitingThreads != 0) {
-				try {
-					notifyAll();
-					wait(10);
-				}
-				catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-			for (TransientMarkovMatrixMultiplyThread thread : threads) {
-				thread.join();
-			}
+		// Approximate pi(t)
+		double[] probabilities = new double[stateGraph.size()];
+		for (int i = 0; i < probabilities.length; i++) {
+			probabilities[i] = stateGraph.get(i).getCurrentProb();
 		}
-		catch (InterruptedException e) {
-			e.printStackTrace();
+		if (!transientSolver.solve(probabilities, timeLimit, Gamma, error)) {
+			return false;
 		}
-		if (!stop) {
-			for (State m : stateGraph) {
-				// for (String state : stateGraph.keySet()) {
-				// for (State m : stateGraph.get(state)) {
-				m.setPiProb(m.getPiProb() * (Math.pow(Math.E, ((0 - Gamma) * timeLimit))));
-				m.setCurrentProbToPi();
-				// }
-			}
+		for (int i = 0; i < probabilities.length; i++) {
+			State m = stateGraph.get(i);
+			m.setPiProb(probabilities[i]);
+			m.setCurrentProbToPi();
 		}
-		if (stop) {
-			return false;
+		if (progress != null) {
+			progress.setValue(progress.getValue() + (int) timeLimit);
 		}
-		return true;
+		return !stop;
 	}
 
-	public synchronized void transientMarkovMatrixMultiplication(int startIndex, int endIndex, double Gamma,
-			double timeLimit, int K) {
-		for (int k = 1; k <= K && !stop; k++) {
-			for (int i = startIndex; i < endIndex; i++) {
-				State m = stateGraph.get(i);
-				double nextProb = m.getCurrentProb() * (1 - (m.getTransitionSum(0.0, null) / Gamma));
-				for (StateTransitionPair prev : m.getPrevStatesWithTrans()) {
-					if (prev.isEnabled()) {
-						nextProb += (prev.getState().getCurrentProb() * (prev.getTransition() / Gamma));
-					}
-				}
-				m.setNextProb(nextProb * ((Gamma * timeLimit) / k));
-				m.setPiProb(m.getPiProb() + m.getNextProb());
-				if (stop) {
-					waitingThreads--;
-					notifyAll();
-					return;
-				}
-			}
-			waitingThreads--;
-			if (waitingThreads == 0) {
-				notifyAll();
-			}
-			try {
-				while (!phase2 && !stop) {
-					wait();
-				}
-			}
-			catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-			for (int i = startIndex; i < endIndex; i++) {
-				State m = stateGraph.get(i);
-				m.setCurrentProbToNext();
-				if (stop) {
-					waitingThreads++;
-					notifyAll();
-					return;
-				}
-			}
-			waitingThreads++;
-			if (waitingThreads == threadCount) {
-				notifyAll();
-			}
-			try {
-				while (!phase1 && !stop) {
-					wait();
+	/**
+	 * Compiles the enabled transitions of the state graph into a sparse rate matrix whose
+	 * state indices are the positions in the state graph.
+	 */
+	private SparseRateMatrix buildRateMatrix() {
+		SparseRateMatrix.Builder builder = new SparseRateMatrix.Builder(stateSpace.size());
+		for (int i = 0; i < stateSpace.size(); i++) {
+			for (int k = 0; k < stateSpace.getNumIncoming(i); k++) {
+				int position = stateSpace.getIncoming(i, k);
+				if (!disabled.get(position)) {
+					builder.addTransition(stateSpace.getSource(position), i, stateSpace.getRate(position));
 				}
 			}
-			catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-			if (stop) {
-				return;
-			}
 		}
-		waitingThreads--;
+		return builder.build();
 	}
 
 	public void pruneStateGraph(String condition) {
+		ExprTree expr = new ExprTree(lhpn);
+		expr.token = expr.intexpr_gettok(condition);
+		expr.intexpr_L(condition);
 		for (State m : stateGraph) {
-			// for (String state : stateGraph.keySet()) {
-			// for (State m : stateGraph.get(state)) {
-			ExprTree expr = new ExprTree(lhpn);
-			expr.token = expr.intexpr_gettok(condition);
-			expr.intexpr_L(condition);
 			if (expr.evaluateExpr(m.getVariables()) == 1.0) {
-				for (State s : m.getNextStates()) {
-					// ArrayList<StateTransitionPair> newTrans = new
-					// ArrayList<StateTransitionPair>();
-					for (StateTransitionPair trans : s.getPrevStatesWithTrans()) {
-						if (trans.getState() == m) {
-							trans.setEnabled(false);
-						}
-						// if (trans.getState() != m) {
-						// newTrans.add(trans);
-						// }
-					}
-					// s.setPrevStatesWithTrans(newTrans.toArray(new
-					// StateTransitionPair[0]));
-				}
-				for (StateTransitionPair trans : m.getNextStatesWithTrans()) {
-					trans.setEnabled(false);
-				}
-				// m.setNextStatesWithTrans(new StateTransitionPair[0]);
+				disabled.set(stateSpace.getOutStart(m.index), stateSpace.getOutEnd(m.index));
 			}
-			m.setTransitionSum(-1);
-			// }
 		}
+		Arrays.fill(transitionSums, -1);
+		transientSolver = null;
 	}
 
 	public void enableAllTransitions() {
-		for (State m : stateGraph) {
-			for (StateTransitionPair trans : m.getNextStatesWithTrans()) {
-				trans.setEnabled(true);
-			}
-			for (StateTransitionPair trans : m.getPrevStatesWithTrans()) {
-				trans.setEnabled(true);
-			}
-			m.setTransitionSum(-1);
-		}
+		disabled.clear();
+		Arrays.fill(transitionSums, -1);
+		transientSolver = null;
 	}
 
 	public boolean performSteadyStateMarkovianAnalysis(double tolerance, ArrayList<Property> props, State initial, JProgressBar progress) throws BioSimException {
@@ -1248,137 +1060,32 @@ public class StateGraph extends CoreObservable implements Runnable {
 			}
 			initial.setCurrentProb(1.0);
 		}
-		resetColorsForMarkovianAnalysis();
-		int period = findPeriod(initial);
-		if (period == 0) {
-			period = 1;
+		if (stop) {
+			return false;
 		}
-		int step = 0;
-		boolean done = false;
-		if (!stop) {
-			do {
-				step++;
-				step = step % period;
-				for (State m : stateGraph) {
-					// for (String state : stateGraph.keySet()) {
-					// for (State m : stateGraph.get(state)) {
-					if (m.getColor() != -1 && m.getColor() % period == step) {
-						double nextProb = m.getCurrentProb();
-						for (StateTransitionPair next : m.getNextStatesWithTrans()) {
-							if (next.isEnabled() && next.transition > 0) {
-								nextProb = 0.0;
-							}
-						}
-						for (StateTransitionPair prev : m.getPrevStatesWithTrans()) {
-							if (prev.isEnabled()) {
-								double transProb = 0.0;
-								transProb += prev.getTransition();
-								// if
-								// (lhpn.getTransitionRateTree(prev.getTransition())
-								// !=
-								// null) {
-								// if
-								// (lhpn.getTransitionRateTree(prev.getTransition())
-								// !=
-								// null) {
-								// if
-								// (!lhpn.isExpTransitionRateTree(prev
-								// .getTransition())
-								// &&
-								// lhpn.getDelayTree(prev.getTransition())
-								// .evaluateExpr(null) == 0) {
-								// transProb = 1.0;
-								// }
-								// else {
-								// transProb =
-								// lhpn.getTransitionRateTree(prev.getTransition()).evaluateExpr(
-								// prev.getState().getVariables());
-								// }
-								// }
-								// }
-								// else {
-								// transProb = 1.0;
-								// }
-								double transitionSum = prev.getState().getTransitionSum(1.0, m);
-								if (transitionSum != 0) {
-									transProb = (transProb / transitionSum);
-								}
-								else {
-									transProb = 0.0;
-								}
-								nextProb += (prev.getState().getCurrentProb() * transProb);
-								if (stop) {
-									return false;
-								}
-							}
-						}
-						m.setNextProb(nextProb);
-					}
-					if (stop) {
-						return false;
-					}
-				}
-				if (stop) {
-					return false;
-				}
-				// }
-				boolean change = false;
-				for (State m : stateGraph) {
-					// for (String state : stateGraph.keySet()) {
-					// for (State m : stateGraph.get(state)) {
-					if (m.getColor() != -1 && m.getColor() % period == step) {
-						if ((m.getCurrentProb() != 0)
-								&& (Math.abs(((m.getCurrentProb() - m.getNextProb())) / m.getCurrentProb()) > tolerance)) {
-							change = true;
-						}
-						else if (m.getCurrentProb() == 0 && m.getNextProb() > tolerance) {
-							change = true;
-						}
-						m.setCurrentProbToNext();
-					}
-					if (stop) {
-						return false;
-					}
-				}
-				if (stop) {
-					return false;
-				}
-				// }
-				if (!change) {
-					done = true;
-				}
-			}
-			while (!done && !stop);
+		SparseRateMatrix matrix = buildRateMatrix();
+		double[] probabilities = new double[stateGraph.size()];
+		for (int i = 0; i < probabilities.length; i++) {
+			probabilities[i] = stateGraph.get(i).getCurrentProb();
 		}
+		steadyStateSolver = new SteadyStateSolver(matrix);
+		steadyStateSolver.setMethod(steadyStateMethod);
+		steadyStateSolver.setRelaxation(relaxation);
+		if (stop) {
+			steadyStateSolver.stop();
+		}
+		boolean converged = steadyStateSolver.solve(probabilities, tolerance);
+		if (stop) {
+			return false;
+		}
+		message.setLog("Steady-state analysis (" + steadyStateSolver.getUsedMethod() + ") "
+				+ (converged ? "converged" : "did not converge") + " after " + steadyStateSolver.getIterations()
+				+ " iterations, residual " + steadyStateSolver.getResidual());
+		this.notifyObservers(message);
 		if (!stop) {
-			double totalProb = 0.0;
-			for (State m : stateGraph) {
-				// for (String state : stateGraph.keySet()) {
-				// for (State m : stateGraph.get(state)) {
-				double transitionSum = m.getTransitionSum(1.0, null);
-				if (transitionSum != 0.0) {
-					m.setCurrentProb((m.getCurrentProb() / period) / transitionSum);
-				}
-				totalProb += m.getCurrentProb();
-				if (stop) {
-					return false;
-				}
-			}
-			if (stop) {
-				return false;
+			for (int i = 0; i < probabilities.length; i++) {
+				stateGraph.get(i).setCurrentProb(probabilities[i]);
 			}
-			// }
-			for (State m : stateGraph) {
-				// for (String state : stateGraph.keySet()) {
-				// for (State m : stateGraph.get(state)) {
-				if (totalProb != 0.0) {
-					m.setCurrentProb(m.getCurrentProb() / totalProb);
-				}
-				if (stop) {
-					return false;
-				}
-			}
-			resetColors();
 			HashMap<String, Double> output = new HashMap<String, Double>();
 			if (!stop) {
 				for (Property cond : conditions) {
@@ -1462,77 +1169,6 @@ public class StateGraph extends CoreObservable implements Runnable {
 		return false;
 	}
 
-	private int findPeriod(State state) {
-		if (stop) {
-			return 0;
-		}
-		int period = 0;
-		int color = 0;
-		state.setColor(color);
-		color = state.getColor() + 1;
-		Queue<State> unVisitedStates = new LinkedList<State>();
-		for (State s : state.getNextStates()) {
-			if (s.getColor() == -1) {
-				s.setColor(color);
-				unVisitedStates.add(s);
-			}
-			else {
-				if (period == 0) {
-					period = (state.getColor() - s.getColor() + 1);
-				}
-				else {
-					period = gcd(state.getColor() - s.getColor() + 1, period);
-				}
-			}
-			if (stop) {
-				return 0;
-			}
-		}
-		while (!unVisitedStates.isEmpty() && !stop) {
-			state = unVisitedStates.poll();
-			color = state.getColor() + 1;
-			for (State s : state.getNextStates()) {
-				if (s.getColor() == -1) {
-					s.setColor(color);
-					unVisitedStates.add(s);
-				}
-				else {
-					if (period == 0) {
-						period = (state.getColor() - s.getColor() + 1);
-					}
-					else {
-						period = gcd(state.getColor() - s.getColor() + 1, period);
-					}
-				}
-				if (stop) {
-					return 0;
-				}
-			}
-		}
-		return period;
-	}
-
-	private int gcd(int a, int b) {
-		if (b == 0)
-			return a;
-		return gcd(b, a % b);
-	}
-
-	private void resetColorsForMarkovianAnalysis() {
-		for (State m : stateGraph) {
-			// for (String state : stateGraph.keySet()) {
-			// for (State m : stateGraph.get(state)) {
-			m.setColor(-1);
-			if (stop) {
-				return;
-			}
-		}
-		// if (stop) {
-		// return;
-		// }
-		// }
-	}
-
 	public void resetColors() {
 		for (State m : stateGraph) {
 			// for (String state : stateGraph.keySet()) {
@@ -1549,33 +1185,18 @@ public class StateGraph extends CoreObservable implements Runnable {
 	}
 
 	public State getInitialState() {
-		HashMap<String, String> allVariables = new HashMap<String, String>();
-		for (String var : lhpn.getBooleanVars()) {
-			allVariables.put(var, lhpn.getInitialVal(var));
-		}
-		for (String var : lhpn.getContVars()) {
-			allVariables.put(var, lhpn.getInitialVal(var));
-		}
-		for (String var : lhpn.getIntVars()) {
-			allVariables.put(var, lhpn.getInitialVal(var));
+		if (stateSpace == null || stateSpace.size() == 0) {
+			return null;
 		}
-		for (State s : stateGraph) {// .get(createStateVector(variables,
-			// allVariables))) {
-			if (s.getID().equals("S0")) {
-				return s;
-			}
-		}
-		return null;
+		return new State(0);
 	}
 
-	public ArrayList<State> getStateGraph() {// HashMap<String,
-		// LinkedList<State>>
-		// getStateGraph() {
+	public List<State> getStateGraph() {
 		return stateGraph;
 	}
 
 	public int getNumberOfStates() {
-		return stateGraph.size();
+		return stateSpace.size();
 	}
 	
 	public double getMemoryUsed() {
@@ -1587,46 +1208,7 @@ public class StateGraph extends CoreObservable implements Runnable {
 	}
 	
 	public int getNumberOfTransitions() {
-		int transitions = 0;
-		for (State m : stateGraph) {
-			transitions += m.getNumTransitions();
-		}
-		return transitions;
-	}
-
-	private static ArrayList<String> copyArrayList(ArrayList<String> original) {
-		ArrayList<String> copy = new ArrayList<String>();
-		for (String element : original) {
-			copy.add(element);
-		}
-		return copy;
-	}
-
-	private static HashMap<String, String> copyAllVariables(HashMap<String, String> original) {
-		HashMap<String, String> copy = new HashMap<String, String>();
-		for (String s : original.keySet()) {
-			copy.put(s, original.get(s));
-		}
-		return copy;
-	}
-
-	private static String createStateVector(ArrayList<String> variables, HashMap<String, String> allVariables) {
-		String vector = "";
-		for (String s : variables) {
-			if (allVariables.get(s).toLowerCase().equals("true")) {
-				vector += "1,";
-			}
-			else if (allVariables.get(s).toLowerCase().equals("false")) {
-				vector += "0,";
-			}
-			else {
-				vector += allVariables.get(s) + ",";
-			}
-		}
-		if (vector.length() > 0) {
-			vector = vector.substring(0, vector.length() - 1);
-		}
-		return vector;
+		return stateSpace.getNumTransitions();
 	}
 
 	public void outputStateGraph(String file, boolean withProbs) {
@@ -1637,51 +1219,22 @@ public class StateGraph extends CoreObservable implements Runnable {
 			BufferedWriter out = new BufferedWriter(new FileWriter(file));
 			out.write("digraph G {\n");
 			for (State m : stateGraph) {
-				// for (String state : stateGraph.keySet()) {
-				// for (State m : stateGraph.get(state)) {
 				if (withProbs) {
-					out.write(m.getID() + " [shape=\"ellipse\",label=\"" + m.getID() + "\\n<" + m.stateVector
+					out.write(m.getID() + " [shape=\"ellipse\",label=\"" + m.getID() + "\\n<" + m.getStateVector()
 							+ ">\\nProb = " + num.format(m.getCurrentProb()) + "\"]\n");
 				}
 				else {
-					out.write(m.getID() + " [shape=\"ellipse\",label=\"" + m.getID() + "\\n<" + m.stateVector
+					out.write(m.getID() + " [shape=\"ellipse\",label=\"" + m.getID() + "\\n<" + m.getStateVector()
 							+ ">\"]\n");
 				}
-				for (StateTransitionPair next : m.getNextStatesWithTrans()) {
-					/*
-					 * System.out.println(m.getID() + " -> " +
-					 * next.getState().getID() + " [label=\"" +
-					 * next.getTransition() + "\\n");
-					 * System.out.println(m.getTransitionSum());
-					 * System.out.println(lhpn.getTransitionRateTree(
-					 * next.getTransition ()).evaluateExpr(m.getVariables()));
-					 */
-					if (next.isEnabled()) {
-						out.write(m.getID() + " -> " + next.getState().getID() + " [label=\""
-								+ next.getTransitionName() + "\\n" + num.format(next.getTransition()) + "\"]\n");
+				for (int position = stateSpace.getOutStart(m.index); position < stateSpace.getOutEnd(m.index); position++) {
+					if (!disabled.get(position)) {
+						out.write(m.getID() + " -> S" + stateSpace.getTarget(position) + " [label=\""
+								+ transitionNames[stateSpace.getLabel(position)] + "\\n"
+								+ num.format(stateSpace.getRate(position)) + "\"]\n");
 					}
-					// if (lhpn.getTransitionRateTree(next.getTransition())
-					// != null) {
-					// out.write(m.getID()
-					// + " -> "
-					// + next.getState().getID()
-					// + " [label=\""
-					// + next.getTransition()
-					// + "\\n"
-					// +
-					// num.format((lhpn.getTransitionRateTree(next.getTransition()).evaluateExpr(m
-					// .getVariables()) /*
-					// * / m . getTransitionSum ( )
-					// */)) + "\"]\n");
-					// }
-					// else {
-					// out.write(m.getID() + " -> " +
-					// next.getState().getID() +
-					// " [label=\"" + next.getTransition() + "\"]\n");
-					// }
 				}
 			}
-			// }
 			out.write("}");
 			out.close();
 		}
@@ -1693,6 +1246,12 @@ public class StateGraph extends CoreObservable implements Runnable {
 
 	public void stop() {
 		stop = true;
+		if (transientSolver != null) {
+			transientSolver.stop();
+		}
+		if (steadyStateSolver != null) {
+			steadyStateSolver.stop();
+		}
 	}
 
 	public boolean getStop() {
@@ -1728,278 +1287,117 @@ public class StateGraph extends CoreObservable implements Runnable {
 //		}
 	}
 
-	private class Transition {
-		private String transition;
-
-		private ArrayList<String> markedPlaces;
-
-		private State parent;
-
-		private Transition(String transition, ArrayList<String> markedPlaces, State parent) {
-			this.transition = transition;
-			this.markedPlaces = markedPlaces;
-			this.parent = parent;
-		}
-
-		private String getTransition() {
-			return transition;
-		}
-
-		private ArrayList<String> getMarkedPlaces() {
-			return markedPlaces;
-		}
-
-		private State getState() {
-			return parent;
-		}
-	}
-
-	private class StateTransitionPair {
-		private double transition;
-
-		private String transitionName;
-
-		private State state;
-
-		private boolean enabled;
-
-		private StateTransitionPair(State state, double transition, String transitionName) {
-			this.state = state;
-			this.transition = transition;
-			this.transitionName = transitionName;
-			enabled = true;
-		}
-
-		private State getState() {
-			return state;
-		}
-
-		private double getTransition() {
-			return transition;
-		}
-
-		private String getTransitionName() {
-			return transitionName;
-		}
+	/**
+	 * The states of the state graph in the order they were found, as State handles created
+	 * on demand.
+	 */
+	private class StateList extends AbstractList<State> {
 
-		private boolean isEnabled() {
-			return enabled;
+		@Override
+		public State get(int index) {
+			if (index < 0 || index >= stateSpace.size()) {
+				throw new IndexOutOfBoundsException("State " + index + " of " + stateSpace.size());
+			}
+			return new State(index);
 		}
 
-		private void setEnabled(boolean enabled) {
-			this.enabled = enabled;
+		@Override
+		public int size() {
+			return stateSpace.size();
 		}
 	}
 
+	/**
+	 * A state of the state graph. The state only holds its number, its values, transitions
+	 * and probabilities are kept by the state graph, so a State can be created whenever one
+	 * is needed and two States with the same number are equal.
+	 */
 	public class State {
-		private String[] markings;
-
-		private StateTransitionPair[] nextStates;
-
-		private StateTransitionPair[] prevStates;
-
-		private String stateVector;
-
-		private String id;
-
-		private int color;
-
-		private double currentProb;
-
-		private double nextProb;
-
-		private double piProb;
+		private final int index;
 
-		private String variablesStr;
-
-		private double transitionSum;
-
-		private String[] persistentTrans;
-
-		public State(String[] markings, StateTransitionPair[] nextStates, String id, String stateVector,
-				HashMap<String, String> variables) {
-			this.markings = markings;
-			this.nextStates = nextStates;
-			prevStates = new StateTransitionPair[0];
-			this.id = id;
-			this.stateVector = stateVector;
-			color = 0;
-			currentProb = 0.0;
-			nextProb = 0.0;
-			this.variablesStr = "";
-			for (String key : variables.keySet()) {
-				String value = variables.get(key);
-				if (value.contains(",")) {
-					String[] valueSplit = value.split(",");
-					value = valueSplit[0].replace("[","");
-				}
-				if (this.variablesStr.equals("")) {
-					this.variablesStr += key + "=" + value;
-				}
-				else {
-					this.variablesStr += "," + key + "=" + value;
-				}
-			}
-			transitionSum = -1;
-			persistentTrans = new String[0];
+		private State(int index) {
+			this.index = index;
 		}
 
+		/**
+		 * Sets the value of a variable that is not part of the LPN, such as the probability of
+		 * a nested property, in this state.
+		 */
 		private void addVariable(String variable, String value) {
 			if (value.contains(",")) {
 				String[] valueSplit = value.split(",");
 				value = valueSplit[0].replace("[","");
 			}
-			if (this.variablesStr.equals("")) {
-				this.variablesStr += variable + "=" + value;
-			}
-			else {
-				this.variablesStr += "," + variable + "=" + value;
-			}
-		}
-
-		private void addPersistentTransition(String transition) {
-			String[] newTrans = new String[persistentTrans.length + 1];
-			for (int i = 0; i < persistentTrans.length; i++) {
-				newTrans[i] = persistentTrans[i];
-			}
-			newTrans[newTrans.length - 1] = transition;
-			persistentTrans = newTrans;
-		}
-
-		private void removePersistentTransition(String transition) {
-			ArrayList<String> newTrans = new ArrayList<String>();
-			for (String trans : persistentTrans) {
-				if (!trans.equals(transition)) {
-					newTrans.add(trans);
-				}
+			double[] values = addedVariables.get(variable);
+			if (values == null) {
+				values = new double[stateSpace.size()];
+				Arrays.fill(values, Double.NaN);
+				addedVariables.put(variable, values);
 			}
-			persistentTrans = newTrans.toArray(new String[0]);
-		}
-
-		private String[] getPersistentTransitions() {
-			return persistentTrans;
-		}
-
-		private void setPersistentTransitions(String[] persistentTrans) {
-			this.persistentTrans = persistentTrans;
-		}
-
-		private boolean containsPersistentTransition(String transition) {
-			for (String trans : persistentTrans) {
-				if (trans.equals(transition)) {
-					return true;
-				}
-			}
-			return false;
+			values[index] = Double.parseDouble(value);
 		}
 
 		private String getID() {
-			return id;
+			return "S" + index;
 		}
 
 		private HashMap<String, String> getVariables() {
 			HashMap<String, String> vars = new HashMap<String, String>();
-			if (!variablesStr.equals("")) {
-				String[] assignments = variablesStr.split(",");
-				for (String assignment : assignments) {
-					String[] split = assignment.split("=");
-					vars.put(split[0], split[1]);
+			String[] booleans = lhpn.getBooleanVars();
+			for (int i = 0; i < booleanIndices.length; i++) {
+				vars.put(booleans[i], getBoolean(index, i));
+			}
+			String[] integers = lhpn.getIntVars();
+			for (int i = 0; i < integerIndices.length; i++) {
+				vars.put(integers[i], "" + stateSpace.getWord(index, i));
+			}
+			for (String variable : addedVariables.keySet()) {
+				double value = addedVariables.get(variable)[index];
+				if (!Double.isNaN(value)) {
+					vars.put(variable, "" + value);
 				}
 			}
 			return vars;
 		}
 
-		private String[] getMarkings() {
-			return markings;
-		}
-
 		private void setCurrentProb(double probability) {
-			currentProb = probability;
+			currentProbs[index] = probability;
 		}
 
 		private double getCurrentProb() {
-			return currentProb;
-		}
-
-		private void setNextProb(double probability) {
-			nextProb = probability;
-		}
-
-		private double getNextProb() {
-			return nextProb;
+			return currentProbs[index];
 		}
 
 		private void setPiProb(double probability) {
-			piProb = probability;
-		}
-
-		private double getPiProb() {
-			return piProb;
-		}
-
-		private void setCurrentProbToNext() {
-			currentProb = nextProb;
+			piProbs[index] = probability;
 		}
 
 		private void setCurrentProbToPi() {
-			currentProb = piProb;
-		}
-
-		private void setTransitionSum(double transitionSum) {
-			this.transitionSum = transitionSum;
+			currentProbs[index] = piProbs[index];
 		}
 
 		private double getTransitionSum(double noRate, State n) {
-			if (transitionSum == -1) {
-				transitionSum = 0;
-				for (StateTransitionPair next : nextStates) {
-					if (next.isEnabled()) {
-						transitionSum += next.getTransition();
+			if (transitionSums[index] == -1) {
+				double transitionSum = 0;
+				for (int position = stateSpace.getOutStart(index); position < stateSpace.getOutEnd(index); position++) {
+					if (!disabled.get(position)) {
+						transitionSum += stateSpace.getRate(position);
 					}
-					// if (lhpn.getTransitionRateTree(next.getTransition()) !=
-					// null) {
-					// if
-					// (!lhpn.isExpTransitionRateTree(next.getTransition())
-					// &&
-					// lhpn.getDelayTree(next.getTransition()).evaluateExpr(null)
-					// == 0) {
-					// if (n == null || next.equals(n)) {
-					// return 1.0;
-					// }
-					// else {
-					// return 0.0;
-					// }
-					// }
-					// else {
-					// transitionSum +=
-					// lhpn.getTransitionRateTree(next.getTransition()).evaluateExpr(variables);
-					// }
-					// }
-					// else {
-					// transitionSum += noRate;
-					// }
 				}
+				transitionSums[index] = transitionSum;
 			}
-			return transitionSum;
+			return transitionSums[index];
 		}
 
-		private StateTransitionPair[] getNextStatesWithTrans() {
-			return nextStates;
-		}
-
-		private StateTransitionPair[] getPrevStatesWithTrans() {
-			return prevStates;
-		}
-		
 		public int getNumTransitions() {
-			return nextStates.length;
+			return stateSpace.getOutEnd(index) - stateSpace.getOutStart(index);
 		}
 
 		public State[] getNextStates() {
 			ArrayList<State> next = new ArrayList<State>();
-			for (StateTransitionPair st : nextStates) {
-				if (st.isEnabled()) {
-					next.add(st.getState());
+			for (int position = stateSpace.getOutStart(index); position < stateSpace.getOutEnd(index); position++) {
+				if (!disabled.get(position)) {
+					next.add(new State(stateSpace.getTarget(position)));
 				}
 			}
 			return next.toArray(new State[0]);
@@ -2007,54 +1405,47 @@ public class StateGraph extends CoreObservable implements Runnable {
 
 		public State[] getPrevStates() {
 			ArrayList<State> prev = new ArrayList<State>();
-			for (StateTransitionPair st : prevStates) {
-				if (st.isEnabled()) {
-					prev.add(st.getState());
+			for (int k = 0; k < stateSpace.getNumIncoming(index); k++) {
+				int position = stateSpace.getIncoming(index, k);
+				if (!disabled.get(position)) {
+					prev.add(new State(stateSpace.getSource(position)));
 				}
 			}
 			return prev.toArray(new State[0]);
 		}
 
 		public int getColor() {
-			return color;
+			return colors[index];
 		}
 
 		public void setColor(int color) {
-			this.color = color;
+			colors[index] = color;
 		}
 
 		public String getStateVector() {
-			return stateVector;
+			String vector = "";
+			for (int i = 0; i < booleanIndices.length; i++) {
+				String value = getBoolean(index, i);
+				vector += (value.equals("true") ? "1" : (value.equals("false") ? "0" : value)) + ",";
+			}
+			for (int i = 0; i < integerIndices.length; i++) {
+				vector += stateSpace.getWord(index, i) + ",";
+			}
+			if (vector.length() > 0) {
+				vector = vector.substring(0, vector.length() - 1);
+			}
+			return vector;
 		}
 
-		private void addNextState(State nextState, double transition, String transitionName) {
-			StateTransitionPair[] newNextStates = new StateTransitionPair[nextStates.length + 1];
-			for (int i = 0; i < nextStates.length; i++) {
-				newNextStates[i] = nextStates[i];
-			}
-			newNextStates[newNextStates.length - 1] = new StateTransitionPair(nextState, transition, transitionName);
-			nextStates = newNextStates;
-			nextState.addPreviousState(this, transition, transitionName);
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof State && ((State) obj).index == index;
 		}
 
-		private void addPreviousState(State prevState, double transition, String transitionName) {
-			StateTransitionPair[] newPrevStates = new StateTransitionPair[prevStates.length + 1];
-			for (int i = 0; i < prevStates.length; i++) {
-				newPrevStates[i] = prevStates[i];
-			}
-			newPrevStates[newPrevStates.length - 1] = new StateTransitionPair(prevState, transition, transitionName);
-			prevStates = newPrevStates;
+		@Override
+		public int hashCode() {
+			return index;
 		}
-		
-//		@SuppressWarnings("unused")
-//		private void setNextStatesWithTrans(StateTransitionPair[] trans) {
-//			nextStates = trans;
-//		}
-//
-//		@SuppressWarnings("unused")
-//		private void setPrevStatesWithTrans(StateTransitionPair[] trans) {
-//			prevStates = trans;
-//		}
 	}
 
 	@Override
@@ -32,6 +32,7 @@ import org.jlibsedml.UniformTimeCourse;
 
 import edu.utah.ece.async.ibiosim.dataModels.util.SEDMLutilities;
 import edu.utah.ece.async.lema.verification.lpn.properties.AbstractionProperty;
+import edu.utah.ece.async.lema.verification.markov.SteadyStateSolver;
 import static edu.utah.ece.async.ibiosim.analysis.properties.PropertiesConstants.*;
 
 /**
@@ -357,6 +358,30 @@ public class AnalysisPropertiesLoader {
         {
         	simProperties.setStartIndex(Integer.parseInt(load.getProperty(mc_start_index)));
         }
+        else if (key.equals(mc_threads))
+        {
+          simProperties.setThreads(Integer.parseInt(load.getProperty(mc_threads)));
+        }
+        else if (key.equals(ode_stiff))
+        {
+          simProperties.setStiff(Boolean.parseBoolean(load.getProperty(ode_stiff)));
+        }
+        else if (key.equals(mc_tau_epsilon))
+        {
+          simProperties.setTauEpsilon(Double.parseDouble(load.getProperty(mc_tau_epsilon)));
+        }
+        else if (key.equals(mc_tau_critical_threshold))
+        {
+          simProperties.setCriticalThreshold(Integer.parseInt(load.getProperty(mc_tau_critical_threshold)));
+        }
+        else if (key.equals(markov_steady_state_method))
+        {
+          simProperties.setSteadyStateMethod(SteadyStateSolver.Method.valueOf(load.getProperty(markov_steady_state_method)));
+        }
+        else if (key.equals(markov_steady_state_relaxation))
+        {
+          simProperties.setRelaxation(Double.parseDouble(load.getProperty(markov_steady_state_relaxation)));
+        }
         else if (key.equals("abstraction.interesting"))
         {
           String intVars = load.getProperty("abstraction.interesting");
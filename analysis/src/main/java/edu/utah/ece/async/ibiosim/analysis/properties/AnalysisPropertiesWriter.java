@@ -221,6 +221,8 @@ public class AnalysisPropertiesWriter {
     else if (analysisProperties.isMarkov())
     {
       properties.setProperty(reb2sac_simulation, "markov");
+      properties.setProperty(markov_steady_state_method, analysisProperties.getSimulationProperties().getSteadyStateMethod().name());
+      properties.setProperty(markov_steady_state_relaxation, PropertiesUtil.parseDouble(analysisProperties.getSimulationProperties().getRelaxation()));
     }
     else if (analysisProperties.isFba())
     {
@@ -273,6 +275,8 @@ public class AnalysisPropertiesWriter {
       properties.setProperty(mc_seed, String.valueOf(analysisProperties.getSimulationProperties().getRndSeed()));
       properties.setProperty(mc_runs, String.valueOf(analysisProperties.getSimulationProperties().getRun()));
       properties.setProperty(mc_start_index, String.valueOf(analysisProperties.getSimulationProperties().getStartIndex()));
+      properties.setProperty(mc_threads, String.valueOf(analysisProperties.getSimulationProperties().getThreads()));
+      properties.setProperty(ode_stiff, String.valueOf(analysisProperties.getSimulationProperties().isStiff()));
       properties.setProperty(ode_out_dir, analysisProperties.getOutDir());
     }
     if (analysisProperties.isSsa())
@@ -306,6 +310,9 @@ public class AnalysisPropertiesWriter {
       properties.setProperty(mc_seed, String.valueOf(analysisProperties.getSimulationProperties().getRndSeed()));
       properties.setProperty(mc_runs, String.valueOf(analysisProperties.getSimulationProperties().getRun()));
       properties.setProperty(mc_start_index, String.valueOf(analysisProperties.getSimulationProperties().getStartIndex()));
+      properties.setProperty(mc_threads, String.valueOf(analysisProperties.getSimulationProperties().getThreads()));
+      properties.setProperty(mc_tau_epsilon, PropertiesUtil.parseDouble(analysisProperties.getSimulationProperties().getTauEpsilon()));
+      properties.setProperty(mc_tau_critical_threshold, String.valueOf(analysisProperties.getSimulationProperties().getCriticalThreshold()));
       properties.setProperty(mc_out_dir, analysisProperties.getOutDir());
     }
     properties.setProperty(sim_run_term , "constraint");
@@ -63,6 +63,7 @@ public class PropertiesConstants {
 	public static final String ode_abs_error = "ode.simulation.absolute.error";
 	public static final String ode_rel_error = "ode.simulation.relative.error";
 	public static final String ode_out_dir = "ode.simulation.out.dir";
+	public static final String ode_stiff = "ode.simulation.stiff";
 	
 	public static final String mc_seed = "monte.carlo.simulation.random.seed";
 	public static final String mc_runs = "monte.carlo.simulation.runs";
@@ -76,5 +77,10 @@ public class PropertiesConstants {
 	public static final String mc_simulation_runs = "monte.carlo.simulation.runs";
 	public static final String mc_out_dir = "monte.carlo.simulation.out.dir";
 	public static final String mc_start_index = "monte.carlo.simulation.start.index";
+	public static final String mc_threads = "monte.carlo.simulation.threads";
+	public static final String mc_tau_epsilon = "monte.carlo.simulation.tau.epsilon";
+	public static final String mc_tau_critical_threshold = "monte.carlo.simulation.tau.critical.threshold";
+	public static final String markov_steady_state_method = "markov.steady.state.method";
+	public static final String markov_steady_state_relaxation = "markov.steady.state.relaxation";
 	
 }
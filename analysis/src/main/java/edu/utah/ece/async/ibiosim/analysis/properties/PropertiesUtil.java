@@ -74,6 +74,14 @@ public class PropertiesUtil {
       {
         algorithm = new Algorithm(GlobalConstants.KISAO_DFBA_SOA);
       }
+      else if (sim.contains("SSA-NRM"))
+      {
+        algorithm = new Algorithm(GlobalConstants.KISAO_GIBSON_BRUCK);
+      }
+      else if (sim.contains("SSA-Tau"))
+      {
+        algorithm = new Algorithm(GlobalConstants.KISAO_TAU_LEAPING);
+      }
       else if (sim.contains("Hierarchical"))
       {
         algorithm = new Algorithm(GlobalConstants.KISAO_GILLESPIE_DIRECT);
@@ -203,6 +211,16 @@ public class PropertiesUtil {
       properties.setSsa();
       properties.setSim("SSA-CR (Dynamic)");
     }
+    else if (kisaoId.equals(GlobalConstants.KISAO_GIBSON_BRUCK))
+    {
+      properties.setSsa();
+      properties.setSim("SSA-NRM (Hierarchical)");
+    }
+    else if (kisaoId.equals(GlobalConstants.KISAO_TAU_LEAPING))
+    {
+      properties.setSsa();
+      properties.setSim("SSA-Tau (Hierarchical)");
+    }
     else if (kisaoId.equals(GlobalConstants.KISAO_FBA))
     {
       properties.setFba();
@@ -17,6 +17,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import edu.utah.ece.async.ibiosim.dataModels.util.observe.CoreObservable;
+import edu.utah.ece.async.lema.verification.markov.SteadyStateSolver;
 
 /**
  * The simulation properties contains information associated with the simulation options.
@@ -30,10 +31,12 @@ import edu.utah.ece.async.ibiosim.dataModels.util.observe.CoreObservable;
 public final class SimulationProperties extends CoreObservable
 {
 
-  private int         numSteps, run, startIndex;
-  private double        initialTime, outputStartTime, minTimeStep, maxTimeStep, printInterval, timeLimit, absError, relError;
+  private int         numSteps, run, startIndex, threads, criticalThreshold;
+  private double        initialTime, outputStartTime, minTimeStep, maxTimeStep, printInterval, timeLimit, absError, relError, tauEpsilon, relaxation;
   private String        printer_id, printer_track_quantity,genStats;
   private long        rndSeed;
+  private boolean       stiff;
+  private SteadyStateSolver.Method steadyStateMethod;
   private List<String>      intSpecies;
   
  
@@ -54,6 +57,11 @@ public final class SimulationProperties extends CoreObservable
     timeLimit = 100;
     intSpecies = new ArrayList<String>();
     startIndex = 1;
+    threads = 1;
+    tauEpsilon = 0.03;
+    criticalThreshold = 10;
+    steadyStateMethod = SteadyStateSolver.Method.POWER;
+    relaxation = 1;
     
   }
   /**
@@ -346,5 +354,120 @@ public void setStartIndex(int startIndex) {
 	this.startIndex = startIndex;
 }
 
+  /**
+   * Getter for the number of worker threads used to execute Monte-Carlo runs.
+   * 
+   * @return the number of threads.
+   */
+  public int getThreads() {
+    return threads;
+  }
+  
+  /**
+   * Setter for the number of worker threads. A value greater than one runs
+   * the replicates in parallel, each worker using its own simulator.
+   * 
+   * @param a positive integer corresponding to the number of threads.
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * Getter for the error control parameter of tau-leaping.
+   * 
+   * @return the bound on the relative change of the propensities during a leap.
+   */
+  public double getTauEpsilon() {
+    return tauEpsilon;
+  }
+
+  /**
+   * Setter for the error control parameter of tau-leaping. Smaller values give
+   * shorter and more accurate leaps.
+   * 
+   * @param a positive number corresponding to the bound on the relative change of the propensities.
+   */
+  public void setTauEpsilon(double tauEpsilon) {
+    this.tauEpsilon = tauEpsilon;
+  }
+
+  /**
+   * Getter for the critical reaction threshold of tau-leaping.
+   * 
+   * @return the critical threshold.
+   */
+  public int getCriticalThreshold() {
+    return criticalThreshold;
+  }
+
+  /**
+   * Setter for the critical reaction threshold of tau-leaping. A reaction that can
+   * fire fewer times than the threshold before exhausting a reactant is simulated exactly.
+   * 
+   * @param a non-negative integer corresponding to the critical threshold.
+   */
+  public void setCriticalThreshold(int criticalThreshold) {
+    this.criticalThreshold = criticalThreshold;
+  }
+
+  /**
+   * Getter for the stiff integration mode of the hierarchical ODE simulator.
+   * 
+   * @return true if the ODE simulation uses the implicit integrator for stiff models.
+   */
+  public boolean isStiff() {
+    return stiff;
+  }
+
+  /**
+   * Setter for the stiff integration mode of the hierarchical ODE simulator. A stiff model,
+   * such as one with fast binding and unbinding reactions, is integrated with a linearly implicit
+   * Rosenbrock method instead of the explicit Runge-Kutta method.
+   * 
+   * @param true to use the implicit integrator for stiff models.
+   */
+  public void setStiff(boolean stiff) {
+    this.stiff = stiff;
+  }
+
+  /**
+   * Getter for the iterative method of steady-state Markov chain analysis.
+   * 
+   * @return the steady-state method.
+   */
+  public SteadyStateSolver.Method getSteadyStateMethod() {
+    return steadyStateMethod;
+  }
+
+  /**
+   * Setter for the iterative method of steady-state Markov chain analysis. POWER gives the
+   * limiting distribution from the initial state; the Jacobi-type methods converge faster
+   * on chains with a single closed class.
+   * 
+   * @param the steady-state method.
+   */
+  public void setSteadyStateMethod(SteadyStateSolver.Method steadyStateMethod) {
+    this.steadyStateMethod = steadyStateMethod;
+  }
+
+  /**
+   * Getter for the relaxation factor of the SOR and damped Jacobi steady-state methods.
+   * 
+   * @return the relaxation factor.
+   */
+  public double getRelaxation() {
+    return relaxation;
+  }
+
+  /**
+   * Setter for the relaxation factor of the SOR and damped Jacobi steady-state methods.
+   * 
+   * @param a number between 0 and 2 corresponding to the relaxation factor.
+   */
+  public void setRelaxation(double relaxation) {
+    this.relaxation = relaxation;
+  }
+
 
 }
@@ -14,17 +14,29 @@
 package edu.utah.ece.async.ibiosim.analysis.simulation;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.stream.XMLStreamException;
 
 import edu.utah.ece.async.ibiosim.analysis.properties.AnalysisProperties;
 import edu.utah.ece.async.ibiosim.analysis.properties.SimulationProperties;
+import edu.utah.ece.async.ibiosim.analysis.simulation.flattened.Simulator;
 import edu.utah.ece.async.ibiosim.analysis.simulation.flattened.SimulatorODERK;
 import edu.utah.ece.async.ibiosim.analysis.simulation.flattened.SimulatorSSACR;
 import edu.utah.ece.async.ibiosim.analysis.simulation.flattened.SimulatorSSADirect;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalSimulation;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods.HierarchicalMixedSimulator;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods.HierarchicalODERKSimulator;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods.HierarchicalNextReactionSimulator;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods.HierarchicalSSADirectSimulator;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods.HierarchicalTauLeapingSimulator;
 import edu.utah.ece.async.ibiosim.dataModels.util.Message;
 import edu.utah.ece.async.ibiosim.dataModels.util.exceptions.BioSimException;
 import edu.utah.ece.async.ibiosim.dataModels.util.observe.CoreObservable;
@@ -47,13 +59,16 @@ public class DynamicSimulation extends CoreObservable
 
   // the simulator object
   private AbstractSimulator			simulator;
-  private boolean					cancelFlag;
+  private volatile AbstractSimulator[]	workers;
+  private int[]						workerProgress;
+  private volatile boolean			cancelFlag;
   private boolean					statisticsFlag;
+  private String					printerId;
 
 
   public static enum SimulationType
   {
-    CR, DIRECT, RK, HIERARCHICAL_DIRECT, HIERARCHICAL_HYBRID, HIERARCHICAL_RK, HIERARCHICAL_MIXED;
+    CR, DIRECT, RK, HIERARCHICAL_DIRECT, HIERARCHICAL_NRM, HIERARCHICAL_TAU, HIERARCHICAL_HYBRID, HIERARCHICAL_RK, HIERARCHICAL_MIXED;
   }
 
   /**
@@ -77,46 +92,45 @@ public class DynamicSimulation extends CoreObservable
           initialTime = simProperties.getInitialTime(), outputStartTime = simProperties.getOutputStartTime(), absError = simProperties.getAbsError(), relError = simProperties.getRelError();
       long randomSeed = simProperties.getRndSeed();
       String[] interestingSpecies = simProperties.getIntSpecies().toArray(new String[simProperties.getIntSpecies().size()]);
-      int runs = simProperties.getRun(), numSteps = simProperties.getNumSteps();
+      int runs = simProperties.getRun(), numSteps = simProperties.getNumSteps(), criticalThreshold = simProperties.getCriticalThreshold();
+      double tauEpsilon = simProperties.getTauEpsilon();
+      boolean stiff = simProperties.isStiff();
       if(numSteps == 0)
       {
         numSteps = (int)(timeLimit/printInterval);
       }
-      switch (simulatorType)
+      int threads = Math.min(simProperties.getThreads(), runs);
+      // The flattened ODE simulator cannot open a run other than the one of its constructor.
+      if (simulatorType == SimulationType.RK)
       {
-      case RK:
-        
-        simulator = new SimulatorODERK(SBMLFileName,  outputDirectory,  runs,  timeLimit,  maxTimeStep,  randomSeed,  printInterval,  stoichAmpValue, interestingSpecies,  numSteps,  relError,  absError, quantityType);
-        simulator.addObservable(this);
-        break;
-      case CR:
-        simulator = new SimulatorSSACR(SBMLFileName, outputDirectory, runs, timeLimit, maxTimeStep, minTimeStep, randomSeed,  printInterval, stoichAmpValue, interestingSpecies, quantityType);
-        simulator.addObservable(this);
-        break;
-      case DIRECT:
-        simulator = new SimulatorSSADirect(SBMLFileName, outputDirectory, runs, timeLimit, maxTimeStep, minTimeStep, randomSeed,  printInterval, stoichAmpValue, interestingSpecies, quantityType);
-        simulator.addObservable(this);
-        break;
-      case HIERARCHICAL_DIRECT:
-        simulator = new HierarchicalSSADirectSimulator(SBMLFileName, rootDirectory, outputDirectory, runs, timeLimit, maxTimeStep, minTimeStep, randomSeed,  printInterval, stoichAmpValue,  interestingSpecies, quantityType, initialTime, outputStartTime);
-        simulator.addObservable(this);
-        break;
-      case HIERARCHICAL_RK:
-        simulator = new HierarchicalODERKSimulator(SBMLFileName, rootDirectory, outputDirectory, runs, timeLimit, maxTimeStep, randomSeed, printInterval, stoichAmpValue, interestingSpecies, numSteps, relError, absError, quantityType, initialTime,
-          outputStartTime);
-        simulator.addObservable(this);
-        break;
-      case HIERARCHICAL_HYBRID:
-        break;
-      case HIERARCHICAL_MIXED:
-        simulator = new HierarchicalMixedSimulator(SBMLFileName, rootDirectory, outputDirectory, runs, timeLimit, maxTimeStep, minTimeStep, randomSeed, printInterval, stoichAmpValue, interestingSpecies, quantityType, initialTime, outputStartTime);
-        simulator.addObservable(this);
-        break;
-      default:
-        message.setLog("The simulation selection was invalid.");
-        notifyObservers(message);
+        threads = 1;
+      }
+      // Appended runs are combined with the runs already on disk, so their statistics are left to the graph.
+      statisticsFlag = "true".equals(simProperties.getGenStats()) && simProperties.getStartIndex() == 1;
+      printerId = simProperties.getPrinter_id();
+
+      if (threads > 1)
+      {
+        simulateParallel(threads, SBMLFileName, rootDirectory, outputDirectory, runs, timeLimit, maxTimeStep, minTimeStep, randomSeed, printInterval, stoichAmpValue, interestingSpecies, numSteps, relError, absError, quantityType, initialTime, outputStartTime, tauEpsilon, criticalThreshold, stiff);
         return;
       }
+
+      simulator = createSimulator(SBMLFileName, rootDirectory, outputDirectory, runs, timeLimit, maxTimeStep, minTimeStep, randomSeed, printInterval, stoichAmpValue, interestingSpecies, numSteps, relError, absError, quantityType, initialTime, outputStartTime, tauEpsilon, criticalThreshold, stiff);
+
+      if (simulator == null)
+      {
+        if (simulatorType != SimulationType.HIERARCHICAL_HYBRID)
+        {
+          message.setLog("The simulation selection was invalid.");
+          notifyObservers(message);
+          return;
+        }
+      }
+      else
+      {
+        simulator.addObservable(this);
+        setupOutput(simulator);
+      }
       
       //double val1 = System.currentTimeMillis();
 
@@ -132,32 +146,20 @@ public class DynamicSimulation extends CoreObservable
 
         if (simulator != null)
         {
+          openRun(simulator, randomSeed, run, run == 1);
           simulator.simulate();
-          if ((runs - run) >= 1)
-          {
-            simulator.setupForNewRun(run + 1);
-          }
         }
-        
-        System.gc();
+
         //double mem = (runtime.totalMemory() - runtime.freeMemory()) / mb;
         ///double val2 = System.currentTimeMillis();
 
-        System.runFinalization();
-
-
         //message.setLog("Memory used: " + (mem) + "MB, Simulation Time: " + (val2 - val1) / 1000 + "secs");
         //notifyObservers(message);
+      }
 
-        if (cancelFlag == false && statisticsFlag == true)
-        {
-
-          if (simulator != null)
-          {
-            simulator.printStatisticsTSD();
-          }
-
-        }
+      if (cancelFlag == false && statisticsFlag == true && simulator instanceof HierarchicalSimulation)
+      {
+        simulator.printStatisticsTSD();
       }
     }
     catch (IOException e)
@@ -180,17 +182,232 @@ public class DynamicSimulation extends CoreObservable
 
   }
 
+  /**
+   * Creates a simulator of the selected type. Returns null when the type has no simulator.
+   */
+  private AbstractSimulator createSimulator(String SBMLFileName, String rootDirectory, String outputDirectory, int runs, double timeLimit, double maxTimeStep, double minTimeStep, long randomSeed, double printInterval, double stoichAmpValue, String[] interestingSpecies,
+    int numSteps, double relError, double absError, String quantityType, double initialTime, double outputStartTime, double tauEpsilon, int criticalThreshold, boolean stiff) throws IOException, XMLStreamException, BioSimException
+  {
+    switch (simulatorType)
+    {
+    case RK:
+      return new SimulatorODERK(SBMLFileName,  outputDirectory,  runs,  timeLimit,  maxTimeStep,  randomSeed,  printInterval,  stoichAmpValue, interestingSpecies,  numSteps,  relError,  absError, quantityType);
+    case CR:
+      return new SimulatorSSACR(SBMLFileName, outputDirectory, runs, timeLimit, maxTimeStep, minTimeStep, randomSeed,  printInterval, stoichAmpValue, interestingSpecies, quantityType);
+    case DIRECT:
+      return new SimulatorSSADirect(SBMLFileName, outputDirectory, runs, timeLimit, maxTimeStep, minTimeStep, randomSeed,  printInterval, stoichAmpValue, interestingSpecies, quantityType);
+    case HIERARCHICAL_DIRECT:
+      return new HierarchicalSSADirectSimulator(SBMLFileName, rootDirectory, outputDirectory, runs, timeLimit, maxTimeStep, minTimeStep, randomSeed,  printInterval, stoichAmpValue,  interestingSpecies, quantityType, initialTime, outputStartTime);
+    case HIERARCHICAL_NRM:
+      return new HierarchicalNextReactionSimulator(SBMLFileName, rootDirectory, outputDirectory, runs, timeLimit, maxTimeStep, minTimeStep, randomSeed,  printInterval, stoichAmpValue,  interestingSpecies, quantityType, initialTime, outputStartTime);
+    case HIERARCHICAL_TAU:
+      return new HierarchicalTauLeapingSimulator(SBMLFileName, rootDirectory, outputDirectory, runs, timeLimit, maxTimeStep, minTimeStep, randomSeed,  printInterval, stoichAmpValue,  interestingSpecies, quantityType, initialTime, outputStartTime, tauEpsilon, criticalThreshold);
+    case HIERARCHICAL_RK:
+      HierarchicalODERKSimulator odeSimulator = new HierarchicalODERKSimulator(SBMLFileName, rootDirectory, outputDirectory, runs, timeLimit, maxTimeStep, randomSeed, printInterval, stoichAmpValue, interestingSpecies, numSteps, relError, absError, quantityType, initialTime,
+        outputStartTime);
+      odeSimulator.setStiff(stiff);
+      return odeSimulator;
+    case HIERARCHICAL_MIXED:
+      return new HierarchicalMixedSimulator(SBMLFileName, rootDirectory, outputDirectory, runs, timeLimit, maxTimeStep, minTimeStep, randomSeed, printInterval, stoichAmpValue, interestingSpecies, quantityType, initialTime, outputStartTime);
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * Seeds the simulator for a run with {@link #getRunSeed(long, int)} and opens the run, so the
+   * initial values drawn while setting up the run and the run itself only depend on the run
+   * number. The first run of a hierarchical simulator initializes its models; any other run is
+   * cleared first, so it starts from the initial state of the model.
+   */
+  private static void openRun(AbstractSimulator simulator, long randomSeed, int run, boolean first) throws IOException, XMLStreamException
+  {
+    long runSeed = getRunSeed(randomSeed, run);
+    simulator.setRandomSeed(runSeed);
+    if (first && simulator instanceof HierarchicalSimulation)
+    {
+      simulator.initialize(runSeed, run);
+    }
+    else
+    {
+      simulator.clear();
+      simulator.setupForNewRun(run);
+    }
+  }
+
+  /**
+   * Runs the Monte-Carlo replicates on a pool of workers. Each worker owns its own simulator,
+   * and every run is opened with {@link #openRun} as in a serial simulation, so the output of a
+   * run does not depend on the number of threads or on which worker executed it.
+   */
+  private void simulateParallel(int threads, String SBMLFileName, String rootDirectory, String outputDirectory, final int runs, double timeLimit, double maxTimeStep, double minTimeStep, final long randomSeed, double printInterval, double stoichAmpValue, String[] interestingSpecies,
+    int numSteps, double relError, double absError, String quantityType, double initialTime, double outputStartTime, double tauEpsilon, int criticalThreshold, boolean stiff) throws IOException, XMLStreamException, BioSimException
+  {
+    workers = new AbstractSimulator[threads];
+    workerProgress = new int[threads];
+
+    for (int i = 0; i < threads; ++i)
+    {
+      AbstractSimulator worker = createSimulator(SBMLFileName, rootDirectory, outputDirectory, runs, timeLimit, maxTimeStep, minTimeStep, randomSeed, printInterval, stoichAmpValue, interestingSpecies, numSteps, relError, absError, quantityType, initialTime, outputStartTime, tauEpsilon, criticalThreshold, stiff);
+
+      if (worker == null)
+      {
+        if (simulatorType != SimulationType.HIERARCHICAL_HYBRID)
+        {
+          message.setLog("The simulation selection was invalid.");
+          notifyObservers(message);
+        }
+        workers = null;
+        return;
+      }
+
+      worker.addObservable(new WorkerObservable(i));
+      setupOutput(worker);
+      workers[i] = worker;
+    }
+
+    // The flattened simulators open run-1 in their constructor, so those files are closed before
+    // any worker opens its own first run.
+    for (AbstractSimulator worker : workers)
+    {
+      if (worker instanceof Simulator)
+      {
+        ((Simulator) worker).closeOutput();
+      }
+    }
+    for (int i = 0; i < threads; ++i)
+    {
+      openRun(workers[i], randomSeed, i + 1, true);
+    }
+
+    final AtomicInteger nextRun = new AtomicInteger(threads + 1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<Void>> results = new ArrayList<Future<Void>>(threads);
+
+    for (int i = 0; i < threads; ++i)
+    {
+      final AbstractSimulator worker = workers[i];
+      final int firstRun = i + 1;
+
+      results.add(executor.submit(new Callable<Void>()
+      {
+        @Override
+        public Void call() throws Exception
+        {
+          int run = firstRun;
+          while (run <= runs && !cancelFlag)
+          {
+            if (run != firstRun)
+            {
+              openRun(worker, randomSeed, run, false);
+            }
+            worker.simulate();
+            run = nextRun.getAndIncrement();
+          }
+          return null;
+        }
+      }));
+    }
+
+    executor.shutdown();
+
+    try
+    {
+      for (Future<Void> result : results)
+      {
+        result.get();
+      }
+    }
+    catch (InterruptedException e)
+    {
+      cancel();
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException e)
+    {
+      cancelWorkers();
+      e.getCause().printStackTrace();
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+
+    if (cancelFlag == false && statisticsFlag == true && workers[0] instanceof HierarchicalSimulation)
+    {
+      HierarchicalSimulation statistics = (HierarchicalSimulation) workers[0];
+      for (int i = 1; i < threads; ++i)
+      {
+        statistics.mergeStatistics((HierarchicalSimulation) workers[i]);
+      }
+      statistics.printStatisticsTSD();
+    }
+  }
+
+  /**
+   * Tells a hierarchical simulator whether and in which format to write the run files, and
+   * whether to accumulate the statistics of the runs as they are simulated.
+   */
+  private void setupOutput(AbstractSimulator simulator)
+  {
+    if (simulator instanceof HierarchicalSimulation)
+    {
+      // the ODE simulator keeps its run file open, so it would leave the output thread running
+      ((HierarchicalSimulation) simulator).setPrinter(printerId, !(simulator instanceof HierarchicalODERKSimulator));
+      ((HierarchicalSimulation) simulator).setPrintRuns(!"null.printer".equals(printerId));
+      ((HierarchicalSimulation) simulator).setPrintStatistics(statisticsFlag);
+    }
+  }
+
+  /**
+   * Derives the seed of a single run from the simulation seed (SplitMix64 finalizer).
+   */
+  static long getRunSeed(long randomSeed, int run)
+  {
+    long z = randomSeed + run * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Combines the progress reported by the parallel workers into a single progress value.
+   */
+  private synchronized boolean sendWorkerRequest(int worker, RequestType type, Message workerMessage)
+  {
+    if (type != RequestType.REQUEST_PROGRESS)
+    {
+      return send(type, workerMessage);
+    }
+
+    workerProgress[worker] = workerMessage.getValue();
+
+    int progress = 0;
+    for (int value : workerProgress)
+    {
+      progress += value;
+    }
+    message.setInteger(Math.min(progress, 100));
+    return send(type, message);
+  }
+
   /**
    * cancels the simulation on the next iteration called from outside the
    * class when the user closes the progress bar dialog
    */
   public void cancel()
   {
+    boolean isParallel = workers != null;
+
+    cancelWorkers();
 
-    if (simulator != null)
+    if (simulator != null || isParallel)
     {
 
-      simulator.cancel();
+      if (simulator != null)
+      {
+        simulator.cancel();
+      }
 
 
       cancelFlag = true;
@@ -199,6 +416,24 @@ public class DynamicSimulation extends CoreObservable
       notifyObservers(message);
     }
   }
+
+  private void cancelWorkers()
+  {
+    AbstractSimulator[] parallelSimulators = workers;
+
+    if (parallelSimulators != null)
+    {
+      cancelFlag = true;
+
+      for (AbstractSimulator worker : parallelSimulators)
+      {
+        if (worker != null)
+        {
+          worker.cancel();
+        }
+      }
+    }
+  }
   
   @Override
   public boolean send(RequestType type, Message message)
@@ -210,5 +445,34 @@ public class DynamicSimulation extends CoreObservable
     return true;
   }
 
+  /**
+   * Parent of a parallel worker simulator, forwarding its messages to the simulation.
+   */
+  private class WorkerObservable extends CoreObservable
+  {
+    private final int worker;
+
+    WorkerObservable(int worker)
+    {
+      this.worker = worker;
+      addObservable(DynamicSimulation.this);
+    }
+
+    @Override
+    public void notifyObservers(Message message)
+    {
+      synchronized (DynamicSimulation.this)
+      {
+        super.notifyObservers(message);
+      }
+    }
+
+    @Override
+    public boolean send(RequestType type, Message message)
+    {
+      return sendWorkerRequest(worker, type, message);
+    }
+  }
+
 
 }
\ No newline at end of file
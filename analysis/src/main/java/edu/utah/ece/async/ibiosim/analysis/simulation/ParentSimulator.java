@@ -61,4 +61,11 @@ public interface ParentSimulator
 	 * @throws XMLStreamException
 	 */
 	public abstract void initialize(long randomSeed, int runNumber) throws IOException, XMLStreamException;
+
+	/**
+	 * Reseeds the random number generator used by the next run.
+	 * 
+	 * @param randomSeed
+	 */
+	public abstract void setRandomSeed(long randomSeed);
 }
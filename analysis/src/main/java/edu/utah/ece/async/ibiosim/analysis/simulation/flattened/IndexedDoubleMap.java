@@ -0,0 +1,202 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.flattened;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Map from variable or reaction IDs to values that keeps the values in a
+ * primitive array. Every key is given an index into the array when it is first
+ * put, and the index stays the same until the key is removed or the map is
+ * cleared, so the simulators can look an ID up once and then read and write its
+ * value by index without hashing the string again. Missing keys read as zero,
+ * like the trove maps this replaces.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class IndexedDoubleMap
+{
+
+	public static final int				NO_INDEX		= -1;
+
+	private final TObjectIntHashMap<String>	keyToIndexMap;
+
+	private double[]					values;
+
+	// number of array slots that have been handed out
+	private int							numIndices;
+
+	// slots of removed keys that can be reused
+	private final TIntArrayList			freeIndices;
+
+	public IndexedDoubleMap(int initialCapacity)
+	{
+
+		initialCapacity = Math.max(initialCapacity, 8);
+		keyToIndexMap = new TObjectIntHashMap<String>(initialCapacity, Constants.DEFAULT_LOAD_FACTOR, NO_INDEX);
+		values = new double[initialCapacity];
+		freeIndices = new TIntArrayList();
+	}
+
+	/**
+	 * returns the index of the key's value, or NO_INDEX if the key isn't in the
+	 * map
+	 */
+	public int getIndex(String key)
+	{
+		return keyToIndexMap.get(key);
+	}
+
+	public double getValue(int index)
+	{
+		return values[index];
+	}
+
+	public void setValue(int index, double value)
+	{
+		values[index] = value;
+	}
+
+	public void adjustValue(int index, double amount)
+	{
+		values[index] += amount;
+	}
+
+	public double get(String key)
+	{
+
+		int index = keyToIndexMap.get(key);
+
+		if (index == NO_INDEX)
+		{
+			return 0.0;
+		}
+
+		return values[index];
+	}
+
+	/**
+	 * @return the previous value, or zero if the key is new
+	 */
+	public double put(String key, double value)
+	{
+
+		int index = keyToIndexMap.get(key);
+
+		if (index == NO_INDEX)
+		{
+
+			index = allocateIndex();
+			keyToIndexMap.put(key, index);
+			values[index] = value;
+
+			return 0.0;
+		}
+
+		double oldValue = values[index];
+		values[index] = value;
+
+		return oldValue;
+	}
+
+	/**
+	 * @return false if the key isn't in the map, in which case nothing is added
+	 */
+	public boolean adjustValue(String key, double amount)
+	{
+
+		int index = keyToIndexMap.get(key);
+
+		if (index == NO_INDEX)
+		{
+			return false;
+		}
+
+		values[index] += amount;
+
+		return true;
+	}
+
+	public boolean containsKey(String key)
+	{
+		return keyToIndexMap.containsKey(key);
+	}
+
+	public boolean contains(Object key)
+	{
+		return keyToIndexMap.containsKey(key);
+	}
+
+	/**
+	 * removes the key; its index may be given to a key that is put later
+	 *
+	 * @return the removed value, or zero if the key wasn't in the map
+	 */
+	public double remove(String key)
+	{
+
+		int index = keyToIndexMap.remove(key);
+
+		if (index == NO_INDEX)
+		{
+			return 0.0;
+		}
+
+		freeIndices.add(index);
+
+		return values[index];
+	}
+
+	public void clear()
+	{
+
+		keyToIndexMap.clear();
+		freeIndices.clear();
+		Arrays.fill(values, 0, numIndices, 0.0);
+		numIndices = 0;
+	}
+
+	public int size()
+	{
+		return keyToIndexMap.size();
+	}
+
+	public Set<String> keySet()
+	{
+		return keyToIndexMap.keySet();
+	}
+
+	private int allocateIndex()
+	{
+
+		if (freeIndices.isEmpty() == false)
+		{
+			return freeIndices.removeAt(freeIndices.size() - 1);
+		}
+
+		if (numIndices == values.length)
+		{
+			values = Arrays.copyOf(values, 2 * values.length);
+		}
+
+		return numIndices++;
+	}
+}
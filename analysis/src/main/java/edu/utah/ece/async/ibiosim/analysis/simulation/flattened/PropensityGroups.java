@@ -0,0 +1,261 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.flattened;
+
+import java.util.Arrays;
+
+/**
+ * Groups of reactions for composition and rejection selection. A reaction with
+ * a positive propensity is in the group of the propensity's binary exponent, so
+ * the propensities in group e are in [2^e, 2^(e+1)) and the groups never have
+ * to be rebuilt when the smallest or largest propensity changes; a reaction
+ * only moves when its own propensity crosses a power of two. Each group is a
+ * dense array of reaction indices with swap removal, and the group totals are
+ * the leaves of a binary tree of partial sums whose root is the total
+ * propensity, so selecting a group and moving a reaction take constant time.
+ * Reactions with zero propensity aren't in any group.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class PropensityGroups
+{
+
+	// one group for every exponent from Double.MIN_EXPONENT - 1 (subnormal
+	// propensities) to Double.MAX_EXPONENT + 1 (infinite propensities)
+	private static final int	NUM_GROUPS		= 2048;
+
+	private static final int	EXPONENT_OFFSET	= 1 - Double.MIN_EXPONENT;
+
+	private static final int	NO_GROUP		= -1;
+
+	// node i has the children 2i and 2i + 1, and the total of group g is at
+	// NUM_GROUPS + g
+	private final double[]		tree;
+
+	private final int[][]		groupToReactions;
+	private final int[]			groupSizes;
+
+	private final int[]			reactionToGroup;
+	private final int[]			reactionToPosition;
+
+	public PropensityGroups(int numReactions)
+	{
+
+		tree = new double[2 * NUM_GROUPS];
+		groupToReactions = new int[NUM_GROUPS][];
+		groupSizes = new int[NUM_GROUPS];
+		reactionToGroup = new int[numReactions];
+		reactionToPosition = new int[numReactions];
+
+		Arrays.fill(reactionToGroup, NO_GROUP);
+	}
+
+	/**
+	 * moves the reaction to the group of its new propensity and updates the
+	 * group totals
+	 */
+	public void update(int reaction, double oldPropensity, double newPropensity)
+	{
+
+		int oldGroup = reactionToGroup[reaction];
+		int newGroup = getGroup(newPropensity);
+
+		if (oldGroup == newGroup)
+		{
+
+			if (newGroup != NO_GROUP)
+			{
+				adjustGroupTotal(newGroup, newPropensity - oldPropensity);
+			}
+
+			return;
+		}
+
+		if (oldGroup != NO_GROUP)
+		{
+			remove(reaction, oldGroup, oldPropensity);
+		}
+
+		if (newGroup != NO_GROUP)
+		{
+			add(reaction, newGroup, newPropensity);
+		}
+	}
+
+	public double getTotalPropensity()
+	{
+		return tree[1];
+	}
+
+	int getGroupSize(int group)
+	{
+		return groupSizes[group];
+	}
+
+	double getGroupTotal(int group)
+	{
+		return tree[NUM_GROUPS + group];
+	}
+
+	/**
+	 * walks down the tree of group totals to the group that the random
+	 * propensity lies in
+	 *
+	 * @param r2
+	 *            random number
+	 * @return the group selected, or -1 if every propensity is zero
+	 */
+	public int selectGroup(double r2)
+	{
+
+		if (tree[1] <= 0.0)
+		{
+			return NO_GROUP;
+		}
+
+		double randomPropensity = r2 * tree[1];
+		int node = 1;
+
+		while (node < NUM_GROUPS)
+		{
+
+			int left = 2 * node;
+
+			// rounding can leave the random propensity past the last nonempty
+			// group, so never step into a subtree without propensity
+			if (randomPropensity < tree[left] || tree[left + 1] <= 0.0)
+			{
+				node = left;
+			}
+			else
+			{
+				randomPropensity -= tree[left];
+				node = left + 1;
+			}
+		}
+
+		return node - NUM_GROUPS;
+	}
+
+	/**
+	 * chooses a reaction of the group uniformly and accepts it with probability
+	 * propensity / 2^(e+1), which is at least one half, repeating until a
+	 * reaction is accepted
+	 *
+	 * @return the index of the chosen reaction
+	 */
+	public int selectReaction(int group, double r3, double r4, ReactionNetwork reactionNetwork, XORShiftRandom randomNumberGenerator)
+	{
+
+		int[] reactions = groupToReactions[group];
+		int size = groupSizes[group];
+		double groupCeiling = Math.scalb(1.0, group - EXPONENT_OFFSET + 1);
+
+		while (true)
+		{
+
+			int reaction = reactions[Math.min((int) (r3 * size), size - 1)];
+
+			if (r4 * groupCeiling <= reactionNetwork.getPropensity(reaction))
+			{
+				return reaction;
+			}
+
+			r3 = randomNumberGenerator.nextDouble();
+			r4 = randomNumberGenerator.nextDouble();
+		}
+	}
+
+	/**
+	 * @return the group of the propensity, or -1 if it isn't positive
+	 */
+	static int getGroup(double propensity)
+	{
+
+		// this also leaves out NaN
+		if (!(propensity > 0.0))
+		{
+			return NO_GROUP;
+		}
+
+		return Math.getExponent(propensity) + EXPONENT_OFFSET;
+	}
+
+	private void add(int reaction, int group, double propensity)
+	{
+
+		int[] reactions = groupToReactions[group];
+
+		if (reactions == null)
+		{
+			reactions = new int[16];
+			groupToReactions[group] = reactions;
+		}
+		else if (groupSizes[group] == reactions.length)
+		{
+			reactions = Arrays.copyOf(reactions, 2 * reactions.length);
+			groupToReactions[group] = reactions;
+		}
+
+		int position = groupSizes[group]++;
+		reactions[position] = reaction;
+		reactionToGroup[reaction] = group;
+		reactionToPosition[reaction] = position;
+
+		adjustGroupTotal(group, propensity);
+	}
+
+	private void remove(int reaction, int group, double propensity)
+	{
+
+		int[] reactions = groupToReactions[group];
+		int position = reactionToPosition[reaction];
+		int last = --groupSizes[group];
+
+		// move the last reaction of the group into the removed reaction's place
+		reactions[position] = reactions[last];
+		reactionToPosition[reactions[position]] = position;
+		reactionToGroup[reaction] = NO_GROUP;
+
+		if (last == 0)
+		{
+			// an empty group's total is exactly zero, whatever rounding error
+			// has built up
+			setGroupTotal(group, 0.0);
+		}
+		else
+		{
+			adjustGroupTotal(group, -propensity);
+		}
+	}
+
+	private void adjustGroupTotal(int group, double delta)
+	{
+		setGroupTotal(group, tree[NUM_GROUPS + group] + delta);
+	}
+
+	private void setGroupTotal(int group, double total)
+	{
+
+		int node = NUM_GROUPS + group;
+		tree[node] = total;
+
+		for (node >>= 1; node >= 1; node >>= 1)
+		{
+			tree[node] = tree[2 * node] + tree[2 * node + 1];
+		}
+	}
+}
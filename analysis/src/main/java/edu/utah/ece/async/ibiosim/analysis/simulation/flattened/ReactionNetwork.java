@@ -0,0 +1,398 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.flattened;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import org.sbml.jsbml.ASTNode;
+import org.sbml.jsbml.AssignmentRule;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.flattened.Simulator.StringDoublePair;
+import edu.utah.ece.async.ibiosim.analysis.simulation.flattened.Simulator.StringStringPair;
+
+/**
+ * Integer-indexed form of the reactions of a flattened model, used by the SSA
+ * simulators in the simulation loop. Reactions are numbered 0 to
+ * numReactions - 1, and species, species references, conversion factors, and
+ * propensities are referred to by their indices in the simulator's value maps.
+ * The stoichiometries and the reactant requirements are stored in compressed
+ * sparse row form, and each reaction has an int array of the reactions whose
+ * propensities change when it fires. The network is built from the simulator's
+ * string-keyed maps after the reactions are set up and has to be rebuilt when
+ * the model changes dynamically.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class ReactionNetwork
+{
+
+	private final IndexedDoubleMap				variableToValueMap;
+	private final IndexedDoubleMap				reactionToPropensityMap;
+
+	private final int							numReactions;
+	private final String[]						reactionIDs;
+	private final TObjectIntHashMap<String>		reactionToIndexMap;
+	private final int[]							propensityIndices;
+	private final ASTNode[]						formulas;
+	private final boolean[]						isDiffusion;
+
+	// reaction r changes the species in entries stoichiometryStart[r] to
+	// stoichiometryStart[r + 1] - 1
+	private final int[]							stoichiometryStart;
+	private final int[]							stoichiometrySpecies;
+	private final double[]						stoichiometryValues;
+	// index of a nonconstant species reference's value (and the stoichiometry
+	// value is then only the sign), or NO_INDEX
+	private final int[]							stoichiometryReferences;
+	private final int[]							conversionFactors;
+	// false for boundary condition and constant species
+	private final boolean[]						isUpdated;
+
+	// the reactant (or modifier) amounts needed for reaction r to occur
+	private final int[]							reactantStart;
+	private final int[]							reactantSpecies;
+	private final double[]						reactantStoichiometries;
+
+	private final int[][]						dependencies;
+
+	private final ArrayList<HashSet<AssignmentRule>>	affectedAssignmentRules;
+	private final ArrayList<HashSet<ASTNode>>			affectedConstraints;
+
+	/**
+	 * builds the network from the simulator's reaction maps
+	 *
+	 * @param simulator
+	 * @param noAssignmentRulesFlag
+	 *            whether assignment rules are ignored when reactions fire
+	 * @param noConstraintsFlag
+	 *            whether constraints are ignored when reactions fire
+	 */
+	ReactionNetwork(Simulator simulator, boolean noAssignmentRulesFlag, boolean noConstraintsFlag)
+	{
+
+		variableToValueMap = simulator.variableToValueMap;
+		reactionToPropensityMap = simulator.reactionToPropensityMap;
+
+		numReactions = reactionToPropensityMap.size();
+		reactionIDs = new String[numReactions];
+		reactionToIndexMap = new TObjectIntHashMap<String>(Math.max(numReactions, 1), Constants.DEFAULT_LOAD_FACTOR, IndexedDoubleMap.NO_INDEX);
+		propensityIndices = new int[numReactions];
+		formulas = new ASTNode[numReactions];
+		isDiffusion = new boolean[numReactions];
+
+		int reaction = 0;
+
+		for (String reactionID : reactionToPropensityMap.keySet())
+		{
+
+			reactionIDs[reaction] = reactionID;
+			reactionToIndexMap.put(reactionID, reaction);
+			propensityIndices[reaction] = reactionToPropensityMap.getIndex(reactionID);
+			formulas[reaction] = simulator.reactionToFormulaMap.get(reactionID);
+			isDiffusion[reaction] = reactionID.contains("_Diffusion_");
+			++reaction;
+		}
+
+		// count the entries so the sparse rows can be allocated up front
+		int numStoichiometries = 0, numReactants = 0;
+
+		for (reaction = 0; reaction < numReactions; ++reaction)
+		{
+
+			HashSet<StringDoublePair> stoichiometrySet = simulator.reactionToSpeciesAndStoichiometrySetMap.get(reactionIDs[reaction]);
+			HashSet<StringDoublePair> reactantSet = simulator.reactionToReactantStoichiometrySetMap.get(reactionIDs[reaction]);
+
+			numStoichiometries += stoichiometrySet == null ? 0 : stoichiometrySet.size();
+			numReactants += reactantSet == null ? 0 : reactantSet.size();
+		}
+
+		stoichiometryStart = new int[numReactions + 1];
+		stoichiometrySpecies = new int[numStoichiometries];
+		stoichiometryValues = new double[numStoichiometries];
+		stoichiometryReferences = new int[numStoichiometries];
+		conversionFactors = new int[numStoichiometries];
+		isUpdated = new boolean[numStoichiometries];
+		reactantStart = new int[numReactions + 1];
+		reactantSpecies = new int[numReactants];
+		reactantStoichiometries = new double[numReactants];
+		dependencies = new int[numReactions][];
+		affectedAssignmentRules = new ArrayList<HashSet<AssignmentRule>>(numReactions);
+		affectedConstraints = new ArrayList<HashSet<ASTNode>>(numReactions);
+
+		// marks the reactions already in the dependency list being built
+		int[] lastAddedBy = new int[numReactions];
+		int[] dependencyBuffer = new int[numReactions];
+
+		for (reaction = 0; reaction < numReactions; ++reaction)
+		{
+			lastAddedBy[reaction] = -1;
+		}
+
+		int stoichiometryEntry = 0, reactantEntry = 0;
+
+		for (reaction = 0; reaction < numReactions; ++reaction)
+		{
+
+			String reactionID = reactionIDs[reaction];
+			HashSet<StringDoublePair> stoichiometrySet = simulator.reactionToSpeciesAndStoichiometrySetMap.get(reactionID);
+			HashSet<StringDoublePair> reactantSet = simulator.reactionToReactantStoichiometrySetMap.get(reactionID);
+			HashSet<StringStringPair> nonconstantSet = simulator.reactionToNonconstantStoichiometriesSetMap.get(reactionID);
+			HashSet<AssignmentRule> ruleSet = new HashSet<AssignmentRule>();
+			HashSet<ASTNode> constraintSet = new HashSet<ASTNode>();
+
+			int numDependencies = 0;
+			lastAddedBy[reaction] = reaction;
+			dependencyBuffer[numDependencies++] = reaction;
+
+			stoichiometryStart[reaction] = stoichiometryEntry;
+
+			if (stoichiometrySet != null)
+			{
+
+				for (StringDoublePair speciesAndStoichiometry : stoichiometrySet)
+				{
+
+					String speciesID = speciesAndStoichiometry.string;
+
+					stoichiometrySpecies[stoichiometryEntry] = variableToValueMap.getIndex(speciesID);
+					stoichiometryValues[stoichiometryEntry] = speciesAndStoichiometry.doub;
+					stoichiometryReferences[stoichiometryEntry] = IndexedDoubleMap.NO_INDEX;
+
+					if (nonconstantSet != null)
+					{
+
+						for (StringStringPair doubleID : nonconstantSet)
+						{
+
+							// string1 is the species ID; string2 is the
+							// speciesReference ID
+							if (doubleID.string1.equals(speciesID))
+							{
+
+								// the value map holds the stoichiometry without
+								// the reactant/product sign
+								stoichiometryReferences[stoichiometryEntry] = variableToValueMap.getIndex(doubleID.string2);
+								stoichiometryValues[stoichiometryEntry] = (int) (speciesAndStoichiometry.doub / Math.abs(speciesAndStoichiometry.doub));
+								break;
+							}
+						}
+					}
+
+					String conversionFactor = simulator.speciesToConversionFactorMap.get(speciesID);
+					conversionFactors[stoichiometryEntry] = conversionFactor == null ? IndexedDoubleMap.NO_INDEX : variableToValueMap.getIndex(conversionFactor);
+					isUpdated[stoichiometryEntry] = Boolean.FALSE.equals(simulator.speciesToIsBoundaryConditionMap.get(speciesID)) && Boolean.FALSE.equals(simulator.variableToIsConstantMap.get(speciesID));
+
+					++stoichiometryEntry;
+
+					numDependencies = addDependencies(simulator.speciesToAffectedReactionSetMap.get(speciesID), reaction, lastAddedBy, dependencyBuffer, numDependencies);
+
+					// if the species is involved in an assignment rule then its
+					// changing may affect other reactions' propensities
+					if (noAssignmentRulesFlag == false && simulator.variableToIsInAssignmentRuleMap != null && Boolean.TRUE.equals(simulator.variableToIsInAssignmentRuleMap.get(speciesID)))
+					{
+
+						for (AssignmentRule assignmentRule : simulator.variableToAffectedAssignmentRuleSetMap.get(speciesID))
+						{
+
+							ruleSet.add(assignmentRule);
+							numDependencies = addDependencies(simulator.speciesToAffectedReactionSetMap.get(assignmentRule.getVariable()), reaction, lastAddedBy, dependencyBuffer, numDependencies);
+						}
+					}
+
+					if (noConstraintsFlag == false && simulator.variableToIsInConstraintMap != null && Boolean.TRUE.equals(simulator.variableToIsInConstraintMap.get(speciesID)))
+					{
+						constraintSet.addAll(simulator.variableToAffectedConstraintSetMap.get(speciesID));
+					}
+				}
+			}
+
+			reactantStart[reaction] = reactantEntry;
+
+			if (reactantSet != null)
+			{
+
+				for (StringDoublePair speciesAndStoichiometry : reactantSet)
+				{
+
+					reactantSpecies[reactantEntry] = variableToValueMap.getIndex(speciesAndStoichiometry.string);
+					reactantStoichiometries[reactantEntry] = speciesAndStoichiometry.doub;
+					++reactantEntry;
+				}
+			}
+
+			int[] reactionDependencies = new int[numDependencies];
+			System.arraycopy(dependencyBuffer, 0, reactionDependencies, 0, numDependencies);
+			dependencies[reaction] = reactionDependencies;
+
+			affectedAssignmentRules.add(ruleSet.isEmpty() ? null : ruleSet);
+			affectedConstraints.add(constraintSet.isEmpty() ? null : constraintSet);
+		}
+
+		stoichiometryStart[numReactions] = stoichiometryEntry;
+		reactantStart[numReactions] = reactantEntry;
+	}
+
+	/**
+	 * adds the indices of the reactions in the set that aren't in the
+	 * dependency list yet
+	 */
+	private int addDependencies(HashSet<String> reactionSet, int reaction, int[] lastAddedBy, int[] dependencyBuffer, int numDependencies)
+	{
+
+		if (reactionSet == null)
+		{
+			return numDependencies;
+		}
+
+		for (String affectedReactionID : reactionSet)
+		{
+
+			int affectedReaction = reactionToIndexMap.get(affectedReactionID);
+
+			if (affectedReaction != IndexedDoubleMap.NO_INDEX && lastAddedBy[affectedReaction] != reaction)
+			{
+
+				lastAddedBy[affectedReaction] = reaction;
+				dependencyBuffer[numDependencies++] = affectedReaction;
+			}
+		}
+
+		return numDependencies;
+	}
+
+	public int getNumReactions()
+	{
+		return numReactions;
+	}
+
+	public String getReactionID(int reaction)
+	{
+		return reactionIDs[reaction];
+	}
+
+	/**
+	 * returns the number of the reaction, or NO_INDEX if it isn't in the
+	 * network
+	 */
+	public int getReactionIndex(String reactionID)
+	{
+		return reactionToIndexMap.get(reactionID);
+	}
+
+	public ASTNode getFormula(int reaction)
+	{
+		return formulas[reaction];
+	}
+
+	public boolean isDiffusion(int reaction)
+	{
+		return isDiffusion[reaction];
+	}
+
+	public double getPropensity(int reaction)
+	{
+		return reactionToPropensityMap.getValue(propensityIndices[reaction]);
+	}
+
+	public void setPropensity(int reaction, double propensity)
+	{
+		reactionToPropensityMap.setValue(propensityIndices[reaction], propensity);
+	}
+
+	/**
+	 * returns the reactions whose propensities have to be recalculated after
+	 * the reaction fires, including the reaction itself
+	 */
+	public int[] getDependencies(int reaction)
+	{
+		return dependencies[reaction];
+	}
+
+	/**
+	 * returns the assignment rules to evaluate after the reaction fires, or null
+	 */
+	public HashSet<AssignmentRule> getAffectedAssignmentRules(int reaction)
+	{
+		return affectedAssignmentRules.get(reaction);
+	}
+
+	/**
+	 * returns the constraints to test after the reaction fires, or null
+	 */
+	public HashSet<ASTNode> getAffectedConstraints(int reaction)
+	{
+		return affectedConstraints.get(reaction);
+	}
+
+	/**
+	 * checks that there are enough molecules of each reactant for the reaction
+	 * to occur
+	 */
+	public boolean hasEnoughMolecules(int reaction)
+	{
+
+		for (int entry = reactantStart[reaction]; entry < reactantStart[reaction + 1]; ++entry)
+		{
+
+			int species = reactantSpecies[entry];
+			double amount = species == IndexedDoubleMap.NO_INDEX ? 0.0 : variableToValueMap.getValue(species);
+
+			if (amount < reactantStoichiometries[entry])
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * updates the reactant and product species amounts for one firing of the
+	 * reaction
+	 */
+	public void fire(int reaction)
+	{
+
+		for (int entry = stoichiometryStart[reaction]; entry < stoichiometryStart[reaction + 1]; ++entry)
+		{
+
+			int species = stoichiometrySpecies[entry];
+
+			if (isUpdated[entry] == false || species == IndexedDoubleMap.NO_INDEX)
+			{
+				continue;
+			}
+
+			double stoichiometry = stoichiometryValues[entry];
+
+			if (stoichiometryReferences[entry] != IndexedDoubleMap.NO_INDEX)
+			{
+				stoichiometry *= variableToValueMap.getValue(stoichiometryReferences[entry]);
+			}
+
+			if (conversionFactors[entry] != IndexedDoubleMap.NO_INDEX)
+			{
+				stoichiometry *= variableToValueMap.getValue(conversionFactors[entry]);
+			}
+
+			variableToValueMap.adjustValue(species, stoichiometry);
+		}
+	}
+}
@@ -98,7 +98,7 @@ public abstract class Simulator extends AbstractSimulator
 	protected XORShiftRandom								randomNumberGenerator						= null;
 
 	// allows for access to a propensity from a reaction ID
-	protected TObjectDoubleHashMap<String>					reactionToPropensityMap						= null;
+	protected IndexedDoubleMap								reactionToPropensityMap						= null;
 
 	// allows for access to reactant/product speciesID and stoichiometry from a
 	// reaction ID
@@ -115,6 +115,9 @@ public abstract class Simulator extends AbstractSimulator
 	// allows for access to a kinetic formula tree from a reaction
 	protected HashMap<String, ASTNode>						reactionToFormulaMap						= null;
 
+	// integer-indexed form of the reactions used in the simulation loop
+	protected ReactionNetwork								reactionNetwork								= null;
+
 	// contains all rate rules
 	protected HashSet<RateRule>								listOfRateRules;
 	// contains all assignment rules
@@ -137,7 +140,7 @@ public abstract class Simulator extends AbstractSimulator
 	protected LinkedHashSet<String>							speciesIDSet								= null;
 
 	// allows for access to species and parameter values from a variable ID
-	protected TObjectDoubleHashMap<String>					variableToValueMap							= null;
+	protected IndexedDoubleMap								variableToValueMap							= null;
 
 	// stores events in order of fire time and priority
 	protected PriorityQueue<EventToFire>					triggeredEventQueue							= null;
@@ -363,9 +366,9 @@ public abstract class Simulator extends AbstractSimulator
 		speciesToCompartmentSizeMap = new TObjectDoubleHashMap<String>((int) numSpecies);
 		speciesIDSet = new LinkedHashSet<String>((int) numSpecies);
 		reactionToNonconstantStoichiometriesSetMap = new HashMap<String, HashSet<StringStringPair>>();
-		variableToValueMap = new TObjectDoubleHashMap<String>((int) numSpecies + (int) numParameters);
+		variableToValueMap = new IndexedDoubleMap((int) numSpecies + (int) numParameters);
 
-		reactionToPropensityMap = new TObjectDoubleHashMap<String>((int) (numReactions * 1.5));
+		reactionToPropensityMap = new IndexedDoubleMap((int) (numReactions * 1.5));
 		reactionToSpeciesAndStoichiometrySetMap = new HashMap<String, HashSet<StringDoublePair>>((int) (numReactions * 1.5));
 		reactionToReactantStoichiometrySetMap = new HashMap<String, HashSet<StringDoublePair>>((int) (numReactions * 1.5));
 		reactionToFormulaMap = new HashMap<String, ASTNode>((int) (numReactions * 1.5));
@@ -2805,49 +2808,6 @@ public abstract class Simulator extends AbstractSimulator
 		}
 	}
 
-	/**
-	 * returns a set of all the reactions that the recently performed reaction
-	 * affects "affect" means that the species updates will change the affected
-	 * reaction's propensity
-	 * 
-	 * @param selectedReactionID
-	 *            the reaction that was recently performed
-	 * @return the set of all reactions that the performed reaction affects the
-	 *         propensity of
-	 */
-	protected HashSet<String> getAffectedReactionSet(String selectedReactionID, final boolean noAssignmentRulesFlag)
-	{
-
-		HashSet<String> affectedReactionSet = new HashSet<String>(20);
-		affectedReactionSet.add(selectedReactionID);
-
-		// loop through the reaction's reactants and products
-		for (StringDoublePair speciesAndStoichiometry : reactionToSpeciesAndStoichiometrySetMap.get(selectedReactionID))
-		{
-
-			String speciesID = speciesAndStoichiometry.string;
-			affectedReactionSet.addAll(speciesToAffectedReactionSetMap.get(speciesID));
-
-			// if the species is involved in an assignment rule then it its
-			// changing may affect a reaction's propensity
-			if (noAssignmentRulesFlag == false && variableToIsInAssignmentRuleMap.get(speciesID))
-			{
-
-				// this assignment rule is going to be evaluated, so the rule's
-				// variable's value will change
-				for (AssignmentRule assignmentRule : variableToAffectedAssignmentRuleSetMap.get(speciesID))
-				{
-					if (speciesToAffectedReactionSetMap.get(assignmentRule.getVariable()) != null)
-					{
-						affectedReactionSet.addAll(speciesToAffectedReactionSetMap.get(assignmentRule.getVariable()));
-					}
-				}
-			}
-		}
-
-		return affectedReactionSet;
-	}
-
 	/**
 	 * kind of a hack to mingle doubles and booleans for the expression
 	 * evaluator
@@ -4098,87 +4058,26 @@ public abstract class Simulator extends AbstractSimulator
 	/**
 	 * updates reactant/product species counts based on their stoichiometries
 	 * 
-	 * @param selectedReactionID
-	 *            the reaction to perform
+	 * @param selectedReaction
+	 *            the index of the reaction to perform in the reaction network
 	 */
-	protected void performReaction(String selectedReactionID, final boolean noAssignmentRulesFlag, final boolean noConstraintsFlag)
+	protected void performReaction(int selectedReaction, final boolean noAssignmentRulesFlag, final boolean noConstraintsFlag)
 	{
 
-		// these are sets of things that need to be re-evaluated or tested due
-		// to the reaction firing
-		HashSet<AssignmentRule> affectedAssignmentRuleSet = new HashSet<AssignmentRule>();
-		HashSet<ASTNode> affectedConstraintSet = new HashSet<ASTNode>();
-
-		// loop through the reaction's reactants and products and update their
-		// amounts
-		for (StringDoublePair speciesAndStoichiometry : reactionToSpeciesAndStoichiometrySetMap.get(selectedReactionID))
-		{
-
-			double stoichiometry = speciesAndStoichiometry.doub;
-			String speciesID = speciesAndStoichiometry.string;
-
-			// this means the stoichiometry isn't constant, so look to the
-			// variableToValue map
-			if (reactionToNonconstantStoichiometriesSetMap.containsKey(selectedReactionID))
-			{
-
-				for (StringStringPair doubleID : reactionToNonconstantStoichiometriesSetMap.get(selectedReactionID))
-				{
+		reactionNetwork.fire(selectedReaction);
 
-					// string1 is the species ID; string2 is the
-					// speciesReference ID
-					if (doubleID.string1.equals(speciesID))
-					{
-
-						stoichiometry = variableToValueMap.get(doubleID.string2);
+		// re-evaluate the assignment rules and test the constraints that the
+		// reaction's species are in
+		HashSet<AssignmentRule> affectedAssignmentRuleSet = reactionNetwork.getAffectedAssignmentRules(selectedReaction);
 
-						// this is to get the plus/minus correct, as the
-						// variableToValueMap has
-						// a stoichiometry without the reactant/product
-						// plus/minus data
-						stoichiometry *= (int) (speciesAndStoichiometry.doub / Math.abs(speciesAndStoichiometry.doub));
-						break;
-					}
-				}
-			}
-
-			// update the species count if the species isn't a boundary
-			// condition or constant
-			// note that the stoichiometries are earlier modified with the
-			// correct +/- sign
-			if (speciesToIsBoundaryConditionMap.get(speciesID) == false && variableToIsConstantMap.get(speciesID) == false)
-			{
-
-				if (speciesToConversionFactorMap.containsKey(speciesID))
-				{
-					variableToValueMap.adjustValue(speciesID, stoichiometry * variableToValueMap.get(speciesToConversionFactorMap.get(speciesID)));
-				}
-				else
-				{
-					variableToValueMap.adjustValue(speciesID, stoichiometry);
-				}
-			}
-
-			// if this variable that was just updated is part of an assignment
-			// rule (RHS)
-			// then re-evaluate that assignment rule
-			if (noAssignmentRulesFlag == false && variableToIsInAssignmentRuleMap.get(speciesID) == true)
-			{
-				affectedAssignmentRuleSet.addAll(variableToAffectedAssignmentRuleSetMap.get(speciesID));
-			}
-
-			if (noConstraintsFlag == false && variableToIsInConstraintMap.get(speciesID) == true)
-			{
-				affectedConstraintSet.addAll(variableToAffectedConstraintSetMap.get(speciesID));
-			}
-		}
-
-		if (affectedAssignmentRuleSet.size() > 0)
+		if (noAssignmentRulesFlag == false && affectedAssignmentRuleSet != null)
 		{
 			performAssignmentRules(affectedAssignmentRuleSet);
 		}
 
-		if (affectedConstraintSet.size() > 0)
+		HashSet<ASTNode> affectedConstraintSet = reactionNetwork.getAffectedConstraints(selectedReaction);
+
+		if (noConstraintsFlag == false && affectedConstraintSet != null)
 		{
 
 			if (testConstraints(affectedConstraintSet) == false)
@@ -6029,6 +5928,26 @@ public abstract class Simulator extends AbstractSimulator
 	@Override
 	public abstract void setupForNewRun(int newRun);
 
+	@Override
+	public void setRandomSeed(long randomSeed)
+	{
+		randomNumberGenerator = new XORShiftRandom(randomSeed);
+	}
+
+	/**
+	 * closes the output file of the current run, so that another simulator can
+	 * write the same run
+	 * 
+	 * @throws IOException
+	 */
+	public void closeOutput() throws IOException
+	{
+		if (bufferedTSDWriter != null)
+		{
+			bufferedTSDWriter.close();
+		}
+	}
+
 	/**
 	 * opens output file and seeds rng for new run
 	 * 
@@ -6037,15 +5956,35 @@ public abstract class Simulator extends AbstractSimulator
 	 * @throws IOException
 	 */
 	protected void setupForOutput(long randomSeed, int currentRun)
+	{
+
+		randomNumberGenerator = new XORShiftRandom(randomSeed);
+
+		setupForOutput(currentRun);
+	}
+
+	/**
+	 * opens output file for new run, keeping the rng as it is; the header is
+	 * written here when the file replaces the one of an earlier run, and by
+	 * the caller otherwise
+	 * 
+	 * @param currentRun
+	 */
+	protected void setupForOutput(int currentRun)
 	{
 
 		this.currentRun = currentRun;
 
-		randomNumberGenerator = new XORShiftRandom(randomSeed);
+		boolean reopened = bufferedTSDWriter != null;
 
 		try
 		{
 
+			if (bufferedTSDWriter != null)
+			{
+				bufferedTSDWriter.close();
+			}
+
 			String extension = ".tsd";
 
 			if (dynamicBoolean == true)
@@ -6057,7 +5996,7 @@ public abstract class Simulator extends AbstractSimulator
 			bufferedTSDWriter = new BufferedWriter(TSDWriter);
 			bufferedTSDWriter.write('(');
 
-			if (currentRun > 1 && dynamicBoolean == false)
+			if (reopened && dynamicBoolean == false)
 			{
 
 				bufferedTSDWriter.write("(" + "\"" + "time" + "\"");
@@ -6550,6 +6489,16 @@ public abstract class Simulator extends AbstractSimulator
 		}
 	}
 
+	/**
+	 * builds the integer-indexed reaction network from the reaction maps; this
+	 * is done after the reactions are set up and again whenever the model
+	 * changes dynamically
+	 */
+	protected void setupReactionNetwork(final boolean noAssignmentRulesFlag, final boolean noConstraintsFlag)
+	{
+		reactionNetwork = new ReactionNetwork(this, noAssignmentRulesFlag, noConstraintsFlag);
+	}
+
 	/**
 	 * abstract simulate method each simulator needs a simulate method
 	 */
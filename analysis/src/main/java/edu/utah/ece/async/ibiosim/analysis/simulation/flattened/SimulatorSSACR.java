@@ -13,14 +13,9 @@
  *******************************************************************************/
 package edu.utah.ece.async.ibiosim.analysis.simulation.flattened;
 
-import gnu.trove.map.hash.TIntDoubleHashMap;
-import gnu.trove.map.hash.TObjectIntHashMap;
-import gnu.trove.set.hash.TIntHashSet;
-
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Iterator;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -39,28 +34,8 @@ import edu.utah.ece.async.ibiosim.dataModels.util.MutableBoolean;
 public class SimulatorSSACR extends Simulator
 {
 
-	// allows for access to a group number from a reaction ID
-	private TObjectIntHashMap<String>	reactionToGroupMap				= null;
-
-	// allows for access to a group's min/max propensity from a group ID
-	private TIntDoubleHashMap			groupToMaxValueMap				= null;
-
-	// allows for access to the minimum/maximum possible propensity in the group
-	// from a group ID
-	private TIntDoubleHashMap			groupToPropensityFloorMap		= null;
-	private TIntDoubleHashMap			groupToPropensityCeilingMap		= null;
-
-	// allows for access to the reactionIDs in a group from a group ID
-	private ArrayList<HashSet<String>>	groupToReactionSetList			= null;
-
-	// allows for access to the group's total propensity from a group ID
-	private TIntDoubleHashMap			groupToTotalGroupPropensityMap	= null;
-
-	// stores group numbers that are nonempty
-	private TIntHashSet					nonemptyGroupSet				= null;
-
-	// number of groups including the empty groups and zero-propensity group
-	private int							numGroups						= 0;
+	// reactions grouped by the binary exponent of their propensities
+	private PropensityGroups			propensityGroups				= null;
 
 	private static Long					initializationTime				= new Long(0);
 
@@ -242,7 +217,10 @@ public class SimulatorSSACR extends Simulator
 			{
 				currentTime = timeLimit;
 
-				fireEvents(noAssignmentRulesFlag, noConstraintsFlag);
+				if (noEventsFlag == false)
+				{
+					fireEvents(noAssignmentRulesFlag, noConstraintsFlag);
+				}
 
 				performRateRules(currentTime - oldTime);
 
@@ -279,19 +257,20 @@ public class SimulatorSSACR extends Simulator
 
 				// long step3aInitial = System.nanoTime();
 
-				int selectedGroup = selectGroup(r2);
+				int selectedGroup = propensityGroups.selectGroup(r2);
 
 				// step3aTime += System.nanoTime() - step3aInitial;
 
-				// if it's zero that means there aren't any reactions to fire
-				if (selectedGroup != 0)
+				// if it's negative that means there aren't any reactions to
+				// fire
+				if (selectedGroup >= 0)
 				{
 
 					// STEP 3B: select a reaction within the group
 
 					// long step3bInitial = System.nanoTime();
 
-					String selectedReactionID = selectReaction(selectedGroup, r3, r4);
+					int selectedReaction = propensityGroups.selectReaction(selectedGroup, r3, r4, reactionNetwork, randomNumberGenerator);
 
 					// step3bTime += System.nanoTime() - step3bInitial;
 
@@ -303,41 +282,20 @@ public class SimulatorSSACR extends Simulator
 
 					// long step4Initial = System.nanoTime();
 
-					performReaction(selectedReactionID, noAssignmentRulesFlag, noConstraintsFlag);
+					performReaction(selectedReaction, noAssignmentRulesFlag, noConstraintsFlag);
 
 					// step4Time += System.nanoTime() - step4Initial;
 
-					// STEP 5: compute affected reactions' new propensities and
-					// update total propensity
+					// STEP 5: compute affected reactions' new propensities,
+					// move them to their new groups, and update total
+					// propensity
 
 					// long step5Initial = System.nanoTime();
 
-					// create a set (precludes duplicates) of reactions that the
-					// selected reaction's species affect
-					HashSet<String> affectedReactionSet = getAffectedReactionSet(selectedReactionID, noAssignmentRulesFlag);
-
-					boolean newMinPropensityFlag = updatePropensities(affectedReactionSet);
+					// the reactions that the selected reaction's species affect
+					updatePropensities(reactionNetwork.getDependencies(selectedReaction));
 
 					// step5Time += System.nanoTime() - step5Initial;
-
-					// STEP 6: re-assign affected reactions to appropriate
-					// groups
-
-					// long step6Initial = System.nanoTime();
-
-					// if there's a new minPropensity, then the group boundaries
-					// change
-					// so re-calculate all groups
-					if (newMinPropensityFlag == true)
-					{
-						reassignAllReactionsToGroups();
-					}
-					else
-					{
-						updateGroups(affectedReactionSet);
-					}
-
-					// step6Time += System.nanoTime() - step6Initial;
 				}
 
 				if (variableToIsInAssignmentRuleMap != null && variableToIsInAssignmentRuleMap.containsKey("time"))
@@ -358,17 +316,7 @@ public class SimulatorSSACR extends Simulator
 				// recalculate propensties/groups for affected reactions
 				if (affectedReactionSet.size() > 0)
 				{
-
-					boolean newMinPropensityFlag = updatePropensities(affectedReactionSet);
-
-					if (newMinPropensityFlag == true)
-					{
-						reassignAllReactionsToGroups();
-					}
-					else
-					{
-						updateGroups(affectedReactionSet);
-					}
+					updatePropensities(affectedReactionSet);
 				}
 
 				performRateRules(currentTime - oldTime);
@@ -409,7 +357,10 @@ public class SimulatorSSACR extends Simulator
 
 			currentTime = timeLimit;
 
-			fireEvents(noAssignmentRulesFlag, noConstraintsFlag);
+			if (noEventsFlag == false)
+			{
+				fireEvents(noAssignmentRulesFlag, noConstraintsFlag);
+			}
 
 			performRateRules(currentTime - oldTime);
 
@@ -456,14 +407,6 @@ public class SimulatorSSACR extends Simulator
 	public void initialize(long randomSeed, int runNumber) throws IOException
 	{
 
-		reactionToGroupMap = new TObjectIntHashMap<String>((int) (numReactions * 1.5));
-		groupToMaxValueMap = new TIntDoubleHashMap();
-		groupToPropensityFloorMap = new TIntDoubleHashMap();
-		groupToPropensityCeilingMap = new TIntDoubleHashMap();
-		groupToReactionSetList = new ArrayList<HashSet<String>>();
-		groupToTotalGroupPropensityMap = new TIntDoubleHashMap();
-		nonemptyGroupSet = new TIntHashSet();
-
 		eventsFlag = new MutableBoolean(false);
 		rulesFlag = new MutableBoolean(false);
 		constraintsFlag = new MutableBoolean(false);
@@ -504,6 +447,7 @@ public class SimulatorSSACR extends Simulator
 
 		// STEP 0A: calculate initial propensities (including the total)
 		setupReactions();
+		setupReactionNetwork((Boolean) rulesFlag.getValue(), (Boolean) constraintsFlag.getValue());
 
 		// STEP OB: create and populate initial groups
 		createAndPopulateInitialGroups();
@@ -571,82 +515,21 @@ public class SimulatorSSACR extends Simulator
 	}
 
 	/**
-	 * creates the appropriate number of groups and associates reactions with
-	 * groups
+	 * creates the groups and puts every reaction with a nonzero propensity in
+	 * its group
 	 */
 	private void createAndPopulateInitialGroups()
 	{
 
-		// create groups
-		int currentGroup = 1;
-		double groupPropensityCeiling = 2 * minPropensity;
+		int numReactions = reactionNetwork.getNumReactions();
+		propensityGroups = new PropensityGroups(numReactions);
 
-		groupToPropensityFloorMap.put(1, minPropensity);
-
-		while (groupPropensityCeiling < maxPropensity)
-		{
-
-			groupToPropensityCeilingMap.put(currentGroup, groupPropensityCeiling);
-			groupToPropensityFloorMap.put(currentGroup + 1, groupPropensityCeiling);
-			groupToMaxValueMap.put(currentGroup, 0.0);
-
-			groupPropensityCeiling *= 2;
-			++currentGroup;
-		}
-
-		// if there are no non-zero groups
-		if (minPropensity == 0)
+		for (int reaction = 0; reaction < numReactions; ++reaction)
 		{
-
-			numGroups = 1;
-			groupToReactionSetList.add(new HashSet<String>(500));
+			propensityGroups.update(reaction, 0.0, reactionNetwork.getPropensity(reaction));
 		}
-		else
-		{
-
-			numGroups = currentGroup + 1;
-
-			groupToPropensityCeilingMap.put(currentGroup, groupPropensityCeiling);
-			groupToMaxValueMap.put(currentGroup, 0.0);
-
-			// start at 0 to make a group for zero propensities
-			for (int groupNum = 0; groupNum < numGroups; ++groupNum)
-			{
-
-				groupToReactionSetList.add(new HashSet<String>(500));
-				groupToTotalGroupPropensityMap.put(groupNum, 0.0);
-			}
-		}
-
-		// assign reactions to groups
-		for (String reaction : reactionToPropensityMap.keySet())
-		{
-
-			double propensity = reactionToPropensityMap.get(reaction);
-			int group = Math.getExponent((float) (propensity / minPropensity));
-
-			groupToTotalGroupPropensityMap.adjustValue(group, propensity);
-			groupToReactionSetList.get(group).add(reaction);
-			reactionToGroupMap.put(reaction, group);
-
-			if (propensity > groupToMaxValueMap.get(group))
-			{
-				groupToMaxValueMap.put(group, propensity);
-			}
-		}
-
-		// find out which (if any) groups are empty
-		// this is done so that empty groups are never chosen during simulation
-		for (int groupNum = 1; groupNum < numGroups; ++groupNum)
-		{
-
-			if (groupToReactionSetList.get(groupNum).isEmpty())
-			{
-				continue;
-			}
 
-			nonemptyGroupSet.add(groupNum);
-		}
+		totalPropensity = propensityGroups.getTotalPropensity();
 	}
 
 	/**
@@ -678,14 +561,7 @@ public class SimulatorSSACR extends Simulator
 			eventToDelayMap.clear();
 		}
 
-		reactionToGroupMap.clear();
 		reactionToFormulaMap.clear();
-		groupToMaxValueMap.clear();
-		groupToPropensityFloorMap.clear();
-		groupToPropensityCeilingMap.clear();
-		groupToReactionSetList.clear();
-		groupToTotalGroupPropensityMap.clear();
-		nonemptyGroupSet.clear();
 		speciesIDSet.clear();
 		componentToLocationMap.clear();
 		componentToReactionSetMap.clear();
@@ -708,234 +584,13 @@ public class SimulatorSSACR extends Simulator
 	}
 
 	/**
-	 * removes a component's reactions from reactionToGroupMap and
-	 * groupToReactionSetList
+	 * the groups are rebuilt in updateAfterDynamicChanges, so there is nothing
+	 * to remove here
 	 */
 	@Override
 	protected void eraseComponentFurther(HashSet<String> reactionIDs)
 	{
 
-		for (String reactionID : reactionIDs)
-		{
-
-			int group = reactionToGroupMap.get(reactionID);
-			reactionToGroupMap.remove(reactionID);
-			groupToReactionSetList.get(group).remove(reactionID);
-		}
-	}
-
-	/**
-	 * assigns all reactions to (possibly new) groups this is called when the
-	 * minPropensity changes, which changes the groups' floor/ceiling propensity
-	 * values
-	 */
-	private void reassignAllReactionsToGroups()
-	{
-
-		int currentGroup = 1;
-		double groupPropensityCeiling = 2 * minPropensity;
-
-		// re-calulate and store group propensity floors/ceilings
-		groupToPropensityCeilingMap.clear();
-		groupToPropensityFloorMap.clear();
-		groupToPropensityFloorMap.put(1, minPropensity);
-
-		while (groupPropensityCeiling <= maxPropensity)
-		{
-
-			groupToPropensityCeilingMap.put(currentGroup, groupPropensityCeiling);
-			groupToPropensityFloorMap.put(currentGroup + 1, groupPropensityCeiling);
-
-			groupPropensityCeiling *= 2;
-			++currentGroup;
-		}
-
-		groupToPropensityCeilingMap.put(currentGroup, groupPropensityCeiling);
-		int newNumGroups = currentGroup + 1;
-
-		// allocate memory if the number of groups expands
-		if (newNumGroups > numGroups)
-		{
-
-			for (int groupNum = numGroups; groupNum < newNumGroups; ++groupNum)
-			{
-				groupToReactionSetList.add(new HashSet<String>(500));
-			}
-		}
-
-		// clear the reaction set for each group
-		// start at 1, as the zero propensity group isn't going to change
-		for (int groupNum = 1; groupNum < newNumGroups; ++groupNum)
-		{
-
-			groupToReactionSetList.get(groupNum).clear();
-			groupToMaxValueMap.put(groupNum, 0.0);
-			groupToTotalGroupPropensityMap.put(groupNum, 0.0);
-		}
-
-		numGroups = newNumGroups;
-		totalPropensity = 0;
-
-		// assign reactions to groups
-		for (String reaction : reactionToPropensityMap.keySet())
-		{
-
-			double propensity = reactionToPropensityMap.get(reaction);
-
-			totalPropensity += propensity;
-
-			// the zero-propensity group doesn't need altering
-			if (propensity == 0.0)
-			{
-
-				reactionToGroupMap.put(reaction, 0);
-				groupToReactionSetList.get(0).add(reaction);
-			}
-
-			int group = Math.getExponent((float) (propensity / minPropensity));
-
-			groupToReactionSetList.get(group).add(reaction);
-			reactionToGroupMap.put(reaction, group);
-			groupToTotalGroupPropensityMap.adjustValue(group, propensity);
-
-			if (propensity > groupToMaxValueMap.get(group))
-			{
-				groupToMaxValueMap.put(group, propensity);
-			}
-		}
-
-		// find out which (if any) groups are empty
-		// this is done so that empty groups are never chosen during simulation
-
-		nonemptyGroupSet.clear();
-
-		for (int groupNum = 1; groupNum < numGroups; ++groupNum)
-		{
-
-			if (groupToReactionSetList.get(groupNum).isEmpty())
-			{
-				continue;
-			}
-
-			nonemptyGroupSet.add(groupNum);
-		}
-	}
-
-	/**
-	 * chooses a random number between 0 and the total propensity then it finds
-	 * which nonempty group this number belongs to
-	 * 
-	 * @param r2
-	 *            random number
-	 * @return the group selected
-	 */
-	private int selectGroup(double r2)
-	{
-
-		if (nonemptyGroupSet.size() == 0)
-		{
-			return 0;
-		}
-
-		double randomPropensity = r2 * (totalPropensity);
-		double runningTotalGroupsPropensity = 0.0;
-		int selectedGroup = 1;
-
-		// System.err.println(reactionToGroupMap);
-		//
-		// System.err.println(randomPropensity);
-		// System.err.println(totalPropensity);
-		// System.err.println();
-
-		// finds the group that the random propensity lies in
-		// it keeps adding the next group's total propensity to a running total
-		// until the running total is greater than the random propensity
-		for (; selectedGroup < numGroups; ++selectedGroup)
-		{
-
-			runningTotalGroupsPropensity += groupToTotalGroupPropensityMap.get(selectedGroup);
-
-			// System.err.println(selectedGroup + "  " +
-			// nonemptyGroupSet.contains(selectedGroup)
-			// + "   " + groupToTotalGroupPropensityMap.get(selectedGroup));
-			// System.err.println(runningTotalGroupsPropensity);
-
-			if (randomPropensity < runningTotalGroupsPropensity && nonemptyGroupSet.contains(selectedGroup))
-			{
-				break;
-			}
-		}
-
-		// System.err.println(selectedGroup);
-		// System.err.println();
-
-		// if (selectedGroup == 17)
-		// System.err.println(nonemptyGroupSet);
-
-		return selectedGroup;
-	}
-
-	/**
-	 * from the selected group, a reaction is chosen randomly/uniformly a random
-	 * number between 0 and the group's max propensity is then chosen if this
-	 * number is not less than the chosen reaction's propensity, the reaction is
-	 * rejected and the process is repeated until success occurs
-	 * 
-	 * @param selectedGroup
-	 *            the group to choose a reaction from
-	 * @param r3
-	 * @param r4
-	 * @return the chosen reaction's ID
-	 */
-	private String selectReaction(int selectedGroup, double r3, double r4)
-	{
-
-		HashSet<String> reactionSet = groupToReactionSetList.get(selectedGroup);
-
-		double randomIndex = FastMath.floor(r3 * reactionSet.size());
-		int indexIter = 0;
-		Iterator<String> reactionSetIterator = reactionSet.iterator();
-
-		while (reactionSetIterator.hasNext() && indexIter < randomIndex)
-		{
-
-			reactionSetIterator.next();
-			++indexIter;
-		}
-
-		String selectedReactionID = reactionSetIterator.next();
-		double reactionPropensity = reactionToPropensityMap.get(selectedReactionID);
-
-		// this is choosing a value between 0 and the max propensity in the
-		// group
-		double randomPropensity = r4 * groupToMaxValueMap.get(selectedGroup);
-
-		// loop until there's no reaction rejection
-		// if the random propensity is higher than the selected reaction's
-		// propensity, another random reaction is chosen
-		while (randomPropensity > reactionPropensity)
-		{
-
-			r3 = randomNumberGenerator.nextDouble();
-			r4 = randomNumberGenerator.nextDouble();
-
-			randomIndex = (int) FastMath.floor(r3 * reactionSet.size());
-			indexIter = 0;
-			reactionSetIterator = reactionSet.iterator();
-
-			while (reactionSetIterator.hasNext() && (indexIter < randomIndex))
-			{
-
-				reactionSetIterator.next();
-				++indexIter;
-			}
-
-			selectedReactionID = reactionSetIterator.next();
-			reactionPropensity = reactionToPropensityMap.get(selectedReactionID);
-			randomPropensity = r4 * groupToMaxValueMap.get(selectedGroup);
-		}
-
-		return selectedReactionID;
 	}
 
 	/**
@@ -960,9 +615,6 @@ public class SimulatorSSACR extends Simulator
 		setupConstraints();
 
 		totalPropensity = 0.0;
-		numGroups = 0;
-		minPropensity = Double.MAX_VALUE;
-		maxPropensity = Double.MIN_VALUE;
 
 		if (numEvents == 0)
 		{
@@ -993,12 +645,13 @@ public class SimulatorSSACR extends Simulator
 
 		// STEP 0A: calculate initial propensities (including the total)
 		setupReactions();
+		setupReactionNetwork((Boolean) rulesFlag.getValue(), (Boolean) constraintsFlag.getValue());
 
 		// STEP OB: create and populate initial groups
 		createAndPopulateInitialGroups();
 
 		setupEvents();
-		setupForOutput(0, newRun);
+		setupForOutput(newRun);
 
 		if (dynamicBoolean == true)
 		{
@@ -1008,243 +661,84 @@ public class SimulatorSSACR extends Simulator
 	}
 
 	/**
-	 * updates the groups
+	 * rebuilds the reaction network and updates the groups
 	 */
 	@Override
 	protected void updateAfterDynamicChanges()
 	{
 
-		reassignAllReactionsToGroups();
+		setupReactionNetwork((Boolean) rulesFlag.getValue(), (Boolean) constraintsFlag.getValue());
+		createAndPopulateInitialGroups();
 	}
 
 	/**
-	 * updates the groups of the reactions affected by the recently performed
-	 * reaction ReassignAllReactionsToGroups() is called instead when all
-	 * reactions need changing
+	 * updates the propensities of the reactions affected by the recently
+	 * performed reaction and moves them to the groups of their new
+	 * propensities
 	 * 
 	 * @param affectedReactionSet
 	 *            the set of reactions affected by the recently performed
 	 *            reaction
 	 */
-	private void updateGroups(HashSet<String> affectedReactionSet)
+	private void updatePropensities(HashSet<String> affectedReactionSet)
 	{
-
-		// update the groups for all of the affected reactions
-		// their propensities have changed and they may need to go into a
-		// different group
-		for (String affectedReactionID : affectedReactionSet)
-		{
-
-			double newPropensity = reactionToPropensityMap.get(affectedReactionID);
-			int oldGroup = reactionToGroupMap.get(affectedReactionID);
-
-			if (newPropensity == 0.0)
-			{
-
-				HashSet<String> oldReactionSet = groupToReactionSetList.get(oldGroup);
-
-				// update group collections
-				// zero propensities go into group 0
-				oldReactionSet.remove(affectedReactionID);
-				reactionToGroupMap.put(affectedReactionID, 0);
-				groupToReactionSetList.get(0).add(affectedReactionID);
-
-				if (oldReactionSet.size() == 0)
-				{
-					nonemptyGroupSet.remove(oldGroup);
-				}
-			}
-			// if the new propensity != 0.0 (ie, new group != 0)
-			else
-			{
-				// if it's outside of the old group's boundaries
-				if (newPropensity > groupToPropensityCeilingMap.get(oldGroup) || newPropensity < groupToPropensityFloorMap.get(oldGroup))
-				{
-
-					int group = Math.getExponent(newPropensity / minPropensity);
-
-					// if the group is one that currently exists
-					if (group < numGroups)
-					{
-
-						HashSet<String> newGroupReactionSet = groupToReactionSetList.get(group);
-						HashSet<String> oldGroupReactionSet = groupToReactionSetList.get(oldGroup);
-
-						// update group collections
-						oldGroupReactionSet.remove(affectedReactionID);
-						reactionToGroupMap.put(affectedReactionID, group);
-						newGroupReactionSet.add(affectedReactionID);
-						groupToTotalGroupPropensityMap.adjustValue(group, newPropensity);
-
-						// if the group that the reaction was just added to is
-						// now nonempty
-						if (newGroupReactionSet.size() == 1)
-						{
-							nonemptyGroupSet.add(group);
-						}
-
-						if (oldGroupReactionSet.size() == 0)
-						{
-							nonemptyGroupSet.remove(oldGroup);
-						}
-
-						if (newPropensity > groupToMaxValueMap.get(group))
-						{
-							groupToMaxValueMap.put(group, newPropensity);
-						}
-					}
-					// this means the propensity goes into a group that doesn't
-					// currently exist
-					else
-					{
-
-						// groupToReactionSetList is a list, so the group needs
-						// to be the index
-						for (int iter = numGroups; iter <= group; ++iter)
-						{
-
-							if (iter >= groupToReactionSetList.size())
-							{
-								groupToReactionSetList.add(new HashSet<String>(500));
-							}
-
-							groupToTotalGroupPropensityMap.put(iter, 0.0);
-						}
-
-						numGroups = group + 1;
-
-						HashSet<String> oldReactionSet = groupToReactionSetList.get(oldGroup);
-
-						// update group collections
-						groupToTotalGroupPropensityMap.adjustValue(group, newPropensity);
-						groupToReactionSetList.get(oldGroup).remove(affectedReactionID);
-						reactionToGroupMap.put(affectedReactionID, group);
-						groupToReactionSetList.get(group).add(affectedReactionID);
-						nonemptyGroupSet.add(group);
-						groupToMaxValueMap.put(group, newPropensity);
-
-						if (oldReactionSet.size() == 0)
-						{
-							nonemptyGroupSet.remove(oldGroup);
-						}
-					}
-				}
-				// if it's within the old group's boundaries (ie, group isn't
-				// changing)
-				else
-				{
-
-					// maintain current group
-
-					if (newPropensity > groupToMaxValueMap.get(oldGroup))
-					{
-						groupToMaxValueMap.put(oldGroup, newPropensity);
-					}
-
-					groupToTotalGroupPropensityMap.adjustValue(oldGroup, newPropensity);
-				}
-			}
-		}
+		updatePropensities(getReactionIndices(affectedReactionSet));
 	}
 
-	/**
-	 * updates the propensities of the reactions affected by the recently
-	 * performed reaction
-	 * 
-	 * @param affectedReactionSet
-	 *            the set of reactions affected by the recently performed
-	 *            reaction
-	 * @return whether or not there's a new minPropensity (if there is, all
-	 *         reaction's groups need to change)
-	 */
-	private boolean updatePropensities(HashSet<String> affectedReactionSet)
+	private void updatePropensities(int[] affectedReactions)
 	{
 
-		boolean newMinPropensityFlag = false;
-
 		// loop through the affected reactions and update the propensities
-		for (String affectedReactionID : affectedReactionSet)
+		for (int affectedReaction : affectedReactions)
 		{
 
-			boolean notEnoughMoleculesFlag = false;
-
-			HashSet<StringDoublePair> reactantStoichiometrySet = reactionToReactantStoichiometrySetMap.get(affectedReactionID);
-
-			if (reactantStoichiometrySet == null)
-			{
-				continue;
-			}
-
-			// check for enough molecules for the reaction to occur
-			for (StringDoublePair speciesAndStoichiometry : reactantStoichiometrySet)
-			{
-
-				String speciesID = speciesAndStoichiometry.string;
-				double stoichiometry = speciesAndStoichiometry.doub;
-
-				// if there aren't enough molecules to satisfy the stoichiometry
-				if (variableToValueMap.get(speciesID) < stoichiometry)
-				{
-					notEnoughMoleculesFlag = true;
-					break;
-				}
-			}
-
 			double newPropensity = 0.0;
 
-			if (notEnoughMoleculesFlag == false)
+			// check for enough molecules for the reaction to occur
+			if (reactionNetwork.hasEnoughMolecules(affectedReaction))
 			{
-				newPropensity = evaluateExpressionRecursive(reactionToFormulaMap.get(affectedReactionID));
+				newPropensity = evaluateExpressionRecursive(reactionNetwork.getFormula(affectedReaction));
 			}
 
 			// stoichiometry amplification -- alter the propensity
-			if (affectedReactionID.contains("_Diffusion_") && stoichAmpBoolean == true)
+			if (reactionNetwork.isDiffusion(affectedReaction) && stoichAmpBoolean == true)
 			{
 				newPropensity *= (1.0 / stoichAmpGridValue);
 			}
 
-			if (newPropensity > 0.0 && newPropensity < minPropensity)
-			{
+			double oldPropensity = reactionNetwork.getPropensity(affectedReaction);
 
-				minPropensity = newPropensity;
-				newMinPropensityFlag = true;
-			}
+			propensityGroups.update(affectedReaction, oldPropensity, newPropensity);
+			reactionNetwork.setPropensity(affectedReaction, newPropensity);
+		}
 
-			if (newPropensity > maxPropensity)
-			{
-				maxPropensity = newPropensity;
-			}
+		// the tree of group totals is summed again along every update, so the
+		// total doesn't drift the way a running sum does
+		totalPropensity = propensityGroups.getTotalPropensity();
+	}
 
-			double oldPropensity = reactionToPropensityMap.get(affectedReactionID);
-			int oldGroup = reactionToGroupMap.get(affectedReactionID);
+	/**
+	 * returns the indices of the reactions in the set, leaving out reactions
+	 * that are no longer in the model
+	 */
+	private int[] getReactionIndices(HashSet<String> reactionSet)
+	{
 
-			// if (oldGroup == 15) {
-			//
-			// if (newPropensity == 0)
-			// System.err.println(affectedReactionID + "  NOW IS ZERO");
-			//
-			// if (oldPropensity == 0)
-			// System.err.println(affectedReactionID +
-			// "  still has propensity zero");
-			//
-			// System.err.println("oldgroup: " + oldGroup);
-			// System.err.println(groupToTotalGroupPropensityMap.get(oldGroup) +
-			// " - " + oldPropensity);
-			// }
+		int[] reactions = new int[reactionSet.size()];
+		int numReactions = 0;
 
-			// remove the old propensity from the group's total
-			// later on, the new propensity is added to the (possibly new)
-			// group's total
-			groupToTotalGroupPropensityMap.adjustValue(oldGroup, -oldPropensity);
+		for (String reactionID : reactionSet)
+		{
 
-			// add the difference of new v. old propensity to the total
-			// propensity
-			totalPropensity += newPropensity - oldPropensity;
+			int reaction = reactionNetwork.getReactionIndex(reactionID);
 
-			reactionToPropensityMap.put(affectedReactionID, newPropensity);
+			if (reaction >= 0)
+			{
+				reactions[numReactions++] = reaction;
+			}
 		}
 
-		return newMinPropensityFlag;
+		return numReactions == reactions.length ? reactions : Arrays.copyOf(reactions, numReactions);
 	}
 
 	private double print(double printTime)
@@ -269,6 +269,7 @@ public class SimulatorSSADirect extends Simulator
 
 		// STEP 0: calculate initial propensities (including the total)
 		setupReactions();
+		setupReactionNetwork((Boolean) rulesFlag.getValue(), (Boolean) constraintsFlag.getValue());
 		setupEvents();
 
 		setupForOutput(randomSeed, runNumber);
@@ -335,23 +336,25 @@ public class SimulatorSSADirect extends Simulator
 	}
 
 	/**
-	 * 
+	 * rebuilds the reaction network, as reactions may have been added or
+	 * removed
 	 */
 	@Override
 	protected void updateAfterDynamicChanges()
 	{
 
+		setupReactionNetwork((Boolean) rulesFlag.getValue(), (Boolean) constraintsFlag.getValue());
 	}
 
 	private void performReaction(double r2, boolean noAssignmentRulesFlag, boolean noConstraintsFlag)
 	{
 		// long step3Initial = System.nanoTime();
-		String selectedReactionID = selectReaction(r2);
+		int selectedReaction = selectReaction(r2);
 
 		// step3Time += System.nanoTime() - step3Initial;
 
-		// if its length isn't positive then there aren't any reactions
-		if (selectedReactionID.isEmpty() == false)
+		// if it's negative then there aren't any reactions
+		if (selectedReaction >= 0)
 		{
 
 			// STEP 4: perform selected reaction and update species
@@ -359,7 +362,7 @@ public class SimulatorSSADirect extends Simulator
 
 			// long step4Initial = System.nanoTime();
 
-			performReaction(selectedReactionID, noAssignmentRulesFlag, noConstraintsFlag);
+			performReaction(selectedReaction, noAssignmentRulesFlag, noConstraintsFlag);
 
 			// step4Time += System.nanoTime() - step4Initial;
 
@@ -368,11 +371,8 @@ public class SimulatorSSADirect extends Simulator
 
 			// long step5Initial = System.nanoTime();
 
-			// create a set (precludes duplicates) of reactions that the
-			// selected reaction's species affect
-			HashSet<String> affectedReactionSet = getAffectedReactionSet(selectedReactionID, noAssignmentRulesFlag);
-
-			updatePropensities(affectedReactionSet);
+			// the reactions that the selected reaction's species affect
+			updatePropensities(reactionNetwork.getDependencies(selectedReaction));
 
 			// step5Time += System.nanoTime() - step5Initial;
 		}
@@ -421,47 +421,54 @@ public class SimulatorSSADirect extends Simulator
 	private void updatePropensities(HashSet<String> affectedReactionSet)
 	{
 
-		// loop through the affected reactions and update the propensities
 		for (String affectedReactionID : affectedReactionSet)
 		{
 
-			boolean notEnoughMoleculesFlag = false;
-
-			HashSet<StringDoublePair> reactantStoichiometrySet = reactionToReactantStoichiometrySetMap.get(affectedReactionID);
+			int affectedReaction = reactionNetwork.getReactionIndex(affectedReactionID);
 
-			// check for enough molecules for the reaction to occur
-			for (StringDoublePair speciesAndStoichiometry : reactantStoichiometrySet)
+			if (affectedReaction >= 0)
 			{
+				updatePropensity(affectedReaction);
+			}
+		}
+	}
 
-				String speciesID = speciesAndStoichiometry.string;
-				double stoichiometry = speciesAndStoichiometry.doub;
+	/**
+	 * updates the propensities of the reactions affected by the recently
+	 * performed reaction
+	 * 
+	 * @param affectedReactions
+	 *            the indices of the reactions affected by the recently
+	 *            performed reaction
+	 */
+	private void updatePropensities(int[] affectedReactions)
+	{
 
-				// if there aren't enough molecules to satisfy the stoichiometry
-				if (variableToValueMap.get(speciesID) < stoichiometry)
-				{
-					notEnoughMoleculesFlag = true;
-					break;
-				}
-			}
+		// loop through the affected reactions and update the propensities
+		for (int affectedReaction : affectedReactions)
+		{
+			updatePropensity(affectedReaction);
+		}
+	}
 
-			double newPropensity = 0.0;
+	private void updatePropensity(int reaction)
+	{
 
-			if (notEnoughMoleculesFlag == false)
-			{
+		double newPropensity = 0.0;
 
-				newPropensity = evaluateExpressionRecursive(reactionToFormulaMap.get(affectedReactionID));
-				// newPropensity =
-				// CalculatePropensityIterative(affectedReactionID);
-			}
+		// check for enough molecules for the reaction to occur
+		if (reactionNetwork.hasEnoughMolecules(reaction))
+		{
+			newPropensity = evaluateExpressionRecursive(reactionNetwork.getFormula(reaction));
+		}
 
-			double oldPropensity = reactionToPropensityMap.get(affectedReactionID);
+		double oldPropensity = reactionNetwork.getPropensity(reaction);
 
-			// add the difference of new v. old propensity to the total
-			// propensity
-			totalPropensity += newPropensity - oldPropensity;
+		// add the difference of new v. old propensity to the total
+		// propensity
+		totalPropensity += newPropensity - oldPropensity;
 
-			reactionToPropensityMap.put(affectedReactionID, newPropensity);
-		}
+		reactionNetwork.setPropensity(reaction, newPropensity);
 	}
 
 	/**
@@ -469,31 +476,30 @@ public class SimulatorSSADirect extends Simulator
 	 * 
 	 * @param r2
 	 *            random number
-	 * @return the ID of the selected reaction
+	 * @return the index of the selected reaction, or -1 if none is selected
 	 */
-	private String selectReaction(double r2)
+	private int selectReaction(double r2)
 	{
 
 		double randomPropensity = r2 * (totalPropensity);
 		double runningTotalReactionsPropensity = 0.0;
-		String selectedReaction = "";
+		int numReactions = reactionNetwork.getNumReactions();
 
 		// finds the reaction that the random propensity lies in
 		// it keeps adding the next reaction's propensity to a running total
 		// until the running total is greater than the random propensity
-		for (String currentReaction : reactionToPropensityMap.keySet())
+		for (int currentReaction = 0; currentReaction < numReactions; ++currentReaction)
 		{
 
-			runningTotalReactionsPropensity += reactionToPropensityMap.get(currentReaction);
+			runningTotalReactionsPropensity += reactionNetwork.getPropensity(currentReaction);
 
 			if (randomPropensity < runningTotalReactionsPropensity)
 			{
-				selectedReaction = currentReaction;
-				break;
+				return currentReaction;
 			}
 		}
 
-		return selectedReaction;
+		return -1;
 	}
 
 	/**
@@ -600,8 +606,9 @@ public class SimulatorSSADirect extends Simulator
 
 		// STEP 0A: calculate initial propensities (including the total)
 		setupReactions();
+		setupReactionNetwork((Boolean) rulesFlag.getValue(), (Boolean) constraintsFlag.getValue());
 		setupEvents();
-		setupForOutput(0, newRun);
+		setupForOutput(newRun);
 
 		if (dynamicBoolean == true)
 		{
@@ -30,6 +30,9 @@ import org.sbml.jsbml.SBMLErrorLog;
 import org.sbml.jsbml.SBMLReader;
 
 import edu.utah.ece.async.ibiosim.analysis.simulation.AbstractSimulator;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.io.HierarchicalAsyncWriter;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.io.HierarchicalBinaryWriter;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.io.HierarchicalStatisticsWriter;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.io.HierarchicalTSDWriter;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.io.HierarchicalWriter;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ConstraintNode;
@@ -41,6 +44,7 @@ import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.Variable
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.AbstractHierarchicalNode.Type;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.model.HierarchicalModel;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.HierarchicalState.StateType;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.VectorWrapper;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.comp.HierarchicalEventComparator;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.comp.TriggeredEventNode;
 import edu.utah.ece.async.ibiosim.dataModels.util.exceptions.BioSimException;
@@ -101,6 +105,18 @@ public abstract class HierarchicalSimulation extends AbstractSimulator
 
   private HierarchicalWriter writer;
 
+  private String outputExtension;
+
+  private HierarchicalStatisticsWriter statistics;
+
+  private boolean printRuns, printStatistics;
+
+  private double[] initialPropensities;
+
+  private VariableNode[] rateRuleNodes;
+  private int[] rateRuleIndices;
+  private double[] rateRuleRates;
+
   protected double currProgress, maxProgress;
 
   final private SimType         type;
@@ -122,7 +138,7 @@ public abstract class HierarchicalSimulation extends AbstractSimulator
     this.printConcentrationSpecies = new HashSet<String>();
     
     this.parentType = StateType.SPARSE;
-    if(type == SimType.HODE || type == SimType.MIXED)
+    if(type == SimType.HODE || type == SimType.MIXED || type == SimType.HSSA)
     {
       this.atomicType = StateType.VECTOR;
     }
@@ -153,6 +169,9 @@ public abstract class HierarchicalSimulation extends AbstractSimulator
     this.outputStartTime = outputStartTime;
     this.initValues = new ArrayList<Double>();
     this.writer = new HierarchicalTSDWriter();
+    this.outputExtension = ".tsd";
+    this.statistics = new HierarchicalStatisticsWriter();
+    this.printRuns = true;
     this.addPrintVariable("time", printTime, 0, false);
 
     this.totalPropensity = new FunctionNode(new VariableNode("propensity", StateType.SCALAR), new HierarchicalNode(Type.PLUS));
@@ -236,6 +255,67 @@ public abstract class HierarchicalSimulation extends AbstractSimulator
   public void addPrintVariable(String id, HierarchicalNode node, int index, boolean isConcentration)
   {
     writer.addVariable(id, node, index, isConcentration);
+    statistics.addVariable(id, node, index, isConcentration);
+  }
+
+  /**
+   * Selects the format of the run files from the printer id. The binary printer writes .btsd
+   * files, and every other printer writes .tsd files. When asynchronous is true, the rows are
+   * written by a background thread. This must be called before the model is set up, since it
+   * replaces the print variables of the run files.
+   */
+  public void setPrinter(String printerId, boolean asynchronous)
+  {
+    if ("btsd.printer".equals(printerId))
+    {
+      writer = new HierarchicalBinaryWriter();
+      outputExtension = ".btsd";
+    }
+    else
+    {
+      writer = new HierarchicalTSDWriter();
+      outputExtension = ".tsd";
+    }
+    if (asynchronous)
+    {
+      writer = new HierarchicalAsyncWriter(writer);
+    }
+    writer.addVariable("time", printTime, 0, false);
+  }
+
+  /**
+   * Sets whether the values of each run are written to a run file.
+   */
+  public void setPrintRuns(boolean printRuns)
+  {
+    this.printRuns = printRuns;
+  }
+
+  /**
+   * Sets whether the mean and variance of the printed values are accumulated over the runs, so
+   * that {@link #printStatisticsTSD()} can write them without reading the run files.
+   */
+  public void setPrintStatistics(boolean printStatistics)
+  {
+    this.printStatistics = printStatistics;
+  }
+
+  /**
+   * Adds the statistics accumulated by another simulator of the same model to the statistics
+   * of this simulator.
+   */
+  public void mergeStatistics(HierarchicalSimulation other)
+  {
+    statistics.merge(other.statistics);
+  }
+
+  @Override
+  public void printStatisticsTSD()
+  {
+    if (printStatistics)
+    {
+      statistics.output(getOutputDirectory());
+    }
   }
 
   public List<HierarchicalModel> getListOfHierarchicalModels()
@@ -598,6 +678,12 @@ public abstract class HierarchicalSimulation extends AbstractSimulator
     return randomNumberGenerator;
   }
 
+  @Override
+  public void setRandomSeed(long randomSeed)
+  {
+    this.randomNumberGenerator = new Random(randomSeed);
+  }
+
 
 
   /**
@@ -651,7 +737,14 @@ public abstract class HierarchicalSimulation extends AbstractSimulator
   protected void setupForOutput(int currentRun) throws IOException
   {
     setCurrentRun(currentRun);
-    writer.init(getOutputDirectory() + File.separator + "run-" + currentRun + ".tsd");
+    if (printRuns)
+    {
+      writer.init(getOutputDirectory() + File.separator + "run-" + currentRun + outputExtension);
+    }
+    if (printStatistics)
+    {
+      statistics.init(null);
+    }
 
   }
 
@@ -699,9 +792,20 @@ public abstract class HierarchicalSimulation extends AbstractSimulator
     return Double.NaN;
   }
 
+  /**
+   * Writes out the rows printed so far, for simulators that keep the run file open.
+   */
+  protected void flushWriter() throws IOException
+  {
+    if(writer != null && printRuns)
+    {
+      writer.flush();
+    } 
+  }
+
   protected void closeWriter() throws IOException
   {
-    if(writer != null)
+    if(writer != null && printRuns)
     {
       writer.close();
     } 
@@ -712,7 +816,14 @@ public abstract class HierarchicalSimulation extends AbstractSimulator
     {
       try
       {
-        writer.print();
+        if (printRuns)
+        {
+          writer.print();
+        }
+        if (printStatistics)
+        {
+          statistics.print();
+        }
       }
       catch (IOException e)
       {
@@ -758,6 +869,69 @@ public abstract class HierarchicalSimulation extends AbstractSimulator
     }
   }
 
+  /**
+   * Integrates the rate rules with a forward Euler step from the given time to the current
+   * time. The rates are all evaluated before any variable is changed.
+   *
+   * @param previousTime
+   *          - the time at which the variables were last updated by the rate rules.
+   * @return true if a variable has changed.
+   */
+  protected boolean fireRateRules(double previousTime)
+  {
+    if (rateRuleNodes == null)
+    {
+      setupRateRules();
+    }
+
+    double delta = currentTime.getValue(0) - previousTime;
+    if (delta <= 0 || rateRuleNodes.length == 0)
+    {
+      return false;
+    }
+
+    for (int i = 0; i < rateRuleNodes.length; i++)
+    {
+      rateRuleRates[i] = rateRuleNodes[i].computeRateOfChange(rateRuleIndices[i]);
+    }
+
+    boolean changed = false;
+    for (int i = 0; i < rateRuleNodes.length; i++)
+    {
+      if (rateRuleRates[i] != 0)
+      {
+        int index = rateRuleIndices[i];
+        rateRuleNodes[i].setValue(index, rateRuleNodes[i].getValue(index) + delta * rateRuleRates[i]);
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  private void setupRateRules()
+  {
+    List<VariableNode> nodes = new ArrayList<VariableNode>();
+    List<Integer> indices = new ArrayList<Integer>();
+    for (HierarchicalModel modelstate : this.modules)
+    {
+      for (VariableNode node : modelstate.getListOfVariables())
+      {
+        if (node.getRateRule() != null && !node.isVariableConstant())
+        {
+          nodes.add(node);
+          indices.add(modelstate.getIndex());
+        }
+      }
+    }
+    rateRuleNodes = nodes.toArray(new VariableNode[nodes.size()]);
+    rateRuleIndices = new int[nodes.size()];
+    for (int i = 0; i < rateRuleIndices.length; i++)
+    {
+      rateRuleIndices[i] = indices.get(i);
+    }
+    rateRuleRates = new double[nodes.size()];
+  }
+
   protected void reevaluatePriorities()
   {
     PriorityQueue<TriggeredEventNode> tmp = new PriorityQueue<TriggeredEventNode>(1, new HierarchicalEventComparator());
@@ -896,6 +1070,94 @@ public abstract class HierarchicalSimulation extends AbstractSimulator
     }
   }
 
+  /**
+   * Saves the state computed by {@link #computeFixedPoint()} at the start of the first run, so
+   * that {@link #restoreInitialState(VectorWrapper)} can start the next runs with array copies.
+   * The variables are all in the state vector, except for the propensities of the models and
+   * their total, which are saved separately. Nothing is saved when the initial values depend on
+   * functions that may be random, since those must be drawn again in every run.
+   */
+  protected void saveInitialState(VectorWrapper wrapper)
+  {
+    initialPropensities = null;
+    for (HierarchicalModel modelstate : modules)
+    {
+      if (hasFunctionCall(modelstate.getAssignRules()) || hasFunctionCall(modelstate.getInitAssignments())
+        || hasFunctionCall(modelstate.getInitConcentration()))
+      {
+        return;
+      }
+      if (modelstate.getReactions() != null)
+      {
+        for (ReactionNode reaction : modelstate.getReactions())
+        {
+          if (hasFunctionCall(reaction.getForwardRate()) || hasFunctionCall(reaction.getReverseRate()))
+          {
+            return;
+          }
+        }
+      }
+    }
+    wrapper.saveState();
+    initialPropensities = new double[modules.size() + 1];
+    for (int i = 0; i < modules.size(); ++i)
+    {
+      HierarchicalModel modelstate = modules.get(i);
+      initialPropensities[i] = modelstate.getPropensity().getVariable().getValue(modelstate.getIndex());
+    }
+    initialPropensities[modules.size()] = totalPropensity.getVariable().getValue();
+  }
+
+  /**
+   * Brings the variables back to their values at the start of the first run, either from the
+   * state saved by {@link #saveInitialState(VectorWrapper)} or by computing them again.
+   */
+  protected void restoreInitialState(VectorWrapper wrapper)
+  {
+    if (initialPropensities == null)
+    {
+      wrapper.initStateValues();
+      computeFixedPoint();
+      totalPropensity.computeFunction(0);
+      return;
+    }
+    wrapper.restoreState();
+    for (int i = 0; i < modules.size(); ++i)
+    {
+      HierarchicalModel modelstate = modules.get(i);
+      modelstate.getPropensity().getVariable().setValue(modelstate.getIndex(), initialPropensities[i]);
+    }
+    totalPropensity.getVariable().setValue(initialPropensities[modules.size()]);
+  }
+
+  private static boolean hasFunctionCall(List<? extends HierarchicalNode> nodes)
+  {
+    if (nodes != null)
+    {
+      for (HierarchicalNode node : nodes)
+      {
+        if (hasFunctionCall(node))
+        {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean hasFunctionCall(HierarchicalNode node)
+  {
+    if (node == null)
+    {
+      return false;
+    }
+    if (node.getType() == Type.FUNCTION)
+    {
+      return true;
+    }
+    return node.getNumOfChild() > 0 && hasFunctionCall(node.getChildren());
+  }
+
   public boolean evaluateConstraints()
   {
     boolean hasSuccess = true;
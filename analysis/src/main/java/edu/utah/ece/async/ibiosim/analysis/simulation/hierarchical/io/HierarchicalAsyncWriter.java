@@ -0,0 +1,288 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.io;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.HierarchicalNode;
+
+/**
+ * Writer that moves the formatting and writing of rows to a background thread. The simulation
+ * thread only copies the values of a row into one of a fixed number of recycled arrays and
+ * queues it, and the background thread prints the queued rows with another writer. When every
+ * array is waiting to be written, the simulation thread waits for the background thread, so
+ * the memory used by the queue is bounded. Opening, flushing, and closing a file are queued in
+ * order with the rows, and closing waits until everything before it has been written and then
+ * stops the background thread.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class HierarchicalAsyncWriter extends HierarchicalWriter
+{
+
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  private static enum Command
+  {
+    ROW, OPEN, FLUSH, CLOSE;
+  }
+
+  private static class Entry
+  {
+    private final Command command;
+    private final double[] values;
+    private final String filename;
+    private final CountDownLatch done;
+
+    private Entry(double[] values)
+    {
+      this.command = Command.ROW;
+      this.values = values;
+      this.filename = null;
+      this.done = null;
+    }
+
+    private Entry(Command command, String filename)
+    {
+      this.command = command;
+      this.values = null;
+      this.filename = filename;
+      this.done = new CountDownLatch(1);
+    }
+  }
+
+  private final HierarchicalWriter output;
+
+  private final int capacity;
+
+  private BlockingQueue<Entry> pending;
+
+  private BlockingQueue<Entry> free;
+
+  private Thread thread;
+
+  private volatile IOException error;
+
+  public HierarchicalAsyncWriter(HierarchicalWriter output)
+  {
+    this(output, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param output
+   *          the writer that prints the rows on the background thread.
+   * @param capacity
+   *          the number of rows that can be waiting to be written.
+   */
+  public HierarchicalAsyncWriter(HierarchicalWriter output, int capacity)
+  {
+    super();
+    this.output = output;
+    this.capacity = capacity;
+  }
+
+  @Override
+  public void init(String filename) throws IOException
+  {
+    if (thread == null)
+    {
+      start();
+    }
+    submit(new Entry(Command.OPEN, filename));
+  }
+
+  @Override
+  public void print() throws IOException
+  {
+    Entry entry = takeFree();
+    getValues(entry.values);
+    pending.add(entry);
+  }
+
+  @Override
+  public void print(double[] values) throws IOException
+  {
+    Entry entry = takeFree();
+    System.arraycopy(values, 0, entry.values, 0, values.length);
+    pending.add(entry);
+  }
+
+  @Override
+  public void addVariable(String id, HierarchicalNode node, int index, boolean isConcentration)
+  {
+    output.addVariable(id, node, index, isConcentration);
+    addNode(node, index, isConcentration);
+  }
+
+  /**
+   * Waits until every queued row has been written.
+   */
+  @Override
+  public void flush() throws IOException
+  {
+    if (thread != null)
+    {
+      submit(new Entry(Command.FLUSH, null));
+    }
+  }
+
+  /**
+   * Waits until every queued row has been written, closes the file, and stops the background
+   * thread.
+   */
+  @Override
+  public void close() throws IOException
+  {
+    if (thread != null)
+    {
+      try
+      {
+        submit(new Entry(Command.CLOSE, null));
+      }
+      finally
+      {
+        thread = null;
+      }
+    }
+  }
+
+  private void start()
+  {
+    int width = getNumberOfVariables();
+    pending = new ArrayBlockingQueue<Entry>(capacity + 1);
+    free = new ArrayBlockingQueue<Entry>(capacity);
+    for (int i = 0; i < capacity; ++i)
+    {
+      free.add(new Entry(new double[width]));
+    }
+    error = null;
+    thread = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        process();
+      }
+    }, "Hierarchical simulation output");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /*
+   * Runs on the background thread until a close command.
+   */
+  private void process()
+  {
+    while (true)
+    {
+      Entry entry;
+      try
+      {
+        entry = pending.take();
+      }
+      catch (InterruptedException e)
+      {
+        return;
+      }
+      try
+      {
+        if (error == null)
+        {
+          switch (entry.command)
+          {
+          case ROW:
+            output.print(entry.values);
+            break;
+          case OPEN:
+            output.init(entry.filename);
+            break;
+          case FLUSH:
+            output.flush();
+            break;
+          case CLOSE:
+            output.close();
+            break;
+          }
+        }
+      }
+      catch (IOException e)
+      {
+        error = e;
+      }
+      finally
+      {
+        if (entry.command == Command.ROW)
+        {
+          free.add(entry);
+        }
+        else
+        {
+          entry.done.countDown();
+        }
+      }
+      if (entry.command == Command.CLOSE)
+      {
+        return;
+      }
+    }
+  }
+
+  /*
+   * Returns an unused row, waiting for the background thread when every row is queued.
+   */
+  private Entry takeFree() throws IOException
+  {
+    checkError();
+    try
+    {
+      return free.take();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the output writer.", e);
+    }
+  }
+
+  /*
+   * Queues a command and waits until the background thread has executed it.
+   */
+  private void submit(Entry entry) throws IOException
+  {
+    try
+    {
+      pending.put(entry);
+      entry.done.await();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the output writer.", e);
+    }
+    checkError();
+  }
+
+  private void checkError() throws IOException
+  {
+    if (error != null)
+    {
+      throw error;
+    }
+  }
+}
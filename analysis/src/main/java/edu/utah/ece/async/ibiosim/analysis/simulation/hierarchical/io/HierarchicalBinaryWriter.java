@@ -0,0 +1,136 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.io;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.HierarchicalNode;
+import edu.utah.ece.async.ibiosim.dataModels.util.dataparser.BTSDParser;
+
+/**
+ * Writer for the binary time series format read by {@link BTSDParser}. Every printed row is a
+ * record of little-endian doubles, one per variable, collected in a direct buffer and written
+ * to a file channel when the buffer is full, so rows are neither formatted as text nor flushed
+ * one by one.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class HierarchicalBinaryWriter extends HierarchicalWriter
+{
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final List<String> listOfIds;
+
+  private FileChannel channel;
+
+  private ByteBuffer buffer;
+
+  public HierarchicalBinaryWriter()
+  {
+    super();
+    listOfIds = new ArrayList<String>();
+  }
+
+  @Override
+  public void init(String filename) throws IOException
+  {
+    // not every simulator closes the writer at the end of a run
+    close();
+    channel = new FileOutputStream(filename).getChannel();
+    int recordSize = 8 * listOfStates.size();
+    if (buffer == null || buffer.capacity() < recordSize)
+    {
+      buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, recordSize)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    buffer.clear();
+
+    List<byte[]> ids = new ArrayList<byte[]>(listOfIds.size());
+    int headerSize = 12;
+    for (String id : listOfIds)
+    {
+      byte[] bytes = id.getBytes(BTSDParser.CHARSET);
+      ids.add(bytes);
+      headerSize += 4 + bytes.length;
+    }
+    ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(BTSDParser.MAGIC);
+    header.putInt(BTSDParser.VERSION);
+    header.putInt(ids.size());
+    for (byte[] bytes : ids)
+    {
+      header.putInt(bytes.length);
+      header.put(bytes);
+    }
+    header.flip();
+    while (header.hasRemaining())
+    {
+      channel.write(header);
+    }
+  }
+
+  @Override
+  public void print(double[] values) throws IOException
+  {
+    if (buffer.remaining() < 8 * values.length)
+    {
+      flush();
+    }
+    for (double value : values)
+    {
+      buffer.putDouble(value);
+    }
+  }
+
+  @Override
+  public void addVariable(String id, HierarchicalNode node, int index, boolean isConcentration)
+  {
+    listOfIds.add(id);
+    addNode(node, index, isConcentration);
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    if (channel != null)
+    {
+      flush();
+      channel.close();
+      channel = null;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException
+  {
+    if (channel == null)
+    {
+      return;
+    }
+    buffer.flip();
+    while (buffer.hasRemaining())
+    {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+}
@@ -33,15 +33,15 @@ public class HierarchicalCSVWriter extends HierarchicalWriter{
   }
   
   @Override
-  public void print() throws IOException {
+  public void print(double[] values) throws IOException {
     bufferedWriter.write("\n");
-    if(listOfStates.size() > 0)
+    if(values.length > 0)
     {
-      bufferedWriter.write(String.valueOf(listOfStates.get(0).toString()));
+      bufferedWriter.write(String.valueOf(values[0]));
       
-      for(int i = 1; i < this.listOfStates.size(); ++i)
+      for(int i = 1; i < values.length; ++i)
       {
-        bufferedWriter.write(String.valueOf(separator) + listOfStates.get(i).toString());
+        bufferedWriter.write(String.valueOf(separator) + values[i]);
       }
     }
     
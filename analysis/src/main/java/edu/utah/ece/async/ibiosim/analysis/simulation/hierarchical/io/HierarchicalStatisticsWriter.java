@@ -0,0 +1,204 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.HierarchicalNode;
+import edu.utah.ece.async.ibiosim.dataModels.util.dataparser.DataParser;
+
+/**
+ * Writer that keeps the running mean and variance of every printed variable at every print
+ * point, instead of writing the values of each run to a file. The values are accumulated with
+ * Welford's method as the runs print them, so the mean, variance, and standard deviation of
+ * the whole ensemble are available without reading the run files back. The first variable is
+ * the print time, which is the same in every run.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class HierarchicalStatisticsWriter extends HierarchicalWriter
+{
+
+  private final List<String> listOfIds;
+
+  /*
+   * The statistics of print point k and variable j are at index k * width + j.
+   */
+  private double[] mean;
+
+  private double[] m2;
+
+  private int[] counts;
+
+  private int numPoints;
+
+  private int currentPoint;
+
+  public HierarchicalStatisticsWriter()
+  {
+    super();
+    listOfIds = new ArrayList<String>();
+    mean = new double[0];
+    m2 = new double[0];
+    counts = new int[0];
+  }
+
+  /**
+   * Starts a new run. The filename is ignored since nothing is written per run.
+   */
+  @Override
+  public void init(String filename) throws IOException
+  {
+    currentPoint = 0;
+  }
+
+  @Override
+  public void print(double[] values) throws IOException
+  {
+    int width = values.length;
+    if (currentPoint == numPoints)
+    {
+      addPoint(width);
+    }
+    int count = ++counts[currentPoint];
+    int offset = currentPoint * width;
+    for (int i = 0; i < width; ++i)
+    {
+      double value = values[i];
+      double delta = value - mean[offset + i];
+      mean[offset + i] += delta / count;
+      m2[offset + i] += delta * (value - mean[offset + i]);
+    }
+    currentPoint++;
+  }
+
+  @Override
+  public void addVariable(String id, HierarchicalNode node, int index, boolean isConcentration)
+  {
+    listOfIds.add(id);
+    addNode(node, index, isConcentration);
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+
+  }
+
+  private void addPoint(int width)
+  {
+    if (numPoints == counts.length)
+    {
+      int capacity = Math.max(16, 2 * numPoints);
+      counts = Arrays.copyOf(counts, capacity);
+      mean = Arrays.copyOf(mean, capacity * width);
+      m2 = Arrays.copyOf(m2, capacity * width);
+    }
+    numPoints++;
+  }
+
+  /**
+   * Adds the runs accumulated by another writer printing the same variables, combining the
+   * statistics of each print point with the pairwise update of Chan et al.
+   */
+  public void merge(HierarchicalStatisticsWriter other)
+  {
+    int width = listOfStates.size();
+    while (numPoints < other.numPoints)
+    {
+      addPoint(width);
+    }
+    for (int k = 0; k < other.numPoints; ++k)
+    {
+      int n1 = counts[k], n2 = other.counts[k];
+      if (n2 == 0)
+      {
+        continue;
+      }
+      int n = n1 + n2;
+      int offset = k * width;
+      for (int i = 0; i < width; ++i)
+      {
+        double delta = other.mean[offset + i] - mean[offset + i];
+        mean[offset + i] += delta * n2 / n;
+        m2[offset + i] += other.m2[offset + i] + delta * delta * ((double) n1 * n2 / n);
+      }
+      counts[k] = n;
+    }
+  }
+
+  /**
+   * Returns the number of runs that reached the given print point.
+   */
+  public int getCount(int point)
+  {
+    return counts[point];
+  }
+
+  public int getNumberOfPoints()
+  {
+    return numPoints;
+  }
+
+  /**
+   * Writes mean.tsd, variance.tsd, and standard_deviation.tsd to the given directory. The
+   * variance is the sample variance, and it is zero at points reached by a single run.
+   */
+  public void output(String directory)
+  {
+    if (numPoints == 0)
+    {
+      return;
+    }
+    int width = listOfStates.size();
+    ArrayList<ArrayList<Double>> meanData = new ArrayList<ArrayList<Double>>();
+    ArrayList<ArrayList<Double>> varianceData = new ArrayList<ArrayList<Double>>();
+    ArrayList<ArrayList<Double>> deviationData = new ArrayList<ArrayList<Double>>();
+    for (int i = 0; i < width; ++i)
+    {
+      ArrayList<Double> meanValues = new ArrayList<Double>(numPoints);
+      ArrayList<Double> varianceValues = new ArrayList<Double>(numPoints);
+      ArrayList<Double> deviationValues = new ArrayList<Double>(numPoints);
+      for (int k = 0; k < numPoints; ++k)
+      {
+        double value = mean[k * width + i];
+        meanValues.add(value);
+        if (i == 0)
+        {
+          varianceValues.add(value);
+          deviationValues.add(value);
+        }
+        else
+        {
+          double variance = counts[k] > 1 ? m2[k * width + i] / (counts[k] - 1) : 0;
+          varianceValues.add(variance);
+          deviationValues.add(Math.sqrt(variance));
+        }
+      }
+      meanData.add(meanValues);
+      varianceData.add(varianceValues);
+      deviationData.add(deviationValues);
+    }
+    ArrayList<String> species = new ArrayList<String>(listOfIds);
+    new DataParser(species, meanData).outputTSD(directory + File.separator + "mean.tsd");
+    new DataParser(species, varianceData).outputTSD(directory + File.separator + "variance.tsd");
+    new DataParser(species, deviationData).outputTSD(directory + File.separator + "standard_deviation.tsd");
+  }
+}
@@ -30,20 +30,27 @@ public class HierarchicalTSDWriter extends HierarchicalWriter{
 		header = new StringBuilder();
 	}
 	@Override
-	public void print() throws IOException {
+	public void print(double[] values) throws IOException {
 		bufferedWriter.write(",\n(");
-		if(listOfStates.size() > 0)
+		if(values.length > 0)
 		{
-		  bufferedWriter.write(listOfStates.get(0).toString());
+		  bufferedWriter.write(String.valueOf(values[0]));
 		  
-		  for(int i = 1; i < this.listOfStates.size(); ++i)
+		  for(int i = 1; i < values.length; ++i)
 		  {
-		    bufferedWriter.write("," + listOfStates.get(i).toString());
+		    bufferedWriter.write("," + values[i]);
 		  }
 		}
 		
 		bufferedWriter.write(")");
-		bufferedWriter.flush();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if(bufferedWriter != null)
+		{
+			bufferedWriter.flush();
+		}
 	}
 
 	@Override
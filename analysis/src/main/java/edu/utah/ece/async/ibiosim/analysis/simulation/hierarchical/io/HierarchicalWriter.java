@@ -40,6 +40,8 @@ public abstract class HierarchicalWriter {
   
   protected boolean isSet;
   
+  private double[] row;
+  
   public HierarchicalWriter()
   {
     listOfStates = new ArrayList<WriterNode>();
@@ -48,7 +50,61 @@ public abstract class HierarchicalWriter {
   
   public abstract void init(String filename) throws IOException;
   
-  public abstract void print() throws IOException;
+  /**
+   * Writes the current values of the variables.
+   * 
+   * @throws IOException
+   */
+  public void print() throws IOException
+  {
+    if (row == null || row.length != listOfStates.size())
+    {
+      row = new double[listOfStates.size()];
+    }
+    print(getValues(row));
+  }
+  
+  /**
+   * Writes a row of values, in the order the variables were added.
+   * 
+   * @param values
+   * @throws IOException
+   */
+  public abstract void print(double[] values) throws IOException;
+  
+  /**
+   * Writes out any buffered rows without closing the writer.
+   * 
+   * @throws IOException
+   */
+  public void flush() throws IOException
+  {
+    
+  }
+  
+  /**
+   * Copies the current values of the variables into the given array.
+   * 
+   * @param values
+   * @return the array.
+   */
+  public double[] getValues(double[] values)
+  {
+    for (int i = 0; i < listOfStates.size(); ++i)
+    {
+      values[i] = listOfStates.get(i).getValue();
+    }
+    return values;
+  }
+  
+  /**
+   * 
+   * @return the number of variables in a row.
+   */
+  public int getNumberOfVariables()
+  {
+    return listOfStates.size();
+  }
   
   public abstract void addVariable(String id, HierarchicalNode node, int index,  boolean isConcentration);
   
@@ -91,20 +147,22 @@ public abstract class HierarchicalWriter {
     /**
      * 
      */
-    public String toString()
+    public double getValue()
     {
-      double value = 0;
       if(isConcentration && node.isSpecies())
       {
         SpeciesNode species = (SpeciesNode) node;
-        value = species.getConcentration(index);
-      }
-      else
-      {
-        value = node.getValue(index);
+        return species.getConcentration(index);
       }
-      
-      return String.valueOf(value);
+      return node.getValue(index);
+    }
+    
+    /**
+     * 
+     */
+    public String toString()
+    {
+      return String.valueOf(getValue());
     }
   }
 
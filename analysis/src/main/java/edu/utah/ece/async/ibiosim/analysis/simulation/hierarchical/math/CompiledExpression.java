@@ -11,40 +11,22 @@
  * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
  *  
  *******************************************************************************/
-package edu.utah.ece.async.ibiosim.analysis.markov;
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math;
 
 /**
- * 
+ * A math expression compiled by {@link ExpressionCompiler} for a fixed model index.
  *
- * @author 
+ * @author Leandro Watanabe
  * @author Chris Myers
  * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
  * @version %I%
  */
-public class TransientMarkovMatrixMultiplyThread extends Thread {
+public abstract class CompiledExpression
+{
 
-	private StateGraph sg;
+  /**
+   * Evaluates the expression against the current values of the simulation state.
+   */
+  public abstract double evaluate();
 
-	private double Gamma, timeLimit;
-
-	private int startIndex, endIndex, K;
-
-	public TransientMarkovMatrixMultiplyThread(StateGraph sg) {
-		super(sg);
-		this.sg = sg;
-	}
-
-	public void start(int startIndex, int endIndex, double Gamma, double timeLimit, int K) {
-		this.timeLimit = timeLimit;
-		this.Gamma = Gamma;
-		this.startIndex = startIndex;
-		this.endIndex = endIndex;
-		this.K = K;
-		super.start();
-	}
-
-	@Override
-	public void run() {
-		sg.transientMarkovMatrixMultiplication(startIndex, endIndex, Gamma, timeLimit, K);
-	}
 }
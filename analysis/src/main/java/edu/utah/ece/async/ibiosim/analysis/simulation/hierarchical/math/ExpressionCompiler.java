@@ -0,0 +1,684 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math;
+
+import java.util.function.DoubleUnaryOperator;
+
+import org.apache.commons.math3.util.FastMath;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.DenseState;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.HierarchicalState;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.VectorState;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.VectorWrapper;
+
+/**
+ * Compiles {@link HierarchicalNode} math into trees of {@link CompiledExpression} objects. The
+ * expression is specialized for a model index: every variable is resolved once to the state
+ * that holds its value, or to its offset in the state vector, and every operator node is replaced by an object that evaluates its
+ * operands directly, so evaluation does no type dispatch or state lookup. Math that cannot be
+ * compiled, such as random distributions, delay and rateOf, is evaluated by {@link Evaluator}.
+ * The compiled expressions return the same values as the interpreter.
+ *
+ * @author Leandro Watanabe
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public final class ExpressionCompiler
+{
+
+  private ExpressionCompiler()
+  {
+
+  }
+
+  /**
+   * Compiles the given math for the given model index. Returns null if the math is null.
+   */
+  public static CompiledExpression compile(HierarchicalNode node, int index)
+  {
+    if (node == null)
+    {
+      return null;
+    }
+
+    switch (node.getType())
+    {
+    case CONSTANT_TRUE:
+      return new Constant(1.0);
+    case CONSTANT_FALSE:
+      return new Constant(0.0);
+    case CONSTANT_E:
+      return new Constant(Math.E);
+    case CONSTANT_PI:
+      return new Constant(Math.PI);
+    case NAME_AVOGADRO:
+      return new Constant(6.02214179e23);
+    case NUMBER:
+      return compileNumber(node, index);
+    case NAME:
+    case NAME_TIME:
+      return compileName(node, index);
+    case PLUS:
+      return new Plus(compileChildren(node, index));
+    case MINUS:
+      if (node.getNumOfChild() == 1)
+      {
+        return new Negate(compile(node.getChild(0), index));
+      }
+      return new Minus(compileChildren(node, index));
+    case TIMES:
+      return new Times(compileChildren(node, index));
+    case DIVIDE:
+      return new Divide(compile(node.getChild(0), index), compile(node.getChild(1), index));
+    case POWER:
+    case FUNCTION_POWER:
+      return new Power(compile(node.getChild(0), index), compile(node.getChild(1), index));
+    case LOGICAL_NOT:
+    case LOGICAL_AND:
+    case LOGICAL_OR:
+    case LOGICAL_XOR:
+    case LOGICAL_IMPLIES:
+      return new Logical(node.getType(), compileChildren(node, index));
+    case RELATIONAL_EQ:
+    case RELATIONAL_NEQ:
+    case RELATIONAL_GEQ:
+    case RELATIONAL_LEQ:
+    case RELATIONAL_GT:
+    case RELATIONAL_LT:
+      return new Relational(node.getType(), compileChildren(node, index));
+    case FUNCTION_PIECEWISE:
+      return new Piecewise(compileChildren(node, index));
+    case FUNCTION_MIN:
+      return node.getNumOfChild() == 0 ? new Constant(Double.NaN) : new Min(compileChildren(node, index));
+    case FUNCTION_MAX:
+      return node.getNumOfChild() == 0 ? new Constant(Double.NaN) : new Max(compileChildren(node, index));
+    case FUNCTION_ABS:
+      return new Unary(compile(node.getChild(0), index), Math::abs);
+    case FUNCTION_ARCCOS:
+      return new Unary(compile(node.getChild(0), index), Math::acos);
+    case FUNCTION_ARCSIN:
+      return new Unary(compile(node.getChild(0), index), Math::asin);
+    case FUNCTION_ARCTAN:
+      return new Unary(compile(node.getChild(0), index), Math::atan);
+    case FUNCTION_CEILING:
+      return new Unary(compile(node.getChild(0), index), Math::ceil);
+    case FUNCTION_COS:
+      return new Unary(compile(node.getChild(0), index), Math::cos);
+    case FUNCTION_COSH:
+      return new Unary(compile(node.getChild(0), index), Math::cosh);
+    case FUNCTION_EXP:
+      return new Unary(compile(node.getChild(0), index), Math::exp);
+    case FUNCTION_FLOOR:
+      return new Unary(compile(node.getChild(0), index), Math::floor);
+    case FUNCTION_LN:
+      return new Unary(compile(node.getChild(0), index), Math::log);
+    case FUNCTION_SIN:
+      return new Unary(compile(node.getChild(0), index), Math::sin);
+    case FUNCTION_SINH:
+      return new Unary(compile(node.getChild(0), index), Math::sinh);
+    case FUNCTION_TAN:
+      return new Unary(compile(node.getChild(0), index), Math::tan);
+    case FUNCTION_TANH:
+      return new Unary(compile(node.getChild(0), index), Math::tanh);
+    case FUNCTION_SEC:
+      return new Unary(compile(node.getChild(0), index), value -> 1 / Math.cos(value));
+    case FUNCTION_SECH:
+      return new Unary(compile(node.getChild(0), index), value -> 1 / Math.cosh(value));
+    case FUNCTION_COT:
+      return new Unary(compile(node.getChild(0), index), value -> 1 / Math.tan(value));
+    case FUNCTION_COTH:
+      return new Unary(compile(node.getChild(0), index), value -> Math.sinh(value) / Math.cosh(value));
+    case FUNCTION_CSC:
+      return new Unary(compile(node.getChild(0), index), value -> 1 / Math.sin(value));
+    case FUNCTION_CSCH:
+      return new Unary(compile(node.getChild(0), index), value -> 1 / Math.sinh(value));
+    case FUNCTION_ARCTANH:
+      return new Unary(compile(node.getChild(0), index), value -> 0.5 * (Math.log(value + 1) - Math.log(1 - value)));
+    case FUNCTION_ARCSINH:
+      return new Unary(compile(node.getChild(0), index), value -> Math.log(value + Math.sqrt(value * value + 1)));
+    case FUNCTION_ARCCOSH:
+      return new Unary(compile(node.getChild(0), index), value -> Math.log(value + Math.sqrt(value + 1) * Math.sqrt(value - 1)));
+    case FUNCTION_ARCCOT:
+      return new Unary(compile(node.getChild(0), index), value -> Math.atan(1 / value));
+    case FUNCTION_ARCCOTH:
+      return new Unary(compile(node.getChild(0), index), value -> 0.5 * (Math.log(1 + 1 / value) - Math.log(1 - 1 / value)));
+    case FUNCTION_ARCCSC:
+      return new Unary(compile(node.getChild(0), index), value -> Math.asin(1 / value));
+    case FUNCTION_ARCCSCH:
+      return new Unary(compile(node.getChild(0), index), value -> Math.log(1 / value + Math.sqrt(1 / (value * value) + 1)));
+    case FUNCTION_ARCSEC:
+      return new Unary(compile(node.getChild(0), index), value -> Math.acos(1 / value));
+    case FUNCTION_ARCSECH:
+      return new Unary(compile(node.getChild(0), index), value -> Math.log(1 / value + Math.sqrt(1 / value + 1) * Math.sqrt(1 / value - 1)));
+    case FUNCTION_FACTORIAL:
+      return new Unary(compile(node.getChild(0), index), ExpressionCompiler::factorial);
+    case FUNCTION_LOG:
+      return new Log(compile(node.getChild(0), index), compile(node.getChild(1), index));
+    case FUNCTION_ROOT:
+      return new Root(compile(node.getChild(0), index), compile(node.getChild(1), index));
+    case FUNCTION_REM:
+      return new Remainder(compile(node.getChild(0), index), compile(node.getChild(1), index));
+    case FUNCTION_QUOTIENT:
+      return new Quotient(compile(node.getChild(0), index), compile(node.getChild(1), index));
+    default:
+      return new Interpreted(node, index);
+    }
+  }
+
+  private static CompiledExpression compileNumber(HierarchicalNode node, int index)
+  {
+    if (node instanceof NumberNode)
+    {
+      return new Constant(node.getValue());
+    }
+    else if (node.getState() != null)
+    {
+      return new StateValue(node.getState());
+    }
+    return new Interpreted(node, index);
+  }
+
+  private static CompiledExpression compileName(HierarchicalNode node, int index)
+  {
+    HierarchicalState state = node.getState();
+    if (state != null && !(state instanceof DenseState))
+    {
+      HierarchicalState atomic = state.getState(index);
+      if (atomic instanceof VectorState && ((VectorState) atomic).getVectorWrapper().isSet())
+      {
+        VectorState vector = (VectorState) atomic;
+        return new VectorValue(vector.getVectorWrapper(), vector.getVectorIndex());
+      }
+      else if (atomic != null)
+      {
+        return new StateValue(atomic);
+      }
+    }
+    return new Interpreted(node, index);
+  }
+
+  private static CompiledExpression[] compileChildren(HierarchicalNode node, int index)
+  {
+    CompiledExpression[] children = new CompiledExpression[node.getNumOfChild()];
+    for (int i = 0; i < children.length; i++)
+    {
+      children[i] = compile(node.getChild(i), index);
+    }
+    return children;
+  }
+
+  private static double factorial(double value)
+  {
+    int leftValue = (int) value;
+    double result = 1;
+    while (leftValue > 0)
+    {
+      result = result * leftValue;
+      leftValue--;
+    }
+    return result;
+  }
+
+  static final class Constant extends CompiledExpression
+  {
+    private final double value;
+
+    Constant(double value)
+    {
+      this.value = value;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      return value;
+    }
+  }
+
+  static final class StateValue extends CompiledExpression
+  {
+    private final HierarchicalState state;
+
+    StateValue(HierarchicalState state)
+    {
+      this.state = state;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      return state.getStateValue();
+    }
+  }
+
+  static final class VectorValue extends CompiledExpression
+  {
+    private final VectorWrapper wrapper;
+    private final int           offset;
+
+    VectorValue(VectorWrapper wrapper, int offset)
+    {
+      this.wrapper = wrapper;
+      this.offset = offset;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      return wrapper.getValues()[offset];
+    }
+  }
+
+  static final class Interpreted extends CompiledExpression
+  {
+    private final HierarchicalNode  node;
+    private final int               index;
+
+    Interpreted(HierarchicalNode node, int index)
+    {
+      this.node = node;
+      this.index = index;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      return Evaluator.evaluateExpressionRecursive(node, index);
+    }
+  }
+
+  static final class Plus extends CompiledExpression
+  {
+    private final CompiledExpression[] children;
+
+    Plus(CompiledExpression[] children)
+    {
+      this.children = children;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      double result = 0.0;
+      for (CompiledExpression child : children)
+      {
+        result += child.evaluate();
+      }
+      return result;
+    }
+  }
+
+  static final class Minus extends CompiledExpression
+  {
+    private final CompiledExpression[] children;
+
+    Minus(CompiledExpression[] children)
+    {
+      this.children = children;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      double result = children[0].evaluate();
+      for (int i = 1; i < children.length; i++)
+      {
+        result -= children[i].evaluate();
+      }
+      return result;
+    }
+  }
+
+  static final class Negate extends CompiledExpression
+  {
+    private final CompiledExpression child;
+
+    Negate(CompiledExpression child)
+    {
+      this.child = child;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      return -child.evaluate();
+    }
+  }
+
+  static final class Times extends CompiledExpression
+  {
+    private final CompiledExpression[] children;
+
+    Times(CompiledExpression[] children)
+    {
+      this.children = children;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      double result = 1.0;
+      for (CompiledExpression child : children)
+      {
+        result *= child.evaluate();
+      }
+      return result;
+    }
+  }
+
+  static final class Divide extends CompiledExpression
+  {
+    private final CompiledExpression left, right;
+
+    Divide(CompiledExpression left, CompiledExpression right)
+    {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      double leftValue = left.evaluate();
+      return leftValue / right.evaluate();
+    }
+  }
+
+  static final class Power extends CompiledExpression
+  {
+    private final CompiledExpression left, right;
+
+    Power(CompiledExpression left, CompiledExpression right)
+    {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      double leftValue = left.evaluate();
+      return Math.pow(leftValue, right.evaluate());
+    }
+  }
+
+  static final class Log extends CompiledExpression
+  {
+    private final CompiledExpression base, value;
+
+    Log(CompiledExpression base, CompiledExpression value)
+    {
+      this.base = base;
+      this.value = value;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      double baseValue = base.evaluate();
+      return Math.log(value.evaluate()) / Math.log(baseValue);
+    }
+  }
+
+  static final class Root extends CompiledExpression
+  {
+    private final CompiledExpression degree, value;
+
+    Root(CompiledExpression degree, CompiledExpression value)
+    {
+      this.degree = degree;
+      this.value = value;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      double radicand = value.evaluate();
+      return FastMath.pow(radicand, 1 / degree.evaluate());
+    }
+  }
+
+  static final class Remainder extends CompiledExpression
+  {
+    private final CompiledExpression left, right;
+
+    Remainder(CompiledExpression left, CompiledExpression right)
+    {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      double d0 = left.evaluate();
+      double d1 = right.evaluate();
+      int quo = (int) (d0 / d1);
+      return d0 - d1 * quo;
+    }
+  }
+
+  static final class Quotient extends CompiledExpression
+  {
+    private final CompiledExpression left, right;
+
+    Quotient(CompiledExpression left, CompiledExpression right)
+    {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      double d0 = left.evaluate();
+      double d1 = right.evaluate();
+      return (int) (d0 / d1);
+    }
+  }
+
+  static final class Unary extends CompiledExpression
+  {
+    private final CompiledExpression    child;
+    private final DoubleUnaryOperator   function;
+
+    Unary(CompiledExpression child, DoubleUnaryOperator function)
+    {
+      this.child = child;
+      this.function = function;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      return function.applyAsDouble(child.evaluate());
+    }
+  }
+
+  static final class Min extends CompiledExpression
+  {
+    private final CompiledExpression[] children;
+
+    Min(CompiledExpression[] children)
+    {
+      this.children = children;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      double min = children[0].evaluate();
+      for (int i = 1; i < children.length; i++)
+      {
+        double tmp = children[i].evaluate();
+        if (tmp < min)
+        {
+          min = tmp;
+        }
+      }
+      return min;
+    }
+  }
+
+  static final class Max extends CompiledExpression
+  {
+    private final CompiledExpression[] children;
+
+    Max(CompiledExpression[] children)
+    {
+      this.children = children;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      double max = children[0].evaluate();
+      for (int i = 1; i < children.length; i++)
+      {
+        double tmp = children[i].evaluate();
+        if (tmp > max)
+        {
+          max = tmp;
+        }
+      }
+      return max;
+    }
+  }
+
+  static final class Piecewise extends CompiledExpression
+  {
+    private final CompiledExpression[] children;
+
+    Piecewise(CompiledExpression[] children)
+    {
+      this.children = children;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      for (int i = 0; i < children.length - 1; i += 2)
+      {
+        if (children[i + 1].evaluate() > 0)
+        {
+          return children[i].evaluate();
+        }
+      }
+      return children[children.length - 1].evaluate();
+    }
+  }
+
+  static final class Logical extends CompiledExpression
+  {
+    private final AbstractHierarchicalNode.Type type;
+    private final CompiledExpression[]          children;
+
+    Logical(AbstractHierarchicalNode.Type type, CompiledExpression[] children)
+    {
+      this.type = type;
+      this.children = children;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      switch (type)
+      {
+      case LOGICAL_NOT:
+        return children[0].evaluate() < 1 ? 1 : 0;
+      case LOGICAL_AND:
+        for (CompiledExpression child : children)
+        {
+          if (child.evaluate() == 0)
+          {
+            return 0;
+          }
+        }
+        return 1;
+      case LOGICAL_OR:
+        for (CompiledExpression child : children)
+        {
+          if (child.evaluate() == 1)
+          {
+            return 1;
+          }
+        }
+        return 0;
+      case LOGICAL_IMPLIES:
+      {
+        double a = children[0].evaluate();
+        double b = children[1].evaluate();
+        return a < 1 || b > 0 ? 1 : 0;
+      }
+      default:
+      {
+        boolean xorResult = children.length == 0 ? false : children[0].evaluate() > 0;
+        for (int i = 1; i < children.length; i++)
+        {
+          xorResult = xorResult ^ children[i].evaluate() > 0;
+        }
+        return xorResult ? 1 : 0;
+      }
+      }
+    }
+  }
+
+  static final class Relational extends CompiledExpression
+  {
+    private final AbstractHierarchicalNode.Type type;
+    private final CompiledExpression[]          children;
+
+    Relational(AbstractHierarchicalNode.Type type, CompiledExpression[] children)
+    {
+      this.type = type;
+      this.children = children;
+    }
+
+    @Override
+    public double evaluate()
+    {
+      double lhs = children[0].evaluate();
+      for (int i = 1; i < children.length; i++)
+      {
+        double rhs = children[i].evaluate();
+        if (fails(lhs, rhs))
+        {
+          return 0;
+        }
+        lhs = rhs;
+      }
+      return 1;
+    }
+
+    private boolean fails(double lhs, double rhs)
+    {
+      switch (type)
+      {
+      case RELATIONAL_EQ:
+        return lhs != rhs;
+      case RELATIONAL_NEQ:
+        return lhs == rhs;
+      case RELATIONAL_GEQ:
+        return lhs < rhs;
+      case RELATIONAL_LEQ:
+        return lhs > rhs;
+      case RELATIONAL_GT:
+        return lhs <= rhs;
+      default:
+        return lhs >= rhs;
+      }
+    }
+  }
+}
@@ -0,0 +1,449 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ExpressionCompiler.Constant;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ExpressionCompiler.Divide;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ExpressionCompiler.Minus;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ExpressionCompiler.Negate;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ExpressionCompiler.Piecewise;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ExpressionCompiler.Plus;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ExpressionCompiler.Power;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ExpressionCompiler.Times;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ExpressionCompiler.Unary;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.HierarchicalState;
+
+/**
+ * Differentiates {@link HierarchicalNode} math symbolically with respect to a variable and
+ * compiles the derivative into {@link CompiledExpression} objects, for a fixed model index like
+ * {@link ExpressionCompiler}. Variables are identified by the state object they resolve to at the
+ * model index. A variable whose value is defined by other math, such as the output of an
+ * assignment rule or the propensity of a reaction, can be given a definition, and its derivative
+ * is then the derivative of its definition. Relational, logical and rounding functions are piecewise
+ * constant and have a zero derivative. Math that cannot be differentiated, such as delay, rateOf
+ * and function calls, has no derivative.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public final class ExpressionDifferentiator
+{
+
+  private static final CompiledExpression       ZERO = new Constant(0.0);
+  private static final CompiledExpression       ONE  = new Constant(1.0);
+
+  private final Map<Object, HierarchicalNode[]> definitions;
+  private final Map<Object, Integer>            definitionIndices;
+  private final Map<Object, CompiledExpression> derivatives;
+  private final Map<Object, Boolean>            inProgress;
+  private Object                                variable;
+
+  public ExpressionDifferentiator()
+  {
+    this.definitions = new IdentityHashMap<Object, HierarchicalNode[]>();
+    this.definitionIndices = new IdentityHashMap<Object, Integer>();
+    this.derivatives = new IdentityHashMap<Object, CompiledExpression>();
+    this.inProgress = new IdentityHashMap<Object, Boolean>();
+  }
+
+  /**
+   * Defines the value of the given state as the sum of the given math, evaluated at the given
+   * model index. Null math is left out of the sum.
+   */
+  public void addDefinition(Object state, int index, HierarchicalNode... math)
+  {
+    definitions.put(state, math);
+    definitionIndices.put(state, index);
+  }
+
+  /**
+   * Returns the derivative of the given math with respect to the variable with the given state,
+   * or null if the math cannot be differentiated.
+   */
+  public CompiledExpression differentiate(HierarchicalNode node, int index, Object variable)
+  {
+    if (this.variable != variable)
+    {
+      this.variable = variable;
+      derivatives.clear();
+    }
+
+    return derive(node, index);
+  }
+
+  /**
+   * Returns true if the given derivative is known to be zero.
+   */
+  public static boolean isZero(CompiledExpression derivative)
+  {
+    return derivative == ZERO;
+  }
+
+  private CompiledExpression derive(HierarchicalNode node, int index)
+  {
+    if (node == null)
+    {
+      return ZERO;
+    }
+
+    switch (node.getType())
+    {
+    case CONSTANT_TRUE:
+    case CONSTANT_FALSE:
+    case CONSTANT_E:
+    case CONSTANT_PI:
+    case NAME_AVOGADRO:
+    case NAME_TIME:
+      return ZERO;
+    case NUMBER:
+      if (node instanceof NumberNode || node.getState() == null)
+      {
+        return ZERO;
+      }
+      return node.getState() == variable ? ONE : ZERO;
+    case NAME:
+      return deriveName(node, index);
+    case PLUS:
+      return derivePlus(node, index);
+    case MINUS:
+      return deriveMinus(node, index);
+    case TIMES:
+      return deriveTimes(node, index);
+    case DIVIDE:
+      return deriveDivide(node, index);
+    case POWER:
+    case FUNCTION_POWER:
+      return derivePower(node, index);
+    case FUNCTION_PIECEWISE:
+      return derivePiecewise(node, index);
+    case LOGICAL_NOT:
+    case LOGICAL_AND:
+    case LOGICAL_OR:
+    case LOGICAL_XOR:
+    case LOGICAL_IMPLIES:
+    case RELATIONAL_EQ:
+    case RELATIONAL_NEQ:
+    case RELATIONAL_GEQ:
+    case RELATIONAL_LEQ:
+    case RELATIONAL_GT:
+    case RELATIONAL_LT:
+    case FUNCTION_CEILING:
+    case FUNCTION_FLOOR:
+    case FUNCTION_QUOTIENT:
+      return ZERO;
+    case FUNCTION_EXP:
+      return chain(node, index, new Unary(compileChild(node, 0, index), Math::exp));
+    case FUNCTION_LN:
+      return chain(node, index, new Unary(compileChild(node, 0, index), value -> 1 / value));
+    case FUNCTION_SIN:
+      return chain(node, index, new Unary(compileChild(node, 0, index), Math::cos));
+    case FUNCTION_COS:
+      return chain(node, index, new Unary(compileChild(node, 0, index), value -> -Math.sin(value)));
+    case FUNCTION_TAN:
+      return chain(node, index, new Unary(compileChild(node, 0, index), value -> 1 / (Math.cos(value) * Math.cos(value))));
+    case FUNCTION_SINH:
+      return chain(node, index, new Unary(compileChild(node, 0, index), Math::cosh));
+    case FUNCTION_COSH:
+      return chain(node, index, new Unary(compileChild(node, 0, index), Math::sinh));
+    case FUNCTION_TANH:
+      return chain(node, index, new Unary(compileChild(node, 0, index), value -> 1 - Math.tanh(value) * Math.tanh(value)));
+    case FUNCTION_ABS:
+      return chain(node, index, new Unary(compileChild(node, 0, index), Math::signum));
+    case FUNCTION_ARCTAN:
+      return chain(node, index, new Unary(compileChild(node, 0, index), value -> 1 / (1 + value * value)));
+    case FUNCTION_LOG:
+      return deriveLog(node, index);
+    case FUNCTION_ROOT:
+      return deriveRoot(node, index);
+    default:
+      return null;
+    }
+  }
+
+  private CompiledExpression deriveName(HierarchicalNode node, int index)
+  {
+    HierarchicalState state = node.getState();
+    if (state == null)
+    {
+      return ZERO;
+    }
+
+    Object atomic = state.getState(index);
+    if (atomic == null)
+    {
+      atomic = node;
+    }
+
+    if (atomic == variable)
+    {
+      return ONE;
+    }
+
+    HierarchicalNode[] definition = definitions.get(atomic);
+    if (definition == null)
+    {
+      return ZERO;
+    }
+
+    if (derivatives.containsKey(atomic))
+    {
+      return derivatives.get(atomic);
+    }
+
+    // a definition that reads itself cannot be differentiated
+    if (inProgress.put(atomic, Boolean.TRUE) != null)
+    {
+      return null;
+    }
+
+    int definitionIndex = definitionIndices.get(atomic);
+    CompiledExpression[] terms = new CompiledExpression[definition.length];
+    for (int i = 0; i < definition.length; i++)
+    {
+      terms[i] = derive(definition[i], definitionIndex);
+    }
+    CompiledExpression derivative = sum(terms);
+
+    inProgress.remove(atomic);
+    derivatives.put(atomic, derivative);
+    return derivative;
+  }
+
+  private CompiledExpression derivePlus(HierarchicalNode node, int index)
+  {
+    CompiledExpression[] terms = new CompiledExpression[node.getNumOfChild()];
+    for (int i = 0; i < terms.length; i++)
+    {
+      terms[i] = derive(node.getChild(i), index);
+    }
+    return sum(terms);
+  }
+
+  private CompiledExpression deriveMinus(HierarchicalNode node, int index)
+  {
+    CompiledExpression[] terms = new CompiledExpression[node.getNumOfChild()];
+    for (int i = 0; i < terms.length; i++)
+    {
+      CompiledExpression term = derive(node.getChild(i), index);
+      if (term == null)
+      {
+        return null;
+      }
+      // a single operand is negated, and the other operands are subtracted from the first
+      terms[i] = (i > 0 || terms.length == 1) && term != ZERO ? new Negate(term) : term;
+    }
+    return sum(terms);
+  }
+
+  private CompiledExpression deriveTimes(HierarchicalNode node, int index)
+  {
+    int size = node.getNumOfChild();
+    CompiledExpression[] terms = new CompiledExpression[size];
+    for (int i = 0; i < size; i++)
+    {
+      CompiledExpression derivative = derive(node.getChild(i), index);
+      if (derivative == null)
+      {
+        return null;
+      }
+      if (derivative == ZERO)
+      {
+        terms[i] = ZERO;
+        continue;
+      }
+
+      CompiledExpression[] factors = new CompiledExpression[size];
+      for (int j = 0; j < size; j++)
+      {
+        factors[j] = i == j ? derivative : ExpressionCompiler.compile(node.getChild(j), index);
+      }
+      terms[i] = new Times(factors);
+    }
+    return sum(terms);
+  }
+
+  private CompiledExpression deriveDivide(HierarchicalNode node, int index)
+  {
+    CompiledExpression numeratorDerivative = derive(node.getChild(0), index);
+    CompiledExpression denominatorDerivative = derive(node.getChild(1), index);
+    if (numeratorDerivative == null || denominatorDerivative == null)
+    {
+      return null;
+    }
+
+    CompiledExpression denominator = ExpressionCompiler.compile(node.getChild(1), index);
+    CompiledExpression first = numeratorDerivative == ZERO ? ZERO : new Divide(numeratorDerivative, denominator);
+    if (denominatorDerivative == ZERO)
+    {
+      return first;
+    }
+
+    // (u / v)' = u' / v - u v' / v^2
+    CompiledExpression numerator = ExpressionCompiler.compile(node.getChild(0), index);
+    CompiledExpression second = new Divide(new Times(new CompiledExpression[] { numerator, denominatorDerivative }),
+      new Times(new CompiledExpression[] { denominator, denominator }));
+    return sum(first, new Negate(second));
+  }
+
+  private CompiledExpression derivePower(HierarchicalNode node, int index)
+  {
+    CompiledExpression baseDerivative = derive(node.getChild(0), index);
+    CompiledExpression exponentDerivative = derive(node.getChild(1), index);
+    if (baseDerivative == null || exponentDerivative == null)
+    {
+      return null;
+    }
+
+    CompiledExpression base = ExpressionCompiler.compile(node.getChild(0), index);
+    CompiledExpression exponent = ExpressionCompiler.compile(node.getChild(1), index);
+    CompiledExpression first = ZERO;
+    CompiledExpression second = ZERO;
+
+    // (u^v)' = v u^(v - 1) u' + u^v ln(u) v'
+    if (baseDerivative != ZERO)
+    {
+      CompiledExpression power = new Power(base, new Minus(new CompiledExpression[] { exponent, ONE }));
+      first = new Times(new CompiledExpression[] { exponent, power, baseDerivative });
+    }
+    if (exponentDerivative != ZERO)
+    {
+      second = new Times(new CompiledExpression[] { new Power(base, exponent), new Unary(base, Math::log), exponentDerivative });
+    }
+    return sum(first, second);
+  }
+
+  private CompiledExpression derivePiecewise(HierarchicalNode node, int index)
+  {
+    int size = node.getNumOfChild();
+    CompiledExpression[] children = new CompiledExpression[size];
+    boolean isZero = true;
+
+    // the pieces are differentiated and the conditions are kept
+    for (int i = 0; i < size; i++)
+    {
+      if (i % 2 == 1 && i < size - 1)
+      {
+        children[i] = ExpressionCompiler.compile(node.getChild(i), index);
+      }
+      else
+      {
+        children[i] = derive(node.getChild(i), index);
+        if (children[i] == null)
+        {
+          return null;
+        }
+        isZero &= children[i] == ZERO;
+      }
+    }
+    return isZero ? ZERO : new Piecewise(children);
+  }
+
+  private CompiledExpression deriveLog(HierarchicalNode node, int index)
+  {
+    CompiledExpression baseDerivative = derive(node.getChild(0), index);
+    CompiledExpression valueDerivative = derive(node.getChild(1), index);
+    if (baseDerivative != ZERO || valueDerivative == null)
+    {
+      return null;
+    }
+    else if (valueDerivative == ZERO)
+    {
+      return ZERO;
+    }
+
+    // log_b(u)' = u' / (u ln(b))
+    CompiledExpression base = ExpressionCompiler.compile(node.getChild(0), index);
+    CompiledExpression value = ExpressionCompiler.compile(node.getChild(1), index);
+    return new Divide(valueDerivative, new Times(new CompiledExpression[] { value, new Unary(base, Math::log) }));
+  }
+
+  private CompiledExpression deriveRoot(HierarchicalNode node, int index)
+  {
+    CompiledExpression degreeDerivative = derive(node.getChild(0), index);
+    CompiledExpression valueDerivative = derive(node.getChild(1), index);
+    if (degreeDerivative != ZERO || valueDerivative == null)
+    {
+      return null;
+    }
+    else if (valueDerivative == ZERO)
+    {
+      return ZERO;
+    }
+
+    // root_n(u)' = u^(1/n - 1) u' / n
+    CompiledExpression degree = ExpressionCompiler.compile(node.getChild(0), index);
+    CompiledExpression value = ExpressionCompiler.compile(node.getChild(1), index);
+    CompiledExpression inverse = new Divide(ONE, degree);
+    CompiledExpression power = new Power(value, new Minus(new CompiledExpression[] { inverse, ONE }));
+    return new Times(new CompiledExpression[] { inverse, power, valueDerivative });
+  }
+
+  /**
+   * Applies the chain rule to a function of one argument, given the derivative of the function
+   * evaluated at the argument.
+   */
+  private CompiledExpression chain(HierarchicalNode node, int index, CompiledExpression outer)
+  {
+    CompiledExpression inner = derive(node.getChild(0), index);
+    if (inner == null || inner == ZERO)
+    {
+      return inner;
+    }
+    return new Times(new CompiledExpression[] { outer, inner });
+  }
+
+  private CompiledExpression compileChild(HierarchicalNode node, int child, int index)
+  {
+    return ExpressionCompiler.compile(node.getChild(child), index);
+  }
+
+  /**
+   * Adds the terms that are not zero. Returns null if any term is null.
+   */
+  private static CompiledExpression sum(CompiledExpression... terms)
+  {
+    int count = 0;
+    for (CompiledExpression term : terms)
+    {
+      if (term == null)
+      {
+        return null;
+      }
+      else if (term != ZERO)
+      {
+        count++;
+      }
+    }
+
+    if (count == 0)
+    {
+      return ZERO;
+    }
+
+    CompiledExpression[] nonzero = new CompiledExpression[count];
+    count = 0;
+    for (CompiledExpression term : terms)
+    {
+      if (term != ZERO)
+      {
+        nonzero[count++] = term;
+      }
+    }
+    return count == 1 ? nonzero[0] : new Plus(nonzero);
+  }
+}
@@ -94,6 +94,16 @@ public class ReactionNode extends VariableNode
     return reverseRate;
   }
 
+  public List<SpeciesReferenceNode> getReactants()
+  {
+    return reactants;
+  }
+
+  public List<SpeciesReferenceNode> getProducts()
+  {
+    return products;
+  }
+
   public boolean computePropensity(int index)
   {
     double oldValue = getValue(index);
@@ -107,7 +117,7 @@ public class ReactionNode extends VariableNode
 
     if (reverseRate != null)
     {
-      double reverseRateValue = Evaluator.evaluateExpressionRecursive(forwardRate, index);
+      double reverseRateValue = Evaluator.evaluateExpressionRecursive(reverseRate, index);
       newValue = newValue + reverseRateValue;
     }
 
@@ -159,13 +159,6 @@ public final class HierarchicalMixedSimulator extends HierarchicalSimulation
 		fbaSim.setFBA(model);
 	}
 
-	@Override
-	public void printStatisticsTSD()
-	{
-		// TODO Auto-generated method stub
-
-	}
-	
 	VectorWrapper getVectorWrapper()
 	{
 	  return this.wrapper;
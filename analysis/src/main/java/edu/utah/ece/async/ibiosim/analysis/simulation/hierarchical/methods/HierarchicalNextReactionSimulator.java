@@ -0,0 +1,338 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods;
+
+import java.io.IOException;
+import java.util.PriorityQueue;
+
+import javax.xml.stream.XMLStreamException;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalSimulation;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.model.DependencyGraph;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.model.HierarchicalModel;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.model.HierarchicalModel.ModelType;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.VectorWrapper;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.IndexedPriorityQueue;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.comp.HierarchicalEventComparator;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.comp.TriggeredEventNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.setup.DependencySetup;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.setup.ModelSetup;
+import edu.utah.ece.async.ibiosim.dataModels.util.exceptions.BioSimException;
+
+/**
+ * Next reaction method (Gibson and Bruck) for hierarchical models. The putative firing time of
+ * every reaction is kept in an indexed priority queue, and only the reactions that depend on
+ * the fired reaction are rescheduled, reusing their random numbers when their propensity changes.
+ *
+ * @author Leandro Watanabe
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class HierarchicalNextReactionSimulator extends HierarchicalSimulation
+{
+  private final boolean	print;
+
+  private long			randomSeed;
+
+  private VectorWrapper vectorWrapper;
+  private DependencyGraph dependencyGraph;
+  private IndexedPriorityQueue reactionTimes;
+  private boolean needsFullUpdate;
+  private int lastFired;
+
+  public HierarchicalNextReactionSimulator(String SBMLFileName, String rootDirectory, String outputDirectory, int runs, double timeLimit, double maxTimeStep, double minTimeStep, long randomSeed, double printInterval, double stoichAmpValue, 
+    String[] interestingSpecies, String quantityType,  double initialTime, double outputStartTime) throws IOException, XMLStreamException, BioSimException
+  {
+
+    this(SBMLFileName, rootDirectory, outputDirectory, runs, timeLimit, maxTimeStep, minTimeStep, randomSeed, printInterval, stoichAmpValue, interestingSpecies, quantityType, initialTime, outputStartTime, true);
+  }
+
+  public HierarchicalNextReactionSimulator(String SBMLFileName, String rootDirectory, String outputDirectory, int runs, double timeLimit, double maxTimeStep, double minTimeStep, long randomSeed, double printInterval, double stoichAmpValue, 
+    String[] interestingSpecies, String quantityType, double initialTime, double outputStartTime, boolean print) throws IOException, XMLStreamException, BioSimException
+  {
+
+    super(SBMLFileName, rootDirectory, outputDirectory, randomSeed, runs, timeLimit, maxTimeStep, minTimeStep, printInterval, stoichAmpValue, interestingSpecies, quantityType, initialTime, outputStartTime, SimType.HSSA);
+    this.print = print;
+    this.randomSeed = randomSeed;
+
+  }
+
+
+  @Override
+  public void initialize(long randomSeed, int runNumber) throws IOException, XMLStreamException
+  {
+    if (!isInitialized)
+    {
+      currProgress = 0;
+
+      setCurrentTime(getInitialTime());
+      vectorWrapper = new VectorWrapper(initValues);
+      ModelSetup.setupModels(this, ModelType.HSSA, vectorWrapper);
+      computeFixedPoint();
+
+      for(HierarchicalModel model : this.getListOfHierarchicalModels())
+      {
+        totalPropensity.addChild(model.getPropensity().getVariable());
+      }
+      totalPropensity.computeFunction(0);
+      saveInitialState(vectorWrapper);
+      dependencyGraph = DependencySetup.setupDependencies(this);
+      reactionTimes = new IndexedPriorityQueue(dependencyGraph.getNumOfReactions());
+      needsFullUpdate = true;
+      lastFired = -1;
+      if (hasEvents)
+      {
+        triggeredEventList =
+            new PriorityQueue<TriggeredEventNode>(1, new HierarchicalEventComparator());
+        computeEvents();
+      }
+
+      setupForOutput(runNumber);
+      isInitialized = true;
+    }
+
+  }
+
+  /**
+   * cancels the current run
+   */
+  @Override
+  public void cancel()
+  {
+    setCancelFlag(true);
+  }
+
+  /**
+   * clears data structures for new run
+   */
+  @Override
+  public void clear()
+  {
+
+  }
+
+  @Override
+  public void setupForNewRun(int newRun) throws IOException
+  {
+    setCurrentTime(getInitialTime());
+    restoreInitialState(vectorWrapper);
+    if (triggeredEventList != null)
+    {
+      triggeredEventList.clear();
+    }
+    reactionTimes.clear();
+    needsFullUpdate = true;
+    lastFired = -1;
+    setupForOutput(newRun);
+  }
+
+  @Override
+  public void simulate() throws IOException, XMLStreamException
+  {
+
+    double nextReactionTime = 0, nextEventTime = 0, nextMaxTime = 0;
+
+    if (isSbmlHasErrorsFlag())
+    {
+      return;
+    }
+
+    if (!isInitialized)
+    {
+        this.initialize(randomSeed, 1);
+    }
+    printTime.setValue(getOutputStartTime());
+    double previousTime = currentTime.getValue(0);
+
+    while (currentTime.getValue(0) < getTimeLimit() && !isCancelFlag())
+    {
+      updateReactionTimes();
+      nextReactionTime = reactionTimes.peekTime();
+      nextEventTime = getNextEventTime();
+      nextMaxTime = currentTime.getValue(0) + getMaxTimeStep();
+      previousTime = currentTime.getValue(0);
+
+      if (nextReactionTime < nextEventTime && nextReactionTime < nextMaxTime)
+      {
+        setCurrentTime(nextReactionTime);
+      }
+      else if (nextEventTime <= nextMaxTime)
+      {
+        setCurrentTime(nextEventTime);
+      }
+      else
+      {
+        setCurrentTime(nextMaxTime);
+      }
+
+      if (currentTime.getValue() > getTimeLimit())
+      {
+        break;
+      }
+
+      if (print)
+      {
+        printToFile();
+      }
+
+      if (currentTime.getValue(0) == nextReactionTime)
+      {
+        update(true, false, previousTime);
+      }
+      else if (currentTime.getValue(0) == nextEventTime)
+      {
+        update(false, true, previousTime);
+      }
+      else
+      {
+        update(false, false, previousTime);
+      }
+    }
+
+    if (!isCancelFlag())
+    {
+      setCurrentTime(getTimeLimit());
+      update(false, true, previousTime);
+
+      if (print)
+      {
+        printToFile();
+      }
+
+    }
+
+    closeWriter();
+  }
+
+  private void update(boolean reaction, boolean events, double previousTime)
+  {
+    fireRateRules(previousTime);
+
+    if (reaction)
+    {
+      performReaction(reactionTimes.peek());
+    }
+    else
+    {
+      needsFullUpdate = true;
+    }
+
+    if (events)
+    {
+      computeEvents();
+    }
+
+    computeAssignmentRules();
+
+  }
+
+  private void performReaction(int reaction)
+  {
+    double threshold = getRandomNumberGenerator().nextDouble() * dependencyGraph.getPropensity(reaction);
+    dependencyGraph.getReaction(reaction).fireReaction(dependencyGraph.getIndex(reaction), threshold);
+    lastFired = reaction;
+  }
+
+  /**
+   * Recomputes the propensities affected by the last step and reschedules the corresponding
+   * reactions. The fired reaction draws a new firing time, while the other affected reactions
+   * rescale their remaining waiting time by the ratio of their old and new propensities.
+   */
+  private void updateReactionTimes()
+  {
+    double time = currentTime.getValue(0);
+
+    if (needsFullUpdate)
+    {
+      for (int reaction = 0; reaction < dependencyGraph.getNumOfReactions(); reaction++)
+      {
+        reschedule(reaction, time);
+      }
+      dependencyGraph.resum();
+      needsFullUpdate = false;
+    }
+    else
+    {
+      if (lastFired >= 0)
+      {
+        int[] dependents = dependencyGraph.getDependents();
+        for (int i = dependencyGraph.getDependentStart(lastFired); i < dependencyGraph.getDependentEnd(lastFired); i++)
+        {
+          if (dependents[i] != lastFired)
+          {
+            reschedule(dependents[i], time);
+          }
+        }
+
+        dependencyGraph.recompute(lastFired);
+        reactionTimes.update(lastFired, computeFiringTime(lastFired, time));
+      }
+
+      for (int reaction : dependencyGraph.getAlwaysUpdated())
+      {
+        if (reaction != lastFired)
+        {
+          reschedule(reaction, time);
+        }
+      }
+    }
+    lastFired = -1;
+
+    this.totalPropensity.getVariable().setValue(dependencyGraph.getTotalPropensity());
+  }
+
+  private void reschedule(int reaction, double time)
+  {
+    double oldPropensity = dependencyGraph.getPropensity(reaction);
+    dependencyGraph.recompute(reaction);
+    double newPropensity = dependencyGraph.getPropensity(reaction);
+    double oldTime = reactionTimes.getTime(reaction);
+
+    if (oldPropensity == newPropensity && oldTime != Double.POSITIVE_INFINITY)
+    {
+      return;
+    }
+
+    if (newPropensity > 0 && oldPropensity > 0 && oldTime != Double.POSITIVE_INFINITY)
+    {
+      reactionTimes.update(reaction, time + (oldPropensity / newPropensity) * (oldTime - time));
+    }
+    else
+    {
+      reactionTimes.update(reaction, computeFiringTime(reaction, time));
+    }
+  }
+
+  private double computeFiringTime(int reaction, double time)
+  {
+    double propensity = dependencyGraph.getPropensity(reaction);
+
+    if (propensity > 0)
+    {
+      return time + Math.log(1 / getRandomNumberGenerator().nextDouble()) / propensity;
+    }
+    return Double.POSITIVE_INFINITY;
+  }
+
+  private double getNextEventTime()
+  {
+    checkEvents();
+    if (triggeredEventList != null && !triggeredEventList.isEmpty())
+    {
+      return triggeredEventList.peek().getFireTime();
+    }
+    return Double.POSITIVE_INFINITY;
+  }
+}
@@ -23,6 +23,7 @@ import org.apache.commons.math3.exception.MaxCountExceededException;
 import org.apache.commons.math3.exception.NumberIsTooSmallException;
 import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
 import org.apache.commons.math3.ode.events.EventHandler;
+import org.apache.commons.math3.ode.nonstiff.AdaptiveStepsizeIntegrator;
 import org.apache.commons.math3.ode.nonstiff.HighamHall54Integrator;
 
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalSimulation;
@@ -33,6 +34,9 @@ import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.model.Hierarc
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.VectorWrapper;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.comp.HierarchicalEventComparator;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.comp.TriggeredEventNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.ode.DerivativeKernel;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.ode.RosenbrockIntegrator;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.setup.DependencySetup;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.setup.ModelSetup;
 import edu.utah.ece.async.ibiosim.dataModels.util.exceptions.BioSimException;
 
@@ -46,9 +50,11 @@ import edu.utah.ece.async.ibiosim.dataModels.util.exceptions.BioSimException;
 public final class HierarchicalODERKSimulator extends HierarchicalSimulation {
 
   private boolean                isSingleStep;
-  private HighamHall54Integrator odecalc;
+  private boolean                isStiff;
+  private AdaptiveStepsizeIntegrator odecalc;
   private double                 relativeError, absoluteError;
   private DifferentialEquations  de;
+  private DerivativeKernel       kernel;
   private final VectorWrapper    vectorWrapper;
 
 
@@ -132,6 +138,39 @@ public final class HierarchicalODERKSimulator extends HierarchicalSimulation {
   }
 
 
+  /**
+   * Selects the linearly implicit {@link RosenbrockIntegrator} for stiff models, such as models
+   * with fast binding and unbinding reactions, instead of the explicit Higham-Hall integrator.
+   * It must be called before the simulator is initialized.
+   */
+  public void setStiff(boolean isStiff) {
+    this.isStiff = isStiff;
+    if (isStiff) {
+      odecalc = new RosenbrockIntegrator(getMinTimeStep(), getMaxTimeStep(),
+        absoluteError, relativeError);
+    } else {
+      odecalc = new HighamHall54Integrator(getMinTimeStep(), getMaxTimeStep(),
+        absoluteError, relativeError);
+    }
+  }
+
+
+  public boolean isStiff() {
+    return isStiff;
+  }
+
+
+  /**
+   * Returns the kernel that computes the rates of change and their Jacobian from the state
+   * vector, or null if the simulator is not initialized or the rates are computed by the
+   * interpreter. The kernel points the model at the state vector it is given, so it must not be
+   * used while the simulator is running.
+   */
+  public DerivativeKernel getDerivativeKernel() {
+    return kernel;
+  }
+
+
   @Override
   public void cancel() {
     setCancelFlag(true);
@@ -152,6 +191,16 @@ public final class HierarchicalODERKSimulator extends HierarchicalSimulation {
       ModelSetup.setupModels(this, ModelType.HODE, vectorWrapper);
       de = new DifferentialEquations();
       computeFixedPoint();
+      kernel = DependencySetup.setupDerivativeKernel(this, vectorWrapper);
+      if (isStiff) {
+        RosenbrockIntegrator integrator = (RosenbrockIntegrator) odecalc;
+        if (kernel == null) {
+          integrator.setJacobianPattern(DependencySetup.setupJacobianPattern(this));
+        } else {
+          // a kernel without derivatives leaves the Jacobian to finite differences
+          integrator.setJacobianFunction(kernel);
+        }
+      }
       if (hasEvents()) {
         HierarchicalEventHandler handler = new HierarchicalEventHandler();
         HierarchicalTriggeredEventHandler triggeredHandler =
@@ -196,10 +245,15 @@ public final class HierarchicalODERKSimulator extends HierarchicalSimulation {
       }
       if (vectorWrapper.getSize() > 0) {
         try {
-          odecalc.integrate(de, currentTime.getValue(),
-            vectorWrapper.getValues(), nextEndTime, vectorWrapper.getValues());
-         
-          computeAssignmentRules();
+          // the derivative evaluations point the wrapper at copies made by the integrator, so it
+          // is pointed back at the state array that receives the result, and the propensities
+          // and assignment rules are brought up to date with it
+          double[] state = vectorWrapper.getValues();
+          double time = odecalc.integrate(de, currentTime.getValue(), state,
+            nextEndTime, state);
+          vectorWrapper.setValues(state);
+          setCurrentTime(time);
+          computeRates();
         } catch (NumberIsTooSmallException e) {
           setCurrentTime(nextEndTime);
         }
@@ -217,6 +271,7 @@ public final class HierarchicalODERKSimulator extends HierarchicalSimulation {
     {
       printToFile();
       //closeWriter();
+      flushWriter();
     }
     
   }
@@ -231,11 +286,27 @@ public final class HierarchicalODERKSimulator extends HierarchicalSimulation {
   }
 
 
-  @Override
-  public void printStatisticsTSD() {
-    // TODO Auto-generated method stub
+  /**
+   * Computes the rates of change with the interpreter, which is what the derivative kernel
+   * replaces.
+   */
+  void interpretDerivatives(double t, double[] y, double[] yDot)
+  {
+    vectorWrapper.setRates(yDot);
+    setCurrentTime(t);
+    vectorWrapper.setValues(y);
+    computeAssignmentRules();
+    computeRates();
+  }
+
+  /**
+   * Returns the state vector of the model.
+   */
+  double[] getState()
+  {
+    return vectorWrapper.getValues();
   }
-  
+
   private void computeRates()
   {
     boolean hasChanged = true;
@@ -372,11 +443,13 @@ public final class HierarchicalODERKSimulator extends HierarchicalSimulation {
         throw new MaxCountExceededException(t);
       }
       
-      setCurrentTime(t);
-      vectorWrapper.setValues(y);
-      computeAssignmentRules();
-      vectorWrapper.setRates(yDot);
-      computeRates();
+      if (kernel != null) {
+        vectorWrapper.setRates(yDot);
+        kernel.computeDerivatives(t, y, yDot);
+        return;
+      }
+      
+      interpretDerivatives(t, y, yDot);
     }
     
 
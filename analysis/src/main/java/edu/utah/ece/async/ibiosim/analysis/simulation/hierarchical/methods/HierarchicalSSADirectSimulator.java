@@ -23,12 +23,14 @@ import javax.xml.stream.XMLStreamException;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalSimulation;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.io.HierarchicalWriter;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.EventNode;
-import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ReactionNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.model.DependencyGraph;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.model.HierarchicalModel;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.model.HierarchicalModel.ModelType;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.VectorWrapper;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.HierarchicalUtilities;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.comp.HierarchicalEventComparator;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.comp.TriggeredEventNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.setup.DependencySetup;
 import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.setup.ModelSetup;
 import edu.utah.ece.async.ibiosim.dataModels.util.exceptions.BioSimException;
 
@@ -46,6 +48,11 @@ public class HierarchicalSSADirectSimulator extends HierarchicalSimulation
 
   private long			randomSeed;
 
+  private VectorWrapper vectorWrapper;
+  private DependencyGraph dependencyGraph;
+  private boolean needsFullUpdate;
+  private int lastFired;
+
   public HierarchicalSSADirectSimulator(String SBMLFileName, String rootDirectory, String outputDirectory, int runs, double timeLimit, double maxTimeStep, double minTimeStep, long randomSeed, double printInterval, double stoichAmpValue, 
     String[] interestingSpecies, String quantityType,  double initialTime, double outputStartTime) throws IOException, XMLStreamException, BioSimException
   {
@@ -72,7 +79,8 @@ public class HierarchicalSSADirectSimulator extends HierarchicalSimulation
       currProgress = 0;
       
       setCurrentTime(getInitialTime());
-      ModelSetup.setupModels(this, ModelType.HSSA);
+      vectorWrapper = new VectorWrapper(initValues);
+      ModelSetup.setupModels(this, ModelType.HSSA, vectorWrapper);
       computeFixedPoint();
 
       for(HierarchicalModel model : this.getListOfHierarchicalModels())
@@ -80,6 +88,10 @@ public class HierarchicalSSADirectSimulator extends HierarchicalSimulation
         totalPropensity.addChild(model.getPropensity().getVariable());
       }
       totalPropensity.computeFunction(0);
+      saveInitialState(vectorWrapper);
+      dependencyGraph = DependencySetup.setupDependencies(this);
+      needsFullUpdate = true;
+      lastFired = -1;
       if (hasEvents)
       {
         triggeredEventList =
@@ -115,6 +127,12 @@ public class HierarchicalSSADirectSimulator extends HierarchicalSimulation
   public void setupForNewRun(int newRun) throws IOException
   {
     setCurrentTime(getInitialTime());
+    restoreInitialState(vectorWrapper);
+    if (triggeredEventList != null)
+    {
+      triggeredEventList.clear();
+    }
+    needsFullUpdate = true;
     setupForOutput(newRun);
   }
 
@@ -134,7 +152,7 @@ public class HierarchicalSSADirectSimulator extends HierarchicalSimulation
         this.initialize(randomSeed, 1);
     }
     printTime.setValue(getOutputStartTime());
-    previousTime = 0;
+    previousTime = currentTime.getValue(0);
 
     while (currentTime.getValue(0) < getTimeLimit() && !isCancelFlag())
     {
@@ -145,8 +163,8 @@ public class HierarchicalSSADirectSimulator extends HierarchicalSimulation
 
       r1 = getRandomNumberGenerator().nextDouble();
       r2 = getRandomNumberGenerator().nextDouble();
-      computePropensities();
-      totalPropensity = getTotalPropensity();
+      updatePropensities();
+      totalPropensity = dependencyGraph.getTotalPropensity();
       delta_t = computeNextTimeStep(r1, totalPropensity);
       nextReactionTime = currentTime.getValue(0) + delta_t;
       nextEventTime = getNextEventTime();
@@ -207,37 +225,51 @@ public class HierarchicalSSADirectSimulator extends HierarchicalSimulation
 
   private void update(boolean reaction, boolean rateRule, boolean events, double r2, double previousTime)
   {
+    fireRateRules(previousTime);
+
     if (reaction)
     {
-      selectAndPerformReaction(r2);
+      lastFired = selectAndPerformReaction(r2);
     }
 
     if (rateRule)
     {
-      fireRateRules(previousTime);
+      needsFullUpdate = true;
     }
 
     if (events)
     {
       computeEvents();
+      needsFullUpdate = true;
     }
     
     computeAssignmentRules();
     
   }
   
-  private void computePropensities()
+  /**
+   * Brings the propensities up to date. Only the reactions that depend on the last fired
+   * reaction, on time, or on random functions are recomputed, unless events or rules may
+   * have changed arbitrary variables since the last step.
+   */
+  private void updatePropensities()
   {
-    for(HierarchicalModel modelstate : this.getListOfHierarchicalModels())
+    if (needsFullUpdate)
     {
-      for(ReactionNode node : modelstate.getReactions())
+      dependencyGraph.computeAll();
+      needsFullUpdate = false;
+    }
+    else
+    {
+      if (lastFired >= 0)
       {
-        node.computePropensity(modelstate.getIndex());
+        dependencyGraph.update(lastFired);
       }
-      modelstate.getPropensity().computeFunction(modelstate.getIndex());
+      dependencyGraph.updateAlways();
     }
-    
-    this.totalPropensity.computeFunction(0);
+    lastFired = -1;
+
+    this.totalPropensity.getVariable().setValue(dependencyGraph.getTotalPropensity());
   }
 
   private double computeNextTimeStep(double r1, double totalPropensity)
@@ -245,36 +277,34 @@ public class HierarchicalSSADirectSimulator extends HierarchicalSimulation
     return Math.log(1 / r1) / totalPropensity;
   }
 
-  
-  private void fireRateRules(double previousTime)
-  {
 
-  }
-
-  private void selectAndPerformReaction(double r2)
+  private int selectAndPerformReaction(double r2)
   {
     double sum = 0;
-    double threshold = getTotalPropensity() * r2;
-    for(HierarchicalModel model : this.getListOfHierarchicalModels())
+    double threshold = dependencyGraph.getTotalPropensity() * r2;
+    for(int model = 0; model < dependencyGraph.getNumOfModels(); model++)
     {
-      for(ReactionNode node : model.getReactions())
+      double modelPropensity = dependencyGraph.getModelPropensity(model);
+
+      if(sum + modelPropensity < threshold)
+      {
+        sum += modelPropensity;
+        continue;
+      }
+
+      for(int reaction = dependencyGraph.getModelStart(model); reaction < dependencyGraph.getModelEnd(model); reaction++)
       {
-        sum += node.getValue(model.getIndex());
+        sum += dependencyGraph.getPropensity(reaction);
 
         if(sum >= threshold)
         {
-          node.fireReaction(model.getIndex(), sum - threshold);
-          return;
+          dependencyGraph.getReaction(reaction).fireReaction(dependencyGraph.getIndex(reaction), sum - threshold);
+          return reaction;
         }
       }
     }
 
-  }
-
-  @Override
-  public void printStatisticsTSD()
-  {
-
+    return -1;
   }
 
   private double getNextEventTime()
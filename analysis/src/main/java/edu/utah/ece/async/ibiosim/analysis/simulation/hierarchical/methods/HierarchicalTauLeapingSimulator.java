@@ -0,0 +1,692 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import javax.xml.stream.XMLStreamException;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalSimulation;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ReactionNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.SpeciesNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.SpeciesReferenceNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.model.DependencyGraph;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.model.HierarchicalModel;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.model.HierarchicalModel.ModelType;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.VectorWrapper;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.PoissonSampler;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.comp.HierarchicalEventComparator;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.comp.TriggeredEventNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.setup.DependencySetup;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.setup.ModelSetup;
+import edu.utah.ece.async.ibiosim.dataModels.util.exceptions.BioSimException;
+
+/**
+ * Adaptive explicit tau-leaping for hierarchical models. The leap size is chosen with the
+ * bound of Cao, Gillespie and Petzold (2006) so that the relative change of every propensity
+ * stays below epsilon. Reactions that are within a few firings of exhausting one of their
+ * reactants are critical: they are not leaped, and at most one of them fires per step. When
+ * the leap would be shorter than a few exact steps, an exact SSA step is taken instead.
+ *
+ * @author Leandro Watanabe
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class HierarchicalTauLeapingSimulator extends HierarchicalSimulation
+{
+  /**
+   * Leaps shorter than this many expected exact steps are replaced by an exact step.
+   */
+  private static final double SSA_STEP_FACTOR = 10;
+
+  private final boolean print;
+  private final double  epsilon;
+  private final int     criticalThreshold;
+
+  private long          randomSeed;
+
+  private VectorWrapper vectorWrapper;
+  private DependencyGraph dependencyGraph;
+
+  private SpeciesNode[] species;
+  private int[]         speciesIndices;
+  private int[]         termStart;
+  private int[]         termSpecies;
+  private int[]         refStart;
+  private SpeciesReferenceNode[] refs;
+  private int[]         refSigns;
+
+  private double[]      termChanges;
+  private double[]      propensities;
+  private boolean[]     critical;
+  private double[]      values;
+  private double[]      nextValues;
+  private double[]      means;
+  private double[]      variances;
+  private int[]         highestOrder;
+  private double[]      highestStoichiometry;
+  private boolean[]     isReactant;
+
+  private PoissonSampler poissonSampler;
+
+  public HierarchicalTauLeapingSimulator(String SBMLFileName, String rootDirectory, String outputDirectory, int runs, double timeLimit, double maxTimeStep, double minTimeStep, long randomSeed, double printInterval, double stoichAmpValue,
+    String[] interestingSpecies, String quantityType,  double initialTime, double outputStartTime, double epsilon, int criticalThreshold) throws IOException, XMLStreamException, BioSimException
+  {
+
+    this(SBMLFileName, rootDirectory, outputDirectory, runs, timeLimit, maxTimeStep, minTimeStep, randomSeed, printInterval, stoichAmpValue, interestingSpecies, quantityType, initialTime, outputStartTime, epsilon, criticalThreshold, true);
+  }
+
+  public HierarchicalTauLeapingSimulator(String SBMLFileName, String rootDirectory, String outputDirectory, int runs, double timeLimit, double maxTimeStep, double minTimeStep, long randomSeed, double printInterval, double stoichAmpValue,
+    String[] interestingSpecies, String quantityType, double initialTime, double outputStartTime, double epsilon, int criticalThreshold, boolean print) throws IOException, XMLStreamException, BioSimException
+  {
+
+    super(SBMLFileName, rootDirectory, outputDirectory, randomSeed, runs, timeLimit, maxTimeStep, minTimeStep, printInterval, stoichAmpValue, interestingSpecies, quantityType, initialTime, outputStartTime, SimType.HSSA);
+    this.print = print;
+    this.randomSeed = randomSeed;
+    this.epsilon = epsilon;
+    this.criticalThreshold = criticalThreshold;
+
+  }
+
+
+  @Override
+  public void initialize(long randomSeed, int runNumber) throws IOException, XMLStreamException
+  {
+    if (!isInitialized)
+    {
+      currProgress = 0;
+
+      setCurrentTime(getInitialTime());
+      vectorWrapper = new VectorWrapper(initValues);
+      ModelSetup.setupModels(this, ModelType.HSSA, vectorWrapper);
+      computeFixedPoint();
+
+      for(HierarchicalModel model : this.getListOfHierarchicalModels())
+      {
+        totalPropensity.addChild(model.getPropensity().getVariable());
+      }
+      totalPropensity.computeFunction(0);
+      saveInitialState(vectorWrapper);
+      dependencyGraph = DependencySetup.setupDependencies(this);
+      setupChannels();
+      if (hasEvents)
+      {
+        triggeredEventList =
+            new PriorityQueue<TriggeredEventNode>(1, new HierarchicalEventComparator());
+        computeEvents();
+      }
+
+      setupForOutput(runNumber);
+      isInitialized = true;
+    }
+
+  }
+
+  /**
+   * cancels the current run
+   */
+  @Override
+  public void cancel()
+  {
+    setCancelFlag(true);
+  }
+
+  /**
+   * clears data structures for new run
+   */
+  @Override
+  public void clear()
+  {
+
+  }
+
+  @Override
+  public void setupForNewRun(int newRun) throws IOException
+  {
+    setCurrentTime(getInitialTime());
+    restoreInitialState(vectorWrapper);
+    if (triggeredEventList != null)
+    {
+      triggeredEventList.clear();
+    }
+    setupForOutput(newRun);
+  }
+
+  @Override
+  public void simulate() throws IOException, XMLStreamException
+  {
+
+    double nextEventTime = 0, stopTime = 0, nextTime = 0, previousTime = 0;
+
+    if (isSbmlHasErrorsFlag())
+    {
+      return;
+    }
+
+    if (!isInitialized)
+    {
+        this.initialize(randomSeed, 1);
+    }
+    printTime.setValue(getOutputStartTime());
+
+    while (currentTime.getValue(0) < getTimeLimit() && !isCancelFlag())
+    {
+      computeChannels();
+      nextEventTime = getNextEventTime();
+      stopTime = Math.min(Math.min(nextEventTime, currentTime.getValue(0) + getMaxTimeStep()), getTimeLimit());
+      previousTime = currentTime.getValue(0);
+      nextTime = selectStep(previousTime, stopTime);
+
+      setCurrentTime(nextTime);
+
+      if (print)
+      {
+        printToFile();
+      }
+
+      fireRateRules(previousTime);
+
+      for (int i = 0; i < species.length; i++)
+      {
+        if (nextValues[i] != values[i])
+        {
+          species[i].setValue(speciesIndices[i], nextValues[i]);
+        }
+      }
+
+      if (nextTime == nextEventTime)
+      {
+        computeEvents();
+      }
+
+      computeAssignmentRules();
+    }
+
+    if (!isCancelFlag())
+    {
+      setCurrentTime(getTimeLimit());
+      computeEvents();
+      computeAssignmentRules();
+
+      if (print)
+      {
+        printToFile();
+      }
+
+    }
+
+    closeWriter();
+  }
+
+  /**
+   * Flattens the reactions of the dependency graph into channels. Channel 2r is the forward
+   * direction of reaction instance r and channel 2r+1 its reverse direction. The species changed
+   * by a reaction instance are stored once, as terms, each with the species references that
+   * contribute to its net change.
+   */
+  private void setupChannels()
+  {
+    int numOfReactions = dependencyGraph.getNumOfReactions();
+    Map<Object, Integer> speciesIds = new IdentityHashMap<Object, Integer>();
+    List<SpeciesNode> speciesList = new ArrayList<SpeciesNode>();
+    List<Integer> indexList = new ArrayList<Integer>();
+    List<Integer> termList = new ArrayList<Integer>();
+    List<List<SpeciesReferenceNode>> termRefs = new ArrayList<List<SpeciesReferenceNode>>();
+    List<List<Integer>> termSigns = new ArrayList<List<Integer>>();
+
+    termStart = new int[numOfReactions + 1];
+
+    for (int reaction = 0; reaction < numOfReactions; reaction++)
+    {
+      ReactionNode node = dependencyGraph.getReaction(reaction);
+      int index = dependencyGraph.getIndex(reaction);
+      termStart[reaction] = termList.size();
+
+      for (int direction = 0; direction < 2; direction++)
+      {
+        List<SpeciesReferenceNode> specRefs = direction == 0 ? node.getReactants() : node.getProducts();
+        if (specRefs == null)
+        {
+          continue;
+        }
+
+        for (SpeciesReferenceNode specRef : specRefs)
+        {
+          SpeciesNode speciesNode = specRef.getSpecies();
+          if (speciesNode.isBoundaryCondition())
+          {
+            continue;
+          }
+
+          Object state = speciesNode.getState().getState(index);
+          Integer id = speciesIds.get(state);
+          if (id == null)
+          {
+            id = speciesList.size();
+            speciesIds.put(state, id);
+            speciesList.add(speciesNode);
+            indexList.add(index);
+          }
+
+          int term = termList.lastIndexOf(id);
+          if (term < termStart[reaction])
+          {
+            term = termList.size();
+            termList.add(id);
+            termRefs.add(new ArrayList<SpeciesReferenceNode>());
+            termSigns.add(new ArrayList<Integer>());
+          }
+          termRefs.get(term).add(specRef);
+          termSigns.get(term).add(direction == 0 ? -1 : 1);
+        }
+      }
+    }
+    termStart[numOfReactions] = termList.size();
+
+    species = speciesList.toArray(new SpeciesNode[speciesList.size()]);
+    speciesIndices = new int[species.length];
+    for (int i = 0; i < species.length; i++)
+    {
+      speciesIndices[i] = indexList.get(i);
+    }
+
+    termSpecies = new int[termList.size()];
+    refStart = new int[termList.size() + 1];
+    List<SpeciesReferenceNode> refList = new ArrayList<SpeciesReferenceNode>();
+    List<Integer> signList = new ArrayList<Integer>();
+    for (int term = 0; term < termSpecies.length; term++)
+    {
+      termSpecies[term] = termList.get(term);
+      refStart[term] = refList.size();
+      refList.addAll(termRefs.get(term));
+      signList.addAll(termSigns.get(term));
+    }
+    refStart[termSpecies.length] = refList.size();
+    refs = refList.toArray(new SpeciesReferenceNode[refList.size()]);
+    refSigns = new int[refs.length];
+    for (int i = 0; i < refs.length; i++)
+    {
+      refSigns[i] = signList.get(i);
+    }
+
+    termChanges = new double[termSpecies.length];
+    propensities = new double[2 * numOfReactions];
+    critical = new boolean[2 * numOfReactions];
+    values = new double[species.length];
+    nextValues = new double[species.length];
+    means = new double[species.length];
+    variances = new double[species.length];
+    highestOrder = new int[species.length];
+    highestStoichiometry = new double[species.length];
+    isReactant = new boolean[species.length];
+  }
+
+  /**
+   * Evaluates the propensity of every channel, the net change of every term, and the current
+   * value of every species.
+   */
+  private void computeChannels()
+  {
+    dependencyGraph.computeAll();
+    this.totalPropensity.getVariable().setValue(dependencyGraph.getTotalPropensity());
+
+    for (int reaction = 0; reaction < dependencyGraph.getNumOfReactions(); reaction++)
+    {
+      int index = dependencyGraph.getIndex(reaction);
+      double forward = dependencyGraph.getPropensity(reaction);
+      double reverse = 0;
+
+      if (dependencyGraph.isReversible(reaction))
+      {
+        forward = dependencyGraph.computeForwardPropensity(reaction);
+        reverse = dependencyGraph.computeReversePropensity(reaction);
+      }
+
+      propensities[2 * reaction] = forward > 0 ? forward : 0;
+      propensities[2 * reaction + 1] = reverse > 0 ? reverse : 0;
+
+      for (int term = termStart[reaction]; term < termStart[reaction + 1]; term++)
+      {
+        double change = 0;
+        for (int ref = refStart[term]; ref < refStart[term + 1]; ref++)
+        {
+          change += refSigns[ref] * refs[ref].getStoichiometry(index);
+        }
+        termChanges[term] = change;
+      }
+    }
+
+    for (int i = 0; i < species.length; i++)
+    {
+      values[i] = species[i].getValue(speciesIndices[i]);
+      nextValues[i] = values[i];
+    }
+  }
+
+  /**
+   * Chooses the size of the next step, starting at the given time and ending no later than
+   * the stop time, and stores the state at the end of the step in the next values.
+   *
+   * @return the time at the end of the step.
+   */
+  private double selectStep(double time, double stopTime)
+  {
+    double totalPropensity = 0, criticalPropensity = 0;
+
+    for (int channel = 0; channel < propensities.length; channel++)
+    {
+      totalPropensity += propensities[channel];
+      critical[channel] = propensities[channel] > 0 && isCritical(channel);
+      if (critical[channel])
+      {
+        criticalPropensity += propensities[channel];
+      }
+    }
+
+    if (totalPropensity <= 0)
+    {
+      return stopTime;
+    }
+
+    double noncriticalTau = computeNoncriticalTau();
+
+    while (true)
+    {
+      if (noncriticalTau < SSA_STEP_FACTOR / totalPropensity)
+      {
+        double tau = sampleExponential(totalPropensity);
+        if (time + tau >= stopTime)
+        {
+          return stopTime;
+        }
+        fireChannel(selectChannel(totalPropensity, false), 1);
+        return time + tau;
+      }
+
+      double tau = noncriticalTau;
+      double criticalTau = criticalPropensity > 0 ? sampleExponential(criticalPropensity) : Double.POSITIVE_INFINITY;
+      boolean fireCritical = criticalTau <= noncriticalTau;
+
+      if (fireCritical)
+      {
+        tau = criticalTau;
+      }
+
+      boolean isStopped = time + tau >= stopTime;
+      if (isStopped)
+      {
+        tau = stopTime - time;
+        fireCritical = false;
+      }
+
+      for (int channel = 0; channel < propensities.length; channel++)
+      {
+        if (!critical[channel] && propensities[channel] > 0)
+        {
+          int firings = samplePoisson(propensities[channel] * tau);
+          if (firings > 0)
+          {
+            fireChannel(channel, firings);
+          }
+        }
+      }
+
+      if (fireCritical)
+      {
+        fireChannel(selectChannel(criticalPropensity, true), 1);
+      }
+
+      if (isNonNegative())
+      {
+        return isStopped ? stopTime : time + tau;
+      }
+
+      System.arraycopy(values, 0, nextValues, 0, values.length);
+      noncriticalTau = tau / 2;
+    }
+  }
+
+  /**
+   * Returns true if the channel can fire fewer times than the critical threshold before one of
+   * its reactants is exhausted.
+   */
+  private boolean isCritical(int channel)
+  {
+    int reaction = channel / 2;
+    double sign = channel % 2 == 0 ? 1 : -1;
+
+    for (int term = termStart[reaction]; term < termStart[reaction + 1]; term++)
+    {
+      double change = sign * termChanges[term];
+      if (change < 0 && Math.floor(values[termSpecies[term]] / -change) < criticalThreshold)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Computes the largest leap for the noncritical channels such that the expected change and
+   * the standard deviation of the change of each reactant species are bounded by
+   * max(epsilon * x / g, 1), where g accounts for the highest order reaction consuming it.
+   */
+  private double computeNoncriticalTau()
+  {
+    for (int i = 0; i < species.length; i++)
+    {
+      means[i] = 0;
+      variances[i] = 0;
+      highestOrder[i] = 0;
+      highestStoichiometry[i] = 0;
+      isReactant[i] = false;
+    }
+
+    for (int channel = 0; channel < propensities.length; channel++)
+    {
+      int reaction = channel / 2;
+      double sign = channel % 2 == 0 ? 1 : -1;
+      int order = 0;
+
+      if (channel % 2 == 1 && !dependencyGraph.isReversible(reaction))
+      {
+        continue;
+      }
+
+      for (int term = termStart[reaction]; term < termStart[reaction + 1]; term++)
+      {
+        double change = sign * termChanges[term];
+        if (change < 0)
+        {
+          order += (int) Math.round(-change);
+        }
+      }
+
+      for (int term = termStart[reaction]; term < termStart[reaction + 1]; term++)
+      {
+        int id = termSpecies[term];
+        double change = sign * termChanges[term];
+
+        if (change < 0)
+        {
+          if (order > highestOrder[id])
+          {
+            highestOrder[id] = order;
+            highestStoichiometry[id] = -change;
+          }
+          else if (order == highestOrder[id])
+          {
+            highestStoichiometry[id] = Math.max(highestStoichiometry[id], -change);
+          }
+
+          // as in Cao et al., every reactant bounds the leap, including those of channels
+          // that are critical or cannot fire yet, since their propensities follow it
+          isReactant[id] = true;
+        }
+
+        if (!critical[channel])
+        {
+          means[id] += change * propensities[channel];
+          variances[id] += change * change * propensities[channel];
+        }
+      }
+    }
+
+    double tau = Double.POSITIVE_INFINITY;
+
+    for (int i = 0; i < species.length; i++)
+    {
+      if (!isReactant[i])
+      {
+        continue;
+      }
+
+      double bound = Math.max(epsilon * values[i] / computeOrderFactor(i), 1);
+
+      if (means[i] != 0)
+      {
+        tau = Math.min(tau, bound / Math.abs(means[i]));
+      }
+      if (variances[i] != 0)
+      {
+        tau = Math.min(tau, bound * bound / variances[i]);
+      }
+    }
+
+    return tau;
+  }
+
+  private double computeOrderFactor(int id)
+  {
+    double value = values[id];
+    double stoichiometry = highestStoichiometry[id];
+
+    switch (highestOrder[id])
+    {
+    case 1:
+      return 1;
+    case 2:
+      if (stoichiometry >= 2 && value > 1)
+      {
+        return 2 + 1 / (value - 1);
+      }
+      return 2;
+    case 3:
+      if (stoichiometry >= 3 && value > 2)
+      {
+        return 3 + 1 / (value - 1) + 2 / (value - 2);
+      }
+      else if (stoichiometry >= 2 && value > 1)
+      {
+        return 1.5 * (2 + 1 / (value - 1));
+      }
+      return 3;
+    default:
+      return Math.max(highestOrder[id], 1);
+    }
+  }
+
+  private int selectChannel(double propensity, boolean criticalOnly)
+  {
+    double threshold = getRandomNumberGenerator().nextDouble() * propensity;
+    double sum = 0;
+    int selected = -1;
+
+    for (int channel = 0; channel < propensities.length; channel++)
+    {
+      if (propensities[channel] > 0 && (!criticalOnly || critical[channel]))
+      {
+        selected = channel;
+        sum += propensities[channel];
+        if (sum > threshold)
+        {
+          break;
+        }
+      }
+    }
+
+    return selected;
+  }
+
+  /**
+   * Applies the given number of firings of a channel to the next values. A single exact firing
+   * that would make a species negative is skipped, as in {@link ReactionNode#fireReaction}.
+   */
+  private void fireChannel(int channel, int firings)
+  {
+    int reaction = channel / 2;
+    double sign = channel % 2 == 0 ? 1 : -1;
+
+    if (firings == 1)
+    {
+      for (int term = termStart[reaction]; term < termStart[reaction + 1]; term++)
+      {
+        if (nextValues[termSpecies[term]] + sign * termChanges[term] < 0)
+        {
+          return;
+        }
+      }
+    }
+
+    for (int term = termStart[reaction]; term < termStart[reaction + 1]; term++)
+    {
+      nextValues[termSpecies[term]] += firings * sign * termChanges[term];
+    }
+  }
+
+  private boolean isNonNegative()
+  {
+    for (int i = 0; i < species.length; i++)
+    {
+      if (nextValues[i] < 0)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private double sampleExponential(double propensity)
+  {
+    return Math.log(1 / getRandomNumberGenerator().nextDouble()) / propensity;
+  }
+
+  private int samplePoisson(double mean)
+  {
+    Random random = getRandomNumberGenerator();
+    if (poissonSampler == null || poissonSampler.getRandom() != random)
+    {
+      poissonSampler = new PoissonSampler(random);
+    }
+
+    return poissonSampler.sample(mean);
+  }
+
+  private double getNextEventTime()
+  {
+    checkEvents();
+    if (triggeredEventList != null && !triggeredEventList.isEmpty())
+    {
+      return triggeredEventList.peek().getFireTime();
+    }
+    return Double.POSITIVE_INFINITY;
+  }
+}
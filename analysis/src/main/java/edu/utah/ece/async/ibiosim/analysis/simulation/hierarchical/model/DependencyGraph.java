@@ -0,0 +1,313 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.model;
+
+import java.util.List;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.CompiledExpression;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.FunctionNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ReactionNode;
+
+/**
+ * Reaction dependency graph over all reactions of all hierarchical models. Each reaction
+ * instance (a reaction node evaluated at a model index) has the list of reaction instances
+ * whose propensity can change when it fires, stored in compressed sparse row form. The graph
+ * also keeps the per-model and total propensities up to date incrementally. Propensities are
+ * evaluated through rate laws compiled for each reaction instance.
+ *
+ * @author Leandro Watanabe
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public final class DependencyGraph
+{
+
+  private final ReactionNode[]  reactions;
+  private final int[]           indices;
+  private final CompiledExpression[] forwardRates;
+  private final CompiledExpression[] reverseRates;
+  private final int[]           models;
+  private final int[]           modelOffsets;
+  private final FunctionNode[]  modelPropensities;
+  private final int[]           dependentStart;
+  private final int[]           dependents;
+  private final int[]           alwaysUpdated;
+
+  private final double[]        modelTotals;
+  private double                totalPropensity;
+  private int                   updateCount;
+
+  /**
+   *
+   * @param reactions
+   *            the reaction node of each reaction instance.
+   * @param indices
+   *            the model index of each reaction instance.
+   * @param forwardRates
+   *            the compiled forward rate of each reaction instance, or null if none.
+   * @param reverseRates
+   *            the compiled reverse rate of each reaction instance, or null if none.
+   * @param modelOffsets
+   *            the first reaction instance of each model, with one extra entry for the end.
+   * @param modelPropensities
+   *            the propensity function of each model.
+   * @param dependents
+   *            the reaction instances affected by the firing of each reaction instance.
+   * @param alwaysUpdated
+   *            the reaction instances that must be recomputed on every step.
+   */
+  public DependencyGraph(ReactionNode[] reactions, int[] indices, CompiledExpression[] forwardRates, CompiledExpression[] reverseRates, int[] modelOffsets, FunctionNode[] modelPropensities, List<int[]> dependents, int[] alwaysUpdated)
+  {
+    this.reactions = reactions;
+    this.indices = indices;
+    this.forwardRates = forwardRates;
+    this.reverseRates = reverseRates;
+    this.modelOffsets = modelOffsets;
+    this.modelPropensities = modelPropensities;
+    this.alwaysUpdated = alwaysUpdated;
+    this.modelTotals = new double[modelPropensities.length];
+    this.models = new int[reactions.length];
+
+    for (int model = 0; model < modelPropensities.length; model++)
+    {
+      for (int reaction = modelOffsets[model]; reaction < modelOffsets[model + 1]; reaction++)
+      {
+        models[reaction] = model;
+      }
+    }
+
+    int size = 0;
+    for (int[] list : dependents)
+    {
+      size += list.length;
+    }
+
+    this.dependentStart = new int[reactions.length + 1];
+    this.dependents = new int[size];
+
+    int position = 0;
+    for (int reaction = 0; reaction < reactions.length; reaction++)
+    {
+      int[] list = dependents.get(reaction);
+      dependentStart[reaction] = position;
+      System.arraycopy(list, 0, this.dependents, position, list.length);
+      position += list.length;
+    }
+    dependentStart[reactions.length] = position;
+  }
+
+  /**
+   * Returns the number of reaction instances.
+   */
+  public int getNumOfReactions()
+  {
+    return reactions.length;
+  }
+
+  /**
+   * Returns the first reaction instance of the model at the given position.
+   */
+  public int getModelStart(int model)
+  {
+    return modelOffsets[model];
+  }
+
+  /**
+   * Returns the end (exclusive) of the reaction instances of the model at the given position.
+   */
+  public int getModelEnd(int model)
+  {
+    return modelOffsets[model + 1];
+  }
+
+  public ReactionNode getReaction(int reaction)
+  {
+    return reactions[reaction];
+  }
+
+  public int getIndex(int reaction)
+  {
+    return indices[reaction];
+  }
+
+  public int getModel(int reaction)
+  {
+    return models[reaction];
+  }
+
+  public double getPropensity(int reaction)
+  {
+    return reactions[reaction].getValue(indices[reaction]);
+  }
+
+  /**
+   * Evaluates the forward rate of a reaction instance. The stored propensity is not changed.
+   */
+  public double computeForwardPropensity(int reaction)
+  {
+    return forwardRates[reaction] != null ? forwardRates[reaction].evaluate() : 0;
+  }
+
+  /**
+   * Evaluates the reverse rate of a reaction instance. The stored propensity is not changed.
+   */
+  public double computeReversePropensity(int reaction)
+  {
+    return reverseRates[reaction] != null ? reverseRates[reaction].evaluate() : 0;
+  }
+
+  public boolean isReversible(int reaction)
+  {
+    return reverseRates[reaction] != null;
+  }
+
+  public int getNumOfModels()
+  {
+    return modelPropensities.length;
+  }
+
+  public double getModelPropensity(int model)
+  {
+    return modelTotals[model];
+  }
+
+  public double getTotalPropensity()
+  {
+    return totalPropensity;
+  }
+
+  /**
+   * Returns the first position of the dependents of a reaction in {@link #getDependents()}.
+   */
+  public int getDependentStart(int reaction)
+  {
+    return dependentStart[reaction];
+  }
+
+  /**
+   * Returns the end position (exclusive) of the dependents of a reaction in {@link #getDependents()}.
+   */
+  public int getDependentEnd(int reaction)
+  {
+    return dependentStart[reaction + 1];
+  }
+
+  public int[] getDependents()
+  {
+    return dependents;
+  }
+
+  public int[] getAlwaysUpdated()
+  {
+    return alwaysUpdated;
+  }
+
+  /**
+   * Recomputes every propensity and the totals.
+   */
+  public void computeAll()
+  {
+    for (int reaction = 0; reaction < reactions.length; reaction++)
+    {
+      computePropensity(reaction);
+    }
+    resum();
+  }
+
+  /**
+   * Recomputes the propensities that depend on the species changed by the given reaction.
+   */
+  public void update(int fired)
+  {
+    for (int i = dependentStart[fired]; i < dependentStart[fired + 1]; i++)
+    {
+      recompute(dependents[i]);
+    }
+
+    // the running sums are refreshed once per sweep of the reactions to bound round-off error
+    if (++updateCount >= reactions.length)
+    {
+      resum();
+    }
+  }
+
+  /**
+   * Recomputes the propensities that depend on time or on random functions.
+   */
+  public void updateAlways()
+  {
+    for (int reaction : alwaysUpdated)
+    {
+      recompute(reaction);
+    }
+  }
+
+  /**
+   * Recomputes the propensity of a single reaction instance and returns the change.
+   */
+  public double recompute(int reaction)
+  {
+    double oldValue = getPropensity(reaction);
+    computePropensity(reaction);
+    double delta = getPropensity(reaction) - oldValue;
+
+    if (delta != 0)
+    {
+      int model = models[reaction];
+      modelTotals[model] += delta;
+      totalPropensity += delta;
+      modelPropensities[model].getVariable().setValue(modelTotals[model]);
+    }
+
+    return delta;
+  }
+
+  private void computePropensity(int reaction)
+  {
+    double value = 0;
+
+    if (forwardRates[reaction] != null)
+    {
+      value = forwardRates[reaction].evaluate();
+    }
+
+    if (reverseRates[reaction] != null)
+    {
+      value = value + reverseRates[reaction].evaluate();
+    }
+
+    reactions[reaction].setValue(indices[reaction], value);
+  }
+
+  /**
+   * Sums the current propensities into the model and total propensities.
+   */
+  public void resum()
+  {
+    totalPropensity = 0;
+    for (int model = 0; model < modelPropensities.length; model++)
+    {
+      double sum = 0;
+      for (int reaction = modelOffsets[model]; reaction < modelOffsets[model + 1]; reaction++)
+      {
+        sum += reactions[reaction].getValue(indices[reaction]);
+      }
+      modelTotals[model] = sum;
+      modelPropensities[model].getVariable().setValue(sum);
+      totalPropensity += sum;
+    }
+    updateCount = 0;
+  }
+}
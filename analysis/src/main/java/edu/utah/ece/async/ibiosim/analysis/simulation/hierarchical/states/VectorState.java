@@ -105,6 +105,16 @@ public class VectorState extends HierarchicalState{
     return vectorState.isSet() && vectorState.getRates() != null;
   }
 
+  public VectorWrapper getVectorWrapper()
+  {
+    return vectorState;
+  }
+
+  public int getVectorIndex()
+  {
+    return vectorIndex;
+  }
+
   @Override
   public void copyState(int from, int to) {
    
@@ -30,6 +30,8 @@ public class VectorWrapper {
   private boolean isSet;
   private int size;
   private List<Double> initValues;
+  private double[] initialState;
+  private double[] savedState;
   
   public VectorWrapper(List<Double> initValues)
   {
@@ -96,6 +98,10 @@ public class VectorWrapper {
     return initValues;
   }
   
+  /**
+   * Copies the initial values into the state vector. The initial values are unboxed once, so
+   * restoring the initial state for a new run is a single array copy.
+   */
   public void initStateValues()
   {
     if(values == null)
@@ -103,12 +109,34 @@ public class VectorWrapper {
       this.values = new double[size];
     }
     
-    for(int i = 0; i < size; ++i)
+    if(initialState == null || initialState.length != size)
     {
-      values[i] = initValues.get(i);
+      initialState = new double[size];
+      for(int i = 0; i < size; ++i)
+      {
+        initialState[i] = initValues.get(i);
+      }
     }
     
+    System.arraycopy(initialState, 0, values, 0, size);
+    
     isSet = true;
   }
+  
+  /**
+   * Saves a copy of the current state vector.
+   */
+  public void saveState()
+  {
+    savedState = values.clone();
+  }
+  
+  /**
+   * Copies the state saved by {@link #saveState()} back into the state vector.
+   */
+  public void restoreState()
+  {
+    System.arraycopy(savedState, 0, values, 0, size);
+  }
 
 }
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util;
+
+import java.util.Arrays;
+
+/**
+ * Indexed binary min-heap of firing times. Each element is identified by an integer in
+ * [0, size) and its time can be changed in logarithmic time.
+ *
+ * @author Leandro Watanabe
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public final class IndexedPriorityQueue
+{
+
+  private final double[]  times;
+  private final int[]     heap;
+  private final int[]     positions;
+
+  public IndexedPriorityQueue(int size)
+  {
+    this.times = new double[size];
+    this.heap = new int[size];
+    this.positions = new int[size];
+    clear();
+  }
+
+  /**
+   * Sets every time to infinity.
+   */
+  public void clear()
+  {
+    Arrays.fill(times, Double.POSITIVE_INFINITY);
+    for (int i = 0; i < heap.length; i++)
+    {
+      heap[i] = i;
+      positions[i] = i;
+    }
+  }
+
+  public int size()
+  {
+    return heap.length;
+  }
+
+  public double getTime(int element)
+  {
+    return times[element];
+  }
+
+  /**
+   * Returns the element with the smallest time.
+   */
+  public int peek()
+  {
+    return heap[0];
+  }
+
+  /**
+   * Returns the smallest time, or infinity if the queue has no elements.
+   */
+  public double peekTime()
+  {
+    return heap.length > 0 ? times[heap[0]] : Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Changes the time of an element and restores the heap order.
+   */
+  public void update(int element, double time)
+  {
+    double oldTime = times[element];
+    times[element] = time;
+
+    if (time < oldTime)
+    {
+      siftUp(positions[element]);
+    }
+    else if (time > oldTime)
+    {
+      siftDown(positions[element]);
+    }
+  }
+
+  private void siftUp(int position)
+  {
+    int element = heap[position];
+    double time = times[element];
+
+    while (position > 0)
+    {
+      int parent = (position - 1) >> 1;
+      if (times[heap[parent]] <= time)
+      {
+        break;
+      }
+      move(heap[parent], position);
+      position = parent;
+    }
+    move(element, position);
+  }
+
+  private void siftDown(int position)
+  {
+    int element = heap[position];
+    double time = times[element];
+    int half = heap.length >> 1;
+
+    while (position < half)
+    {
+      int child = 2 * position + 1;
+      int right = child + 1;
+      if (right < heap.length && times[heap[right]] < times[heap[child]])
+      {
+        child = right;
+      }
+      if (time <= times[heap[child]])
+      {
+        break;
+      }
+      move(heap[child], position);
+      position = child;
+    }
+    move(element, position);
+  }
+
+  private void move(int element, int position)
+  {
+    heap[position] = element;
+    positions[element] = position;
+  }
+}
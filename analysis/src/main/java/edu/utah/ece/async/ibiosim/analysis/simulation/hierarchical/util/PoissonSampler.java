@@ -0,0 +1,115 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util;
+
+import java.util.Random;
+
+import org.apache.commons.math3.special.Gamma;
+
+/**
+ * Draws Poisson distributed numbers of firings from a random number generator without
+ * creating an object per sample. Small means are sampled by inversion; means of at least
+ * {@link #INVERSION_LIMIT} are sampled with the transformed rejection method PTRS of
+ * Hörmann (1993), whose cost does not grow with the mean.
+ *
+ * @author Leandro Watanabe
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public final class PoissonSampler
+{
+
+  /**
+   * The smallest mean sampled by rejection.
+   */
+  public static final double INVERSION_LIMIT = 10;
+
+  private final Random random;
+
+  public PoissonSampler(Random random)
+  {
+    this.random = random;
+  }
+
+  public Random getRandom()
+  {
+    return random;
+  }
+
+  /**
+   * Returns a sample of the Poisson distribution with the given mean, or zero if the mean
+   * is not positive.
+   */
+  public int sample(double mean)
+  {
+    if (!(mean > 0))
+    {
+      return 0;
+    }
+    if (mean < INVERSION_LIMIT)
+    {
+      return sampleByInversion(mean);
+    }
+    return sampleByRejection(mean);
+  }
+
+  private int sampleByInversion(double mean)
+  {
+    double probability = Math.exp(-mean);
+    double cumulative = probability;
+    double u = random.nextDouble();
+    int k = 0;
+
+    // the tail beyond the last representable probability is cut off
+    while (u > cumulative && probability > 0)
+    {
+      k++;
+      probability *= mean / k;
+      cumulative += probability;
+    }
+
+    return k;
+  }
+
+  private int sampleByRejection(double mean)
+  {
+    double logMean = Math.log(mean);
+    double b = 0.931 + 2.53 * Math.sqrt(mean);
+    double a = -0.059 + 0.02483 * b;
+    double logInverseAlpha = Math.log(1.1239 + 1.1328 / (b - 3.4));
+    double vr = 0.9277 - 3.6224 / (b - 2);
+
+    while (true)
+    {
+      double u = random.nextDouble() - 0.5;
+      double v = random.nextDouble();
+      double us = 0.5 - Math.abs(u);
+      double k = Math.floor((2 * a / us + b) * u + mean + 0.43);
+
+      if (us >= 0.07 && v <= vr)
+      {
+        return (int) k;
+      }
+      if (k < 0 || (us < 0.013 && v > us))
+      {
+        continue;
+      }
+      if (Math.log(v) + logInverseAlpha - Math.log(a / (us * us) + b) <= -mean + k * logMean - Gamma.logGamma(k + 1))
+      {
+        return (int) k;
+      }
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.ode;
+
+import java.util.Arrays;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.CompiledExpression;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.VariableNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.HierarchicalState;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.VectorWrapper;
+
+/**
+ * Computes the rates of change of an ODE simulation directly from the state vector. The
+ * assignment rules are evaluated once, in the order of their dependencies, and the rates of the
+ * reactions are evaluated into a vector by their compiled rate laws. The rate of change of a
+ * species changed by reactions is then the product of its row of the stoichiometry matrix, which
+ * is stored in compressed sparse form, and the rate vector. The rate of change of a variable with
+ * a rate rule is its compiled rate rule. The values of the rules and reactions are written to the
+ * state, so they can be read by other math in the same way as with the interpreter.
+ * <p>
+ * When every rate of change can be differentiated, the kernel also has the Jacobian of the rates
+ * with the sparsity of its {@link JacobianPattern}, as compiled symbolic derivatives.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class DerivativeKernel implements JacobianFunction
+{
+
+  private final VariableNode         currentTime;
+  private final VectorWrapper        wrapper;
+  private final JacobianPattern      pattern;
+
+  private final HierarchicalState[]  ruleOutputs;
+  private final CompiledExpression[] rules;
+
+  private final HierarchicalState[]  reactionStates;
+  private final CompiledExpression[] forwardRates;
+  private final CompiledExpression[] reverseRates;
+  private final double[]             rates;
+
+  private final int[]                stoichiometryStart;
+  private final int[]                stoichiometryReactions;
+  private final double[]             stoichiometrySigns;
+  private final HierarchicalState[]  stoichiometries;
+
+  private final CompiledExpression[] rateRules;
+  private final VariableNode[]       interpretedNodes;
+  private final int[]                indices;
+
+  private final CompiledExpression[] jacobianEntries;
+
+  /**
+   * @param ruleOutputs
+   *          the state assigned by each assignment rule, in evaluation order.
+   * @param rules
+   *          the compiled math of each assignment rule.
+   * @param reactionStates
+   *          the state that holds the rate of each reaction.
+   * @param forwardRates
+   *          the compiled forward rate of each reaction, or null if none.
+   * @param reverseRates
+   *          the compiled reverse rate of each reaction, or null if none.
+   * @param stoichiometryStart
+   *          the start of the stoichiometry of each variable of the pattern, and the end of the
+   *          last one.
+   * @param stoichiometryReactions
+   *          the reaction of each stoichiometry entry.
+   * @param stoichiometrySigns
+   *          1 for a product and -1 for a reactant.
+   * @param stoichiometries
+   *          the state that holds the stoichiometry of each entry.
+   * @param rateRules
+   *          for each variable, its compiled rate rule, or null if its rate of change is given by
+   *          its stoichiometry or evaluated by the interpreter.
+   * @param interpretedNodes
+   *          for each variable, the node whose rate of change is evaluated by the interpreter, or
+   *          null.
+   * @param indices
+   *          the model index of each variable.
+   * @param jacobianEntries
+   *          the compiled derivative of each nonzero of the pattern, or null if the rates cannot
+   *          be differentiated.
+   */
+  public DerivativeKernel(VariableNode currentTime, VectorWrapper wrapper, JacobianPattern pattern, HierarchicalState[] ruleOutputs,
+    CompiledExpression[] rules, HierarchicalState[] reactionStates, CompiledExpression[] forwardRates, CompiledExpression[] reverseRates,
+    int[] stoichiometryStart, int[] stoichiometryReactions, double[] stoichiometrySigns, HierarchicalState[] stoichiometries,
+    CompiledExpression[] rateRules, VariableNode[] interpretedNodes, int[] indices, CompiledExpression[] jacobianEntries)
+  {
+    this.currentTime = currentTime;
+    this.wrapper = wrapper;
+    this.pattern = pattern;
+    this.ruleOutputs = ruleOutputs;
+    this.rules = rules;
+    this.reactionStates = reactionStates;
+    this.forwardRates = forwardRates;
+    this.reverseRates = reverseRates;
+    this.rates = new double[reactionStates.length];
+    this.stoichiometryStart = stoichiometryStart;
+    this.stoichiometryReactions = stoichiometryReactions;
+    this.stoichiometrySigns = stoichiometrySigns;
+    this.stoichiometries = stoichiometries;
+    this.rateRules = rateRules;
+    this.interpretedNodes = interpretedNodes;
+    this.indices = indices;
+    this.jacobianEntries = jacobianEntries;
+  }
+
+  /**
+   * Computes the rates of change at the given time and state. The entries of the state that are
+   * not variables receive the values of the rules and reactions, and their rates are zero.
+   */
+  public void computeDerivatives(double t, double[] y, double[] yDot)
+  {
+    computeValues(t, y);
+
+    final int[] variables = pattern.getVariables();
+    Arrays.fill(yDot, 0.0);
+
+    for (int row = 0; row < variables.length; row++)
+    {
+      double rate;
+      if (rateRules[row] != null)
+      {
+        rate = rateRules[row].evaluate();
+      }
+      else if (interpretedNodes[row] != null)
+      {
+        rate = interpretedNodes[row].computeRateOfChange(indices[row]);
+      }
+      else
+      {
+        rate = 0;
+        for (int i = stoichiometryStart[row]; i < stoichiometryStart[row + 1]; i++)
+        {
+          rate += stoichiometrySigns[i] * stoichiometries[i].getStateValue() * rates[stoichiometryReactions[i]];
+        }
+      }
+      yDot[variables[row]] = rate;
+    }
+  }
+
+  /**
+   * Returns true if the kernel has the Jacobian of the rates.
+   */
+  public boolean hasJacobian()
+  {
+    return jacobianEntries != null;
+  }
+
+  @Override
+  public JacobianPattern getJacobianPattern()
+  {
+    return pattern;
+  }
+
+  /**
+   * Computes the Jacobian from the compiled derivatives. Returns false, without computing
+   * anything, when the rates cannot be differentiated.
+   */
+  @Override
+  public boolean computeJacobian(double t, double[] y, double[] jacobian)
+  {
+    if (jacobianEntries == null)
+    {
+      return false;
+    }
+
+    // the derivatives read the values of the rules and reactions
+    computeValues(t, y);
+
+    for (int i = 0; i < jacobianEntries.length; i++)
+    {
+      jacobian[i] = jacobianEntries[i].evaluate();
+    }
+    return true;
+  }
+
+  private void computeValues(double t, double[] y)
+  {
+    currentTime.setValue(t);
+    wrapper.setValues(y);
+
+    for (int i = 0; i < rules.length; i++)
+    {
+      ruleOutputs[i].setStateValue(rules[i].evaluate());
+    }
+
+    for (int i = 0; i < rates.length; i++)
+    {
+      double rate = 0;
+      if (forwardRates[i] != null)
+      {
+        rate = forwardRates[i].evaluate();
+      }
+      if (reverseRates[i] != null)
+      {
+        rate += reverseRates[i].evaluate();
+      }
+      rates[i] = rate;
+      reactionStates[i].setStateValue(rate);
+    }
+  }
+}
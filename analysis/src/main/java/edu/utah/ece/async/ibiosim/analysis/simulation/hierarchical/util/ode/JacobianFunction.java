@@ -0,0 +1,41 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.ode;
+
+/**
+ * Computes the Jacobian of an ODE system with the sparsity of a {@link JacobianPattern}.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public interface JacobianFunction
+{
+
+  /**
+   * Returns the pattern of the computed Jacobian.
+   */
+  JacobianPattern getJacobianPattern();
+
+  /**
+   * Computes the nonzeros of the Jacobian at the given time and state, in the order of
+   * {@link JacobianPattern#getColumns()}. The state may be changed in the entries that are not
+   * variables of the pattern.
+   *
+   * @return false if the Jacobian cannot be computed, in which case the caller computes it by
+   *         finite differences.
+   */
+  boolean computeJacobian(double t, double[] y, double[] jacobian);
+
+}
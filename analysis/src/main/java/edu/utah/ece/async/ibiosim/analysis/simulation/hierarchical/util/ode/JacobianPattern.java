@@ -0,0 +1,240 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.ode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sparsity pattern of the Jacobian of an ODE system. Only the variables of the state vector
+ * that have a rate of change take part in the Jacobian, and they are numbered by their position
+ * in {@link #getVariables()}. The pattern is stored by rows and by columns in compressed sparse
+ * form, and the columns are split into groups in which no two columns share a row, so a finite
+ * difference Jacobian needs one derivative evaluation per group instead of one per column.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class JacobianPattern
+{
+
+  private final int[]   variables;
+  private final int[]   rowStart;
+  private final int[]   columns;
+  private final int[]   columnStart;
+  private final int[]   rows;
+  private final int[]   groupStart;
+  private final int[]   groupColumns;
+  private final boolean isTimeDependent;
+
+  /**
+   * @param variables
+   *          the index in the state vector of each variable with a rate of change.
+   * @param rowColumns
+   *          for each variable, the positions of the variables its rate of change depends on.
+   * @param isTimeDependent
+   *          whether any rate of change depends on time explicitly.
+   */
+  public JacobianPattern(int[] variables, List<int[]> rowColumns, boolean isTimeDependent)
+  {
+    int size = variables.length;
+    int nonzeros = 0;
+    for (int[] list : rowColumns)
+    {
+      nonzeros += list.length;
+    }
+
+    this.variables = variables;
+    this.isTimeDependent = isTimeDependent;
+    this.rowStart = new int[size + 1];
+    this.columns = new int[nonzeros];
+    this.columnStart = new int[size + 1];
+    this.rows = new int[nonzeros];
+
+    int position = 0;
+    for (int row = 0; row < size; row++)
+    {
+      int[] list = rowColumns.get(row);
+      rowStart[row] = position;
+      System.arraycopy(list, 0, columns, position, list.length);
+      position += list.length;
+      for (int column : list)
+      {
+        columnStart[column + 1]++;
+      }
+    }
+    rowStart[size] = position;
+
+    for (int column = 0; column < size; column++)
+    {
+      columnStart[column + 1] += columnStart[column];
+    }
+
+    int[] next = Arrays.copyOf(columnStart, size);
+    for (int row = 0; row < size; row++)
+    {
+      for (int i = rowStart[row]; i < rowStart[row + 1]; i++)
+      {
+        rows[next[columns[i]]++] = row;
+      }
+    }
+
+    // greedy coloring of the columns: a column gets the first group that has no column sharing
+    // a row with it
+    int[] groups = new int[size];
+    int[] marks = new int[size + 1];
+    int numGroups = 0;
+    Arrays.fill(groups, -1);
+
+    for (int column = 0; column < size; column++)
+    {
+      for (int i = columnStart[column]; i < columnStart[column + 1]; i++)
+      {
+        int row = rows[i];
+        for (int j = rowStart[row]; j < rowStart[row + 1]; j++)
+        {
+          int group = groups[columns[j]];
+          if (group >= 0)
+          {
+            marks[group] = column + 1;
+          }
+        }
+      }
+
+      int group = 0;
+      while (group < numGroups && marks[group] == column + 1)
+      {
+        group++;
+      }
+
+      groups[column] = group;
+      if (group == numGroups)
+      {
+        numGroups++;
+      }
+    }
+
+    this.groupStart = new int[numGroups + 1];
+    this.groupColumns = new int[size];
+
+    for (int column = 0; column < size; column++)
+    {
+      groupStart[groups[column] + 1]++;
+    }
+    for (int group = 0; group < numGroups; group++)
+    {
+      groupStart[group + 1] += groupStart[group];
+    }
+
+    next = Arrays.copyOf(groupStart, numGroups);
+    for (int column = 0; column < size; column++)
+    {
+      groupColumns[next[groups[column]]++] = column;
+    }
+  }
+
+  /**
+   * Creates the pattern of a system where every variable of the state vector may depend on every
+   * other one.
+   */
+  public static JacobianPattern createDense(int size)
+  {
+    int[] variables = new int[size];
+    for (int i = 0; i < size; i++)
+    {
+      variables[i] = i;
+    }
+
+    return new JacobianPattern(variables, Collections.nCopies(size, variables), true);
+  }
+
+  public int getNumOfVariables()
+  {
+    return variables.length;
+  }
+
+  /**
+   * Returns the index in the state vector of each variable of the Jacobian.
+   */
+  public int[] getVariables()
+  {
+    return variables;
+  }
+
+  public int getRowStart(int row)
+  {
+    return rowStart[row];
+  }
+
+  public int getRowEnd(int row)
+  {
+    return rowStart[row + 1];
+  }
+
+  /**
+   * Returns the columns of the nonzeros, ordered by row.
+   */
+  public int[] getColumns()
+  {
+    return columns;
+  }
+
+  public int getColumnStart(int column)
+  {
+    return columnStart[column];
+  }
+
+  public int getColumnEnd(int column)
+  {
+    return columnStart[column + 1];
+  }
+
+  /**
+   * Returns the rows of the nonzeros, ordered by column.
+   */
+  public int[] getRows()
+  {
+    return rows;
+  }
+
+  public int getNumOfGroups()
+  {
+    return groupStart.length - 1;
+  }
+
+  public int getGroupStart(int group)
+  {
+    return groupStart[group];
+  }
+
+  public int getGroupEnd(int group)
+  {
+    return groupStart[group + 1];
+  }
+
+  /**
+   * Returns the columns of the groups, ordered by group.
+   */
+  public int[] getGroupColumns()
+  {
+    return groupColumns;
+  }
+
+  public boolean isTimeDependent()
+  {
+    return isTimeDependent;
+  }
+}
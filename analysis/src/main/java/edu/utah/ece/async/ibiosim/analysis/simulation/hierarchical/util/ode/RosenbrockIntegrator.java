@@ -0,0 +1,635 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.ode;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.exception.MaxCountExceededException;
+import org.apache.commons.math3.exception.NoBracketingException;
+import org.apache.commons.math3.exception.NumberIsTooSmallException;
+import org.apache.commons.math3.exception.util.LocalizedFormats;
+import org.apache.commons.math3.ode.EquationsMapper;
+import org.apache.commons.math3.ode.ExpandableStatefulODE;
+import org.apache.commons.math3.ode.nonstiff.AdaptiveStepsizeIntegrator;
+import org.apache.commons.math3.ode.sampling.AbstractStepInterpolator;
+import org.apache.commons.math3.ode.sampling.StepInterpolator;
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * Linearly implicit integrator for stiff ODE systems. It is the four stage Rosenbrock method of
+ * Kaps and Rentrop with the coefficients of Shampine, which is of order four with an embedded
+ * third order error estimate and needs three derivative evaluations per step, plus one at the
+ * end of the step that is reused at the start of the next one. Every stage solves a linear system
+ * with the matrix I / (gamma h) - J, so the step size is limited by accuracy and not by the
+ * fastest time scale of the system.
+ * <p>
+ * The Jacobian J is computed once per step, by a {@link JacobianFunction} if one is set and can
+ * compute it, and by finite differences otherwise. Only the variables of the {@link JacobianPattern} take part in
+ * it, and the finite differences perturb the columns of a group of the pattern together, so a
+ * sparse system needs few derivative evaluations per Jacobian. The other entries of
+ * the state vector, such as values computed by assignment rules, are left for the derivative
+ * evaluation to update. Without a pattern, every entry of the state vector is a variable.
+ * <p>
+ * The integrator is a Commons Math integrator, so event handlers are added and located as with
+ * the explicit integrators. States between steps are given by cubic Hermite interpolation.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class RosenbrockIntegrator extends AdaptiveStepsizeIntegrator
+{
+
+  private static final String METHOD_NAME   = "Rosenbrock";
+
+  private static final double GAMMA         = 1.0 / 2.0;
+  private static final double A21           = 2.0;
+  private static final double A31           = 48.0 / 25.0;
+  private static final double A32           = 6.0 / 25.0;
+  private static final double C21           = -8.0;
+  private static final double C31           = 372.0 / 25.0;
+  private static final double C32           = 12.0 / 5.0;
+  private static final double C41           = -112.0 / 125.0;
+  private static final double C42           = -54.0 / 125.0;
+  private static final double C43           = -2.0 / 5.0;
+  private static final double B1            = 19.0 / 9.0;
+  private static final double B2            = 1.0 / 2.0;
+  private static final double B3            = 25.0 / 108.0;
+  private static final double B4            = 125.0 / 108.0;
+  private static final double E1            = 17.0 / 54.0;
+  private static final double E2            = 7.0 / 36.0;
+  private static final double E4            = 125.0 / 108.0;
+  private static final double C1X           = 1.0 / 2.0;
+  private static final double C2X           = -3.0 / 2.0;
+  private static final double C3X           = 121.0 / 50.0;
+  private static final double C4X           = 29.0 / 250.0;
+  private static final double A2X           = 1.0;
+  private static final double A3X           = 3.0 / 5.0;
+
+  private static final double SAFETY        = 0.9;
+  private static final double MIN_REDUCTION = 0.2;
+  private static final double MAX_GROWTH    = 5.0;
+  private static final double EXPONENT      = -1.0 / 4.0;
+
+  private static final double SQRT_EPSILON  = FastMath.sqrt(FastMath.ulp(1.0));
+
+  private JacobianPattern     pattern;
+  private JacobianFunction    jacobianFunction;
+
+  public RosenbrockIntegrator(double minStep, double maxStep, double scalAbsoluteTolerance, double scalRelativeTolerance)
+  {
+    super(METHOD_NAME, minStep, maxStep, scalAbsoluteTolerance, scalRelativeTolerance);
+  }
+
+  /**
+   * Sets the variables of the Jacobian and its sparsity pattern. With no pattern, the Jacobian is
+   * dense over the whole state vector.
+   */
+  public void setJacobianPattern(JacobianPattern pattern)
+  {
+    this.pattern = pattern;
+  }
+
+  public JacobianPattern getJacobianPattern()
+  {
+    return pattern;
+  }
+
+  /**
+   * Sets the function that computes the Jacobian, which also sets its pattern. With no function,
+   * the Jacobian is computed by finite differences.
+   */
+  public void setJacobianFunction(JacobianFunction jacobianFunction)
+  {
+    this.jacobianFunction = jacobianFunction;
+    if (jacobianFunction != null)
+    {
+      this.pattern = jacobianFunction.getJacobianPattern();
+    }
+  }
+
+  public JacobianFunction getJacobianFunction()
+  {
+    return jacobianFunction;
+  }
+
+  @Override
+  public void integrate(ExpandableStatefulODE equations, double t)
+      throws NumberIsTooSmallException, DimensionMismatchException, MaxCountExceededException, NoBracketingException
+  {
+    sanityChecks(equations, t);
+    setEquations(equations);
+    final boolean forward = t > equations.getTime();
+
+    final double[] y0 = equations.getCompleteState();
+    final double[] y = y0.clone();
+    final int n = y.length;
+    final JacobianPattern jacobianPattern = pattern != null ? pattern : JacobianPattern.createDense(n);
+    final int[] variables = jacobianPattern.getVariables();
+    final int m = variables.length;
+
+    final double[] yDot = new double[n];
+    final double[] yTmp = new double[n];
+    final double[] yDotTmp = new double[n];
+    final double[] dfdt = new double[m];
+    final double[] g1 = new double[m];
+    final double[] g2 = new double[m];
+    final double[] g3 = new double[m];
+    final double[] g4 = new double[m];
+    final double[][] jacobian = new double[m][m];
+    final double[] jacobianValues = jacobianFunction != null ? new double[jacobianPattern.getColumns().length] : null;
+    final double[][] lu = new double[m][m];
+    final int[] pivot = new int[m];
+
+    final RosenbrockStepInterpolator interpolator =
+        new RosenbrockStepInterpolator(y, yDot, forward, equations.getPrimaryMapper(), equations.getSecondaryMappers());
+    interpolator.storeTime(equations.getTime());
+
+    stepStart = equations.getTime();
+    double hNew = 0;
+    boolean firstTime = true;
+    initIntegration(equations.getTime(), y0, t);
+    computeDerivatives(stepStart, y, yDot);
+
+    isLastStep = false;
+    do
+    {
+      interpolator.shift();
+      interpolator.storePreviousState(y, yDot);
+
+      if (firstTime)
+      {
+        final double[] scale = new double[mainSetDimension];
+        for (int i = 0; i < scale.length; ++i)
+        {
+          scale[i] = getTolerance(i, y[i], y[i]);
+        }
+        hNew = initializeStep(forward, 4, scale, stepStart, y, yDot, yTmp, yDotTmp);
+        firstTime = false;
+      }
+
+      if (jacobianFunction == null || !computeJacobian(jacobianPattern, stepStart, y, yTmp, jacobianValues, jacobian))
+      {
+        computeJacobian(jacobianPattern, stepStart, y, yDot, yTmp, yDotTmp, jacobian);
+      }
+      computeTimeDerivative(jacobianPattern, stepStart, hNew, y, yDot, yTmp, yDotTmp, dfdt);
+
+      double error;
+      while (true)
+      {
+        stepSize = hNew;
+        if (forward ? stepStart + stepSize >= t : stepStart + stepSize <= t)
+        {
+          stepSize = t - stepStart;
+        }
+
+        error = Double.POSITIVE_INFINITY;
+        if (factor(jacobian, 1.0 / (GAMMA * stepSize), lu, pivot))
+        {
+          System.arraycopy(y, 0, yTmp, 0, n);
+
+          for (int i = 0; i < m; ++i)
+          {
+            g1[i] = yDot[variables[i]] + stepSize * C1X * dfdt[i];
+          }
+          solve(lu, pivot, g1);
+
+          for (int i = 0; i < m; ++i)
+          {
+            yTmp[variables[i]] = y[variables[i]] + A21 * g1[i];
+          }
+          computeDerivatives(stepStart + A2X * stepSize, yTmp, yDotTmp);
+
+          for (int i = 0; i < m; ++i)
+          {
+            g2[i] = yDotTmp[variables[i]] + stepSize * C2X * dfdt[i] + C21 * g1[i] / stepSize;
+          }
+          solve(lu, pivot, g2);
+
+          for (int i = 0; i < m; ++i)
+          {
+            yTmp[variables[i]] = y[variables[i]] + A31 * g1[i] + A32 * g2[i];
+          }
+          computeDerivatives(stepStart + A3X * stepSize, yTmp, yDotTmp);
+
+          for (int i = 0; i < m; ++i)
+          {
+            g3[i] = yDotTmp[variables[i]] + stepSize * C3X * dfdt[i] + (C31 * g1[i] + C32 * g2[i]) / stepSize;
+          }
+          solve(lu, pivot, g3);
+
+          for (int i = 0; i < m; ++i)
+          {
+            g4[i] = yDotTmp[variables[i]] + stepSize * C4X * dfdt[i] + (C41 * g1[i] + C42 * g2[i] + C43 * g3[i]) / stepSize;
+          }
+          solve(lu, pivot, g4);
+
+          double sum = 0;
+          for (int i = 0; i < m; ++i)
+          {
+            int index = variables[i];
+            yTmp[index] = y[index] + B1 * g1[i] + B2 * g2[i] + B3 * g3[i] + B4 * g4[i];
+            double ratio = (E1 * g1[i] + E2 * g2[i] + E4 * g4[i]) / getTolerance(index, y[index], yTmp[index]);
+            sum += ratio * ratio;
+          }
+          error = m > 0 ? FastMath.sqrt(sum / m) : 0;
+        }
+
+        // NaN is rejected as well
+        if (error <= 1.0)
+        {
+          break;
+        }
+
+        double factor = error < Double.POSITIVE_INFINITY ? FastMath.max(MIN_REDUCTION, SAFETY * FastMath.pow(error, EXPONENT)) : MIN_REDUCTION;
+        hNew = filterStep(stepSize * factor, forward, false);
+        if (stepStart + hNew == stepStart)
+        {
+          throw new NumberIsTooSmallException(LocalizedFormats.MINIMAL_STEPSIZE_REACHED_DURING_INTEGRATION, FastMath.abs(hNew), getMinStep(), true);
+        }
+      }
+
+      // the derivatives at the end of the step are used by the interpolator and the next step
+      computeDerivatives(stepStart + stepSize, yTmp, yDotTmp);
+      interpolator.storeTime(stepStart + stepSize);
+      System.arraycopy(yTmp, 0, y, 0, n);
+      System.arraycopy(yDotTmp, 0, yDot, 0, n);
+      stepStart = acceptStep(interpolator, y, yDot, t);
+
+      if (!isLastStep)
+      {
+        interpolator.storeTime(stepStart);
+
+        final double factor = FastMath.min(MAX_GROWTH, FastMath.max(MIN_REDUCTION, SAFETY * FastMath.pow(error, EXPONENT)));
+        final double scaledH = stepSize * factor;
+        final double nextT = stepStart + scaledH;
+        final boolean nextIsLast = forward ? (nextT >= t) : (nextT <= t);
+        hNew = filterStep(scaledH, forward, nextIsLast);
+
+        final double filteredNextT = stepStart + hNew;
+        final boolean filteredNextIsLast = forward ? (filteredNextT >= t) : (filteredNextT <= t);
+        if (filteredNextIsLast)
+        {
+          hNew = t - stepStart;
+        }
+      }
+    }
+    while (!isLastStep);
+
+    equations.setTime(stepStart);
+    equations.setCompleteState(y);
+
+    resetInternalState();
+  }
+
+  /**
+   * Computes the Jacobian at the start of the step with the Jacobian function. Returns false if
+   * the function cannot compute it.
+   */
+  private boolean computeJacobian(JacobianPattern jacobianPattern, double t, double[] y, double[] yTmp, double[] values, double[][] jacobian)
+  {
+    final int[] columns = jacobianPattern.getColumns();
+
+    // the function may change the values that are not variables
+    System.arraycopy(y, 0, yTmp, 0, y.length);
+    if (!jacobianFunction.computeJacobian(t, yTmp, values))
+    {
+      return false;
+    }
+
+    for (int row = 0; row < jacobian.length; ++row)
+    {
+      for (int i = jacobianPattern.getRowStart(row); i < jacobianPattern.getRowEnd(row); ++i)
+      {
+        jacobian[row][columns[i]] = values[i];
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Computes the Jacobian at the start of the step by forward differences, perturbing the
+   * columns of one group of the pattern at a time.
+   */
+  private void computeJacobian(JacobianPattern jacobianPattern, double t, double[] y, double[] yDot, double[] yPerturbed, double[] yDotPerturbed,
+    double[][] jacobian)
+  {
+    final int[] variables = jacobianPattern.getVariables();
+    final int[] groupColumns = jacobianPattern.getGroupColumns();
+    final int[] rows = jacobianPattern.getRows();
+    final double[] increments = new double[variables.length];
+
+    System.arraycopy(y, 0, yPerturbed, 0, y.length);
+
+    for (int group = 0; group < jacobianPattern.getNumOfGroups(); ++group)
+    {
+      for (int i = jacobianPattern.getGroupStart(group); i < jacobianPattern.getGroupEnd(group); ++i)
+      {
+        int column = groupColumns[i];
+        int index = variables[column];
+        double threshold = FastMath.sqrt(vecAbsoluteTolerance == null ? scalAbsoluteTolerance : vecAbsoluteTolerance[index]);
+        yPerturbed[index] = y[index] + SQRT_EPSILON * FastMath.max(FastMath.abs(y[index]), threshold);
+        increments[column] = yPerturbed[index] - y[index];
+      }
+
+      computeDerivatives(t, yPerturbed, yDotPerturbed);
+
+      for (int i = jacobianPattern.getGroupStart(group); i < jacobianPattern.getGroupEnd(group); ++i)
+      {
+        int column = groupColumns[i];
+        for (int j = jacobianPattern.getColumnStart(column); j < jacobianPattern.getColumnEnd(column); ++j)
+        {
+          int row = rows[j];
+          jacobian[row][column] = (yDotPerturbed[variables[row]] - yDot[variables[row]]) / increments[column];
+        }
+      }
+
+      // the derivative evaluation may also change the values that are not variables
+      System.arraycopy(y, 0, yPerturbed, 0, y.length);
+    }
+  }
+
+  /**
+   * Computes the partial derivative of the rates with respect to time by a forward difference.
+   * It is zero when the pattern says that no rate depends on time.
+   */
+  private void computeTimeDerivative(JacobianPattern jacobianPattern, double t, double h, double[] y, double[] yDot, double[] yTmp, double[] yDotTmp,
+    double[] dfdt)
+  {
+    final int[] variables = jacobianPattern.getVariables();
+
+    if (!jacobianPattern.isTimeDependent())
+    {
+      return;
+    }
+
+    double delta = SQRT_EPSILON * FastMath.max(FastMath.abs(t), FastMath.abs(h));
+    if (delta == 0)
+    {
+      delta = SQRT_EPSILON;
+    }
+    delta = (t + delta) - t;
+
+    System.arraycopy(y, 0, yTmp, 0, y.length);
+    computeDerivatives(t + delta, yTmp, yDotTmp);
+
+    for (int i = 0; i < variables.length; ++i)
+    {
+      dfdt[i] = (yDotTmp[variables[i]] - yDot[variables[i]]) / delta;
+    }
+  }
+
+  private double getTolerance(int index, double y1, double y2)
+  {
+    double magnitude = FastMath.max(FastMath.abs(y1), FastMath.abs(y2));
+    if (vecAbsoluteTolerance == null)
+    {
+      return scalAbsoluteTolerance + scalRelativeTolerance * magnitude;
+    }
+    return vecAbsoluteTolerance[index] + vecRelativeTolerance[index] * magnitude;
+  }
+
+  /**
+   * Computes the LU decomposition with partial pivoting of diagonal * I - jacobian. Returns false
+   * if the matrix is singular.
+   */
+  private static boolean factor(double[][] jacobian, double diagonal, double[][] lu, int[] pivot)
+  {
+    final int m = lu.length;
+
+    for (int i = 0; i < m; ++i)
+    {
+      double[] row = lu[i];
+      double[] source = jacobian[i];
+      for (int j = 0; j < m; ++j)
+      {
+        row[j] = -source[j];
+      }
+      row[i] += diagonal;
+    }
+
+    // the rows of lu are swapped, so the rows of jacobian keep their own arrays
+    for (int k = 0; k < m; ++k)
+    {
+      int max = k;
+      for (int i = k + 1; i < m; ++i)
+      {
+        if (FastMath.abs(lu[i][k]) > FastMath.abs(lu[max][k]))
+        {
+          max = i;
+        }
+      }
+
+      if (lu[max][k] == 0 || Double.isNaN(lu[max][k]))
+      {
+        return false;
+      }
+
+      pivot[k] = max;
+      if (max != k)
+      {
+        double[] tmp = lu[max];
+        lu[max] = lu[k];
+        lu[k] = tmp;
+      }
+
+      double[] rowK = lu[k];
+      for (int i = k + 1; i < m; ++i)
+      {
+        double[] rowI = lu[i];
+        if (rowI[k] != 0)
+        {
+          double multiplier = rowI[k] / rowK[k];
+          rowI[k] = multiplier;
+          for (int j = k + 1; j < m; ++j)
+          {
+            rowI[j] -= multiplier * rowK[j];
+          }
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Solves the system factored by {@link #factor}, overwriting the right hand side with the
+   * solution.
+   */
+  private static void solve(double[][] lu, int[] pivot, double[] b)
+  {
+    final int m = b.length;
+
+    for (int k = 0; k < m; ++k)
+    {
+      int p = pivot[k];
+      if (p != k)
+      {
+        double tmp = b[p];
+        b[p] = b[k];
+        b[k] = tmp;
+      }
+    }
+
+    for (int i = 1; i < m; ++i)
+    {
+      double[] row = lu[i];
+      double sum = b[i];
+      for (int j = 0; j < i; ++j)
+      {
+        sum -= row[j] * b[j];
+      }
+      b[i] = sum;
+    }
+
+    for (int i = m - 1; i >= 0; --i)
+    {
+      double[] row = lu[i];
+      double sum = b[i];
+      for (int j = i + 1; j < m; ++j)
+      {
+        sum -= row[j] * b[j];
+      }
+      b[i] = sum / row[i];
+    }
+  }
+
+  /**
+   * Cubic Hermite interpolation between the states and derivatives at both ends of a step.
+   */
+  private static class RosenbrockStepInterpolator extends AbstractStepInterpolator
+  {
+
+    private static final long serialVersionUID = 4349309311107900777L;
+
+    private double[] previousState;
+    private double[] previousDerivatives;
+    private double[] currentDerivatives;
+
+    /**
+     * Constructor needed for externalization.
+     */
+    public RosenbrockStepInterpolator()
+    {
+      super();
+    }
+
+    RosenbrockStepInterpolator(double[] y, double[] yDot, boolean forward, EquationsMapper primaryMapper, EquationsMapper[] secondaryMappers)
+    {
+      super(y, forward, primaryMapper, secondaryMappers);
+      this.previousState = new double[y.length];
+      this.previousDerivatives = new double[y.length];
+      this.currentDerivatives = yDot;
+    }
+
+    RosenbrockStepInterpolator(RosenbrockStepInterpolator interpolator)
+    {
+      super(interpolator);
+      if (interpolator.currentDerivatives != null)
+      {
+        this.previousState = interpolator.previousState.clone();
+        this.previousDerivatives = interpolator.previousDerivatives.clone();
+        this.currentDerivatives = interpolator.currentDerivatives.clone();
+      }
+    }
+
+    void storePreviousState(double[] y, double[] yDot)
+    {
+      System.arraycopy(y, 0, previousState, 0, y.length);
+      System.arraycopy(yDot, 0, previousDerivatives, 0, yDot.length);
+    }
+
+    @Override
+    protected StepInterpolator doCopy()
+    {
+      return new RosenbrockStepInterpolator(this);
+    }
+
+    @Override
+    protected void computeInterpolatedStateAndDerivatives(double theta, double oneMinusThetaH)
+    {
+      final double theta2 = theta * theta;
+      final double theta3 = theta2 * theta;
+      final double h00 = 2 * theta3 - 3 * theta2 + 1;
+      final double h10 = theta3 - 2 * theta2 + theta;
+      final double h01 = -2 * theta3 + 3 * theta2;
+      final double h11 = theta3 - theta2;
+      final double d00 = 6 * theta2 - 6 * theta;
+      final double d10 = 3 * theta2 - 4 * theta + 1;
+      final double d11 = 3 * theta2 - 2 * theta;
+
+      for (int i = 0; i < interpolatedState.length; ++i)
+      {
+        interpolatedState[i] = h00 * previousState[i] + h01 * currentState[i] + h * (h10 * previousDerivatives[i] + h11 * currentDerivatives[i]);
+        if (h == 0)
+        {
+          interpolatedDerivatives[i] = currentDerivatives[i];
+        }
+        else
+        {
+          interpolatedDerivatives[i] = d00 * (previousState[i] - currentState[i]) / h + d10 * previousDerivatives[i] + d11 * currentDerivatives[i];
+        }
+      }
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException
+    {
+      writeBaseExternal(out);
+      writeArray(out, previousState);
+      writeArray(out, previousDerivatives);
+      writeArray(out, currentDerivatives);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+    {
+      final double t = readBaseExternal(in);
+      previousState = readArray(in);
+      previousDerivatives = readArray(in);
+      currentDerivatives = readArray(in);
+      setInterpolatedTime(t);
+    }
+
+    private static void writeArray(ObjectOutput out, double[] array) throws IOException
+    {
+      out.writeInt(array == null ? -1 : array.length);
+      if (array != null)
+      {
+        for (double value : array)
+        {
+          out.writeDouble(value);
+        }
+      }
+    }
+
+    private static double[] readArray(ObjectInput in) throws IOException
+    {
+      final int length = in.readInt();
+      if (length < 0)
+      {
+        return null;
+      }
+      final double[] array = new double[length];
+      for (int i = 0; i < length; ++i)
+      {
+        array[i] = in.readDouble();
+      }
+      return array;
+    }
+  }
+}
@@ -0,0 +1,778 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.setup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalSimulation;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.CompiledExpression;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ExpressionCompiler;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ExpressionDifferentiator;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.FunctionNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.HierarchicalNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ReactionNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.SpeciesNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.SpeciesReferenceNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.VariableNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.AbstractHierarchicalNode.Type;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.model.DependencyGraph;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.model.HierarchicalModel;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.HierarchicalState;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.VectorState;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.VectorWrapper;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.ode.DerivativeKernel;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.ode.JacobianPattern;
+
+/**
+ * Builds the reaction dependency graph of a hierarchical simulation, and the sparsity pattern of
+ * the Jacobian and the derivative kernel of an ODE simulation. Variables are identified by the state object they resolve to
+ * at a model index, so replaced and replacing elements of different submodels are treated as the
+ * same variable.
+ *
+ * @author Leandro Watanabe
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class DependencySetup
+{
+
+  /*
+   * Inputs that stand for time and for dependencies that are not known, like the ones of a delay.
+   */
+  private static final Object TIME_INPUT    = new Object();
+  private static final Object UNKNOWN_INPUT = new Object();
+
+  /**
+   * Creates the dependency graph for the models of the given simulation. The models must have
+   * been initialized by {@link ModelSetup}.
+   */
+  public static DependencyGraph setupDependencies(HierarchicalSimulation sim)
+  {
+    List<HierarchicalModel> modules = sim.getListOfHierarchicalModels();
+    int[] modelOffsets = new int[modules.size() + 1];
+    FunctionNode[] modelPropensities = new FunctionNode[modules.size()];
+    List<ReactionNode> reactionList = new ArrayList<ReactionNode>();
+    List<Integer> indexList = new ArrayList<Integer>();
+
+    for (int i = 0; i < modules.size(); i++)
+    {
+      HierarchicalModel model = modules.get(i);
+      modelOffsets[i] = reactionList.size();
+      modelPropensities[i] = model.getPropensity();
+      if (model.getReactions() != null)
+      {
+        for (ReactionNode reaction : model.getReactions())
+        {
+          reactionList.add(reaction);
+          indexList.add(model.getIndex());
+        }
+      }
+    }
+    modelOffsets[modules.size()] = reactionList.size();
+
+    int size = reactionList.size();
+    ReactionNode[] reactions = reactionList.toArray(new ReactionNode[size]);
+    int[] indices = toArray(indexList);
+    CompiledExpression[] forwardRates = new CompiledExpression[size];
+    CompiledExpression[] reverseRates = new CompiledExpression[size];
+
+    for (int i = 0; i < size; i++)
+    {
+      forwardRates[i] = ExpressionCompiler.compile(reactions[i].getForwardRate(), indices[i]);
+      reverseRates[i] = ExpressionCompiler.compile(reactions[i].getReverseRate(), indices[i]);
+    }
+
+    Set<Object> varying = newIdentitySet();
+    Map<Object, Set<Object>> ruleOutputs = setupRuleOutputs(sim, modules, varying);
+    closeOverRules(varying, ruleOutputs);
+
+    Map<Object, List<Integer>> readers = new IdentityHashMap<Object, List<Integer>>();
+    List<Integer> alwaysUpdated = new ArrayList<Integer>();
+
+    for (int i = 0; i < size; i++)
+    {
+      Set<Object> inputs = newIdentitySet();
+      boolean isAlwaysUpdated = collectInputs(sim, reactions[i].getForwardRate(), indices[i], inputs);
+      isAlwaysUpdated |= collectInputs(sim, reactions[i].getReverseRate(), indices[i], inputs);
+
+      for (Object input : inputs)
+      {
+        isAlwaysUpdated |= varying.contains(input);
+      }
+
+      if (isAlwaysUpdated)
+      {
+        alwaysUpdated.add(i);
+      }
+
+      for (Object input : inputs)
+      {
+        List<Integer> list = readers.get(input);
+        if (list == null)
+        {
+          list = new ArrayList<Integer>();
+          readers.put(input, list);
+        }
+        list.add(i);
+      }
+    }
+
+    List<int[]> dependents = new ArrayList<int[]>(size);
+    int[] marks = new int[size];
+
+    for (int i = 0; i < size; i++)
+    {
+      Set<Object> changed = newIdentitySet();
+      addChangedSpecies(reactions[i].getReactants(), indices[i], changed);
+      addChangedSpecies(reactions[i].getProducts(), indices[i], changed);
+      closeOverRules(changed, ruleOutputs);
+
+      List<Integer> affected = new ArrayList<Integer>();
+      for (Object state : changed)
+      {
+        List<Integer> list = readers.get(state);
+        if (list != null)
+        {
+          for (int reaction : list)
+          {
+            if (marks[reaction] != i + 1)
+            {
+              marks[reaction] = i + 1;
+              affected.add(reaction);
+            }
+          }
+        }
+      }
+
+      Collections.sort(affected);
+      dependents.add(toArray(affected));
+    }
+
+    return new DependencyGraph(reactions, indices, forwardRates, reverseRates, modelOffsets, modelPropensities, dependents, toArray(alwaysUpdated));
+  }
+
+  /**
+   * Creates the sparsity pattern of the Jacobian of an ODE simulation that keeps its variables in
+   * the state vector. The variables of the Jacobian are the ones with a rate of change, and the
+   * rate of change of a variable depends on what its rate rule reads, or on what the rate laws of
+   * the reactions that change it read, including through assignment rules. A rate of change that
+   * reads something with unknown dependencies, such as a delay, depends on every variable.
+   */
+  public static JacobianPattern setupJacobianPattern(HierarchicalSimulation sim)
+  {
+    List<HierarchicalModel> modules = sim.getListOfHierarchicalModels();
+    Map<Object, Integer> positions = new IdentityHashMap<Object, Integer>();
+    List<VariableNode> variables = new ArrayList<VariableNode>();
+    List<Integer> indexList = new ArrayList<Integer>();
+    List<Integer> vectorIndexList = new ArrayList<Integer>();
+    collectVariables(modules, positions, variables, indexList, vectorIndexList);
+
+    Map<Object, Set<Object>> ruleInputs = new IdentityHashMap<Object, Set<Object>>();
+    for (HierarchicalModel model : modules)
+    {
+      if (model.getAssignRules() != null)
+      {
+        for (FunctionNode rule : model.getAssignRules())
+        {
+          Set<Object> inputs = newIdentitySet();
+          collectRateInputs(sim, rule, model.getIndex(), inputs);
+          ruleInputs.put(getAtomicState(rule.getVariable(), model.getIndex()), inputs);
+        }
+      }
+    }
+
+    int size = variables.size();
+    List<int[]> rowColumns = new ArrayList<int[]>(size);
+    boolean isTimeDependent = false;
+
+    for (int i = 0; i < size; i++)
+    {
+      VariableNode node = variables.get(i);
+      int index = indexList.get(i);
+      Set<Object> inputs = newIdentitySet();
+
+      if (node.getRateRule() != null)
+      {
+        collectRateInputs(sim, node.getRateRule(), index, inputs);
+
+        // the concentration of a species also changes with the size of its compartment
+        if (node.isSpecies() && !((SpeciesNode) node).hasOnlySubstance())
+        {
+          VariableNode compartment = ((SpeciesNode) node).getCompartment();
+          inputs.add(getAtomicState(node, index));
+          if (compartment != null && compartment.getState() != null)
+          {
+            inputs.add(getAtomicState(compartment, index));
+            collectRateInputs(sim, compartment.getRateRule(), index, inputs);
+          }
+        }
+      }
+      else
+      {
+        collectRateInputs(sim, ((SpeciesNode) node).getODERate(), index, inputs);
+      }
+
+      closeOverRules(inputs, ruleInputs);
+
+      if (inputs.contains(UNKNOWN_INPUT))
+      {
+        int[] columns = new int[size];
+        for (int j = 0; j < size; j++)
+        {
+          columns[j] = j;
+        }
+        rowColumns.add(columns);
+        isTimeDependent = true;
+        continue;
+      }
+
+      isTimeDependent |= inputs.contains(TIME_INPUT);
+
+      List<Integer> columns = new ArrayList<Integer>();
+      for (Object input : inputs)
+      {
+        Integer position = positions.get(input);
+        if (position != null)
+        {
+          columns.add(position);
+        }
+      }
+      int[] array = toArray(columns);
+      Arrays.sort(array);
+      rowColumns.add(array);
+    }
+
+    return new JacobianPattern(toArray(vectorIndexList), rowColumns, isTimeDependent);
+  }
+
+  /**
+   * Creates the kernel that computes the rates of change of an ODE simulation from the state
+   * vector, over the variables of the pattern created by {@link #setupJacobianPattern}. Returns
+   * null if the rates must be computed by the interpreter, which is when two variables with a rate
+   * of change share a state, when an assignment rule reads the rate of a reaction or the rules read
+   * each other in a cycle, or when any rate or rule reads something with unknown dependencies,
+   * such as a delay.
+   */
+  public static DerivativeKernel setupDerivativeKernel(HierarchicalSimulation sim, VectorWrapper wrapper)
+  {
+    List<HierarchicalModel> modules = sim.getListOfHierarchicalModels();
+    Map<Object, Integer> positions = new IdentityHashMap<Object, Integer>();
+    List<VariableNode> variables = new ArrayList<VariableNode>();
+    List<Integer> indexList = new ArrayList<Integer>();
+    List<Integer> vectorIndexList = new ArrayList<Integer>();
+    if (!collectVariables(modules, positions, variables, indexList, vectorIndexList))
+    {
+      return null;
+    }
+
+    ExpressionDifferentiator differentiator = new ExpressionDifferentiator();
+    Map<Object, Integer> reactionPositions = new IdentityHashMap<Object, Integer>();
+    List<HierarchicalState> reactionStates = new ArrayList<HierarchicalState>();
+    List<CompiledExpression> forwardRates = new ArrayList<CompiledExpression>();
+    List<CompiledExpression> reverseRates = new ArrayList<CompiledExpression>();
+
+    for (HierarchicalModel model : modules)
+    {
+      if (model.getReactions() == null)
+      {
+        continue;
+      }
+
+      int index = model.getIndex();
+      for (ReactionNode reaction : model.getReactions())
+      {
+        Object state = getAtomicState(reaction, index);
+        Set<Object> inputs = newIdentitySet();
+        collectRateInputs(sim, reaction.getForwardRate(), index, inputs);
+        collectRateInputs(sim, reaction.getReverseRate(), index, inputs);
+
+        if (inputs.contains(UNKNOWN_INPUT) || !(state instanceof HierarchicalState) || reactionPositions.containsKey(state))
+        {
+          return null;
+        }
+
+        reactionPositions.put(state, reactionStates.size());
+        reactionStates.add((HierarchicalState) state);
+        forwardRates.add(ExpressionCompiler.compile(reaction.getForwardRate(), index));
+        reverseRates.add(ExpressionCompiler.compile(reaction.getReverseRate(), index));
+        differentiator.addDefinition(state, index, reaction.getForwardRate(), reaction.getReverseRate());
+      }
+    }
+
+    Map<Object, Integer> ruleByOutput = new IdentityHashMap<Object, Integer>();
+    List<HierarchicalState> outputList = new ArrayList<HierarchicalState>();
+    List<CompiledExpression> ruleList = new ArrayList<CompiledExpression>();
+    List<Set<Object>> ruleInputList = new ArrayList<Set<Object>>();
+
+    for (HierarchicalModel model : modules)
+    {
+      if (model.getAssignRules() == null)
+      {
+        continue;
+      }
+
+      int index = model.getIndex();
+      for (FunctionNode rule : model.getAssignRules())
+      {
+        Object output = getAtomicState(rule.getVariable(), index);
+        Set<Object> inputs = newIdentitySet();
+        collectRateInputs(sim, rule, index, inputs);
+
+        if (inputs.contains(UNKNOWN_INPUT) || !(output instanceof HierarchicalState) || ruleByOutput.containsKey(output))
+        {
+          return null;
+        }
+        for (Object input : inputs)
+        {
+          if (reactionPositions.containsKey(input))
+          {
+            return null;
+          }
+        }
+
+        ruleByOutput.put(output, outputList.size());
+        outputList.add((HierarchicalState) output);
+        ruleList.add(ExpressionCompiler.compile(rule, index));
+        ruleInputList.add(inputs);
+        differentiator.addDefinition(output, index, rule);
+      }
+    }
+
+    int[] order = orderRules(ruleInputList, ruleByOutput);
+    if (order == null)
+    {
+      return null;
+    }
+
+    HierarchicalState[] ruleOutputs = new HierarchicalState[order.length];
+    CompiledExpression[] rules = new CompiledExpression[order.length];
+    for (int i = 0; i < order.length; i++)
+    {
+      ruleOutputs[i] = outputList.get(order[i]);
+      rules[i] = ruleList.get(order[i]);
+    }
+
+    int size = variables.size();
+    HierarchicalNode[] rowMath = new HierarchicalNode[size];
+    CompiledExpression[] rateRules = new CompiledExpression[size];
+    VariableNode[] interpretedNodes = new VariableNode[size];
+    int[] stoichiometryStart = new int[size + 1];
+    List<Integer> stoichiometryReactions = new ArrayList<Integer>();
+    List<Double> stoichiometrySigns = new ArrayList<Double>();
+    List<HierarchicalState> stoichiometries = new ArrayList<HierarchicalState>();
+    boolean isDifferentiable = true;
+
+    for (int row = 0; row < size; row++)
+    {
+      VariableNode node = variables.get(row);
+      int index = indexList.get(row);
+      Set<Object> inputs = newIdentitySet();
+      stoichiometryStart[row] = stoichiometries.size();
+
+      if (node.getRateRule() != null)
+      {
+        collectRateInputs(sim, node.getRateRule(), index, inputs);
+
+        // the concentration of a species in a compartment of changing size is left to the
+        // interpreter
+        VariableNode compartment = node.isSpecies() && !((SpeciesNode) node).hasOnlySubstance() ? ((SpeciesNode) node).getCompartment() : null;
+        if (compartment != null && compartment.getRateRule() != null)
+        {
+          collectRateInputs(sim, compartment.getRateRule(), index, inputs);
+          interpretedNodes[row] = node;
+          isDifferentiable = false;
+        }
+        else
+        {
+          rateRules[row] = ExpressionCompiler.compile(node.getRateRule(), index);
+          rowMath[row] = node.getRateRule();
+        }
+      }
+      else
+      {
+        HierarchicalNode odeRate = ((SpeciesNode) node).getODERate();
+        collectRateInputs(sim, odeRate, index, inputs);
+        rowMath[row] = odeRate;
+
+        // the rate of a species is a sum of reaction rates times stoichiometries, and the
+        // reactants are subtracted
+        for (HierarchicalNode term : odeRate.getChildren())
+        {
+          boolean isReactant = term.getType() == Type.MINUS;
+          HierarchicalNode product = isReactant ? term.getChild(0) : term;
+          Integer reaction = reactionPositions.get(getAtomicState(product.getChild(0), index));
+          Object stoichiometry = getAtomicState(product.getChild(1), index);
+
+          if (reaction == null || !(stoichiometry instanceof HierarchicalState))
+          {
+            return null;
+          }
+
+          stoichiometryReactions.add(reaction);
+          stoichiometrySigns.add(isReactant ? -1.0 : 1.0);
+          stoichiometries.add((HierarchicalState) stoichiometry);
+        }
+      }
+
+      if (inputs.contains(UNKNOWN_INPUT))
+      {
+        return null;
+      }
+    }
+    stoichiometryStart[size] = stoichiometries.size();
+
+    JacobianPattern pattern = setupJacobianPattern(sim);
+    CompiledExpression[] jacobianEntries = null;
+
+    if (isDifferentiable)
+    {
+      jacobianEntries = new CompiledExpression[pattern.getColumns().length];
+
+      // the entries are derived a column at a time, so the derivatives of the rules and reactions
+      // are shared by the rows of the column
+      for (int column = 0; column < size && jacobianEntries != null; column++)
+      {
+        Object variable = getAtomicState(variables.get(column), indexList.get(column));
+        for (int i = pattern.getColumnStart(column); i < pattern.getColumnEnd(column); i++)
+        {
+          int row = pattern.getRows()[i];
+          int entry = Arrays.binarySearch(pattern.getColumns(), pattern.getRowStart(row), pattern.getRowEnd(row), column);
+          jacobianEntries[entry] = differentiator.differentiate(rowMath[row], indexList.get(row), variable);
+          if (jacobianEntries[entry] == null)
+          {
+            jacobianEntries = null;
+            break;
+          }
+        }
+      }
+    }
+
+    double[] signs = new double[stoichiometrySigns.size()];
+    for (int i = 0; i < signs.length; i++)
+    {
+      signs[i] = stoichiometrySigns.get(i);
+    }
+
+    return new DerivativeKernel(sim.getCurrentTime(), wrapper, pattern, ruleOutputs, rules,
+      reactionStates.toArray(new HierarchicalState[reactionStates.size()]), forwardRates.toArray(new CompiledExpression[forwardRates.size()]),
+      reverseRates.toArray(new CompiledExpression[reverseRates.size()]), stoichiometryStart, toArray(stoichiometryReactions), signs,
+      stoichiometries.toArray(new HierarchicalState[stoichiometries.size()]), rateRules, interpretedNodes, toArray(indexList), jacobianEntries);
+  }
+
+  /**
+   * Adds the variables with a rate of change that are in the state vector, numbered by their
+   * position. Returns false if two of them share a state, in which case only the first one is
+   * added.
+   */
+  private static boolean collectVariables(List<HierarchicalModel> modules, Map<Object, Integer> positions, List<VariableNode> variables,
+    List<Integer> indexList, List<Integer> vectorIndexList)
+  {
+    boolean isShared = false;
+
+    for (HierarchicalModel model : modules)
+    {
+      for (VariableNode node : model.getListOfVariables())
+      {
+        if (node.getState() == null || !hasRateOfChange(node))
+        {
+          continue;
+        }
+
+        Object state = getAtomicState(node, model.getIndex());
+        if (positions.containsKey(state))
+        {
+          isShared = true;
+        }
+        else if (state instanceof VectorState)
+        {
+          positions.put(state, variables.size());
+          variables.add(node);
+          indexList.add(model.getIndex());
+          vectorIndexList.add(((VectorState) state).getVectorIndex());
+        }
+      }
+    }
+
+    return !isShared;
+  }
+
+  /**
+   * Orders the assignment rules so that every rule comes after the rules whose outputs it reads.
+   * Returns null if the rules read each other in a cycle.
+   */
+  private static int[] orderRules(List<Set<Object>> ruleInputs, Map<Object, Integer> ruleByOutput)
+  {
+    int size = ruleInputs.size();
+    List<Integer> order = new ArrayList<Integer>(size);
+    int[] marks = new int[size];
+
+    for (int rule = 0; rule < size; rule++)
+    {
+      if (!visitRule(rule, ruleInputs, ruleByOutput, marks, order))
+      {
+        return null;
+      }
+    }
+
+    return toArray(order);
+  }
+
+  /**
+   * Adds the rule to the order after the rules it reads. A rule is marked 1 while its inputs are
+   * visited and 2 once it is in the order.
+   */
+  private static boolean visitRule(int rule, List<Set<Object>> ruleInputs, Map<Object, Integer> ruleByOutput, int[] marks, List<Integer> order)
+  {
+    if (marks[rule] == 2)
+    {
+      return true;
+    }
+    else if (marks[rule] == 1)
+    {
+      return false;
+    }
+
+    marks[rule] = 1;
+    for (Object input : ruleInputs.get(rule))
+    {
+      Integer other = ruleByOutput.get(input);
+      if (other != null && !visitRule(other, ruleInputs, ruleByOutput, marks, order))
+      {
+        return false;
+      }
+    }
+    marks[rule] = 2;
+    order.add(rule);
+
+    return true;
+  }
+
+  private static boolean hasRateOfChange(VariableNode node)
+  {
+    if (node.isVariableConstant())
+    {
+      return false;
+    }
+    else if (node.getRateRule() != null)
+    {
+      return true;
+    }
+    else if (node.isSpecies())
+    {
+      SpeciesNode species = (SpeciesNode) node;
+      return species.getODERate() != null && !species.isBoundaryCondition();
+    }
+    return false;
+  }
+
+  /**
+   * Adds the states that the value of the given math depends on to the set of inputs. Unlike
+   * {@link #collectInputs}, a reaction stands for the states read by its rate law.
+   */
+  private static void collectRateInputs(HierarchicalSimulation sim, HierarchicalNode node, int index, Set<Object> inputs)
+  {
+    if (node == null)
+    {
+      return;
+    }
+
+    Type type = node.getType();
+
+    if (node.getArrayNode() != null || type == Type.FUNCTION_DELAY || type == Type.FUNCTION_RATEOF)
+    {
+      inputs.add(UNKNOWN_INPUT);
+      return;
+    }
+    else if (node == sim.getCurrentTime() || node.isTime())
+    {
+      inputs.add(TIME_INPUT);
+    }
+    else if (node.isReaction())
+    {
+      // the propensity is added first so that a rate law reading its own reaction ends here
+      if (node.getState() != null && inputs.add(getAtomicState(node, index)))
+      {
+        ReactionNode reaction = (ReactionNode) node;
+        collectRateInputs(sim, reaction.getForwardRate(), index, inputs);
+        collectRateInputs(sim, reaction.getReverseRate(), index, inputs);
+      }
+      return;
+    }
+    else if (node.isName() && node.getState() != null)
+    {
+      inputs.add(getAtomicState(node, index));
+    }
+
+    if (node.getNumOfChild() > 0)
+    {
+      for (HierarchicalNode child : node.getChildren())
+      {
+        collectRateInputs(sim, child, index, inputs);
+      }
+    }
+  }
+
+  /**
+   * Adds the states read by the given math to the set of inputs. Returns true if the math
+   * depends on something that is not a state variable, such as time or a random function.
+   */
+  private static boolean collectInputs(HierarchicalSimulation sim, HierarchicalNode node, int index, Set<Object> inputs)
+  {
+    if (node == null)
+    {
+      return false;
+    }
+
+    boolean isAlwaysUpdated = false;
+    Type type = node.getType();
+
+    if (node == sim.getCurrentTime() || node.isTime() || node.isReaction() || node.getArrayNode() != null)
+    {
+      isAlwaysUpdated = true;
+    }
+    else if (type == Type.FUNCTION || type == Type.FUNCTION_DELAY || type == Type.FUNCTION_RATEOF)
+    {
+      isAlwaysUpdated = true;
+    }
+    else if (node.isName() && node.getState() != null)
+    {
+      inputs.add(getAtomicState(node, index));
+    }
+
+    if (node.getNumOfChild() > 0)
+    {
+      for (HierarchicalNode child : node.getChildren())
+      {
+        isAlwaysUpdated |= collectInputs(sim, child, index, inputs);
+      }
+    }
+
+    return isAlwaysUpdated;
+  }
+
+  /**
+   * Maps each state read by an assignment rule to the states assigned by the rules that read it.
+   * The states assigned by rules that depend on time or random functions, and the states changed
+   * by rate rules, which are integrated at every step, are added to varying.
+   */
+  private static Map<Object, Set<Object>> setupRuleOutputs(HierarchicalSimulation sim, List<HierarchicalModel> modules, Set<Object> varying)
+  {
+    Map<Object, Set<Object>> ruleOutputs = new IdentityHashMap<Object, Set<Object>>();
+
+    for (HierarchicalModel model : modules)
+    {
+      for (VariableNode node : model.getListOfVariables())
+      {
+        if (node.getRateRule() != null && !node.isVariableConstant())
+        {
+          varying.add(getAtomicState(node, model.getIndex()));
+        }
+      }
+
+      if (model.getAssignRules() == null)
+      {
+        continue;
+      }
+
+      for (FunctionNode rule : model.getAssignRules())
+      {
+        Set<Object> inputs = newIdentitySet();
+        boolean isVarying = collectInputs(sim, rule, model.getIndex(), inputs);
+        Object output = getAtomicState(rule.getVariable(), model.getIndex());
+
+        if (isVarying)
+        {
+          varying.add(output);
+        }
+
+        for (Object input : inputs)
+        {
+          Set<Object> outputs = ruleOutputs.get(input);
+          if (outputs == null)
+          {
+            outputs = newIdentitySet();
+            ruleOutputs.put(input, outputs);
+          }
+          outputs.add(output);
+        }
+      }
+    }
+
+    return ruleOutputs;
+  }
+
+  private static void addChangedSpecies(List<SpeciesReferenceNode> specRefs, int index, Set<Object> changed)
+  {
+    if (specRefs == null)
+    {
+      return;
+    }
+
+    for (SpeciesReferenceNode specRef : specRefs)
+    {
+      SpeciesNode species = specRef.getSpecies();
+      if (!species.isBoundaryCondition())
+      {
+        changed.add(getAtomicState(species, index));
+      }
+    }
+  }
+
+  private static void closeOverRules(Set<Object> changed, Map<Object, Set<Object>> ruleOutputs)
+  {
+    List<Object> unproc = new ArrayList<Object>(changed);
+    while (!unproc.isEmpty())
+    {
+      Set<Object> outputs = ruleOutputs.get(unproc.remove(unproc.size() - 1));
+      if (outputs != null)
+      {
+        for (Object output : outputs)
+        {
+          if (changed.add(output))
+          {
+            unproc.add(output);
+          }
+        }
+      }
+    }
+  }
+
+  private static Object getAtomicState(HierarchicalNode node, int index)
+  {
+    Object state = node.getState().getState(index);
+    return state != null ? state : node;
+  }
+
+  private static Set<Object> newIdentitySet()
+  {
+    return Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+  }
+
+  private static int[] toArray(List<Integer> list)
+  {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++)
+    {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+}
@@ -82,7 +82,7 @@ public class ModelSetup
      
     LinkedList<ModelContainer> unproc = new LinkedList<ModelContainer>();
     List<ModelContainer> listOfContainers = new ArrayList<ModelContainer>();
-    //TODO: Map<String, ModelContainer> templateFromSource;
+    Map<String, SBMLDocument> documentFromSource = new HashMap<String, SBMLDocument>();
     
     unproc.push(new ModelContainer(model, hierarchicalModel, null, type));
     int count = 0;
@@ -103,33 +103,8 @@ public class ModelSetup
             if (compDoc.getListOfExternalModelDefinitions() != null && compDoc.getListOfExternalModelDefinitions().get(submodel.getModelRef()) != null)
             {
               ExternalModelDefinition ext = compDoc.getListOfExternalModelDefinitions().get(submodel.getModelRef());
-              String source = ext.getSource();
-              String extDef = rootPath + HierarchicalUtilities.separator + source;
-              SBMLDocument extDoc = SBMLReader.read(new File(extDef));
-              model = extDoc.getModel();
-              compDoc = (CompSBMLDocumentPlugin) extDoc.getPlugin(CompConstants.namespaceURI);
-            
-              while (ext.isSetModelRef())
-              {
-                if (compDoc.getExternalModelDefinition(ext.getModelRef()) != null)
-                {
-                  ext = compDoc.getListOfExternalModelDefinitions().get(ext.getModelRef());
-                  source = ext.getSource().replace("file:", "");
-                  extDef = rootPath + HierarchicalUtilities.separator + source;
-                  extDoc = SBMLReader.read(new File(extDef));
-                  model = extDoc.getModel();
-                  compDoc = (CompSBMLDocumentPlugin) extDoc.getPlugin(CompConstants.namespaceURI);
-                }
-                else if (compDoc.getModelDefinition(ext.getModelRef()) != null)
-                {
-                  model = compDoc.getModelDefinition(ext.getModelRef());
-                  break;
-                }
-                else
-                {
-                  break;
-                }
-              }
+              String extDef = rootPath + HierarchicalUtilities.separator + ext.getSource();
+              model = getExternalModel(ext, extDef, rootPath, documentFromSource);
             }
             else if (compDoc.getListOfModelDefinitions() != null && compDoc.getListOfModelDefinitions().get(submodel.getModelRef()) != null)
             {
@@ -154,6 +129,52 @@ public class ModelSetup
     }
   }
 
+  /**
+   * Follows the chain of external model definitions starting at ext and returns the model it
+   * refers to. Each file is parsed once per setup, and submodels that instantiate the same
+   * definition share its SBML model, which setup only reads. The math and the setup structures
+   * are still built for each instance, since their nodes are bound to the model index.
+   */
+  private static Model getExternalModel(ExternalModelDefinition ext, String extDef, String rootPath, Map<String, SBMLDocument> documentFromSource) throws XMLStreamException, IOException
+  {
+    SBMLDocument extDoc = readDocument(extDef, documentFromSource);
+    Model model = extDoc.getModel();
+    CompSBMLDocumentPlugin compDoc = (CompSBMLDocumentPlugin) extDoc.getPlugin(CompConstants.namespaceURI);
+
+    while (ext.isSetModelRef())
+    {
+      if (compDoc.getExternalModelDefinition(ext.getModelRef()) != null)
+      {
+        ext = compDoc.getListOfExternalModelDefinitions().get(ext.getModelRef());
+        String source = ext.getSource().replace("file:", "");
+        extDoc = readDocument(rootPath + HierarchicalUtilities.separator + source, documentFromSource);
+        model = extDoc.getModel();
+        compDoc = (CompSBMLDocumentPlugin) extDoc.getPlugin(CompConstants.namespaceURI);
+      }
+      else if (compDoc.getModelDefinition(ext.getModelRef()) != null)
+      {
+        model = compDoc.getModelDefinition(ext.getModelRef());
+        break;
+      }
+      else
+      {
+        break;
+      }
+    }
+    return model;
+  }
+
+  private static SBMLDocument readDocument(String path, Map<String, SBMLDocument> documentFromSource) throws XMLStreamException, IOException
+  {
+    SBMLDocument document = documentFromSource.get(path);
+    if (document == null)
+    {
+      document = SBMLReader.read(new File(path));
+      documentFromSource.put(path, document);
+    }
+    return document;
+  }
+
   private static void initializeModelStates(HierarchicalSimulation sim, List<ModelContainer> listOfContainers, VariableNode time, ModelType modelType, VectorWrapper wrapper) throws IOException
   {
     StateType type = StateType.SCALAR;
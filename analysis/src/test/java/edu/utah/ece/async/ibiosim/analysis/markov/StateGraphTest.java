@@ -0,0 +1,119 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.markov;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.utah.ece.async.lema.verification.lpn.LPN;
+
+/**
+ * Checks the state graph and the transient probabilities computed for a small LPN whose
+ * Boolean assignment copies an unknown value, which must make the assigned variable true.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class StateGraphTest
+{
+
+  /**
+   * Builds a counter x between 0 and 3 next to a branch that copies the unknown u into b and
+   * then resets x once b holds.
+   */
+  private static LPN buildLPN()
+  {
+    LPN lpn = new LPN();
+    lpn.addPlace("p", true);
+    lpn.addPlace("q", true);
+    lpn.addPlace("q2", false);
+    lpn.addPlace("q3", false);
+    lpn.addInteger("x", "0");
+    lpn.addOutput("u", "unknown");
+    lpn.addOutput("b", "false");
+
+    lpn.addTransition("inc");
+    lpn.addMovement("p", "inc");
+    lpn.addMovement("inc", "p");
+    lpn.addEnabling("inc", "x<3");
+    lpn.addIntAssign("inc", "x", "x+1");
+    lpn.addTransitionRate("inc", "2");
+
+    lpn.addTransition("dec");
+    lpn.addMovement("p", "dec");
+    lpn.addMovement("dec", "p");
+    lpn.addEnabling("dec", "x>0");
+    lpn.addIntAssign("dec", "x", "x-1");
+    lpn.addTransitionRate("dec", "1");
+
+    lpn.addTransition("flip");
+    lpn.addMovement("q", "flip");
+    lpn.addMovement("flip", "q2");
+    lpn.getTransition("flip").addBoolAssign("b", "u");
+    lpn.addTransitionRate("flip", "0.5");
+
+    lpn.addTransition("reset");
+    lpn.addMovement("q2", "reset");
+    lpn.addMovement("reset", "q3");
+    lpn.addEnabling("reset", "b");
+    lpn.addIntAssign("reset", "x", "0");
+    lpn.addTransitionRate("reset", "1");
+    return lpn;
+  }
+
+  @Test
+  public void testStateGraph()
+  {
+    StateGraph sg = new StateGraph(buildLPN());
+    sg.buildStateGraph(null);
+    assertEquals(12, sg.getNumberOfStates());
+    assertEquals(26, sg.getNumberOfTransitions());
+  }
+
+  @Test
+  public void testTransientProbabilities() throws Exception
+  {
+    StateGraph sg = new StateGraph(buildLPN());
+    sg.buildStateGraph(null);
+    String[] condition = { "true", "x>=3", "", "2" };
+    assertTrue(sg.performTransientMarkovianAnalysis(2, 0.1, 2, 1e-9, condition, null, false));
+    String[] lines = sg.getMarkovResults().trim().split("\n");
+    String[] names = lines[0].substring(1).trim().split("\\s+");
+    String[] values = lines[1].trim().split("\\s+");
+    double success = Double.NaN;
+    double failure = Double.NaN;
+    double timelimit = Double.NaN;
+    for (int i = 0; i < names.length; i++)
+    {
+      if (names[i].equals("Success"))
+      {
+        success = Double.parseDouble(values[i]);
+      }
+      else if (names[i].equals("Failure"))
+      {
+        failure = Double.parseDouble(values[i]);
+      }
+      else if (names[i].equals("Timelimit"))
+      {
+        timelimit = Double.parseDouble(values[i]);
+      }
+    }
+    assertEquals(0.5407596, success, 1e-6);
+    assertEquals(0, failure, 1e-6);
+    assertEquals(0.4592404, timelimit, 1e-6);
+  }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.utah.ece.async.ibiosim.analysis.properties.AnalysisProperties;
+import edu.utah.ece.async.ibiosim.analysis.properties.SimulationProperties;
+import edu.utah.ece.async.ibiosim.analysis.simulation.DynamicSimulation.SimulationType;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalTestModels;
+
+/**
+ * Checks that every run of a Monte-Carlo simulation is written identically whatever the
+ * number of threads it is spread over.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class DynamicSimulationTest
+{
+
+  private static final int RUNS = 8;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File simulate(SimulationType type, File model, int threads) throws Exception
+  {
+    File outputDirectory = folder.newFolder(type + "-" + threads);
+    AnalysisProperties properties = new AnalysisProperties("", "", "", false);
+    properties.setRoot(model.getParent());
+    properties.setId("");
+    properties.setModelFile(model.getName());
+    properties.setOutDir(outputDirectory.getAbsolutePath());
+    SimulationProperties simProperties = properties.getSimulationProperties();
+    simProperties.setThreads(threads);
+    simProperties.setRun(RUNS);
+    simProperties.setRndSeed(42);
+    simProperties.setTimeLimit(20);
+    simProperties.setPrintInterval(1);
+    new DynamicSimulation(type).simulate(properties, model.getAbsolutePath());
+    return outputDirectory;
+  }
+
+  private void assertSameRuns(SimulationType type) throws Exception
+  {
+    File model = new File(HierarchicalTestModels.writeBirthDeath(folder.newFolder("model")));
+    File serial = simulate(type, model, 1);
+    assertFalse(type + " runs 1 and 2 are identical", Arrays.equals(Files.readAllBytes(new File(serial, "run-1.tsd").toPath()), Files.readAllBytes(new File(serial, "run-2.tsd").toPath())));
+    for (int threads : new int[] { 2, 4 })
+    {
+      File parallel = simulate(type, model, threads);
+      for (int run = 1; run <= RUNS; run++)
+      {
+        File expected = new File(serial, "run-" + run + ".tsd");
+        File actual = new File(parallel, "run-" + run + ".tsd");
+        assertTrue(expected + " was not written", expected.isFile());
+        assertTrue(actual + " was not written", actual.isFile());
+        assertArrayEquals(type + " run " + run + " with " + threads + " threads", Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+      }
+    }
+  }
+
+  @Test
+  public void testHierarchicalDirect() throws Exception
+  {
+    assertSameRuns(SimulationType.HIERARCHICAL_DIRECT);
+  }
+
+  @Test
+  public void testHierarchicalNextReaction() throws Exception
+  {
+    assertSameRuns(SimulationType.HIERARCHICAL_NRM);
+  }
+
+  @Test
+  public void testDirect() throws Exception
+  {
+    assertSameRuns(SimulationType.DIRECT);
+  }
+}
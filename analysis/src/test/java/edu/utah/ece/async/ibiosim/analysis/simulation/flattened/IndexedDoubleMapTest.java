@@ -0,0 +1,134 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.flattened;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the indexed value map against a hash map, and the indices it hands out.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class IndexedDoubleMapTest
+{
+
+  @Test
+  public void testMissingKeys()
+  {
+    IndexedDoubleMap map = new IndexedDoubleMap(4);
+    assertEquals(IndexedDoubleMap.NO_INDEX, map.getIndex("A"));
+    assertEquals(0, map.get("A"), 0);
+    assertEquals(0, map.remove("A"), 0);
+    assertFalse(map.adjustValue("A", 1));
+    assertFalse(map.containsKey("A"));
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  public void testStableIndices()
+  {
+    IndexedDoubleMap map = new IndexedDoubleMap(1);
+    for (int i = 0; i < 100; i++)
+    {
+      assertEquals(0, map.put("S" + i, i), 0);
+    }
+    // the values array grew several times without moving any key
+    for (int i = 0; i < 100; i++)
+    {
+      int index = map.getIndex("S" + i);
+      assertEquals(i, map.getValue(index), 0);
+      assertEquals(i, map.put("S" + i, -i), 0);
+      assertEquals(index, map.getIndex("S" + i));
+      map.adjustValue(index, 0.5);
+      assertTrue(map.adjustValue("S" + i, 0.25));
+      assertEquals(0.75 - i, map.get("S" + i), 0);
+    }
+    assertEquals(100, map.size());
+  }
+
+  @Test
+  public void testIndexReuse()
+  {
+    IndexedDoubleMap map = new IndexedDoubleMap(8);
+    map.put("A", 1);
+    map.put("B", 2);
+    map.put("C", 3);
+    int indexOfB = map.getIndex("B");
+    assertEquals(2, map.remove("B"), 0);
+    assertFalse(map.containsKey("B"));
+    assertEquals(0, map.get("B"), 0);
+
+    // a new key takes the freed slot and only sees its own value
+    map.put("D", 4);
+    assertEquals(indexOfB, map.getIndex("D"));
+    assertEquals(4, map.get("D"), 0);
+    assertEquals(1, map.get("A"), 0);
+    assertEquals(3, map.get("C"), 0);
+    assertEquals(3, map.size());
+
+    map.clear();
+    assertEquals(0, map.size());
+    assertEquals(0, map.get("A"), 0);
+    map.put("E", 5);
+    assertEquals(0, map.getIndex("E"));
+    assertEquals(5, map.getValue(0), 0);
+  }
+
+  @Test
+  public void testRandomOperations()
+  {
+    IndexedDoubleMap map = new IndexedDoubleMap(2);
+    Map<String, Double> reference = new HashMap<String, Double>();
+    Random random = new Random(3);
+    for (int step = 0; step < 20000; step++)
+    {
+      String key = "K" + random.nextInt(50);
+      double value = random.nextInt(1000);
+      switch (random.nextInt(4))
+      {
+      case 0:
+        Double previous = reference.put(key, value);
+        assertEquals(previous == null ? 0 : previous, map.put(key, value), 0);
+        break;
+      case 1:
+        Double removed = reference.remove(key);
+        assertEquals(removed == null ? 0 : removed, map.remove(key), 0);
+        break;
+      case 2:
+        if (reference.containsKey(key))
+        {
+          reference.put(key, reference.get(key) + value);
+        }
+        assertEquals(reference.containsKey(key), map.adjustValue(key, value));
+        break;
+      default:
+        Double expected = reference.get(key);
+        assertEquals(expected == null ? 0 : expected, map.get(key), 0);
+        break;
+      }
+      assertEquals(reference.size(), map.size());
+    }
+    assertEquals(reference.keySet(), map.keySet());
+  }
+}
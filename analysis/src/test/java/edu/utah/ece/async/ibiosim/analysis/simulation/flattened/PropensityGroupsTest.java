@@ -0,0 +1,217 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.flattened;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalTestModels;
+import edu.utah.ece.async.ibiosim.dataModels.util.observe.CoreObservable;
+
+/**
+ * Checks the group totals and the tree of partial sums against the propensities they are
+ * built from, and the composition and rejection selection against the rates of a model whose
+ * reaction counts are Poisson distributed.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class PropensityGroupsTest
+{
+
+  private static final int NUM_GROUPS = 2048;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Compares every group and the total with the sums of the given propensities.
+   */
+  private static void checkGroups(PropensityGroups groups, double[] propensities)
+  {
+    double[] totals = new double[NUM_GROUPS];
+    int[] sizes = new int[NUM_GROUPS];
+    double total = 0;
+    for (double propensity : propensities)
+    {
+      int group = PropensityGroups.getGroup(propensity);
+      if (group >= 0)
+      {
+        totals[group] += propensity;
+        sizes[group]++;
+        total += propensity;
+      }
+    }
+    for (int group = 0; group < NUM_GROUPS; group++)
+    {
+      assertEquals("size of group " + group, sizes[group], groups.getGroupSize(group));
+      assertEquals("total of group " + group, totals[group], groups.getGroupTotal(group), 1e-9 * totals[group]);
+    }
+    assertEquals(total, groups.getTotalPropensity(), 1e-9 * total);
+  }
+
+  @Test
+  public void testGroups()
+  {
+    assertEquals(-1, PropensityGroups.getGroup(0));
+    assertEquals(-1, PropensityGroups.getGroup(-1));
+    assertEquals(-1, PropensityGroups.getGroup(Double.NaN));
+    // the group is the binary exponent, so powers of two start a new group
+    assertEquals(PropensityGroups.getGroup(1), PropensityGroups.getGroup(1.999));
+    assertEquals(PropensityGroups.getGroup(1) + 1, PropensityGroups.getGroup(2));
+    assertEquals(PropensityGroups.getGroup(1) - 1, PropensityGroups.getGroup(0.75));
+    assertTrue(PropensityGroups.getGroup(Double.MIN_VALUE) >= 0);
+    assertTrue(PropensityGroups.getGroup(Double.POSITIVE_INFINITY) < NUM_GROUPS);
+  }
+
+  @Test
+  public void testRandomUpdates()
+  {
+    Random random = new Random(17);
+    int numReactions = 300;
+    double[] propensities = new double[numReactions];
+    PropensityGroups groups = new PropensityGroups(numReactions);
+    checkGroups(groups, propensities);
+    for (int step = 0; step < 20000; step++)
+    {
+      int reaction = random.nextInt(numReactions);
+      double propensity;
+      switch (random.nextInt(4))
+      {
+      case 0:
+        propensity = 0;
+        break;
+      case 1:
+        // a small change that usually stays in the same group
+        propensity = propensities[reaction] * (1 + 0.01 * random.nextGaussian());
+        break;
+      default:
+        propensity = Math.exp(20 * random.nextGaussian());
+      }
+      groups.update(reaction, propensities[reaction], propensity);
+      propensities[reaction] = propensity;
+      if (step % 1000 == 0)
+      {
+        checkGroups(groups, propensities);
+      }
+    }
+    checkGroups(groups, propensities);
+
+    for (int reaction = 0; reaction < numReactions; reaction++)
+    {
+      groups.update(reaction, propensities[reaction], 0);
+      propensities[reaction] = 0;
+    }
+    checkGroups(groups, propensities);
+    assertEquals(0, groups.getTotalPropensity(), 0);
+    assertEquals(-1, groups.selectGroup(0.5));
+  }
+
+  @Test
+  public void testGroupMoves()
+  {
+    PropensityGroups groups = new PropensityGroups(4);
+    double[] propensities = { 3, 2.5, 3.5, 0.5 };
+    for (int reaction = 0; reaction < 4; reaction++)
+    {
+      groups.update(reaction, 0, propensities[reaction]);
+    }
+    checkGroups(groups, propensities);
+    int group = PropensityGroups.getGroup(3);
+    assertEquals(3, groups.getGroupSize(group));
+
+    // reaction 0 leaves the group from the front, so the last reaction is moved into its place
+    groups.update(0, 3, 5);
+    propensities[0] = 5;
+    checkGroups(groups, propensities);
+    groups.update(2, 3.5, 2);
+    propensities[2] = 2;
+    checkGroups(groups, propensities);
+    groups.update(1, 2.5, 0);
+    propensities[1] = 0;
+    checkGroups(groups, propensities);
+    groups.update(2, 2, 0.6);
+    propensities[2] = 0.6;
+    checkGroups(groups, propensities);
+    assertEquals(0, groups.getGroupSize(group));
+    assertEquals(0, groups.getGroupTotal(group), 0);
+    groups.update(1, 0, 3.75);
+    propensities[1] = 3.75;
+    checkGroups(groups, propensities);
+  }
+
+  @Test
+  public void testSelectGroup()
+  {
+    Random random = new Random(5);
+    int numReactions = 50;
+    double[] propensities = new double[numReactions];
+    PropensityGroups groups = new PropensityGroups(numReactions);
+    for (int reaction = 0; reaction < numReactions; reaction++)
+    {
+      propensities[reaction] = Math.exp(3 * random.nextGaussian());
+      groups.update(reaction, 0, propensities[reaction]);
+    }
+    // evenly spaced random numbers must select every group in proportion to its total
+    int samples = 1000000;
+    int[] counts = new int[NUM_GROUPS];
+    for (int i = 0; i < samples; i++)
+    {
+      counts[groups.selectGroup((i + 0.5) / samples)]++;
+    }
+    counts[groups.selectGroup(0)]++;
+    counts[groups.selectGroup(Math.nextDown(1.0))]++;
+    samples += 2;
+    for (int group = 0; group < NUM_GROUPS; group++)
+    {
+      double expected = samples * groups.getGroupTotal(group) / groups.getTotalPropensity();
+      assertEquals("group " + group, expected, counts[group], 2);
+    }
+  }
+
+  @Test
+  public void testSelectionDistribution() throws Exception
+  {
+    // 0.26 and 0.49 share a group, so the rejection step decides between them
+    double[] rates = { 0.26, 0.49, 1.5, 3, 12, 50 };
+    String[] species = new String[rates.length];
+    String[][] reactions = new String[rates.length][];
+    for (int i = 0; i < rates.length; i++)
+    {
+      species[i] = "S" + i;
+      reactions[i] = new String[] { "prod" + i, "", species[i], String.valueOf(rates[i]) };
+    }
+    String filename = HierarchicalTestModels.writeModel(folder.getRoot(), species, new double[rates.length], reactions);
+    double timeLimit = 2000;
+    SimulatorSSACR simulator = new SimulatorSSACR(filename, folder.getRoot().getAbsolutePath() + "/", 1, timeLimit, Double.POSITIVE_INFINITY, 0, 3, timeLimit, 1, new String[0], "amount");
+    // the progress messages sent while printing need a parent
+    simulator.addObservable(new CoreObservable()
+    {
+    });
+    simulator.simulate();
+    for (int i = 0; i < rates.length; i++)
+    {
+      // the count of each species is Poisson distributed with mean rate * time
+      double mean = rates[i] * timeLimit;
+      assertEquals(species[i], mean, simulator.variableToValueMap.get(species[i]), 4 * Math.sqrt(mean));
+    }
+  }
+}
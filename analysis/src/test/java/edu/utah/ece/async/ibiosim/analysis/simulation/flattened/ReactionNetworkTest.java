@@ -0,0 +1,220 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.flattened;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.AbstractSimulator;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalSimulation;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalTestModels;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods.HierarchicalSSADirectSimulator;
+import edu.utah.ece.async.ibiosim.dataModels.util.observe.CoreObservable;
+
+/**
+ * Checks the integer-indexed reaction network of the flattened simulators on a model with a
+ * reaction of stoichiometry two and an assignment rule, and compares the means of the
+ * flattened SSA simulators with those of the hierarchical direct method.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class ReactionNetworkTest
+{
+
+  private static final int RUNS = 400;
+
+  private static final double TIME_LIMIT = 5;
+
+  private static final String[] SPECIES = { "A", "B" };
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private SimulatorSSADirect createSimulator() throws Exception
+  {
+    String filename = HierarchicalTestModels.writeDimerization(folder.getRoot());
+    SimulatorSSADirect simulator = new SimulatorSSADirect(filename, folder.getRoot().getAbsolutePath() + "/", 1, TIME_LIMIT, Double.POSITIVE_INFINITY, 0, 3, TIME_LIMIT, 1, new String[0], "amount");
+    // the progress messages sent while printing need a parent
+    simulator.addObservable(new CoreObservable()
+    {
+    });
+    return simulator;
+  }
+
+  private static int[] sortedDependencies(ReactionNetwork network, String reactionID)
+  {
+    int[] dependencies = network.getDependencies(network.getReactionIndex(reactionID)).clone();
+    Arrays.sort(dependencies);
+    return dependencies;
+  }
+
+  private static int[] sortedIndices(ReactionNetwork network, String... reactionIDs)
+  {
+    int[] indices = new int[reactionIDs.length];
+    for (int i = 0; i < reactionIDs.length; i++)
+    {
+      indices[i] = network.getReactionIndex(reactionIDs[i]);
+    }
+    Arrays.sort(indices);
+    return indices;
+  }
+
+  @Test
+  public void testNumbering() throws Exception
+  {
+    ReactionNetwork network = createSimulator().reactionNetwork;
+    assertEquals(3, network.getNumReactions());
+    for (int reaction = 0; reaction < network.getNumReactions(); reaction++)
+    {
+      assertEquals(reaction, network.getReactionIndex(network.getReactionID(reaction)));
+      assertNotNull(network.getFormula(reaction));
+      assertFalse(network.isDiffusion(reaction));
+    }
+    assertEquals(IndexedDoubleMap.NO_INDEX, network.getReactionIndex("missing"));
+  }
+
+  @Test
+  public void testStoichiometry() throws Exception
+  {
+    SimulatorSSADirect simulator = createSimulator();
+    ReactionNetwork network = simulator.reactionNetwork;
+    network.fire(network.getReactionIndex("dimerize"));
+    assertEquals(8, simulator.variableToValueMap.get("A"), 0);
+    assertEquals(1, simulator.variableToValueMap.get("B"), 0);
+    network.fire(network.getReactionIndex("feed"));
+    assertEquals(9, simulator.variableToValueMap.get("A"), 0);
+    network.fire(network.getReactionIndex("decay"));
+    assertEquals(0, simulator.variableToValueMap.get("B"), 0);
+  }
+
+  @Test
+  public void testEnoughMolecules() throws Exception
+  {
+    SimulatorSSADirect simulator = createSimulator();
+    ReactionNetwork network = simulator.reactionNetwork;
+    int dimerize = network.getReactionIndex("dimerize");
+    simulator.variableToValueMap.put("A", 2);
+    assertTrue(network.hasEnoughMolecules(dimerize));
+    simulator.variableToValueMap.put("A", 1);
+    assertFalse(network.hasEnoughMolecules(dimerize));
+    assertFalse(network.hasEnoughMolecules(network.getReactionIndex("decay")));
+    assertTrue(network.hasEnoughMolecules(network.getReactionIndex("feed")));
+  }
+
+  @Test
+  public void testDependencies() throws Exception
+  {
+    SimulatorSSADirect simulator = createSimulator();
+    ReactionNetwork network = simulator.reactionNetwork;
+
+    // B feeds A through the assignment rule for C
+    assertTrue(Arrays.equals(sortedIndices(network, "dimerize", "decay", "feed"), sortedDependencies(network, "dimerize")));
+    assertTrue(Arrays.equals(sortedIndices(network, "decay", "feed"), sortedDependencies(network, "decay")));
+    assertTrue(Arrays.equals(sortedIndices(network, "dimerize", "feed"), sortedDependencies(network, "feed")));
+
+    assertNotNull(network.getAffectedAssignmentRules(network.getReactionIndex("dimerize")));
+    assertEquals("C", network.getAffectedAssignmentRules(network.getReactionIndex("decay")).iterator().next().getVariable());
+    assertNull(network.getAffectedAssignmentRules(network.getReactionIndex("feed")));
+  }
+
+  /**
+   * Removing a reaction the way a dynamic model change does frees its propensity index. The
+   * rebuilt network must drop the reaction and keep the others on their own propensities.
+   */
+  @Test
+  public void testRebuild() throws Exception
+  {
+    SimulatorSSADirect simulator = createSimulator();
+    simulator.reactionToPropensityMap.remove("decay");
+    simulator.reactionToSpeciesAndStoichiometrySetMap.remove("decay");
+    simulator.reactionToReactantStoichiometrySetMap.remove("decay");
+    simulator.reactionToFormulaMap.remove("decay");
+    simulator.updateAfterDynamicChanges();
+
+    ReactionNetwork network = simulator.reactionNetwork;
+    assertEquals(2, network.getNumReactions());
+    assertEquals(IndexedDoubleMap.NO_INDEX, network.getReactionIndex("decay"));
+    assertTrue(Arrays.equals(sortedIndices(network, "dimerize", "feed"), sortedDependencies(network, "dimerize")));
+    for (String reactionID : new String[] { "dimerize", "feed" })
+    {
+      network.setPropensity(network.getReactionIndex(reactionID), reactionID.length());
+      assertEquals(reactionID.length(), simulator.reactionToPropensityMap.get(reactionID), 0);
+    }
+    simulator.variableToValueMap.put("B", 3);
+    network.fire(network.getReactionIndex("dimerize"));
+    assertEquals(4, simulator.variableToValueMap.get("B"), 0);
+  }
+
+  private static double[] means(AbstractSimulator simulator) throws Exception
+  {
+    double[] sums = new double[SPECIES.length];
+    for (int run = 1; run <= RUNS; run++)
+    {
+      if (run > 1)
+      {
+        simulator.clear();
+        simulator.setupForNewRun(run);
+      }
+      simulator.simulate();
+      for (int i = 0; i < SPECIES.length; i++)
+      {
+        sums[i] += simulator instanceof HierarchicalSimulation ? ((HierarchicalSimulation) simulator).getTopLevelValue(SPECIES[i]) : ((Simulator) simulator).variableToValueMap.get(SPECIES[i]);
+      }
+    }
+    for (int i = 0; i < SPECIES.length; i++)
+    {
+      sums[i] /= RUNS;
+    }
+    return sums;
+  }
+
+  /**
+   * The flattened direct and composition-rejection methods, which run on the reaction
+   * network, must agree with the hierarchical direct method, which does not.
+   */
+  @Test
+  public void testMeans() throws Exception
+  {
+    String filename = HierarchicalTestModels.writeDimerization(folder.getRoot());
+    String directory = folder.getRoot().getAbsolutePath();
+    HierarchicalSSADirectSimulator hierarchical = new HierarchicalSSADirectSimulator(filename, directory, directory, RUNS, TIME_LIMIT, Double.POSITIVE_INFINITY, 0, 5, TIME_LIMIT, 1, new String[0], "amount", 0, 0, false);
+    hierarchical.initialize(5, 1);
+    double[] expected = means(hierarchical);
+
+    Simulator[] simulators = { createSimulator(), new SimulatorSSACR(filename, directory + "/", 1, TIME_LIMIT, Double.POSITIVE_INFINITY, 0, 7, TIME_LIMIT, 1, new String[0], "amount") };
+    simulators[1].addObservable(new CoreObservable()
+    {
+    });
+    for (Simulator simulator : simulators)
+    {
+      double[] actual = means(simulator);
+      for (int i = 0; i < SPECIES.length; i++)
+      {
+        // both means have a standard error below 0.15
+        assertEquals(simulator.getClass().getSimpleName() + " " + SPECIES[i], expected[i], actual[i], 0.6);
+      }
+    }
+  }
+}
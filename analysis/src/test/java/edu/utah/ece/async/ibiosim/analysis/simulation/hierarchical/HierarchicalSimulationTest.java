@@ -0,0 +1,157 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sbml.jsbml.ASTNode;
+import org.sbml.jsbml.Compartment;
+import org.sbml.jsbml.InitialAssignment;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBMLWriter;
+import org.sbml.jsbml.Species;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods.HierarchicalNextReactionSimulator;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods.HierarchicalSSADirectSimulator;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods.HierarchicalTauLeapingSimulator;
+
+/**
+ * Checks that the stochastic simulators start every run from the initial state, both when the
+ * state saved at the first run is copied back and when it is computed again because the
+ * initial values call a random function.
+ *
+ * @author Leandro Watanabe
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class HierarchicalSimulationTest
+{
+
+  private static final long SEED = 11;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Writes a model where A and B convert into each other, and the initial amount of B is 60,
+   * either three times the amount of A or drawn from a binomial distribution that always
+   * gives one. The random function makes the simulators compute the state again every run.
+   */
+  private String writeModel(boolean random) throws Exception
+  {
+    SBMLDocument document = new SBMLDocument(3, 1);
+    Model model = document.createModel("test");
+    Compartment compartment = model.createCompartment("c");
+    compartment.setSize(1);
+    compartment.setConstant(true);
+    for (String id : new String[] { "A", "B" })
+    {
+      Species species = model.createSpecies(id, compartment);
+      species.setInitialAmount(id.equals("A") ? 20 : 0);
+      species.setHasOnlySubstanceUnits(true);
+      species.setBoundaryCondition(false);
+      species.setConstant(false);
+    }
+    InitialAssignment assignment = model.createInitialAssignment();
+    assignment.setVariable("B");
+    if (random)
+    {
+      model.createFunctionDefinition("binomial").setMath(ASTNode.parseFormula("lambda(n, p, n*p)"));
+      assignment.setMath(ASTNode.parseFormula("60*binomial(1, 1)"));
+    }
+    else
+    {
+      assignment.setMath(ASTNode.parseFormula("3*A"));
+    }
+    Reaction forward = model.createReaction("forward");
+    forward.setReversible(false);
+    forward.createReactant(model.getSpecies("A")).setStoichiometry(1);
+    forward.createProduct(model.getSpecies("B")).setStoichiometry(1);
+    forward.createKineticLaw().setMath(ASTNode.parseFormula("0.5*A"));
+    Reaction backward = model.createReaction("backward");
+    backward.setReversible(false);
+    backward.createReactant(model.getSpecies("B")).setStoichiometry(1);
+    backward.createProduct(model.getSpecies("A")).setStoichiometry(1);
+    backward.createKineticLaw().setMath(ASTNode.parseFormula("0.1*B"));
+
+    String filename = folder.getRoot().getAbsolutePath() + File.separator + "test.xml";
+    new SBMLWriter().write(document, filename);
+    return filename;
+  }
+
+  /**
+   * Runs the simulator three times from the same random seed. The later runs must start from
+   * the values and propensity of the first run, and so must end with the same values.
+   */
+  private void checkRuns(HierarchicalSimulation sim) throws Exception
+  {
+    sim.getRandomNumberGenerator().setSeed(SEED);
+    sim.initialize(SEED, 1);
+    assertEquals(20, sim.getTopLevelValue("A"), 0);
+    assertEquals(60, sim.getTopLevelValue("B"), 0);
+    double propensity = sim.getTotalPropensity();
+    assertEquals(0.5 * 20 + 0.1 * 60, propensity, 1e-12);
+    sim.simulate();
+    double a = sim.getTopLevelValue("A"), b = sim.getTopLevelValue("B");
+    assertEquals(80, a + b, 0);
+
+    for (int run = 2; run <= 3; run++)
+    {
+      sim.getRandomNumberGenerator().setSeed(SEED);
+      sim.setupForNewRun(run);
+      assertEquals(20, sim.getTopLevelValue("A"), 0);
+      assertEquals(60, sim.getTopLevelValue("B"), 0);
+      assertEquals(propensity, sim.getTotalPropensity(), 0);
+      sim.simulate();
+      assertEquals(a, sim.getTopLevelValue("A"), 0);
+      assertEquals(b, sim.getTopLevelValue("B"), 0);
+    }
+  }
+
+  private HierarchicalSimulation[] createSimulators(boolean random) throws Exception
+  {
+    String filename = writeModel(random);
+    String directory = folder.getRoot().getAbsolutePath();
+    return new HierarchicalSimulation[] {
+      new HierarchicalSSADirectSimulator(filename, directory, directory, 5, 5, Double.POSITIVE_INFINITY, 0, SEED, 1, 1, new String[0], "amount", 0, 0, false),
+      new HierarchicalNextReactionSimulator(filename, directory, directory, 5, 5, Double.POSITIVE_INFINITY, 0, SEED, 1, 1, new String[0], "amount", 0, 0, false),
+      new HierarchicalTauLeapingSimulator(filename, directory, directory, 5, 5, Double.POSITIVE_INFINITY, 0, SEED, 1, 1, new String[0], "amount", 0, 0, 0.03, 10, false) };
+  }
+
+  @Test
+  public void testRestoreSavedState() throws Exception
+  {
+    for (HierarchicalSimulation sim : createSimulators(false))
+    {
+      checkRuns(sim);
+    }
+  }
+
+  @Test
+  public void testRecomputeRandomState() throws Exception
+  {
+    for (HierarchicalSimulation sim : createSimulators(true))
+    {
+      checkRuns(sim);
+    }
+  }
+}
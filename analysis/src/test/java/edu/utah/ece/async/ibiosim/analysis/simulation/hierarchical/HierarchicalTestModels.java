@@ -0,0 +1,203 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.sbml.jsbml.ASTNode;
+import org.sbml.jsbml.AssignmentRule;
+import org.sbml.jsbml.Compartment;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.Parameter;
+import org.sbml.jsbml.RateRule;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBMLWriter;
+import org.sbml.jsbml.Species;
+import org.sbml.jsbml.ext.comp.CompConstants;
+import org.sbml.jsbml.ext.comp.CompModelPlugin;
+import org.sbml.jsbml.ext.comp.CompSBMLDocumentPlugin;
+import org.sbml.jsbml.ext.comp.ExternalModelDefinition;
+import org.sbml.jsbml.text.parser.ParseException;
+
+/**
+ * Small SBML models with known behavior for the tests of the hierarchical simulators.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class HierarchicalTestModels
+{
+
+  /**
+   * Writes a model whose species live in one compartment of unit size.
+   *
+   * @param directory
+   *            the directory to write the model to.
+   * @param species
+   *            the ids of the species.
+   * @param amounts
+   *            the initial amounts of the species.
+   * @param reactions
+   *            for each reaction, its id, its reactant, its product and its rate law. An
+   *            empty reactant or product means none.
+   * @return the path of the model file.
+   */
+  public static String writeModel(File directory, String[] species, double[] amounts, String[][] reactions) throws IOException, XMLStreamException, ParseException
+  {
+    return write(directory, createModel(species, amounts, reactions));
+  }
+
+  private static SBMLDocument createModel(String[] species, double[] amounts, String[][] reactions) throws ParseException
+  {
+    SBMLDocument document = new SBMLDocument(3, 1);
+    Model model = document.createModel("test");
+    Compartment compartment = model.createCompartment("c");
+    compartment.setSize(1);
+    compartment.setConstant(true);
+
+    for (int i = 0; i < species.length; i++)
+    {
+      Species s = model.createSpecies(species[i], compartment);
+      s.setInitialAmount(amounts[i]);
+      s.setHasOnlySubstanceUnits(true);
+      s.setBoundaryCondition(false);
+      s.setConstant(false);
+    }
+
+    for (String[] reaction : reactions)
+    {
+      Reaction r = model.createReaction(reaction[0]);
+      r.setReversible(false);
+      if (!reaction[1].isEmpty())
+      {
+        r.createReactant(model.getSpecies(reaction[1])).setStoichiometry(1);
+      }
+      if (!reaction[2].isEmpty())
+      {
+        r.createProduct(model.getSpecies(reaction[2])).setStoichiometry(1);
+      }
+      r.createKineticLaw().setMath(ASTNode.parseFormula(reaction[3]));
+    }
+
+    return document;
+  }
+
+  private static String write(File directory, SBMLDocument document) throws IOException, XMLStreamException
+  {
+    return write(directory, "test.xml", document);
+  }
+
+  private static String write(File directory, String name, SBMLDocument document) throws IOException, XMLStreamException
+  {
+    String filename = directory.getAbsolutePath() + File.separator + name;
+    new SBMLWriter().write(document, filename);
+    return filename;
+  }
+
+  /**
+   * Writes the birth-death process of a species A, produced at rate 10 and degraded at
+   * rate 0.1 per molecule, starting from zero. A is Poisson distributed at any time t,
+   * with mean 100 * (1 - exp(-t / 10)).
+   */
+  public static String writeBirthDeath(File directory) throws IOException, XMLStreamException, ParseException
+  {
+    return write(directory, createBirthDeath());
+  }
+
+  private static SBMLDocument createBirthDeath() throws ParseException
+  {
+    return createModel(new String[] { "A" }, new double[] { 0 },
+      new String[][] { { "prod", "", "A", "10" }, { "deg", "A", "", "0.1*A" } });
+  }
+
+  /**
+   * Writes a model with rate rules: a parameter k with rate of change 1, a species A produced
+   * at rate k, and a parameter w with rate of change A, all starting from zero. A is Poisson
+   * distributed at any time t, with mean t^2 / 2, and the mean of w is t^3 / 6.
+   */
+  public static String writeRateRules(File directory) throws IOException, XMLStreamException, ParseException
+  {
+    SBMLDocument document = createModel(new String[] { "A" }, new double[] { 0 },
+      new String[][] { { "prod", "", "A", "k" } });
+    Model model = document.getModel();
+    String[][] rules = new String[][] { { "k", "1" }, { "w", "A" } };
+    for (String[] rule : rules)
+    {
+      Parameter parameter = model.createParameter(rule[0]);
+      parameter.setValue(0);
+      parameter.setConstant(false);
+      RateRule rateRule = model.createRateRule();
+      rateRule.setVariable(rule[0]);
+      rateRule.setMath(ASTNode.parseFormula(rule[1]));
+    }
+    return write(directory, document);
+  }
+
+  /**
+   * Writes a model with a reaction of stoichiometry two and an assignment rule: two A dimerize
+   * into B at rate 0.1*A, B decays at rate 0.2*B, and A is fed at rate 0.5*C, where the
+   * species C is given by the assignment rule C = 2*B and is a modifier of the feed. A starts
+   * at 10 and B at zero.
+   */
+  public static String writeDimerization(File directory) throws IOException, XMLStreamException, ParseException
+  {
+    SBMLDocument document = createModel(new String[] { "A", "B", "C" }, new double[] { 10, 0, 0 },
+      new String[][] { { "dimerize", "A", "B", "0.1*A" }, { "decay", "B", "", "0.2*B" }, { "feed", "", "A", "0.5*C" } });
+    Model model = document.getModel();
+    model.getReaction("dimerize").getReactant(0).setStoichiometry(2);
+    model.getReaction("feed").createModifier(model.getSpecies("C"));
+    AssignmentRule rule = model.createAssignmentRule();
+    rule.setVariable("C");
+    rule.setMath(ASTNode.parseFormula("2*B"));
+    return write(directory, document);
+  }
+
+  /**
+   * Writes the birth-death process of {@link #writeBirthDeath(File)} to birthDeath.xml and a
+   * model with no species of its own that instantiates it as the submodels s1, s2, and so on,
+   * through one external model definition.
+   *
+   * @return the path of the model that instantiates the submodels.
+   */
+  public static String writeSubmodels(File directory, int instances) throws IOException, XMLStreamException, ParseException
+  {
+    write(directory, "birthDeath.xml", createBirthDeath());
+
+    SBMLDocument document = new SBMLDocument(3, 1);
+    document.enablePackage(CompConstants.namespaceURI);
+    Model model = document.createModel("top");
+    CompSBMLDocumentPlugin compDocument = (CompSBMLDocumentPlugin) document.getPlugin(CompConstants.namespaceURI);
+    ExternalModelDefinition definition = compDocument.createExternalModelDefinition("birthDeath");
+    definition.setSource("birthDeath.xml");
+    CompModelPlugin compModel = (CompModelPlugin) model.getPlugin(CompConstants.namespaceURI);
+    for (int i = 1; i <= instances; i++)
+    {
+      compModel.createSubmodel("s" + i).setModelRef("birthDeath");
+    }
+    return write(directory, document);
+  }
+
+  /**
+   * The mean of A in the birth-death process at the given time.
+   */
+  public static double birthDeathMean(double time)
+  {
+    return 100 * (1 - Math.exp(-time / 10));
+  }
+}
@@ -0,0 +1,324 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalTestModels;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.HierarchicalNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods.HierarchicalSSADirectSimulator;
+import edu.utah.ece.async.ibiosim.dataModels.util.Message;
+import edu.utah.ece.async.ibiosim.dataModels.util.dataparser.TSDParser;
+import edu.utah.ece.async.ibiosim.dataModels.util.observe.BioObservable.RequestType;
+import edu.utah.ece.async.ibiosim.dataModels.util.observe.CoreObservable;
+
+/**
+ * Checks that the asynchronous writer hands the rows and commands to the writer it wraps in
+ * order, blocks when its queue is full, reports the errors of the background thread, and stops
+ * the background thread when a simulation is cancelled.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class HierarchicalAsyncWriterTest
+{
+
+  private static final String THREAD_NAME = "Hierarchical simulation output";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Set<Thread> existing;
+
+  /**
+   * Records what it is asked to do. A row can be made to wait for a latch, and the n-th row can
+   * be made to fail.
+   */
+  private static class RecordingWriter extends HierarchicalWriter
+  {
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch started = new CountDownLatch(1);
+    private CountDownLatch release;
+    private IOException failure;
+    private int failAt = -1;
+    private int rows;
+
+    @Override
+    public void init(String filename) throws IOException
+    {
+      events.add("open " + filename);
+    }
+
+    @Override
+    public void print(double[] values) throws IOException
+    {
+      started.countDown();
+      if (release != null)
+      {
+        try
+        {
+          release.await();
+        }
+        catch (InterruptedException e)
+        {
+          throw new IOException(e);
+        }
+      }
+      if (rows++ == failAt)
+      {
+        throw failure;
+      }
+      events.add("row " + Arrays.toString(values));
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+      events.add("flush");
+    }
+
+    @Override
+    public void addVariable(String id, HierarchicalNode node, int index, boolean isConcentration)
+    {
+      addNode(node, index, isConcentration);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      events.add("close");
+    }
+  }
+
+  private static HierarchicalAsyncWriter newWriter(RecordingWriter output, int capacity)
+  {
+    HierarchicalAsyncWriter writer = new HierarchicalAsyncWriter(output, capacity);
+    writer.addVariable("time", null, 0, false);
+    writer.addVariable("A", null, 0, false);
+    return writer;
+  }
+
+  @Before
+  public void setUp()
+  {
+    existing = new HashSet<Thread>(Thread.getAllStackTraces().keySet());
+  }
+
+  /**
+   * Waits for the background threads started by the test to finish and fails if one is still
+   * running.
+   */
+  private void assertStopped() throws InterruptedException
+  {
+    for (Thread thread : Thread.getAllStackTraces().keySet())
+    {
+      if (THREAD_NAME.equals(thread.getName()) && !existing.contains(thread))
+      {
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+      }
+    }
+  }
+
+  @Test
+  public void testOrdering() throws Exception
+  {
+    RecordingWriter output = new RecordingWriter();
+    HierarchicalAsyncWriter writer = newWriter(output, 4);
+    double[] row = new double[2];
+
+    writer.init("first");
+    for (int i = 0; i < 3; i++)
+    {
+      // the row is copied, so changing the array afterwards does not change what is written
+      row[0] = i;
+      row[1] = 10 * i;
+      writer.print(row);
+    }
+    writer.flush();
+    assertEquals(Arrays.asList("open first", "row [0.0, 0.0]", "row [1.0, 10.0]", "row [2.0, 20.0]", "flush"), new ArrayList<String>(output.events));
+
+    row[0] = 3;
+    writer.print(row);
+    writer.close();
+    assertStopped();
+    assertEquals(Arrays.asList("row [3.0, 20.0]", "close"), new ArrayList<String>(output.events.subList(5, output.events.size())));
+
+    // a closed writer starts a new background thread for the next file
+    writer.init("second");
+    row[0] = 4;
+    writer.print(row);
+    writer.close();
+    assertStopped();
+    assertEquals(Arrays.asList("open second", "row [4.0, 20.0]", "close"), new ArrayList<String>(output.events.subList(7, output.events.size())));
+  }
+
+  @Test
+  public void testBackPressure() throws Exception
+  {
+    final RecordingWriter output = new RecordingWriter();
+    output.release = new CountDownLatch(1);
+    final HierarchicalAsyncWriter writer = newWriter(output, 1);
+
+    writer.init("file");
+    writer.print(new double[] { 1, 1 });
+    assertTrue(output.started.await(5, TimeUnit.SECONDS));
+
+    // the only row is being written, so the next row has to wait for it
+    final IOException[] error = new IOException[1];
+    Thread producer = new Thread(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          writer.print(new double[] { 2, 2 });
+        }
+        catch (IOException e)
+        {
+          error[0] = e;
+        }
+      }
+    });
+    producer.start();
+    producer.join(200);
+    assertTrue(producer.isAlive());
+    assertEquals(Arrays.asList("open file"), new ArrayList<String>(output.events));
+
+    output.release.countDown();
+    producer.join(5000);
+    assertFalse(producer.isAlive());
+    writer.close();
+    assertNull(error[0]);
+    assertEquals(Arrays.asList("open file", "row [1.0, 1.0]", "row [2.0, 2.0]", "close"), new ArrayList<String>(output.events));
+    assertStopped();
+  }
+
+  @Test
+  public void testError() throws Exception
+  {
+    RecordingWriter output = new RecordingWriter();
+    output.failure = new IOException("disk full");
+    output.failAt = 1;
+    HierarchicalAsyncWriter writer = newWriter(output, 4);
+
+    writer.init("file");
+    writer.print(new double[] { 0, 0 });
+    writer.print(new double[] { 1, 1 });
+    writer.print(new double[] { 2, 2 });
+    try
+    {
+      writer.flush();
+      fail("the error of the background thread was not reported");
+    }
+    catch (IOException e)
+    {
+      assertSame(output.failure, e);
+    }
+    // the rows after the error are dropped
+    assertEquals(Arrays.asList("open file", "row [0.0, 0.0]"), new ArrayList<String>(output.events));
+    try
+    {
+      writer.print(new double[] { 3, 3 });
+      fail("the error of the background thread was not reported");
+    }
+    catch (IOException e)
+    {
+      assertSame(output.failure, e);
+    }
+    try
+    {
+      writer.close();
+      fail("the error of the background thread was not reported");
+    }
+    catch (IOException e)
+    {
+      assertSame(output.failure, e);
+    }
+    assertStopped();
+  }
+
+  private HierarchicalSSADirectSimulator newSimulator(String filename, String directory) throws Exception
+  {
+    // the largest step is below the print interval, so every step prints at most one row
+    return new HierarchicalSSADirectSimulator(filename, directory, directory, 1, 100, 0.5, 0, 7, 1, 1, new String[0], "amount", 0, 0, true);
+  }
+
+  @Test
+  public void testCancel() throws Exception
+  {
+    String filename = HierarchicalTestModels.writeBirthDeath(folder.getRoot());
+    String expectedDirectory = folder.newFolder("expected").getAbsolutePath();
+    HierarchicalSSADirectSimulator expected = newSimulator(filename, expectedDirectory);
+    expected.addObservable(new CoreObservable()
+    {
+    });
+    expected.setPrinter("tsd.printer", false);
+    expected.simulate();
+
+    String directory = folder.newFolder("cancelled").getAbsolutePath();
+    final HierarchicalSSADirectSimulator sim = newSimulator(filename, directory);
+    final int[] printed = new int[1];
+    sim.addObservable(new CoreObservable()
+    {
+      @Override
+      public boolean send(RequestType type, Message message)
+      {
+        if (++printed[0] == 20)
+        {
+          sim.setCancelFlag(true);
+        }
+        return false;
+      }
+    });
+    sim.setPrinter("tsd.printer", true);
+    sim.simulate();
+    assertStopped();
+
+    // the run file is complete up to the row where the run was cancelled
+    TSDParser full = new TSDParser(new File(expectedDirectory, "run-1.tsd").getAbsolutePath(), false);
+    TSDParser cancelled = new TSDParser(new File(directory, "run-1.tsd").getAbsolutePath(), false);
+    assertEquals(101, full.getNumSamples());
+    assertEquals(printed[0], cancelled.getNumSamples());
+    assertTrue(printed[0] < 101);
+    assertEquals(full.getSpecies(), cancelled.getSpecies());
+    for (int i = 0; i < full.getSpecies().size(); i++)
+    {
+      assertEquals(full.getData().get(i).subList(0, printed[0]), cancelled.getData().get(i));
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.utah.ece.async.ibiosim.dataModels.util.dataparser.BTSDParser;
+
+/**
+ * Writes rows with the binary writer and reads them back with {@link BTSDParser}, including
+ * NaN and infinite values, more rows than fit in the write buffer, and a file that ends with
+ * an incomplete record.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class HierarchicalBinaryWriterTest
+{
+
+  private static final String[] IDS = { "time", "A", "\u03b2-gal" };
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static HierarchicalBinaryWriter newWriter()
+  {
+    HierarchicalBinaryWriter writer = new HierarchicalBinaryWriter();
+    for (String id : IDS)
+    {
+      writer.addVariable(id, null, 0, false);
+    }
+    return writer;
+  }
+
+  /**
+   * Returns the value the parser reads for a written value.
+   */
+  private static double expected(double value)
+  {
+    if (Double.isNaN(value))
+    {
+      return 0;
+    }
+    if (Double.isInfinite(value))
+    {
+      return value > 0 ? Double.MAX_VALUE : -Double.MAX_VALUE;
+    }
+    return value;
+  }
+
+  private static void check(String filename, List<double[]> rows)
+  {
+    // the warning is already given, so no dialog is shown for the NaN values
+    BTSDParser parser = new BTSDParser(filename, true);
+    assertEquals(Arrays.asList(IDS), parser.getSpecies());
+    assertEquals(rows.size(), parser.getNumSamples());
+    for (int i = 0; i < IDS.length; i++)
+    {
+      List<Double> column = parser.getData().get(i);
+      for (int k = 0; k < rows.size(); k++)
+      {
+        assertEquals(IDS[i] + " at " + k, expected(rows.get(k)[i]), column.get(k), 0);
+      }
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception
+  {
+    Random random = new Random(5);
+    List<double[]> rows = new ArrayList<double[]>();
+    rows.add(new double[] { 0, Double.NaN, Double.POSITIVE_INFINITY });
+    rows.add(new double[] { 1, Double.NEGATIVE_INFINITY, -0.0 });
+    rows.add(new double[] { 2, Double.MIN_VALUE, -Double.MAX_VALUE });
+    // enough rows to fill the write buffer several times
+    for (int k = 3; k < 10000; k++)
+    {
+      rows.add(new double[] { k, random.nextGaussian() * 1e6, random.nextInt(100) });
+    }
+
+    HierarchicalBinaryWriter writer = newWriter();
+    String filename = new File(folder.getRoot(), "run-1.btsd").getAbsolutePath();
+    writer.init(filename);
+    for (double[] row : rows)
+    {
+      writer.print(row);
+    }
+    writer.close();
+    check(filename, rows);
+
+    // the writer can be used for the next run without being closed
+    String next = new File(folder.getRoot(), "run-2.btsd").getAbsolutePath();
+    writer.init(next);
+    writer.print(rows.get(5));
+    writer.init(new File(folder.getRoot(), "run-3.btsd").getAbsolutePath());
+    writer.close();
+    check(next, rows.subList(5, 6));
+  }
+
+  @Test
+  public void testTruncated() throws Exception
+  {
+    List<double[]> rows = new ArrayList<double[]>();
+    for (int k = 0; k < 10; k++)
+    {
+      rows.add(new double[] { k, 2 * k, k == 4 ? Double.NaN : 3 * k });
+    }
+    HierarchicalBinaryWriter writer = newWriter();
+    String filename = new File(folder.getRoot(), "run-1.btsd").getAbsolutePath();
+    writer.init(filename);
+    for (double[] row : rows)
+    {
+      writer.print(row);
+    }
+    writer.close();
+
+    // an interrupted run leaves part of a record at the end of the file
+    FileOutputStream output = new FileOutputStream(filename, true);
+    try
+    {
+      output.write(new byte[8 * IDS.length - 3]);
+    }
+    finally
+    {
+      output.close();
+    }
+    check(filename, rows);
+  }
+}
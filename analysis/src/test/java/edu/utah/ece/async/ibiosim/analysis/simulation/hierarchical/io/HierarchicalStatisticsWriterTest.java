@@ -0,0 +1,185 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalTestModels;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods.HierarchicalSSADirectSimulator;
+import edu.utah.ece.async.ibiosim.dataModels.util.dataparser.TSDParser;
+import edu.utah.ece.async.ibiosim.dataModels.util.observe.CoreObservable;
+
+/**
+ * Checks the streaming statistics against the mean and sample variance computed from the
+ * values of every run, both for rows printed directly and for a simulation.
+ *
+ * @author Leandro Watanabe
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class HierarchicalStatisticsWriterTest
+{
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static HierarchicalStatisticsWriter newWriter()
+  {
+    HierarchicalStatisticsWriter writer = new HierarchicalStatisticsWriter();
+    writer.addVariable("time", null, 0, false);
+    writer.addVariable("A", null, 0, false);
+    writer.addVariable("B", null, 0, false);
+    return writer;
+  }
+
+  /**
+   * Compares the statistics files in the folder with the statistics of the given runs, where
+   * runs.get(r).get(k) is the row printed at point k of run r.
+   */
+  private void checkOutput(File directory, List<List<double[]>> runs, int numPoints)
+  {
+    List<ArrayList<ArrayList<Double>>> files = new ArrayList<ArrayList<ArrayList<Double>>>();
+    for (String name : new String[] { "mean", "variance", "standard_deviation" })
+    {
+      files.add(new TSDParser(new File(directory, name + ".tsd").getAbsolutePath(), false).getData());
+    }
+    for (int k = 0; k < numPoints; k++)
+    {
+      for (int i = 0; i < 3; i++)
+      {
+        double sum = 0, sumOfSquares = 0;
+        int count = 0;
+        for (List<double[]> run : runs)
+        {
+          if (k < run.size())
+          {
+            sum += run.get(k)[i];
+            count++;
+          }
+        }
+        double mean = sum / count;
+        for (List<double[]> run : runs)
+        {
+          if (k < run.size())
+          {
+            double difference = run.get(k)[i] - mean;
+            sumOfSquares += difference * difference;
+          }
+        }
+        double variance = count > 1 ? sumOfSquares / (count - 1) : 0;
+        double tolerance = 1e-9 * Math.max(1, Math.abs(mean));
+        assertEquals("mean of " + i + " at " + k, mean, files.get(0).get(i).get(k), tolerance);
+        if (i > 0)
+        {
+          assertEquals("variance of " + i + " at " + k, variance, files.get(1).get(i).get(k), 1e-9 * Math.max(1, variance));
+          assertEquals("deviation of " + i + " at " + k, Math.sqrt(variance), files.get(2).get(i).get(k), 1e-9 * Math.max(1, variance));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRowsAndMerge() throws Exception
+  {
+    Random random = new Random(3);
+    List<List<double[]>> runs = new ArrayList<List<double[]>>();
+    HierarchicalStatisticsWriter single = newWriter();
+    HierarchicalStatisticsWriter[] parts = { newWriter(), newWriter(), newWriter() };
+    for (int r = 0; r < 40; r++)
+    {
+      // some runs stop early, so the points have different counts
+      int length = random.nextInt(4) == 0 ? 1 + random.nextInt(20) : 20;
+      List<double[]> run = new ArrayList<double[]>();
+      single.init(null);
+      parts[r % 3].init(null);
+      for (int k = 0; k < length; k++)
+      {
+        double[] row = { k, 1e6 + random.nextGaussian(), 50 * random.nextDouble() };
+        run.add(row);
+        single.print(row.clone());
+        parts[r % 3].print(row.clone());
+      }
+      runs.add(run);
+    }
+    assertEquals(20, single.getNumberOfPoints());
+    assertEquals(40, single.getCount(0));
+
+    File singleDirectory = folder.newFolder("single");
+    single.output(singleDirectory.getAbsolutePath());
+    checkOutput(singleDirectory, runs, 20);
+
+    parts[0].merge(parts[1]);
+    parts[0].merge(parts[2]);
+    for (int k = 0; k < 20; k++)
+    {
+      assertEquals(single.getCount(k), parts[0].getCount(k));
+    }
+    File mergedDirectory = folder.newFolder("merged");
+    parts[0].output(mergedDirectory.getAbsolutePath());
+    checkOutput(mergedDirectory, runs, 20);
+  }
+
+  @Test
+  public void testSimulation() throws Exception
+  {
+    String filename = HierarchicalTestModels.writeBirthDeath(folder.getRoot());
+    String directory = folder.getRoot().getAbsolutePath();
+    int runs = 25;
+    HierarchicalSSADirectSimulator sim = new HierarchicalSSADirectSimulator(filename, directory, directory, runs, 10, Double.POSITIVE_INFINITY, 0, 5, 1, 1, new String[0], "amount", 0, 0, true);
+    // the progress messages sent while printing need a parent
+    sim.addObservable(new CoreObservable()
+    {
+    });
+    sim.setPrintStatistics(true);
+    for (int run = 1; run <= runs; run++)
+    {
+      if (run > 1)
+      {
+        sim.setupForNewRun(run);
+      }
+      sim.simulate();
+    }
+    sim.printStatisticsTSD();
+
+    TSDParser mean = new TSDParser(new File(directory, "mean.tsd").getAbsolutePath(), false);
+    TSDParser variance = new TSDParser(new File(directory, "variance.tsd").getAbsolutePath(), false);
+    int column = mean.getSpecies().indexOf("A");
+    int numPoints = mean.getNumSamples();
+    assertEquals(11, numPoints);
+    for (int k = 0; k < numPoints; k++)
+    {
+      double sum = 0, sumOfSquares = 0;
+      for (int run = 1; run <= runs; run++)
+      {
+        TSDParser parser = new TSDParser(new File(directory, "run-" + run + ".tsd").getAbsolutePath(), false);
+        double value = parser.getData().get(parser.getSpecies().indexOf("A")).get(k);
+        sum += value;
+        sumOfSquares += value * value;
+      }
+      double expected = sum / runs;
+      assertEquals(expected, mean.getData().get(column).get(k), 1e-9);
+      assertEquals((sumOfSquares - runs * expected * expected) / (runs - 1), variance.getData().get(column).get(k), 1e-6);
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.AbstractHierarchicalNode.Type;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.states.HierarchicalState.StateType;
+
+/**
+ * Checks that compiled expressions return exactly the values of the interpreter, and that
+ * reactions add their reverse rate to their propensity.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class ExpressionCompilerTest
+{
+
+  private static final Type[] UNARY = { Type.FUNCTION_ABS, Type.FUNCTION_ARCCOS, Type.FUNCTION_ARCCOSH, Type.FUNCTION_ARCCOT, Type.FUNCTION_ARCCOTH, Type.FUNCTION_ARCCSC,
+    Type.FUNCTION_ARCCSCH, Type.FUNCTION_ARCSEC, Type.FUNCTION_ARCSECH, Type.FUNCTION_ARCSIN, Type.FUNCTION_ARCSINH, Type.FUNCTION_ARCTAN, Type.FUNCTION_ARCTANH,
+    Type.FUNCTION_CEILING, Type.FUNCTION_COS, Type.FUNCTION_COSH, Type.FUNCTION_COT, Type.FUNCTION_COTH, Type.FUNCTION_CSC, Type.FUNCTION_CSCH, Type.FUNCTION_EXP,
+    Type.FUNCTION_FACTORIAL, Type.FUNCTION_FLOOR, Type.FUNCTION_LN, Type.FUNCTION_SEC, Type.FUNCTION_SECH, Type.FUNCTION_SIN, Type.FUNCTION_SINH, Type.FUNCTION_TAN,
+    Type.FUNCTION_TANH };
+
+  private static final Type[] BINARY = { Type.PLUS, Type.MINUS, Type.TIMES, Type.DIVIDE, Type.POWER, Type.FUNCTION_POWER, Type.FUNCTION_LOG, Type.FUNCTION_ROOT,
+    Type.FUNCTION_REM, Type.FUNCTION_QUOTIENT, Type.FUNCTION_MIN, Type.FUNCTION_MAX, Type.LOGICAL_AND, Type.LOGICAL_OR, Type.LOGICAL_XOR, Type.LOGICAL_IMPLIES,
+    Type.RELATIONAL_EQ, Type.RELATIONAL_NEQ, Type.RELATIONAL_GEQ, Type.RELATIONAL_LEQ, Type.RELATIONAL_GT, Type.RELATIONAL_LT };
+
+  private static final double[] VALUES = { -2.5, -1, -0.3, 0, 0.3, 0.5, 1, 1.7, 4, 1000, Double.NaN };
+
+  private VariableNode x, y;
+
+  @Before
+  public void setUp()
+  {
+    x = new VariableNode("x", StateType.SCALAR);
+    y = new VariableNode("y", StateType.SCALAR);
+    x.setRateRule(node(Type.TIMES, new NumberNode(2), y));
+  }
+
+  private static HierarchicalNode node(Type type, HierarchicalNode... children)
+  {
+    HierarchicalNode node = new HierarchicalNode(type);
+    for (HierarchicalNode child : children)
+    {
+      node.addChild(child);
+    }
+    return node;
+  }
+
+  private List<HierarchicalNode> expressions()
+  {
+    List<HierarchicalNode> expressions = new ArrayList<HierarchicalNode>();
+    for (Type type : UNARY)
+    {
+      expressions.add(node(type, x));
+    }
+    for (Type type : BINARY)
+    {
+      expressions.add(node(type, x, y));
+    }
+    expressions.add(node(Type.MINUS, x));
+    expressions.add(node(Type.LOGICAL_NOT, x));
+    expressions.add(node(Type.PLUS, x, y, new HierarchicalNode(3)));
+    expressions.add(node(Type.TIMES, x, y, new NumberNode(-0.5)));
+    expressions.add(node(Type.FUNCTION_MAX, x, y, new NumberNode(0.5)));
+    expressions.add(node(Type.FUNCTION_MIN));
+    expressions.add(node(Type.FUNCTION_PIECEWISE, x, node(Type.RELATIONAL_GT, x, y), y, node(Type.RELATIONAL_LT, x, new NumberNode(0)), new NumberNode(7)));
+    expressions.add(node(Type.FUNCTION_PIECEWISE, x, node(Type.RELATIONAL_GT, x, y)));
+    expressions.add(node(Type.DIVIDE, node(Type.TIMES, new HierarchicalNode(Type.CONSTANT_PI), x), node(Type.PLUS, new HierarchicalNode(Type.CONSTANT_E), y)));
+    expressions.add(node(Type.TIMES, new HierarchicalNode(Type.CONSTANT_TRUE), new HierarchicalNode(Type.NAME_AVOGADRO), x));
+    expressions.add(node(Type.PLUS, new HierarchicalNode(Type.CONSTANT_FALSE), node(Type.FUNCTION_RATEOF, x), y));
+    return expressions;
+  }
+
+  private static void assertSameValue(HierarchicalNode expression)
+  {
+    double expected = Evaluator.evaluateExpressionRecursive(expression, 0);
+    double actual = ExpressionCompiler.compile(expression, 0).evaluate();
+    assertEquals(expression.getType().toString(), Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+  }
+
+  @Test
+  public void testSameValues()
+  {
+    List<HierarchicalNode> expressions = expressions();
+    for (double xValue : VALUES)
+    {
+      for (double yValue : VALUES)
+      {
+        x.setValue(xValue);
+        y.setValue(yValue);
+        for (HierarchicalNode expression : expressions)
+        {
+          assertSameValue(expression);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBinding()
+  {
+    CompiledExpression compiled = ExpressionCompiler.compile(node(Type.TIMES, x, y), 0);
+    x.setValue(3);
+    y.setValue(4);
+    assertEquals(12, compiled.evaluate(), 0);
+    y.setValue(-2);
+    assertEquals(-6, compiled.evaluate(), 0);
+  }
+
+  /**
+   * The interpreter computes coth(x) as sinh(x) / cosh(x), which is tanh(x); the compiled
+   * expression keeps that so both agree.
+   */
+  @Test
+  public void testHyperbolicCotangent()
+  {
+    HierarchicalNode coth = node(Type.FUNCTION_COTH, x);
+    x.setValue(0.7);
+    assertEquals(Math.tanh(0.7), Evaluator.evaluateExpressionRecursive(coth, 0), 1e-15);
+    assertEquals(Math.tanh(0.7), ExpressionCompiler.compile(coth, 0).evaluate(), 1e-15);
+  }
+
+  @Test
+  public void testInterpretedFallback()
+  {
+    HierarchicalNode rateOf = node(Type.FUNCTION_RATEOF, x);
+    HierarchicalNode delay = node(Type.FUNCTION_DELAY, x, new NumberNode(1));
+    assertTrue(ExpressionCompiler.compile(rateOf, 0) instanceof ExpressionCompiler.Interpreted);
+    assertTrue(ExpressionCompiler.compile(delay, 0) instanceof ExpressionCompiler.Interpreted);
+    assertTrue(ExpressionCompiler.compile(new VariableNode("unbound"), 0) instanceof ExpressionCompiler.Interpreted);
+
+    x.setValue(2);
+    y.setValue(2.5);
+    assertEquals(5, ExpressionCompiler.compile(rateOf, 0).evaluate(), 0);
+    assertSameValue(delay);
+    assertSameValue(node(Type.PLUS, rateOf, delay, x));
+  }
+
+  @Test
+  public void testReversePropensity()
+  {
+    ReactionNode reaction = new ReactionNode("r");
+    reaction.createState(StateType.SCALAR, null);
+    reaction.setForwardRate(node(Type.TIMES, new NumberNode(2), x));
+    reaction.setReverseRate(node(Type.TIMES, new NumberNode(3), y));
+    x.setValue(5);
+    y.setValue(7);
+    assertTrue(reaction.computePropensity(0));
+    assertEquals(31, reaction.getValue(0), 0);
+    assertTrue(!reaction.computePropensity(0));
+    y.setValue(1);
+    assertTrue(reaction.computePropensity(0));
+    assertEquals(13, reaction.getValue(0), 0);
+  }
+}
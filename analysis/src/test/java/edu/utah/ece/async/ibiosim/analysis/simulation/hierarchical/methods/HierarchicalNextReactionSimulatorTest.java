@@ -0,0 +1,153 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalTestModels;
+
+/**
+ * Compares the next reaction method with the exact mean of a birth-death process, and with
+ * the direct method on a reversible conversion and on a model with rate rules.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class HierarchicalNextReactionSimulatorTest
+{
+
+  private static final int RUNS = 400;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private double[] means(HierarchicalSimulationRunner runner, String[] species) throws Exception
+  {
+    double[] sums = new double[species.length];
+    for (int run = 1; run <= RUNS; run++)
+    {
+      runner.run(run);
+      for (int i = 0; i < species.length; i++)
+      {
+        sums[i] += runner.get(species[i]);
+      }
+    }
+    for (int i = 0; i < species.length; i++)
+    {
+      sums[i] /= RUNS;
+    }
+    return sums;
+  }
+
+  private interface HierarchicalSimulationRunner
+  {
+    void run(int run) throws Exception;
+
+    double get(String species);
+  }
+
+  private HierarchicalSimulationRunner nextReaction(String filename, double maxTimeStep) throws Exception
+  {
+    String directory = folder.getRoot().getAbsolutePath();
+    final HierarchicalNextReactionSimulator sim = new HierarchicalNextReactionSimulator(filename, directory, directory, RUNS, 10, maxTimeStep, 0, 5, 1, 1, new String[0], "amount", 0, 0, false);
+    return new HierarchicalSimulationRunner()
+    {
+      @Override
+      public void run(int run) throws Exception
+      {
+        if (run > 1)
+        {
+          sim.setupForNewRun(run);
+        }
+        sim.simulate();
+      }
+
+      @Override
+      public double get(String species)
+      {
+        return sim.getTopLevelValue(species);
+      }
+    };
+  }
+
+  private HierarchicalSimulationRunner direct(String filename, double maxTimeStep) throws Exception
+  {
+    String directory = folder.getRoot().getAbsolutePath();
+    final HierarchicalSSADirectSimulator sim = new HierarchicalSSADirectSimulator(filename, directory, directory, RUNS, 10, maxTimeStep, 0, 5, 1, 1, new String[0], "amount", 0, 0, false);
+    return new HierarchicalSimulationRunner()
+    {
+      @Override
+      public void run(int run) throws Exception
+      {
+        if (run > 1)
+        {
+          sim.setupForNewRun(run);
+        }
+        sim.simulate();
+      }
+
+      @Override
+      public double get(String species)
+      {
+        return sim.getTopLevelValue(species);
+      }
+    };
+  }
+
+  @Test
+  public void testBirthDeathMean() throws Exception
+  {
+    String filename = HierarchicalTestModels.writeBirthDeath(folder.getRoot());
+    double[] mean = means(nextReaction(filename, Double.POSITIVE_INFINITY), new String[] { "A" });
+    // the standard error of the mean is below 0.4
+    assertEquals(HierarchicalTestModels.birthDeathMean(10), mean[0], 2);
+  }
+
+  @Test
+  public void testMatchesDirectMethod() throws Exception
+  {
+    String filename = HierarchicalTestModels.writeModel(folder.getRoot(), new String[] { "B", "C" }, new double[] { 100, 0 },
+      new String[][] { { "conv", "B", "C", "0.3*B" }, { "back", "C", "B", "0.1*C" } });
+    String[] species = new String[] { "B", "C" };
+    double[] nrm = means(nextReaction(filename, Double.POSITIVE_INFINITY), species);
+    double[] ssa = means(direct(filename, Double.POSITIVE_INFINITY), species);
+    // B + C is conserved; C is binomial with mean 75 * (1 - exp(-4)) and a standard error below 0.25
+    assertEquals(100, nrm[0] + nrm[1], 1e-9);
+    assertEquals(ssa[1], nrm[1], 1.5);
+    assertEquals(75 * (1 - Math.exp(-4)), nrm[1], 1.5);
+  }
+
+  @Test
+  public void testRateRules() throws Exception
+  {
+    String filename = HierarchicalTestModels.writeRateRules(folder.getRoot());
+    String[] species = new String[] { "k", "A", "w" };
+    // A is produced at a rate that only grows between steps, so the steps are bounded
+    double[] nrm = means(nextReaction(filename, 0.01), species);
+    double[] ssa = means(direct(filename, 0.01), species);
+    // k is integrated exactly; A is Poisson with mean 50 and a standard error below 0.4
+    assertEquals(10, nrm[0], 1e-9);
+    assertEquals(10, ssa[0], 1e-9);
+    assertEquals(50, nrm[1], 1.5);
+    assertEquals(ssa[1], nrm[1], 2);
+    // the mean of w is 1000 / 6 with a standard error of about 1
+    assertEquals(1000.0 / 6, nrm[2], 5);
+    assertEquals(ssa[2], nrm[2], 6);
+  }
+}
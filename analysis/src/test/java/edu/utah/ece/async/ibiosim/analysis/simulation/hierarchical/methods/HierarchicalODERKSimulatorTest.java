@@ -0,0 +1,246 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sbml.jsbml.ASTNode;
+import org.sbml.jsbml.AssignmentRule;
+import org.sbml.jsbml.Compartment;
+import org.sbml.jsbml.Model;
+import org.sbml.jsbml.Parameter;
+import org.sbml.jsbml.RateRule;
+import org.sbml.jsbml.Reaction;
+import org.sbml.jsbml.SBMLDocument;
+import org.sbml.jsbml.SBMLWriter;
+import org.sbml.jsbml.Species;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.ode.DerivativeKernel;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.ode.JacobianPattern;
+import edu.utah.ece.async.ibiosim.dataModels.util.observe.CoreObservable;
+
+/**
+ * Checks the rates of change computed by the derivative kernel against the interpreter, and its
+ * Jacobian against central differences of those rates, on a model with nonlinear rate laws,
+ * an assignment rule and a rate rule.
+ *
+ * @author Leandro Watanabe
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class HierarchicalODERKSimulatorTest
+{
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Writes the test model. The production of A has the given rate law added to it.
+   */
+  private String writeModel(String production) throws Exception
+  {
+    SBMLDocument document = new SBMLDocument(3, 1);
+    Model model = document.createModel("test");
+    Compartment compartment = model.createCompartment("c");
+    compartment.setSize(1);
+    compartment.setConstant(true);
+
+    String[] species = { "A", "B", "C" };
+    double[] amounts = { 10, 5, 1 };
+    for (int i = 0; i < species.length; i++)
+    {
+      Species s = model.createSpecies(species[i], compartment);
+      s.setInitialAmount(amounts[i]);
+      s.setHasOnlySubstanceUnits(true);
+      s.setBoundaryCondition(false);
+      s.setConstant(false);
+    }
+
+    String[] constants = { "Vm", "Km", "k1", "k2" };
+    double[] values = { 4, 2, 0.3, 0.05 };
+    for (int i = 0; i < constants.length; i++)
+    {
+      Parameter parameter = model.createParameter(constants[i]);
+      parameter.setValue(values[i]);
+      parameter.setConstant(true);
+    }
+    Parameter p = model.createParameter("p");
+    p.setConstant(false);
+    AssignmentRule assignment = model.createAssignmentRule();
+    assignment.setVariable("p");
+    assignment.setMath(ASTNode.parseFormula("A + 2*B"));
+    Parameter q = model.createParameter("q");
+    q.setValue(1);
+    q.setConstant(false);
+    RateRule rate = model.createRateRule();
+    rate.setVariable("q");
+    rate.setMath(ASTNode.parseFormula("-0.5*q + 0.1*A"));
+
+    createReaction(model, "r1", "A", "B", "Vm*A/(Km + A)");
+    createReaction(model, "r2", "B", "C", "k1*B^2/(1 + B^2)*q");
+    createReaction(model, "r3", "C", "A", "k2*C*p - 0.01*A");
+    createReaction(model, "r4", null, "A", "exp(-0.1*time) + sin(B)/(2 + cos(C))" + production);
+
+    String filename = folder.getRoot().getAbsolutePath() + File.separator + "test.xml";
+    new SBMLWriter().write(document, filename);
+    return filename;
+  }
+
+  private static void createReaction(Model model, String id, String reactant, String product, String formula) throws Exception
+  {
+    Reaction reaction = model.createReaction(id);
+    reaction.setReversible(false);
+    if (reactant != null)
+    {
+      reaction.createReactant(model.getSpecies(reactant)).setStoichiometry(1);
+    }
+    reaction.createProduct(model.getSpecies(product)).setStoichiometry(1);
+    reaction.createKineticLaw().setMath(ASTNode.parseFormula(formula));
+  }
+
+  private HierarchicalODERKSimulator createSimulator(String filename, boolean isStiff) throws Exception
+  {
+    String directory = folder.getRoot().getAbsolutePath();
+    HierarchicalODERKSimulator sim = new HierarchicalODERKSimulator(filename, directory, directory, 1, 10, Double.POSITIVE_INFINITY, 0, 1, 1, new String[0], 0, 1e-8, 1e-10, "amount", 0, 0, false);
+    // the progress messages sent while printing need a parent
+    sim.addObservable(new CoreObservable()
+    {
+    });
+    sim.setStiff(isStiff);
+    sim.initialize(0, 1);
+    return sim;
+  }
+
+  /**
+   * Returns a state near the initial state, with every variable of the pattern moved by a
+   * random amount.
+   */
+  private static double[] randomState(double[] initial, int[] variables, Random random)
+  {
+    double[] y = initial.clone();
+    for (int variable : variables)
+    {
+      y[variable] = y[variable] * (0.5 + random.nextDouble()) + random.nextDouble();
+    }
+    return y;
+  }
+
+  @Test
+  public void testRates() throws Exception
+  {
+    HierarchicalODERKSimulator sim = createSimulator(writeModel(""), false);
+    DerivativeKernel kernel = sim.getDerivativeKernel();
+    assertNotNull(kernel);
+    int[] variables = kernel.getJacobianPattern().getVariables();
+    // A, B, C and q
+    assertEquals(4, variables.length);
+    double[] initial = sim.getState().clone();
+    int n = initial.length;
+
+    Random random = new Random(7);
+    for (int sample = 0; sample < 100; sample++)
+    {
+      double t = 10 * random.nextDouble();
+      double[] y = randomState(initial, variables, random);
+      double[] compiled = new double[n];
+      double[] interpreted = new double[n];
+      kernel.computeDerivatives(t, y.clone(), compiled);
+      sim.interpretDerivatives(t, y.clone(), interpreted);
+      for (int variable : variables)
+      {
+        assertEquals(interpreted[variable], compiled[variable], 1e-12 * Math.max(1, Math.abs(interpreted[variable])));
+      }
+    }
+  }
+
+  @Test
+  public void testJacobian() throws Exception
+  {
+    HierarchicalODERKSimulator sim = createSimulator(writeModel(""), false);
+    DerivativeKernel kernel = sim.getDerivativeKernel();
+    assertTrue(kernel.hasJacobian());
+    JacobianPattern pattern = kernel.getJacobianPattern();
+    int[] variables = pattern.getVariables();
+    int[] columns = pattern.getColumns();
+    int m = variables.length;
+    double[] initial = sim.getState().clone();
+    int n = initial.length;
+
+    Random random = new Random(11);
+    for (int sample = 0; sample < 50; sample++)
+    {
+      double t = 10 * random.nextDouble();
+      double[] y = randomState(initial, variables, random);
+      double[] values = new double[columns.length];
+      assertTrue(kernel.computeJacobian(t, y.clone(), values));
+      double[][] jacobian = new double[m][m];
+      for (int row = 0; row < m; row++)
+      {
+        for (int i = pattern.getRowStart(row); i < pattern.getRowEnd(row); i++)
+        {
+          jacobian[row][columns[i]] = values[i];
+        }
+      }
+
+      for (int column = 0; column < m; column++)
+      {
+        int variable = variables[column];
+        double h = 1e-6 * Math.max(1, Math.abs(y[variable]));
+        double[] yPlus = y.clone(), yMinus = y.clone();
+        yPlus[variable] += h;
+        yMinus[variable] -= h;
+        double[] ratesPlus = new double[n], ratesMinus = new double[n];
+        kernel.computeDerivatives(t, yPlus, ratesPlus);
+        kernel.computeDerivatives(t, yMinus, ratesMinus);
+        for (int row = 0; row < m; row++)
+        {
+          // entries outside the pattern are zero in both
+          double difference = (ratesPlus[variables[row]] - ratesMinus[variables[row]]) / (2 * h);
+          assertEquals("d" + row + "/d" + column, difference, jacobian[row][column], 1e-5 * (1 + Math.abs(difference)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFiniteDifferenceFallback() throws Exception
+  {
+    // the arcsine has no compiled derivative, so the stiff simulator uses finite differences
+    String filename = writeModel(" + arcsin(0.5*tanh(C))");
+    HierarchicalODERKSimulator stiff = createSimulator(filename, true);
+    DerivativeKernel kernel = stiff.getDerivativeKernel();
+    assertNotNull(kernel);
+    assertFalse(kernel.hasJacobian());
+    assertFalse(kernel.computeJacobian(0, stiff.getState().clone(), new double[kernel.getJacobianPattern().getColumns().length]));
+    stiff.simulate();
+
+    HierarchicalODERKSimulator explicit = createSimulator(filename, false);
+    explicit.simulate();
+    for (String id : new String[] { "A", "B", "C", "q" })
+    {
+      double expected = explicit.getTopLevelValue(id);
+      assertEquals(id, expected, stiff.getTopLevelValue(id), 1e-5 * Math.max(1, Math.abs(expected)));
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalSimulation;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalTestModels;
+
+/**
+ * Compares tau-leaping with the exact mean of birth-death processes, one with few molecules,
+ * where most steps are exact, and one with many, where most steps are leaps, and with the
+ * direct method on a model with rate rules.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class HierarchicalTauLeapingSimulatorTest
+{
+
+  private static final int RUNS = 200;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private double[] simulate(String production) throws Exception
+  {
+    String filename = HierarchicalTestModels.writeModel(folder.getRoot(), new String[] { "A" }, new double[] { 0 },
+      new String[][] { { "prod", "", "A", production }, { "deg", "A", "", "0.1*A" } });
+    String directory = folder.getRoot().getAbsolutePath();
+    HierarchicalTauLeapingSimulator sim = new HierarchicalTauLeapingSimulator(filename, directory, directory, RUNS, 10, Double.POSITIVE_INFINITY, 0, 13, 1, 1, new String[0], "amount", 0, 0, 0.03, 10, false);
+
+    double sum = 0;
+    double sumOfSquares = 0;
+    for (int run = 1; run <= RUNS; run++)
+    {
+      if (run > 1)
+      {
+        sim.setupForNewRun(run);
+      }
+      sim.simulate();
+      double value = sim.getTopLevelValue("A");
+      sum += value;
+      sumOfSquares += value * value;
+    }
+    double mean = sum / RUNS;
+    return new double[] { mean, sumOfSquares / RUNS - mean * mean };
+  }
+
+  private static double[] means(HierarchicalSimulation sim, String[] species) throws Exception
+  {
+    double[] sums = new double[species.length];
+    for (int run = 1; run <= RUNS; run++)
+    {
+      if (run > 1)
+      {
+        sim.setupForNewRun(run);
+      }
+      sim.simulate();
+      for (int i = 0; i < species.length; i++)
+      {
+        sums[i] += sim.getTopLevelValue(species[i]);
+      }
+    }
+    for (int i = 0; i < species.length; i++)
+    {
+      sums[i] /= RUNS;
+    }
+    return sums;
+  }
+
+  @Test
+  public void testFewMolecules() throws Exception
+  {
+    double[] moments = simulate("10");
+    // the standard error of the mean is below 0.6
+    assertEquals(HierarchicalTestModels.birthDeathMean(10), moments[0], 2.5);
+  }
+
+  @Test
+  public void testManyMolecules() throws Exception
+  {
+    double[] moments = simulate("1000");
+    double exact = 100 * HierarchicalTestModels.birthDeathMean(10);
+    // the leaps bias the mean by about epsilon; the distribution stays Poisson-like
+    assertEquals(exact, moments[0], 0.015 * exact);
+    assertTrue(moments[1] > 0.5 * exact && moments[1] < 2 * exact);
+  }
+
+  @Test
+  public void testRateRules() throws Exception
+  {
+    String filename = HierarchicalTestModels.writeRateRules(folder.getRoot());
+    String directory = folder.getRoot().getAbsolutePath();
+    String[] species = new String[] { "k", "A", "w" };
+    // the leaps are bounded by the maximum time step, over which the rate rules are integrated
+    double[] tau = means(new HierarchicalTauLeapingSimulator(filename, directory, directory, RUNS, 10, 0.01, 0, 13, 1, 1, new String[0], "amount", 0, 0, 0.03, 10, false), species);
+    double[] ssa = means(new HierarchicalSSADirectSimulator(filename, directory, directory, RUNS, 10, 0.01, 0, 13, 1, 1, new String[0], "amount", 0, 0, false), species);
+    // k is integrated exactly; A is Poisson with mean 50 and a standard error below 0.6
+    assertEquals(10, tau[0], 1e-9);
+    assertEquals(50, tau[1], 2.5);
+    assertEquals(ssa[1], tau[1], 3);
+    // the mean of w is 1000 / 6 with a standard error of about 1.5
+    assertEquals(1000.0 / 6, tau[2], 7);
+    assertEquals(ssa[2], tau[2], 8);
+  }
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalTestModels;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ReactionNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods.HierarchicalSSADirectSimulator;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.setup.DependencySetup;
+
+/**
+ * Checks the reaction dependency graph against the propensities computed by the
+ * interpreter, and the direct method that uses it against the exact mean of a
+ * birth-death process.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class DependencyGraphTest
+{
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private HierarchicalSSADirectSimulator createSimulator(String filename, int runs) throws Exception
+  {
+    String directory = folder.getRoot().getAbsolutePath();
+    return new HierarchicalSSADirectSimulator(filename, directory, directory, runs, 10, Double.POSITIVE_INFINITY, 0, 7, 1, 1, new String[0], "amount", 0, 0, false);
+  }
+
+  private String writeModel() throws Exception
+  {
+    return HierarchicalTestModels.writeModel(folder.getRoot(), new String[] { "A", "B", "C" }, new double[] { 5, 50, 0 },
+      new String[][] { { "prod", "", "A", "10" }, { "deg", "A", "", "0.1*A" }, { "conv", "B", "C", "0.3*B" }, { "back", "C", "B", "0.2*C" } });
+  }
+
+  private static int find(DependencyGraph graph, String name)
+  {
+    for (int reaction = 0; reaction < graph.getNumOfReactions(); reaction++)
+    {
+      if (graph.getReaction(reaction).getName().equals(name))
+      {
+        return reaction;
+      }
+    }
+    throw new IllegalArgumentException(name);
+  }
+
+  private static boolean isDependent(DependencyGraph graph, int fired, int reaction)
+  {
+    for (int i = graph.getDependentStart(fired); i < graph.getDependentEnd(fired); i++)
+    {
+      if (graph.getDependents()[i] == reaction)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void testDependents() throws Exception
+  {
+    HierarchicalSSADirectSimulator sim = createSimulator(writeModel(), 1);
+    sim.initialize(7, 1);
+    DependencyGraph graph = DependencySetup.setupDependencies(sim);
+
+    int prod = find(graph, "prod");
+    int deg = find(graph, "deg");
+    int conv = find(graph, "conv");
+    int back = find(graph, "back");
+
+    assertTrue(isDependent(graph, prod, deg));
+    assertTrue(isDependent(graph, deg, deg));
+    assertFalse(isDependent(graph, prod, conv));
+    assertFalse(isDependent(graph, deg, back));
+    assertTrue(isDependent(graph, conv, conv));
+    assertTrue(isDependent(graph, conv, back));
+    assertFalse(isDependent(graph, back, deg));
+  }
+
+  @Test
+  public void testIncrementalUpdate() throws Exception
+  {
+    HierarchicalSSADirectSimulator sim = createSimulator(writeModel(), 1);
+    sim.initialize(7, 1);
+    DependencyGraph graph = DependencySetup.setupDependencies(sim);
+    graph.computeAll();
+
+    Random random = new Random(11);
+    for (int step = 0; step < 1000; step++)
+    {
+      int fired = random.nextInt(graph.getNumOfReactions());
+      if (graph.getPropensity(fired) == 0)
+      {
+        continue;
+      }
+      graph.getReaction(fired).fireReaction(graph.getIndex(fired), 0);
+      graph.update(fired);
+
+      double total = 0;
+      for (int reaction = 0; reaction < graph.getNumOfReactions(); reaction++)
+      {
+        double incremental = graph.getPropensity(reaction);
+        ReactionNode node = graph.getReaction(reaction);
+        node.computePropensity(graph.getIndex(reaction));
+        assertEquals(node.getName(), node.getValue(graph.getIndex(reaction)), incremental, 1e-9);
+        total += incremental;
+      }
+      assertEquals(total, graph.getTotalPropensity(), 1e-6);
+    }
+  }
+
+  @Test
+  public void testDirectMethodMean() throws Exception
+  {
+    int runs = 400;
+    HierarchicalSSADirectSimulator sim = createSimulator(HierarchicalTestModels.writeBirthDeath(folder.getRoot()), runs);
+    double sum = 0;
+    for (int run = 1; run <= runs; run++)
+    {
+      if (run > 1)
+      {
+        sim.setupForNewRun(run);
+      }
+      sim.simulate();
+      sum += sim.getTopLevelValue("A");
+    }
+    // the standard error of the mean is below 0.4
+    assertEquals(HierarchicalTestModels.birthDeathMean(10), sum / runs, 2);
+  }
+}
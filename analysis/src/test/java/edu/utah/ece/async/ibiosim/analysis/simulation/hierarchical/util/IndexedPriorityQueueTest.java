@@ -0,0 +1,79 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the indexed priority queue against a linear search for the smallest time.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class IndexedPriorityQueueTest
+{
+
+  @Test
+  public void testEmptyQueue()
+  {
+    IndexedPriorityQueue queue = new IndexedPriorityQueue(0);
+    assertEquals(Double.POSITIVE_INFINITY, queue.peekTime(), 0);
+  }
+
+  @Test
+  public void testClear()
+  {
+    IndexedPriorityQueue queue = new IndexedPriorityQueue(4);
+    queue.update(2, 1.5);
+    assertEquals(2, queue.peek());
+    queue.clear();
+    for (int element = 0; element < queue.size(); element++)
+    {
+      assertEquals(Double.POSITIVE_INFINITY, queue.getTime(element), 0);
+    }
+  }
+
+  @Test
+  public void testRandomUpdates()
+  {
+    Random random = new Random(3);
+    int size = 37;
+    IndexedPriorityQueue queue = new IndexedPriorityQueue(size);
+    double[] times = new double[size];
+    Arrays.fill(times, Double.POSITIVE_INFINITY);
+
+    for (int step = 0; step < 5000; step++)
+    {
+      int element = random.nextInt(size);
+      double time = random.nextInt(10) == 0 ? Double.POSITIVE_INFINITY : random.nextDouble() * 100;
+      queue.update(element, time);
+      times[element] = time;
+
+      double min = Double.POSITIVE_INFINITY;
+      for (double t : times)
+      {
+        min = Math.min(min, t);
+      }
+      assertEquals(min, queue.peekTime(), 0);
+      assertEquals(min, times[queue.peek()], 0);
+      assertEquals(time, queue.getTime(element), 0);
+    }
+  }
+}
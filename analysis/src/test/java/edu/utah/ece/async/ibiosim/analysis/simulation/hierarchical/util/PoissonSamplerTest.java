@@ -0,0 +1,90 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.apache.commons.math3.distribution.PoissonDistribution;
+import org.junit.Test;
+
+/**
+ * Compares the samples of the Poisson sampler with the moments and the probabilities of
+ * the Poisson distribution, on both sides of the switch from inversion to rejection.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class PoissonSamplerTest
+{
+
+  private static final int SAMPLES = 200000;
+
+  private static void checkDistribution(double mean)
+  {
+    PoissonSampler sampler = new PoissonSampler(new Random(17));
+    PoissonDistribution distribution = new PoissonDistribution(mean);
+    int mode = (int) Math.floor(mean);
+
+    double sum = 0;
+    double sumOfSquares = 0;
+    int atMode = 0;
+    for (int i = 0; i < SAMPLES; i++)
+    {
+      int k = sampler.sample(mean);
+      sum += k;
+      sumOfSquares += (double) k * k;
+      if (k == mode)
+      {
+        atMode++;
+      }
+    }
+
+    double sampleMean = sum / SAMPLES;
+    double sampleVariance = sumOfSquares / SAMPLES - sampleMean * sampleMean;
+    double standardError = Math.sqrt(mean / SAMPLES);
+    assertEquals("mean " + mean, mean, sampleMean, 5 * standardError);
+    assertEquals("variance " + mean, mean, sampleVariance, 0.03 * mean);
+
+    double p = distribution.probability(mode);
+    assertEquals("P(" + mode + ") " + mean, p, (double) atMode / SAMPLES, 5 * Math.sqrt(p * (1 - p) / SAMPLES));
+  }
+
+  @Test
+  public void testNonPositiveMean()
+  {
+    PoissonSampler sampler = new PoissonSampler(new Random(1));
+    assertEquals(0, sampler.sample(0));
+    assertEquals(0, sampler.sample(-1));
+    assertEquals(0, sampler.sample(Double.NaN));
+  }
+
+  @Test
+  public void testInversion()
+  {
+    checkDistribution(0.3);
+    checkDistribution(4.5);
+    checkDistribution(PoissonSampler.INVERSION_LIMIT - 0.1);
+  }
+
+  @Test
+  public void testRejection()
+  {
+    checkDistribution(PoissonSampler.INVERSION_LIMIT);
+    checkDistribution(37.2);
+    checkDistribution(5000);
+  }
+}
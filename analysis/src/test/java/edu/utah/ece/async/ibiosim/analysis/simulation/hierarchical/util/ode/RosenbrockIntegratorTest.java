@@ -0,0 +1,241 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.ode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
+import org.apache.commons.math3.ode.events.EventHandler;
+import org.apache.commons.math3.ode.nonstiff.DormandPrince54Integrator;
+import org.junit.Test;
+
+/**
+ * Checks the Rosenbrock integrator on stiff problems with known solutions, with the Jacobian
+ * computed by finite differences over dense and sparse patterns and by a Jacobian function.
+ *
+ * @author Leandro Watanabe
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class RosenbrockIntegratorTest
+{
+
+  /**
+   * The chemical kinetics problem of Robertson, with rate constants that differ by nine orders
+   * of magnitude.
+   */
+  private static class Robertson implements FirstOrderDifferentialEquations, JacobianFunction
+  {
+
+    private final JacobianPattern pattern = JacobianPattern.createDense(3);
+
+    private int evaluations;
+
+    @Override
+    public int getDimension()
+    {
+      return 3;
+    }
+
+    @Override
+    public void computeDerivatives(double t, double[] y, double[] yDot)
+    {
+      evaluations++;
+      yDot[0] = -0.04 * y[0] + 1e4 * y[1] * y[2];
+      yDot[2] = 3e7 * y[1] * y[1];
+      yDot[1] = -yDot[0] - yDot[2];
+    }
+
+    @Override
+    public JacobianPattern getJacobianPattern()
+    {
+      return pattern;
+    }
+
+    @Override
+    public boolean computeJacobian(double t, double[] y, double[] jacobian)
+    {
+      double[][] dense = {
+        { -0.04, 1e4 * y[2], 1e4 * y[1] },
+        { 0.04, -1e4 * y[2] - 6e7 * y[1], -1e4 * y[1] },
+        { 0, 6e7 * y[1], 0 } };
+      int[] columns = pattern.getColumns();
+      for (int row = 0; row < 3; row++)
+      {
+        for (int i = pattern.getRowStart(row); i < pattern.getRowEnd(row); i++)
+        {
+          jacobian[i] = dense[row][columns[i]];
+        }
+      }
+      return true;
+    }
+  }
+
+  private static void checkRobertson(double[] y)
+  {
+    // reference solution at t = 40 from Hairer and Wanner
+    assertEquals(0.7158270687193941, y[0], 1e-5);
+    assertEquals(9.185534764557338e-06, y[1], 1e-8);
+    assertEquals(0.2841637457452413, y[2], 1e-5);
+    assertEquals(1, y[0] + y[1] + y[2], 1e-9);
+  }
+
+  @Test
+  public void testRobertson()
+  {
+    Robertson ode = new Robertson();
+    double[] y = new double[3];
+    RosenbrockIntegrator integrator = new RosenbrockIntegrator(1e-12, 40, 1e-10, 1e-6);
+    integrator.integrate(ode, 0, new double[] { 1, 0, 0 }, 40, y);
+    checkRobertson(y);
+    int finiteDifferenceEvaluations = ode.evaluations;
+
+    ode.evaluations = 0;
+    integrator.setJacobianFunction(ode);
+    integrator.integrate(ode, 0, new double[] { 1, 0, 0 }, 40, y);
+    checkRobertson(y);
+    assertTrue(ode.evaluations < finiteDifferenceEvaluations);
+
+    // an explicit method is held to the time scale of the fast reaction
+    ode.evaluations = 0;
+    new DormandPrince54Integrator(1e-12, 40, 1e-10, 1e-6).integrate(ode, 0, new double[] { 1, 0, 0 }, 40, y);
+    assertTrue(ode.evaluations > 10 * finiteDifferenceEvaluations);
+  }
+
+  @Test
+  public void testProtheroRobinson()
+  {
+    // the solution cos(t) attracts every other solution with rate 1e6
+    FirstOrderDifferentialEquations ode = new FirstOrderDifferentialEquations()
+    {
+      @Override
+      public int getDimension()
+      {
+        return 1;
+      }
+
+      @Override
+      public void computeDerivatives(double t, double[] y, double[] yDot)
+      {
+        yDot[0] = -1e6 * (y[0] - Math.cos(t)) - Math.sin(t);
+      }
+    };
+    double[] y = new double[1];
+    RosenbrockIntegrator integrator = new RosenbrockIntegrator(1e-12, 10, 1e-6, 1e-6);
+    integrator.integrate(ode, 0, new double[] { 1 }, 10, y);
+    assertEquals(Math.cos(10), y[0], 1e-5);
+    // the steps follow cos(t), while an explicit method would need steps below 1e-6
+    assertTrue(integrator.getEvaluations() < 20000);
+  }
+
+  @Test
+  public void testSparsePattern()
+  {
+    // independent decays to one with rates from 1 to 1e6, and a last entry of the state vector
+    // that is not a variable of the pattern, so it isn't integrated
+    final int size = 40;
+    final double[] rates = new double[size];
+    int[] variables = new int[size];
+    List<int[]> rowColumns = new ArrayList<int[]>();
+    for (int i = 0; i < size; i++)
+    {
+      rates[i] = Math.pow(10, i % 7);
+      variables[i] = i;
+      rowColumns.add(new int[] { i });
+    }
+    JacobianPattern pattern = new JacobianPattern(variables, rowColumns, false);
+    assertEquals(1, pattern.getNumOfGroups());
+
+    FirstOrderDifferentialEquations ode = new FirstOrderDifferentialEquations()
+    {
+      @Override
+      public int getDimension()
+      {
+        return size + 1;
+      }
+
+      @Override
+      public void computeDerivatives(double t, double[] y, double[] yDot)
+      {
+        for (int i = 0; i < size; i++)
+        {
+          yDot[i] = -rates[i] * (y[i] - 1);
+        }
+        yDot[size] = 1;
+      }
+    };
+    double[] y = new double[size + 1];
+    RosenbrockIntegrator integrator = new RosenbrockIntegrator(1e-12, 2, 1e-10, 1e-8);
+    integrator.setJacobianPattern(pattern);
+    integrator.integrate(ode, 0, new double[size + 1], 2, y);
+    for (int i = 0; i < size; i++)
+    {
+      assertEquals(1 - Math.exp(-2 * rates[i]), y[i], 1e-6);
+    }
+    assertEquals(0, y[size], 0);
+  }
+
+  @Test
+  public void testEvent()
+  {
+    FirstOrderDifferentialEquations ode = new FirstOrderDifferentialEquations()
+    {
+      @Override
+      public int getDimension()
+      {
+        return 1;
+      }
+
+      @Override
+      public void computeDerivatives(double t, double[] y, double[] yDot)
+      {
+        yDot[0] = -y[0];
+      }
+    };
+    RosenbrockIntegrator integrator = new RosenbrockIntegrator(1e-12, 10, 1e-10, 1e-10);
+    integrator.addEventHandler(new EventHandler()
+    {
+      @Override
+      public void init(double t0, double[] y0, double t)
+      {
+      }
+
+      @Override
+      public double g(double t, double[] y)
+      {
+        return y[0] - 0.5;
+      }
+
+      @Override
+      public Action eventOccurred(double t, double[] y, boolean increasing)
+      {
+        return Action.STOP;
+      }
+
+      @Override
+      public void resetState(double t, double[] y)
+      {
+      }
+    }, 1, 1e-12, 100);
+    double[] y = new double[1];
+    double time = integrator.integrate(ode, 0, new double[] { 1 }, 10, y);
+    assertEquals(Math.log(2), time, 1e-9);
+    assertEquals(0.5, y[0], 1e-8);
+  }
+}
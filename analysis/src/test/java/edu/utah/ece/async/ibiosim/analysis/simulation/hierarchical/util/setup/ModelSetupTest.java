@@ -0,0 +1,137 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.util.setup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalTestModels;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.ReactionNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.SpeciesReferenceNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.math.VariableNode;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods.HierarchicalSSADirectSimulator;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.model.HierarchicalModel;
+
+/**
+ * Checks that the submodels instantiating one external model definition, whose file is parsed
+ * once per setup, are set up identically, each with its own nodes and values.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class ModelSetupTest
+{
+
+  private static final int INSTANCES = 4;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static List<String> getNames(List<? extends VariableNode> nodes)
+  {
+    List<String> names = new ArrayList<String>();
+    for (VariableNode node : nodes)
+    {
+      names.add(node.getName());
+    }
+    return names;
+  }
+
+  private static List<String> getSpecies(List<SpeciesReferenceNode> references, int index)
+  {
+    List<String> names = new ArrayList<String>();
+    if (references == null)
+    {
+      return names;
+    }
+    for (SpeciesReferenceNode reference : references)
+    {
+      names.add(reference.getSpecies().getName() + " " + reference.getStoichiometry(index));
+    }
+    return names;
+  }
+
+  private static void checkIdentical(HierarchicalModel expected, HierarchicalModel model)
+  {
+    int expectedIndex = expected.getIndex();
+    int index = model.getIndex();
+    assertNotEquals(expectedIndex, index);
+
+    assertEquals(getNames(expected.getListOfVariables()), getNames(model.getListOfVariables()));
+    for (int i = 0; i < expected.getListOfVariables().size(); i++)
+    {
+      VariableNode expectedNode = expected.getListOfVariables().get(i);
+      VariableNode node = model.getListOfVariables().get(i);
+      assertNotSame(expectedNode, node);
+      assertEquals(expectedNode.getName(), expectedNode.getValue(expectedIndex), node.getValue(index), 0);
+    }
+
+    assertEquals(getNames(expected.getReactions()), getNames(model.getReactions()));
+    for (int i = 0; i < expected.getReactions().size(); i++)
+    {
+      ReactionNode expectedReaction = expected.getReactions().get(i);
+      ReactionNode reaction = model.getReactions().get(i);
+      assertNotSame(expectedReaction, reaction);
+      assertEquals(getSpecies(expectedReaction.getReactants(), expectedIndex), getSpecies(reaction.getReactants(), index));
+      assertEquals(getSpecies(expectedReaction.getProducts(), expectedIndex), getSpecies(reaction.getProducts(), index));
+      expectedReaction.computePropensity(expectedIndex);
+      reaction.computePropensity(index);
+      assertEquals(expectedReaction.getName(), expectedReaction.getValue(expectedIndex), reaction.getValue(index), 0);
+    }
+  }
+
+  @Test
+  public void testExternalInstances() throws Exception
+  {
+    String filename = HierarchicalTestModels.writeSubmodels(folder.getRoot(), INSTANCES);
+    String directory = folder.getRoot().getAbsolutePath();
+    HierarchicalSSADirectSimulator sim = new HierarchicalSSADirectSimulator(filename, directory, directory, 1, 10, Double.POSITIVE_INFINITY, 0, 7, 1, 1, new String[0], "amount", 0, 0, false);
+    sim.initialize(7, 1);
+
+    Map<String, HierarchicalModel> submodels = new HashMap<String, HierarchicalModel>();
+    for (HierarchicalModel model : sim.getListOfHierarchicalModels())
+    {
+      submodels.put(model.getID(), model);
+    }
+    assertEquals(INSTANCES + 1, submodels.size());
+    HierarchicalModel first = submodels.get("s1");
+    assertTrue(first.containsNode("A"));
+    assertEquals(2, first.getReactions().size());
+    for (int i = 2; i <= INSTANCES; i++)
+    {
+      checkIdentical(first, submodels.get("s" + i));
+    }
+
+    // the instances have their own values, so changing one leaves the others as they were
+    HierarchicalModel second = submodels.get("s2");
+    first.getNode("A").setValue(first.getIndex(), 5);
+    assertEquals(0, second.getNode("A").getValue(second.getIndex()), 0);
+    ReactionNode degradation = first.getReactions().get(getNames(first.getReactions()).indexOf("deg"));
+    degradation.computePropensity(first.getIndex());
+    assertEquals(0.5, degradation.getValue(first.getIndex()), 1e-12);
+    checkIdentical(submodels.get("s3"), second);
+  }
+}
@@ -69,6 +69,7 @@ import de.erichseifert.vectorgraphics2d.util.PageSize;
 import edu.utah.ece.async.ibiosim.dataModels.util.GlobalConstants;
 import edu.utah.ece.async.ibiosim.dataModels.util.Message;
 import edu.utah.ece.async.ibiosim.dataModels.util.SEDMLutilities;
+import edu.utah.ece.async.ibiosim.dataModels.util.dataparser.BTSDParser;
 import edu.utah.ece.async.ibiosim.dataModels.util.dataparser.CSVParser;
 import edu.utah.ece.async.ibiosim.dataModels.util.dataparser.DTSDParser;
 import edu.utah.ece.async.ibiosim.dataModels.util.dataparser.DataParser;
@@ -123,6 +124,8 @@ public class GraphData extends CoreObservable {
 
 	public final static String DAT_DATA_TYPE = "dat.printer";
 	
+	public final static String BTSD_DATA_TYPE = "btsd.printer";
+	
 	public final static int JPG_FILE_TYPE = 0;
 	
 	public final static int PNG_FILE_TYPE = 1;
@@ -766,6 +769,12 @@ public class GraphData extends CoreObservable {
 			graphSpecies = dtsdParser.getSpecies();
 			data = dtsdParser.getData();
 		}
+		else if (file.endsWith(".btsd")) {
+			BTSDParser b = new BTSDParser(file, warn);
+			warn = b.getWarning();
+			graphSpecies = b.getSpecies();
+			data = b.getData();
+		}
 		else if(file.endsWith(".csv"))
 		{
 		  c = new CSVParser(file, warn);
@@ -1028,6 +1037,10 @@ public class GraphData extends CoreObservable {
 		if (file.contains(".dtsd"))
 		{
       graphSpecies = (new DTSDParser(file)).getSpecies();
+		}
+		else if (file.endsWith(".btsd"))
+		{
+      graphSpecies = new BTSDParser(file, true).getSpecies();
 		}
 		else if(file.endsWith(".csv"))
     {
@@ -1169,15 +1182,15 @@ public class GraphData extends CoreObservable {
 						}
 						if (!ableToGraph) {
 							if (g.getRunNumber().equals("Average")
-									&& new File(outDir + File.separator + "mean" + "." + printer_id.substring(0, printer_id.length() - 8)).exists()) {
+									&& new File(outDir + File.separator + "mean.tsd").exists()) {
 								ableToGraph = true;
 							}
 							else if (g.getRunNumber().equals("Variance")
-									&& new File(outDir + File.separator + "variance" + "." + printer_id.substring(0, printer_id.length() - 8)).exists()) {
+									&& new File(outDir + File.separator + "variance.tsd").exists()) {
 								ableToGraph = true;
 							}
 							else if (g.getRunNumber().equals("Standard Deviation")
-									&& new File(outDir + File.separator + "standard_deviation" + "." + printer_id.substring(0, printer_id.length() - 8))
+									&& new File(outDir + File.separator + "standard_deviation.tsd")
 											.exists()) {
 								ableToGraph = true;
 							}
@@ -1205,19 +1218,17 @@ public class GraphData extends CoreObservable {
 							if (allData.containsKey(g.getRunNumber() + " " + g.getDirectory())) {
 								data = allData.get(g.getRunNumber() + " " + g.getDirectory());
 								if (g.getRunNumber().equals("Average")
-										&& new File(outDir + File.separator + "mean" + "." + printer_id.substring(0, printer_id.length() - 8)).exists()) {
-									readGraphSpecies(outDir + File.separator + "mean" + "." + printer_id.substring(0, printer_id.length() - 8));
+										&& new File(outDir + File.separator + "mean.tsd").exists()) {
+									readGraphSpecies(outDir + File.separator + "mean.tsd");
 								}
 								else if (g.getRunNumber().equals("Variance")
-										&& new File(outDir + File.separator + "variance" + "." + printer_id.substring(0, printer_id.length() - 8),null)
+										&& new File(outDir + File.separator + "variance.tsd")
 												.exists()) {
-									readGraphSpecies(outDir + File.separator + "variance" + "." + printer_id.substring(0, printer_id.length() - 8));
+									readGraphSpecies(outDir + File.separator + "variance.tsd");
 								}
 								else if (g.getRunNumber().equals("Standard Deviation")
-										&& new File(outDir + File.separator + "standard_deviation" + "."
-												+ printer_id.substring(0, printer_id.length() - 8)).exists()) {
-									readGraphSpecies(outDir + File.separator + "standard_deviation" + "."
-											+ printer_id.substring(0, printer_id.length() - 8));
+										&& new File(outDir + File.separator + "standard_deviation.tsd").exists()) {
+									readGraphSpecies(outDir + File.separator + "standard_deviation.tsd");
 								}
 								else if (g.getRunNumber().equals("Termination Time")
 										&& new File(outDir + File.separator + "term-time" + "." + printer_id.substring(0, printer_id.length() - 8))
@@ -1256,20 +1267,19 @@ public class GraphData extends CoreObservable {
 							}
 							else {
 								if (g.getRunNumber().equals("Average")
-										&& new File(outDir + File.separator + "mean" + "." + printer_id.substring(0, printer_id.length() - 8)).exists()) {
-									data = readData(outDir + File.separator + "mean." + printer_id.substring(0, printer_id.length() - 8), g.getRunNumber()
+										&& new File(outDir + File.separator + "mean.tsd").exists()) {
+									data = readData(outDir + File.separator + "mean.tsd", g.getRunNumber()
 											.toLowerCase(), null, false);
 								}
 								else if (g.getRunNumber().equals("Variance")
-										&& new File(outDir + File.separator + "variance" + "." + printer_id.substring(0, printer_id.length() - 8))
+										&& new File(outDir + File.separator + "variance.tsd")
 												.exists()) {
-									data = readData(outDir + File.separator + "variance." + printer_id.substring(0, printer_id.length() - 8), g
+									data = readData(outDir + File.separator + "variance.tsd", g
 											.getRunNumber().toLowerCase(), null, false);
 								}
 								else if (g.getRunNumber().equals("Standard Deviation")
-										&& new File(outDir + File.separator + "standard_deviation" + "."
-												+ printer_id.substring(0, printer_id.length() - 8)).exists()) {
-									data = readData(outDir + File.separator + "standard_deviation." + printer_id.substring(0, printer_id.length() - 8), g
+										&& new File(outDir + File.separator + "standard_deviation.tsd").exists()) {
+									data = readData(outDir + File.separator + "standard_deviation.tsd", g
 											.getRunNumber().toLowerCase(), null, false);
 								}
 								else if (g.getRunNumber().equals("Termination Time")
@@ -1443,18 +1453,15 @@ public class GraphData extends CoreObservable {
 						}
 						if (!ableToGraph) {
 							if (g.getRunNumber().equals("Average")
-									&& new File(outDir + File.separator + g.getDirectory() + File.separator + "mean" + "."
-											+ printer_id.substring(0, printer_id.length() - 8)).exists()) {
+									&& new File(outDir + File.separator + g.getDirectory() + File.separator + "mean.tsd").exists()) {
 								ableToGraph = true;
 							}
 							else if (g.getRunNumber().equals("Variance")
-									&& new File(outDir + File.separator + g.getDirectory() + File.separator + "variance" + "."
-											+ printer_id.substring(0, printer_id.length() - 8)).exists()) {
+									&& new File(outDir + File.separator + g.getDirectory() + File.separator + "variance.tsd").exists()) {
 								ableToGraph = true;
 							}
 							else if (g.getRunNumber().equals("Standard Deviation")
-									&& new File(outDir + File.separator + g.getDirectory() + File.separator + "standard_deviation" + "."
-											+ printer_id.substring(0, printer_id.length() - 8)).exists()) {
+									&& new File(outDir + File.separator + g.getDirectory() + File.separator + "standard_deviation.tsd").exists()) {
 								ableToGraph = true;
 							}
 							else if (g.getRunNumber().equals("Termination Time")
@@ -1484,22 +1491,16 @@ public class GraphData extends CoreObservable {
 							if (allData.containsKey(g.getRunNumber() + " " + g.getDirectory())) {
 								data = allData.get(g.getRunNumber() + " " + g.getDirectory());
 								if (g.getRunNumber().equals("Average")
-										&& new File(outDir + File.separator + g.getDirectory() + File.separator + "mean" + "."
-												+ printer_id.substring(0, printer_id.length() - 8)).exists()) {
-									readGraphSpecies(outDir + File.separator + g.getDirectory() + File.separator + "mean" + "."
-											+ printer_id.substring(0, printer_id.length() - 8));
+										&& new File(outDir + File.separator + g.getDirectory() + File.separator + "mean.tsd").exists()) {
+									readGraphSpecies(outDir + File.separator + g.getDirectory() + File.separator + "mean.tsd");
 								}
 								else if (g.getRunNumber().equals("Variance")
-										&& new File(outDir + File.separator + g.getDirectory() + File.separator + "variance" + "."
-												+ printer_id.substring(0, printer_id.length() - 8)).exists()) {
-									readGraphSpecies(outDir + File.separator + g.getDirectory() + File.separator + "variance" + "."
-											+ printer_id.substring(0, printer_id.length() - 8));
+										&& new File(outDir + File.separator + g.getDirectory() + File.separator + "variance.tsd").exists()) {
+									readGraphSpecies(outDir + File.separator + g.getDirectory() + File.separator + "variance.tsd");
 								}
 								else if (g.getRunNumber().equals("Standard Deviation")
-										&& new File(outDir + File.separator + g.getDirectory() + File.separator + "standard_deviation" + "."
-												+ printer_id.substring(0, printer_id.length() - 8)).exists()) {
-									readGraphSpecies(outDir + File.separator + g.getDirectory() + File.separator + "standard_deviation" + "."
-											+ printer_id.substring(0, printer_id.length() - 8));
+										&& new File(outDir + File.separator + g.getDirectory() + File.separator + "standard_deviation.tsd").exists()) {
+									readGraphSpecies(outDir + File.separator + g.getDirectory() + File.separator + "standard_deviation.tsd");
 								}
 								else if (g.getRunNumber().equals("Termination Time")
 										&& new File(outDir + File.separator + g.getDirectory() + File.separator + "term-time" + "."
@@ -1545,25 +1546,19 @@ public class GraphData extends CoreObservable {
 							}
 							else {
 								if (g.getRunNumber().equals("Average")
-										&& new File(outDir + File.separator + g.getDirectory() + File.separator + "mean" + "."
-												+ printer_id.substring(0, printer_id.length() - 8)).exists()) {
+										&& new File(outDir + File.separator + g.getDirectory() + File.separator + "mean.tsd").exists()) {
 									data = readData(
-											outDir + File.separator + g.getDirectory() + File.separator + "mean."
-													+ printer_id.substring(0, printer_id.length() - 8), g.getRunNumber().toLowerCase(), null, false);
+											outDir + File.separator + g.getDirectory() + File.separator + "mean.tsd", g.getRunNumber().toLowerCase(), null, false);
 								}
 								else if (g.getRunNumber().equals("Variance")
-										&& new File(outDir + File.separator + g.getDirectory() + File.separator + "variance" + "."
-												+ printer_id.substring(0, printer_id.length() - 8)).exists()) {
+										&& new File(outDir + File.separator + g.getDirectory() + File.separator + "variance.tsd").exists()) {
 									data = readData(
-											outDir + File.separator + g.getDirectory() + File.separator + "variance."
-													+ printer_id.substring(0, printer_id.length() - 8), g.getRunNumber().toLowerCase(), null, false);
+											outDir + File.separator + g.getDirectory() + File.separator + "variance.tsd", g.getRunNumber().toLowerCase(), null, false);
 								}
 								else if (g.getRunNumber().equals("Standard Deviation")
-										&& new File(outDir + File.separator + g.getDirectory() + File.separator + "standard_deviation" + "."
-												+ printer_id.substring(0, printer_id.length() - 8)).exists()) {
+										&& new File(outDir + File.separator + g.getDirectory() + File.separator + "standard_deviation.tsd").exists()) {
 									data = readData(
-											outDir + File.separator + g.getDirectory() + File.separator + "standard_deviation."
-													+ printer_id.substring(0, printer_id.length() - 8), g.getRunNumber().toLowerCase(), null, false);
+											outDir + File.separator + g.getDirectory() + File.separator + "standard_deviation.tsd", g.getRunNumber().toLowerCase(), null, false);
 								}
 								else if (g.getRunNumber().equals("Termination Time")
 										&& new File(outDir + File.separator + g.getDirectory() + File.separator + "term-time" + "."
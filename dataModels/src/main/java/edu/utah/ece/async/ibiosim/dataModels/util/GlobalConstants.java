@@ -276,6 +276,8 @@ public class GlobalConstants {
 	public static final String KISAO_GILLESPIE = "KISAO:0000241";
 	public static final String KISAO_GILLESPIE_DIRECT = "KISAO:0000029";
 	public static final String KISAO_SSA_CR = "KISAO:0000329";
+	public static final String KISAO_GIBSON_BRUCK = "KISAO:0000027";
+	public static final String KISAO_TAU_LEAPING = "KISAO:0000039";
 	public static final String KISAO_EULER = "KISAO:0000030";
 	public static final String KISAO_RUNGE_KUTTA_FEHLBERG = "KISAO:0000086";
 	public static final String KISAO_RUNGE_KUTTA_PRINCE_DORMAND = "KISAO:0000087";
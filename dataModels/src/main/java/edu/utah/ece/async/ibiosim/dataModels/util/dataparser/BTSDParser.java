@@ -0,0 +1,109 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.dataModels.util.dataparser;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+import javax.swing.*;
+
+/**
+ * Parser for binary time series data files (.btsd). A file starts with a header holding the
+ * magic number, the format version, the number of columns, and the id of every column, each
+ * as a length followed by its UTF-8 bytes. The header is followed by one record per time
+ * point, made of one little-endian double per column, so every value is at a fixed offset.
+ * The file is memory mapped and the values are read directly, without any text parsing. A
+ * trailing incomplete record, left by a run that was interrupted, is ignored.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class BTSDParser extends DataParser {
+
+	/**
+	 * The bytes "BTSD" read as a little-endian integer.
+	 */
+	public static final int MAGIC = 0x44535442;
+
+	public static final int VERSION = 1;
+
+	public static final Charset CHARSET = Charset.forName("UTF-8");
+
+	public BTSDParser(String filename, boolean warn) {
+		super(new ArrayList<String>(), new ArrayList<ArrayList<Double>>());
+		warning = warn;
+		FileInputStream input = null;
+		try {
+			input = new FileInputStream(new File(filename));
+			FileChannel channel = input.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				throw new IOException("Not a binary time series file: " + filename);
+			}
+			int width = buffer.getInt();
+			for (int i = 0; i < width; i++) {
+				byte[] id = new byte[buffer.getInt()];
+				buffer.get(id);
+				species.add(new String(id, CHARSET));
+			}
+			DoubleBuffer values = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			int points = width == 0 ? 0 : values.remaining() / width;
+			for (int i = 0; i < width; i++) {
+				ArrayList<Double> column = new ArrayList<Double>(points);
+				for (int j = 0; j < points; j++) {
+					column.add(getValue(values.get(j * width + i)));
+				}
+				data.add(column);
+			}
+		}
+		catch (IOException e) {
+			JOptionPane.showMessageDialog(component, "Error Reading Data!" + "\nThere was an error reading the simulation output data.",
+					"Error Reading Data", JOptionPane.ERROR_MESSAGE);
+		}
+		finally {
+			if (input != null) {
+				try {
+					input.close();
+				}
+				catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/*
+	 * Replaces NaN and infinite values as the text parsers do.
+	 */
+	private double getValue(double value) {
+		if (Double.isNaN(value)) {
+			if (!warning) {
+				JOptionPane.showMessageDialog(component, "Found NAN in data." + "\nReplacing with 0s.", "NAN In Data",
+						JOptionPane.WARNING_MESSAGE);
+				warning = true;
+			}
+			return 0;
+		}
+		if (Double.isInfinite(value)) {
+			return value > 0 ? Double.MAX_VALUE : -Double.MAX_VALUE;
+		}
+		return value;
+	}
+}
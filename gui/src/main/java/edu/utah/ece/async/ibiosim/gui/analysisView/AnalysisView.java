@@ -2733,6 +2733,8 @@ public class AnalysisView extends PanelObservable implements ActionListener, Run
     simulators.addItem("SSA-Direct (Dynamic)");
     simulators.addItem("SSA-CR (Dynamic)");
     simulators.addItem("SSA-Direct (Hierarchical)");
+    simulators.addItem("SSA-NRM (Hierarchical)");
+    simulators.addItem("SSA-Tau (Hierarchical)");
     simulators.addItem("SSA-Direct (Flatten)");
     simulators.addItem("Hybrid-Hierarchical");
 
@@ -3563,6 +3565,16 @@ public class AnalysisView extends PanelObservable implements ActionListener, Run
         description.setText("SSA-Direct Method on Hierarchical Models (java)");
         enableSSASimulator();
       }
+      else if (((String) simulators.getSelectedItem()).contains("SSA-NRM (Hierarchical)"))
+      {
+        description.setText("Next Reaction Method on Hierarchical Models (java)");
+        enableSSASimulator();
+      }
+      else if (((String) simulators.getSelectedItem()).contains("SSA-Tau (Hierarchical)"))
+      {
+        description.setText("Adaptive Tau-Leaping on Hierarchical Models (java)");
+        enableSSASimulator();
+      }
       else if (((String) simulators.getSelectedItem()).contains("interactive"))
       {
         description.setText("Interactive SSA-Direct Method (java)");
@@ -66,6 +66,7 @@ import edu.utah.ece.async.ibiosim.learn.parameterestimator.ParameterEstimator;
  *  <li>-l: when specified, parameter estimation will use the estimate the value of the parameters in the list.</li>
  *  <li>--cpp: runs the C++ GeneNet. Default is the Java version. </li>
  *  <li>--sbml [name]: outputs an sbml file with the specified name (e.g. learn.xml). </li>
+ *  <li>--threads [num]: Sets the number of threads of parameter estimation, 1 for a serial run.  Default is the number of processors</li>
  *  <li>-ta [num]: Sets the activation threshold.  Default 1.15</li>
  *  <li>-tr [num]: Sets the repression threshold.  Default 0.75</li>
  *  <li>-ti [num]: Sets how high a score must be to be considered a parent.  Default 0.5</li>
@@ -136,6 +137,7 @@ public class Learn implements BioObserver
     System.err.println("\t-e to execute parameter estimation.");
     System.err.println("\t--cpp: runs the C++ GeneNet. Default is the Java version.");
     System.err.println("\t-l to specify the list of parameters to estimate. If not specified, all parameters are estimated. To use it, specify the parameters separated by commas (e.g. p1,p2,p3).");
+    System.err.println("\t--threads [num]: Sets the number of threads of parameter estimation, 1 for a serial run.  Default is the number of processors");
     System.err.println("\t-ta [num]: Sets the activation threshold.  Default 1.15");
     System.err.println("\t-tr [num]: Sets the repression threshold.  Default 0.75");
     System.err.println("\t-ti [num]: Sets how high a score must be to be considered a parent.  Default 0.5");
@@ -210,6 +212,17 @@ public class Learn implements BioObserver
           usage();
         }
         break;
+      case "--threads":
+        if(i+1 < end)
+        {
+          ParameterEstimator.setNumberOfThreads(Integer.parseInt(args[i+1]));
+          i=i+1;
+        }
+        else
+        {
+          usage();
+        }
+        break;
       case "-ta":
         if(i+1 < end)
         {
@@ -55,6 +55,33 @@ public class ParameterEstimator
 	static String				selectedSimulator	= "";
 	static ArrayList<String>	interestingSpecies	= new ArrayList<String>();
 	static String				quantityType		= "amount";
+	static int					numberOfThreads		= Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Sets the number of threads that evaluate candidate solutions, each with its own
+	 * simulator. One evaluates them in order on the calling thread. The estimated values
+	 * do not depend on the number of threads.
+	 * 
+	 * @param threads: the number of threads, at least one.
+	 */
+	public static void setNumberOfThreads(int threads)
+	{
+		if (threads < 1)
+		{
+			throw new IllegalArgumentException("The number of threads must be at least one.");
+		}
+		numberOfThreads = threads;
+	}
+
+	/**
+	 * Returns the number of threads that evaluate candidate solutions.
+	 * 
+	 * @return the number of threads.
+	 */
+	public static int getNumberOfThreads()
+	{
+		return numberOfThreads;
+	}
 
 	/**
 	 * This function is used to execute parameter estimation from a given SBML file. The input model serves
@@ -93,7 +120,20 @@ public class ParameterEstimator
 		// Objective objective1 = new ObjectiveSqureError(M1,0.1);
 
 		EvolutionMethodSetting EMS = new EvolutionMethodSetting();
-		ObjectiveSqureError TP = new ObjectiveSqureError(sim, experiments, parameterList, speciesCollection, M1, 0.1);
+		// each thread evaluates candidate solutions with its own copy of the simulator
+		int threads = Math.max(1, Math.min(numberOfThreads, EMS.getlamda()));
+		List<HierarchicalSimulation> simulators = new ArrayList<HierarchicalSimulation>(threads);
+		simulators.add(sim);
+		for (int i = 1; i < threads; i++)
+		{
+			HierarchicalSimulation copy = new HierarchicalODERKSimulator(SBMLFileName, root, 0);
+			// only the first simulator writes root/run-0.tsd
+			copy.setPrintRuns(false);
+			copy.initialize(randomSeed, 0);
+			simulators.add(copy);
+		}
+		EMS.setnumberOfThreads(threads);
+		ObjectiveSqureError TP = new ObjectiveSqureError(simulators, experiments, parameterList, speciesCollection, M1, 0.1);
 
 		SRES sres = new SRES(TP, EMS);
 		SRES.Solution solution = sres.run(200).getBestSolution();
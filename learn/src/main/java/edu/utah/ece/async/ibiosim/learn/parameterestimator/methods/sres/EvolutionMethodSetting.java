@@ -31,6 +31,8 @@ public class EvolutionMethodSetting
 	double	rankingPenalizationFactor;
 	double	tauDash;
 	int		numberOfgenerations;
+	int		numberOfThreads	= 1;
+	long	seed			= 51102;
 
 	/**
 	 * Creates evolution method setting using default values.
@@ -227,4 +229,46 @@ public class EvolutionMethodSetting
 		return numberOfgenerations;
 
 	}
+
+	/**
+	 * Sets the number of threads that evaluate the solutions of a generation. The objective
+	 * function must be able to evaluate that many solutions at the same time.
+	 * 
+	 * @param numberOfThreads - number of threads, one evaluates the solutions in order.
+	 */
+	public void setnumberOfThreads(int numberOfThreads)
+	{
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	/**
+	 * Returns the number of threads that evaluate the solutions of a generation.
+	 * 
+	 * @return number of threads.
+	 */
+	public int getnumberOfThreads()
+	{
+		return numberOfThreads;
+	}
+
+	/**
+	 * Sets the seed of the random numbers of a run. A run with the same seed and settings
+	 * gives the same solutions for any number of threads.
+	 * 
+	 * @param seed - random seed.
+	 */
+	public void setseed(long seed)
+	{
+		this.seed = seed;
+	}
+
+	/**
+	 * Returns the seed of the random numbers of a run.
+	 * 
+	 * @return random seed.
+	 */
+	public long getseed()
+	{
+		return seed;
+	}
 }
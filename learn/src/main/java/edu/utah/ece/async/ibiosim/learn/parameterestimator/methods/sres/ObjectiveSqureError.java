@@ -16,7 +16,10 @@ package edu.utah.ece.async.ibiosim.learn.parameterestimator.methods.sres;
 import static java.lang.Math.abs;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -26,7 +29,10 @@ import edu.utah.ece.async.ibiosim.learn.genenet.Experiments;
 import edu.utah.ece.async.ibiosim.learn.genenet.SpeciesCollection;
 
 /**
- * ObjectiveSqureError 
+ * ObjectiveSqureError computes the sum of squared errors between the simulated and the
+ * experimental values of the interesting species. Each evaluation borrows a simulator from a
+ * pool and resets it before returning it, so a pool of several simulators lets several
+ * candidate solutions be scored at the same time.
  *  
  * @author Chris Myers
  * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
@@ -42,7 +48,7 @@ public class ObjectiveSqureError extends Objective
 	private Experiments				experiment;
 	private List<String>			listOfParams;
 	private String[]				speciesCollection;
-	private HierarchicalSimulation	sim;
+	private final BlockingQueue<HierarchicalSimulation>	simulators;
 
 	/*
 	 * public TestProblem(double[] featureUpperBounds, double[]
@@ -67,6 +73,20 @@ public class ObjectiveSqureError extends Objective
 	 * @param valueAtSolution - true value
 	 */
 	public ObjectiveSqureError(HierarchicalSimulation sim, Experiments experiments, List<String> parameterList, SpeciesCollection speciesCollection, Modelsettings Ms, double valueAtSolution)
+	{
+		this(Collections.singletonList(sim), experiments, parameterList, speciesCollection, Ms, valueAtSolution);
+	}
+
+	/**
+	 * Creates an ObjectiveSqureError object that evaluates with a pool of simulators.
+	 * @param simulators - initialized simulators of the same model, one for each concurrent evaluation
+	 * @param experiments - experimental data
+	 * @param parameterList - list of parameters to estimate
+	 * @param speciesCollection - list of interesting species
+	 * @param Ms - model settings
+	 * @param valueAtSolution - true value
+	 */
+	public ObjectiveSqureError(List<HierarchicalSimulation> simulators, Experiments experiments, List<String> parameterList, SpeciesCollection speciesCollection, Modelsettings Ms, double valueAtSolution)
 	{
 		super(Ms);
 		this.valueAtSolution = valueAtSolution;
@@ -81,7 +101,7 @@ public class ObjectiveSqureError extends Objective
 		{
 			this.speciesCollection[speciesCollection.getColumn(species)] = species;
 		}
-		this.sim = sim;
+		this.simulators = new LinkedBlockingQueue<HierarchicalSimulation>(simulators);
 	}
 
 	/**
@@ -101,16 +121,37 @@ public class ObjectiveSqureError extends Objective
 		this.relativePrecision = relativePrecision;
 		this.allowedViolatedConstraintsCount = allowedViolatedConstraintsCount;
 		this.Models = Ms;
+		this.simulators = null;
 	}
 
 	@Override
 	public Result evaluate(double[] features)
+	{
+		HierarchicalSimulation sim;
+		try
+		{
+			sim = simulators.take();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return new Result(Double.MAX_VALUE);
+		}
+		try
+		{
+			return evaluate((HierarchicalODERKSimulator) sim, features);
+		}
+		finally
+		{
+			simulators.add(sim);
+		}
+	}
+
+	private Result evaluate(HierarchicalODERKSimulator odeSim, double[] features)
 	{
 		double sum = 0;
 		List<List<Double>> experiment = this.experiment.getExperiments().get(0);
 
-		HierarchicalODERKSimulator odeSim = (HierarchicalODERKSimulator) sim;
-
 		for (int i = 1; i < speciesCollection.length; i++)
 		{
 			odeSim.setTopLevelValue(speciesCollection[i], experiment.get(0).get(i));
@@ -13,8 +13,15 @@
  *******************************************************************************/
 package edu.utah.ece.async.ibiosim.learn.parameterestimator.methods.sres;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import edu.utah.ece.async.ibiosim.learn.parameterestimator.methods.AbstractEstimator;
 
@@ -22,7 +29,10 @@ import edu.utah.ece.async.ibiosim.learn.parameterestimator.methods.AbstractEstim
  * A class that implements Stochastic Ranking Evolutionary Strategy (SRES), an
  * evolutionary algorithm for constrained optimization of real multivariate
  * objective functions. User should provide an objective function instance
- * inherited. The algorithm is executed via { #run} method. 
+ * inherited. The algorithm is executed via { #run} method. The solutions of a
+ * generation can be evaluated by several threads. Only the evaluation runs in
+ * parallel, and all random numbers are drawn by the calling thread in the same
+ * order, so the result for a given seed does not depend on the number of threads.
  *
  * @author Chris Myers
  * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
@@ -30,14 +40,16 @@ import edu.utah.ece.async.ibiosim.learn.parameterestimator.methods.AbstractEstim
  */
 public final class SRES implements AbstractEstimator
 {
-	static final Random	random	= new Random(51102);
+	static final Random	random	= new Random();
 	private static final int	defaultNumberOfGenerations	= 1000, boundingTries = 10;
 	private final Objective		objective;
 	private final double		tau, tauDash, rankingPenalizationFactor;
-	private final int			lambda, mu, numberOfFeatures, numberOfSweeps;
+	private final int			lambda, mu, numberOfFeatures, numberOfSweeps, numberOfThreads;
+	private final long			seed;
 	private final double[]		featureLowerBounds;
 	private final double[]		featureUpperBounds;
 	private final boolean		verbose;
+	private ExecutorService		executor;
 
 	/**
 	 * Creates an instance of SRES algorithm for a given objective function.
@@ -121,6 +133,8 @@ public final class SRES implements AbstractEstimator
 		this.tauDash = EMS.getexpectedConvergenceRate() / Math.sqrt(2 * numberOfFeatures);
 		this.numberOfSweeps = EMS.getnumberOfSweeps();
 		this.rankingPenalizationFactor = EMS.getrankingPenalizationFactor();
+		this.numberOfThreads = EMS.getnumberOfThreads();
+		this.seed = EMS.getseed();
 	}
 
 	/**
@@ -155,6 +169,8 @@ public final class SRES implements AbstractEstimator
 
 	/**
 	 * Runs the SRES algorithm for {@code numberOfGenerations} generations.
+	 * The random numbers are reseeded with the seed of the settings, so runs
+	 * with the same settings give the same solutions.
 	 * 
 	 * @param numberOfGenerations
 	 *            number of generations to run
@@ -162,6 +178,27 @@ public final class SRES implements AbstractEstimator
 	 *         running the algorithm
 	 */
 	public SolutionSet run(int numberOfGenerations)
+	{
+		random.setSeed(seed);
+		if (numberOfThreads > 1)
+		{
+			executor = Executors.newFixedThreadPool(Math.min(numberOfThreads, lambda));
+		}
+		try
+		{
+			return runGenerations(numberOfGenerations);
+		}
+		finally
+		{
+			if (executor != null)
+			{
+				executor.shutdown();
+				executor = null;
+			}
+		}
+	}
+
+	private SolutionSet runGenerations(int numberOfGenerations)
 	{
 		SolutionSet solutionSet = new SolutionSet();
 
@@ -299,11 +336,42 @@ public final class SRES implements AbstractEstimator
 		 */
 		void evaluate()
 		{
-			// Arrays.stream(solutions).parallel().forEach(Solution::evaluate);
-			for (Solution solution : solutions)
+			if (executor == null)
 			{
-				solution.evaluate();
-
+				for (Solution solution : solutions)
+				{
+					solution.evaluate();
+				}
+				return;
+			}
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(lambda);
+			for (final Solution solution : solutions)
+			{
+				tasks.add(new Callable<Void>()
+				{
+					@Override
+					public Void call()
+					{
+						solution.evaluate();
+						return null;
+					}
+				});
+			}
+			try
+			{
+				for (Future<Void> future : executor.invokeAll(tasks))
+				{
+					future.get();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("SRES evaluation was interrupted.", e);
+			}
+			catch (ExecutionException e)
+			{
+				throw new IllegalStateException("SRES evaluation failed.", e.getCause());
 			}
 		}
 
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.ibiosim.learn.parameterestimator.methods.sres;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.HierarchicalSimulation;
+import edu.utah.ece.async.ibiosim.analysis.simulation.hierarchical.methods.HierarchicalODERKSimulator;
+import edu.utah.ece.async.ibiosim.learn.genenet.Experiments;
+import edu.utah.ece.async.ibiosim.learn.genenet.Run;
+import edu.utah.ece.async.ibiosim.learn.genenet.SpeciesCollection;
+
+/**
+ * Checks that SRES finds the same solutions with a fixed seed whether the candidate
+ * solutions are evaluated serially or by several threads.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class SRESTest
+{
+
+  private String root = "src" + File.separator + "test" + File.separator + 
+      "resources" + File.separator;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final double[] MINIMUM = { 0.5, -1, 1.5 };
+
+  /**
+   * A quadratic function of three features with its minimum at {@link #MINIMUM}.
+   */
+  private static class Quadratic extends Objective
+  {
+    Quadratic()
+    {
+      super(new Modelsettings(null, 0, 0, 0, new double[] { -2, -2, -2 }, new double[] { 2, 2, 2 }, false));
+    }
+
+    @Override
+    public Result evaluate(double[] features)
+    {
+      double sum = 0;
+      for (int i = 0; i < features.length; i++)
+      {
+        double difference = features[i] - MINIMUM[i];
+        sum += (i + 1) * difference * difference;
+      }
+      return new Result(sum);
+    }
+  }
+
+  private static SRES.Solution run(Objective objective, int lambda, int generations, int threads)
+  {
+    EvolutionMethodSetting EMS = new EvolutionMethodSetting(false, lambda, lambda / 7);
+    EMS.setnumberOfThreads(threads);
+    EMS.setseed(7);
+    return new SRES(objective, EMS).run(generations).getBestSolution();
+  }
+
+  private static void assertSameSolution(SRES.Solution expected, SRES.Solution actual)
+  {
+    assertTrue(Arrays.equals(expected.getFeatures(), actual.getFeatures()));
+    assertEquals(expected.getFitness(), actual.getFitness(), 0);
+  }
+
+  @Test
+  public void testAnalyticObjective()
+  {
+    Objective objective = new Quadratic();
+    SRES.Solution serial = run(objective, 100, 150, 1);
+    assertSameSolution(serial, run(objective, 100, 150, 1));
+    assertSameSolution(serial, run(objective, 100, 150, 4));
+    for (int i = 0; i < MINIMUM.length; i++)
+    {
+      assertEquals(MINIMUM[i], serial.getFeatures()[i], 0.05);
+    }
+  }
+
+  @Test
+  public void testSimulatedObjective() throws Exception
+  {
+    // The simulators write their output next to the model, so they run on a copy of the
+    // experiments.
+    File resources = new File(root + "degradation");
+    File copy = folder.newFolder("degradation");
+    for (File file : resources.listFiles())
+    {
+      Files.copy(file.toPath(), new File(copy, file.getName()).toPath());
+    }
+    String directory = copy.getPath() + File.separator;
+    String filename = directory + "degradation.xml";
+    SpeciesCollection S = new SpeciesCollection();
+    Experiments E = new Experiments();
+    Run.init(filename, S);
+    Run.loadExperiments(directory, S, E);
+    List<String> parameters = Arrays.asList("kd");
+    int n = E.getExperiments().get(0).size() - 1;
+    Modelsettings M1 = new Modelsettings(E.getExperiments().get(0).get(0), S.size(), 0, E.getExperiments().get(0).get(n).get(0).intValue(),
+      new double[] { 0.0075 / 100 }, new double[] { 0.0075 * 100 }, false);
+
+    SRES.Solution[] solutions = new SRES.Solution[2];
+    int[] threads = { 1, 3 };
+    for (int k = 0; k < threads.length; k++)
+    {
+      List<HierarchicalSimulation> simulators = new ArrayList<HierarchicalSimulation>();
+      for (int i = 0; i < threads[k]; i++)
+      {
+        HierarchicalSimulation sim = new HierarchicalODERKSimulator(filename, directory, 0);
+        sim.initialize(0, 0);
+        simulators.add(sim);
+      }
+      ObjectiveSqureError objective = new ObjectiveSqureError(simulators, E, parameters, S, M1, 0.1);
+      solutions[k] = run(objective, 28, 10, threads[k]);
+    }
+    assertSameSolution(solutions[0], solutions[1]);
+  }
+}
@@ -0,0 +1,378 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.lpn;
+
+import java.util.HashMap;
+
+import edu.utah.ece.async.lema.verification.platu.platuLpn.DualHashMap;
+
+/**
+ * An ExprTree compiled against the variable index map of an LPN, so that it is evaluated
+ * directly on the int variable vector of a state. It gives the same result as calling
+ * ExprTree.evaluateExpr on the map built by LPN.getAllVarsWithValuesAsString for the vector,
+ * without formatting, hashing and parsing the values of the variables.
+ *
+ * The few operators that need more than the values of the variables, such as rate, are
+ * evaluated by the ExprTree on the map of values. A negative value of a Boolean variable
+ * stands for unknown, which evaluates to NaN.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public abstract class CompiledExpr {
+
+	private static final int UNKNOWN = 0;
+	private static final int AND = 1;
+	private static final int OR = 2;
+	private static final int EQUAL = 3;
+	private static final int IMPLIES = 4;
+	private static final int PLUS = 5;
+	private static final int MINUS = 6;
+	private static final int TIMES = 7;
+	private static final int DIVIDE = 8;
+	private static final int MOD = 9;
+	private static final int POWER = 10;
+	private static final int BIT = 11;
+	private static final int FLOOR = 12;
+	private static final int CEIL = 13;
+	private static final int MIN = 14;
+	private static final int MAX = 15;
+	private static final int IDIV = 16;
+	private static final int INT = 17;
+	private static final int LESS = 18;
+	private static final int GREATER = 19;
+	private static final int LESS_EQUAL = 20;
+	private static final int GREATER_EQUAL = 21;
+	private static final int BIT_AND = 22;
+	private static final int BIT_OR = 23;
+	private static final int BIT_NOT = 24;
+	private static final int BIT_XOR = 25;
+
+	private static final CompiledExpr NAN = new Constant(Double.NaN);
+
+	/**
+	 * Evaluates the expression.
+	 * @param vector
+	 * 		The values of the variables, indexed as in the map the expression was compiled with.
+	 * @return
+	 * 		The value of the expression, or NaN if it is unknown.
+	 */
+	public abstract double evaluate(int[] vector);
+
+	/**
+	 * Compiles an expression tree.
+	 * @param tree
+	 * 		The expression to compile.
+	 * @param varIndexMap
+	 * 		The map from the names of the variables to their indices in the variable vector.
+	 * @return
+	 * 		The compiled expression.
+	 */
+	public static CompiledExpr compile(ExprTree tree, DualHashMap<String, Integer> varIndexMap) {
+		switch (tree.isit) {
+		case 'b':
+			if (!varIndexMap.containsKey(tree.variable)) {
+				return NAN;
+			}
+			return new BooleanVariable(varIndexMap.get(tree.variable));
+		case 'i':
+			if (!varIndexMap.containsKey(tree.variable)) {
+				return NAN;
+			}
+			return new IntegerVariable(varIndexMap.get(tree.variable));
+		case 'n':
+			if (tree.uvalue == tree.lvalue) {
+				return new Constant(tree.uvalue);
+			}
+			// A random number is drawn on each evaluation.
+			return new Interpreted(tree, varIndexMap);
+		case 't':
+			return new Constant(tree.evaluateExpr(null));
+		case 'w':
+			return new Binary(bitwiseCode(tree.op), child(tree.r1, varIndexMap),
+					child(tree.r2, varIndexMap));
+		case 'a':
+		case 'r':
+		case 'l':
+			if (tree.op.equals("!")) {
+				if (tree.r1 != null) {
+					return new Not(compile(tree.r1, varIndexMap));
+				} else if (tree.r2 != null) {
+					return new Not(compile(tree.r2, varIndexMap));
+				}
+				return NAN;
+			}
+			if (tree.op.equals("rate")) {
+				return new Interpreted(tree, varIndexMap);
+			}
+			return new Binary(code(tree.op), child(tree.r1, varIndexMap),
+					child(tree.r2, varIndexMap));
+		default:
+			return NAN;
+		}
+	}
+
+	/**
+	 * Compiles an operand that may be missing, which evaluates to NaN.
+	 */
+	private static CompiledExpr child(ExprTree tree, DualHashMap<String, Integer> varIndexMap) {
+		return tree == null ? NAN : compile(tree, varIndexMap);
+	}
+
+	private static int bitwiseCode(String op) {
+		if (op.equals("&")) {
+			return BIT_AND;
+		} else if (op.equals("|")) {
+			return BIT_OR;
+		} else if (op.equals("!")) {
+			return BIT_NOT;
+		} else if (op.equals("X")) {
+			return BIT_XOR;
+		}
+		return UNKNOWN;
+	}
+
+	private static int code(String op) {
+		switch (op) {
+		case "&&":
+			return AND;
+		case "||":
+			return OR;
+		case "==":
+			return EQUAL;
+		case "->":
+			return IMPLIES;
+		case "+":
+			return PLUS;
+		case "-":
+			return MINUS;
+		case "*":
+			return TIMES;
+		case "/":
+			return DIVIDE;
+		case "%":
+			return MOD;
+		case "^":
+			return POWER;
+		case "[]":
+			return BIT;
+		case "f":
+			return FLOOR;
+		case "c":
+			return CEIL;
+		case "m":
+			return MIN;
+		case "M":
+			return MAX;
+		case "i":
+			return IDIV;
+		case "INT":
+			return INT;
+		case "<":
+			return LESS;
+		case ">":
+			return GREATER;
+		case "<=":
+			return LESS_EQUAL;
+		case ">=":
+			return GREATER_EQUAL;
+		default:
+			// The random distributions and any unknown operator.
+			return UNKNOWN;
+		}
+	}
+
+	private static class Constant extends CompiledExpr {
+
+		private final double value;
+
+		Constant(double value) {
+			this.value = value;
+		}
+
+		@Override
+		public double evaluate(int[] vector) {
+			return value;
+		}
+	}
+
+	private static class BooleanVariable extends CompiledExpr {
+
+		private final int index;
+
+		BooleanVariable(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public double evaluate(int[] vector) {
+			if (index >= vector.length || vector[index] < 0) {
+				return Double.NaN;
+			}
+			return vector[index] == 1 ? 1.0 : 0.0;
+		}
+	}
+
+	private static class IntegerVariable extends CompiledExpr {
+
+		private final int index;
+
+		IntegerVariable(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public double evaluate(int[] vector) {
+			if (index >= vector.length) {
+				return Double.NaN;
+			}
+			return vector[index];
+		}
+	}
+
+	private static class Not extends CompiledExpr {
+
+		private final CompiledExpr operand;
+
+		Not(CompiledExpr operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public double evaluate(int[] vector) {
+			double value = operand.evaluate(vector);
+			if (value == 1.0) {
+				return 0.0;
+			} else if (value == 0.0) {
+				return 1.0;
+			}
+			return Double.NaN;
+		}
+	}
+
+	private static class Binary extends CompiledExpr {
+
+		private final int code;
+		private final CompiledExpr left;
+		private final CompiledExpr right;
+
+		Binary(int code, CompiledExpr left, CompiledExpr right) {
+			this.code = code;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public double evaluate(int[] vector) {
+			double l = left.evaluate(vector);
+			double r = right.evaluate(vector);
+			switch (code) {
+			case AND:
+				if (l == 1.0 && r == 1.0) {
+					return 1.0;
+				} else if (l == 0.0 || r == 0.0) {
+					return 0.0;
+				}
+				return Double.NaN;
+			case OR:
+				if (l == 1.0 || r == 1.0) {
+					return 1.0;
+				} else if (l == 0.0 && r == 0.0) {
+					return 0.0;
+				}
+				return Double.NaN;
+			case EQUAL:
+				// As in ExprTree, an unknown operand makes the operands unequal.
+				return l == r ? 1.0 : 0.0;
+			case IMPLIES:
+				if (l == 0.0 && (r == 1.0 || r == 0.0)) {
+					return 1.0;
+				} else if (l == 1.0 && r == 1.0) {
+					return 1.0;
+				} else if (l == 1.0 && r == 0.0) {
+					return 0.0;
+				}
+				return Double.NaN;
+			case PLUS:
+				return l + r;
+			case MINUS:
+				return l - r;
+			case TIMES:
+				return l * r;
+			case DIVIDE:
+				return l / r;
+			case MOD:
+				return l % r;
+			case POWER:
+				return Math.pow(l, r);
+			case BIT:
+				return (((int) l) >> ((int) r)) & 1;
+			case FLOOR:
+				return Math.floor(l);
+			case CEIL:
+				return Math.ceil(l);
+			case MIN:
+				return Math.min(l, r);
+			case MAX:
+				return Math.max(l, r);
+			case IDIV:
+				return ((int) l) / ((int) r);
+			case INT:
+				return (int) l;
+			case LESS:
+				return l < r ? 1.0 : (l >= r ? 0.0 : Double.NaN);
+			case GREATER:
+				return l > r ? 1.0 : (l <= r ? 0.0 : Double.NaN);
+			case LESS_EQUAL:
+				return l <= r ? 1.0 : (l > r ? 0.0 : Double.NaN);
+			case GREATER_EQUAL:
+				return l >= r ? 1.0 : (l < r ? 0.0 : Double.NaN);
+			case BIT_AND:
+				return ((int) l) & ((int) r);
+			case BIT_OR:
+				return ((int) l) | ((int) r);
+			case BIT_NOT:
+				return ~((int) l);
+			case BIT_XOR:
+				return ((int) l) ^ ((int) r);
+			default:
+				return Double.NaN;
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the ExprTree on the map of the values of the variables.
+	 */
+	private static class Interpreted extends CompiledExpr {
+
+		private final ExprTree tree;
+		private final DualHashMap<String, Integer> varIndexMap;
+
+		Interpreted(ExprTree tree, DualHashMap<String, Integer> varIndexMap) {
+			this.tree = tree;
+			this.varIndexMap = varIndexMap;
+		}
+
+		@Override
+		public double evaluate(int[] vector) {
+			HashMap<String, String> values = new HashMap<String, String>();
+			for (int i = 0; i < vector.length; i++) {
+				values.put(varIndexMap.getKey(i), vector[i] + "");
+			}
+			return tree.evaluateExpr(values);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.lpn;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.utah.ece.async.lema.verification.platu.platuLpn.DualHashMap;
+
+/**
+ * Checks that the compiled expressions evaluate to the same values as ExprTree.evaluateExpr
+ * on random variable vectors. A negative value of a Boolean variable stands for unknown.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class CompiledExprTest {
+
+	private static final String[] EXPRESSIONS = {
+		"a", "~a", "a&b", "a|~b", "~(a&b)|c", "(x>2)&b", "(x<=y)|~c", "a=b",
+		"x+y*2-z", "x-y-z", "x*y/3", "x/(y+1)", "x%3", "x^2", "2^y", "(x+z)>=(y-1)",
+		"x<y", "x>y", "x=y", "(x+1)=z", "floor(x/3)", "ceil(x/3)", "min(x,y)", "max(x,z)",
+		"idiv(x,3)", "int(x>0)", "bit(x,1)", "and(x,y)", "or(x,z)", "xor(x,y)", "not(x)",
+		"a&(x>0)|(y<0)&~b", "true", "false", "x+1.5", "(a&b)=(b&a)"
+	};
+
+	private static LPN lpn() {
+		LPN lpn = new LPN();
+		lpn.setLabel("expressions");
+		lpn.addInput("a", "boolean", "false");
+		lpn.addInput("b", "boolean", "true");
+		lpn.addOutput("c", "boolean", "false");
+		lpn.addInteger("x", "0");
+		lpn.addInteger("y", "0");
+		lpn.addInteger("z", "0");
+		return lpn;
+	}
+
+	private static ExprTree parse(LPN lpn, String expression) {
+		ExprTree tree = new ExprTree(lpn);
+		tree.token = tree.intexpr_gettok(expression);
+		tree.intexpr_L(expression);
+		return tree;
+	}
+
+	@Test
+	public void testAgreesWithEvaluateExpr() {
+		LPN lpn = lpn();
+		DualHashMap<String, Integer> varIndexMap = lpn.getVarIndexMap();
+		int size = varIndexMap.size();
+
+		Random random = new Random(1);
+		for (String expression : EXPRESSIONS) {
+			ExprTree tree = parse(lpn, expression);
+			CompiledExpr compiled = CompiledExpr.compile(tree, varIndexMap);
+			for (int round = 0; round < 200; round++) {
+				int[] vector = new int[size];
+				for (int i = 0; i < size; i++) {
+					String name = varIndexMap.getKey(i);
+					if (lpn.isBoolean(name)) {
+						vector[i] = random.nextInt(3) - 1;
+					} else {
+						vector[i] = random.nextInt(21) - 10;
+					}
+				}
+				HashMap<String, String> values = lpn.getAllVarsWithValuesAsString(vector);
+				for (String name : lpn.getBooleanVars()) {
+					if (vector[varIndexMap.get(name)] < 0) {
+						values.put(name, "unknown");
+					}
+				}
+				assertEquals(expression + " on " + values, tree.evaluateExpr(values),
+						compiled.evaluate(vector), 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.lpn;
+
+import java.util.ArrayList;
+
+import edu.utah.ece.async.lema.verification.platu.platuLpn.DualHashMap;
+
+/**
+ * The enabling condition, the rate and the Boolean and integer assignments of a transition
+ * compiled against the variable index map of its LPN (see {@link CompiledExpr}), for the
+ * state exploration to evaluate on the variable vectors of the states.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class CompiledTransition {
+
+	private final CompiledExpr enabling;
+
+	private final CompiledExpr rate;
+
+	/*
+	 * The i-th assignment sets the variable at assignedIndices[i] to the value of
+	 * assignments[i]. A variable with both a Boolean and an integer assignment appears
+	 * twice, the integer assignment last, so that it wins as it does when firing.
+	 */
+	private final int[] assignedIndices;
+
+	private final CompiledExpr[] assignments;
+
+	/*
+	 * Whether the i-th assignment is a Boolean assignment.
+	 */
+	private final boolean[] booleanAssignments;
+
+	CompiledTransition(LPN lpn, String label) {
+		DualHashMap<String, Integer> varIndexMap = lpn.getVarIndexMap();
+
+		ExprTree enablingTree = lpn.getEnablingTree(label);
+		enabling = enablingTree == null ? null : CompiledExpr.compile(enablingTree, varIndexMap);
+
+		ExprTree rateTree = lpn.getTransitionRateTree(label);
+		rate = rateTree == null ? null : CompiledExpr.compile(rateTree, varIndexMap);
+
+		ArrayList<Integer> indices = new ArrayList<Integer>();
+		ArrayList<CompiledExpr> exprs = new ArrayList<CompiledExpr>();
+		ArrayList<Boolean> booleans = new ArrayList<Boolean>();
+		for (int i = 0; i < varIndexMap.size(); i++) {
+			String var = varIndexMap.getKey(i);
+			ExprTree boolAssign = lpn.getBoolAssignTree(label, var);
+			if (boolAssign != null) {
+				indices.add(i);
+				exprs.add(CompiledExpr.compile(boolAssign, varIndexMap));
+				booleans.add(true);
+			}
+			ExprTree intAssign = lpn.getIntAssignTree(label, var);
+			if (intAssign != null) {
+				indices.add(i);
+				exprs.add(CompiledExpr.compile(intAssign, varIndexMap));
+				booleans.add(false);
+			}
+		}
+		assignedIndices = new int[indices.size()];
+		booleanAssignments = new boolean[indices.size()];
+		for (int i = 0; i < assignedIndices.length; i++) {
+			assignedIndices[i] = indices.get(i);
+			booleanAssignments[i] = booleans.get(i);
+		}
+		assignments = exprs.toArray(new CompiledExpr[exprs.size()]);
+	}
+
+	/**
+	 * Determines if the enabling condition of the transition is false. A transition
+	 * without an enabling condition, or whose condition is unknown, is not disabled.
+	 * @param vector
+	 * 		The values of the variables.
+	 */
+	public boolean isEnablingFalse(int[] vector) {
+		return enabling != null && enabling.evaluate(vector) == 0.0;
+	}
+
+	/**
+	 * Determines if the rate of the transition is zero.
+	 * @param vector
+	 * 		The values of the variables.
+	 */
+	public boolean isRateZero(int[] vector) {
+		return rate != null && rate.evaluate(vector) == 0.0;
+	}
+
+	/**
+	 * Evaluates the rate of the transition.
+	 * @param vector
+	 * 		The values of the variables.
+	 * @return
+	 * 		The rate, or NaN if the transition has no rate.
+	 */
+	public double evaluateRate(int[] vector) {
+		return rate == null ? Double.NaN : rate.evaluate(vector);
+	}
+
+	/**
+	 * Applies the Boolean and integer assignments of the transition. A Boolean assignment
+	 * sets the variable to 1 unless it evaluates to 0, so an unknown value makes it true,
+	 * as in the Markov chain analysis. An integer assignment is truncated to an int.
+	 * @param curVector
+	 * 		The values of the variables before firing, which are read by the assignments.
+	 * @param newVector
+	 * 		The values of the variables after firing, which are written by the assignments.
+	 */
+	public void assign(int[] curVector, int[] newVector) {
+		for (int i = 0; i < assignments.length; i++) {
+			double value = assignments[i].evaluate(curVector);
+			if (booleanAssignments[i]) {
+				newVector[assignedIndices[i]] = value == 0.0 ? 0 : 1;
+			} else {
+				newVector[assignedIndices[i]] = (int) value;
+			}
+		}
+	}
+
+	/**
+	 * Applies the Boolean and integer assignments of the transition, truncating every value
+	 * to an int as the platu state graphs do, so an unknown Boolean value makes the variable 0.
+	 * @param curVector
+	 * 		The values of the variables before firing, which are read by the assignments.
+	 * @param newVector
+	 * 		The values of the variables after firing, which are written by the assignments.
+	 */
+	public void assignTruncated(int[] curVector, int[] newVector) {
+		for (int i = 0; i < assignments.length; i++) {
+			newVector[assignedIndices[i]] = (int) assignments[i].evaluate(curVector);
+		}
+	}
+}
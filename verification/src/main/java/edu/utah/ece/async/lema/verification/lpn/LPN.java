@@ -16,6 +16,7 @@ package edu.utah.ece.async.lema.verification.lpn;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -90,6 +91,15 @@ public class LPN extends CoreObservable {
 	 * is made.
 	 */
 	DualHashMap<String, Integer> _continuousIndexMap;
+
+	/*
+	 * Cached enabling conditions, rates and assignments of the transitions compiled
+	 * against the variable index map. An entry is created when a call to
+	 * getCompiledTransition is made for the transition. The map is concurrent, as the
+	 * state graphs of a compositional analysis may be explored in parallel.
+	 */
+	protected final ConcurrentHashMap<String, CompiledTransition> _compiledTransitions =
+			new ConcurrentHashMap<String, CompiledTransition>();
 	
 	/* 
 	 * Cached value of the array of all the places in this LPN. This field is 
@@ -1686,6 +1696,27 @@ public class LPN extends CoreObservable {
 		return varToValueMap;
 	}
 	
+	/**
+	 * Gives the enabling condition, rate and assignments of a transition compiled to be
+	 * evaluated directly on variable vectors, in place of evaluating the ExprTrees on
+	 * the map given by getAllVarsWithValuesAsString.
+	 * @param transition
+	 * 		The label of the transition.
+	 * @return
+	 * 		The compiled transition.
+	 */
+	public CompiledTransition getCompiledTransition(String transition) {
+		CompiledTransition compiled = _compiledTransitions.get(transition);
+		if (compiled == null) {
+			compiled = new CompiledTransition(this, transition);
+			CompiledTransition previous = _compiledTransitions.putIfAbsent(transition, compiled);
+			if (previous != null) {
+				compiled = previous;
+			}
+		}
+		return compiled;
+	}
+	
 	public Variable getVariable(String name) {
 		if (isBoolean(name)) {
 			return booleans.get(name);
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.markov;
+
+/**
+ * Truncated Poisson weights for uniformization, computed as in Fox and Glynn (1988). The
+ * weights are built outward from the mode, starting at one, so they neither underflow nor
+ * overflow for large rates, where exp(-lambda) alone is zero in double precision. The left
+ * and right truncation points are chosen so that each discarded tail has at most half of the
+ * requested error, bounding every tail by a geometric series whose ratio is the last computed
+ * ratio of consecutive weights.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public final class FoxGlynn {
+
+	private final int left;
+
+	private final int right;
+
+	private final double[] weights;
+
+	private final double totalWeight;
+
+	/**
+	 * Computes the Poisson weights for the given rate.
+	 *
+	 * @param lambda
+	 *            the product of the uniformization rate and the time step.
+	 * @param error
+	 *            the largest probability mass that may be discarded.
+	 */
+	public FoxGlynn(double lambda, double error) {
+		if (lambda <= 0) {
+			left = 0;
+			right = 0;
+			weights = new double[] { 1 };
+			totalWeight = 1;
+			return;
+		}
+
+		double tail = error / 2;
+		int mode = (int) Math.floor(lambda);
+
+		// The total weight is at least the weight of the mode, which is one, so bounding the
+		// unnormalized tails by error / 2 also bounds the normalized tails.
+		int low = mode;
+		double weight = 1;
+		while (low > 0) {
+			double ratio = low / lambda;
+			if (weight * ratio / (1 - ratio) <= tail) {
+				break;
+			}
+			weight *= ratio;
+			low--;
+		}
+
+		int high = mode;
+		weight = 1;
+		while (true) {
+			double ratio = lambda / (high + 1);
+			if (ratio < 1 && weight * ratio / (1 - ratio) <= tail) {
+				break;
+			}
+			weight *= ratio;
+			high++;
+		}
+
+		left = low;
+		right = high;
+		weights = new double[right - left + 1];
+		weights[mode - left] = 1;
+		for (int k = mode; k > left; k--) {
+			weights[k - 1 - left] = weights[k - left] * (k / lambda);
+		}
+		for (int k = mode; k < right; k++) {
+			weights[k + 1 - left] = weights[k - left] * (lambda / (k + 1));
+		}
+
+		// Summing from the smallest weights up limits the round-off error.
+		double sum = 0;
+		int i = 0, j = weights.length - 1;
+		while (i <= j) {
+			if (weights[i] <= weights[j]) {
+				sum += weights[i++];
+			}
+			else {
+				sum += weights[j--];
+			}
+		}
+		totalWeight = sum;
+	}
+
+	/**
+	 * Returns the first step with a nonzero weight.
+	 */
+	public int getLeft() {
+		return left;
+	}
+
+	/**
+	 * Returns the last step with a nonzero weight.
+	 */
+	public int getRight() {
+		return right;
+	}
+
+	/**
+	 * Returns the unnormalized weight of step k, which must be between the truncation points.
+	 */
+	public double getWeight(int k) {
+		return weights[k - left];
+	}
+
+	public double getTotalWeight() {
+		return totalWeight;
+	}
+}
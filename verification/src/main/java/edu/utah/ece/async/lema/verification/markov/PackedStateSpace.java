@@ -0,0 +1,371 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.markov;
+
+import java.util.Arrays;
+
+/**
+ * State space of a continuous-time Markov chain under construction, with each state encoded
+ * as a fixed number of int words, such as packed markings and variable values. The words of
+ * the states are appended to a block store in the order the states are added, so the number
+ * of a state is its position in that order, and an open-addressing table with linear probing
+ * maps their hash codes to their numbers. No object is kept per state.
+ *
+ * The transitions are appended to growable arrays while the space is explored and are sorted
+ * by source state into compressed sparse row form the first time they are read, together with
+ * an index of the transitions entering each state. A transition keeps its position in that
+ * order until more transitions are added.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public final class PackedStateSpace {
+
+	/*
+	 * The word store grows by blocks of 2^BLOCK_BITS integers, so it is never copied.
+	 */
+	private static final int BLOCK_BITS = 20;
+
+	private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+
+	private static final int INITIAL_CAPACITY = 1 << 12;
+
+	private static final double MAX_LOAD_FACTOR = 0.7;
+
+	private final int width;
+
+	private int[][] blocks;
+
+	/*
+	 * Each slot holds one plus the number of a state, or zero when empty.
+	 */
+	private int[] slots;
+
+	private int size;
+
+	private int[] sources;
+
+	private int[] targets;
+
+	private int[] labels;
+
+	private double[] rates;
+
+	private int numTransitions;
+
+	/*
+	 * The transitions leaving state i are at positions outStart[i] to outStart[i + 1] and the
+	 * positions of the transitions entering it are incoming[inStart[i]] to incoming[inStart[i + 1]].
+	 * These are null whenever transitions have been added since they were last built.
+	 */
+	private int[] outStart;
+
+	private int[] inStart;
+
+	private int[] incoming;
+
+	/**
+	 * Creates an empty state space.
+	 * @param width
+	 * 		The number of int words encoding a state.
+	 */
+	public PackedStateSpace(int width) {
+		this.width = width;
+		blocks = new int[0][];
+		slots = new int[INITIAL_CAPACITY];
+		sources = new int[16];
+		targets = new int[16];
+		labels = new int[16];
+		rates = new double[16];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the number of states.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of the state encoded by the given words, or -1 if it has not been added.
+	 */
+	public int indexOf(int[] words) {
+		int entry = slots[find(words)];
+		return entry - 1;
+	}
+
+	/**
+	 * Adds the state encoded by the given words, which must not have been added yet.
+	 * @return
+	 * 		The number of the new state.
+	 */
+	public int add(int[] words) {
+		int slot = find(words);
+		if (slots[slot] != 0) {
+			throw new IllegalArgumentException("The state has already been added as state " + (slots[slot] - 1) + ".");
+		}
+		if (size == Integer.MAX_VALUE / Math.max(width, 1)) {
+			throw new IllegalStateException("The state space is full.");
+		}
+		long position = (long) size * width;
+		for (int i = 0; i < width; i++) {
+			setWord(position + i, words[i]);
+		}
+		size++;
+		slots[slot] = size;
+		if (size > slots.length * MAX_LOAD_FACTOR) {
+			resize();
+		}
+		outStart = null;
+		return size - 1;
+	}
+
+	/**
+	 * Copies the words encoding a state into the given array.
+	 */
+	public void get(int state, int[] words) {
+		long position = (long) state * width;
+		for (int i = 0; i < width; i++) {
+			words[i] = getWord(position + i);
+		}
+	}
+
+	/**
+	 * Returns one of the words encoding a state.
+	 */
+	public int getWord(int state, int word) {
+		return getWord((long) state * width + word);
+	}
+
+	/**
+	 * Returns the slot holding the given words, or the empty slot where they would be inserted.
+	 */
+	private int find(int[] words) {
+		int mask = slots.length - 1;
+		int slot = hash(words) & mask;
+		while (slots[slot] != 0 && !matches(slots[slot] - 1, words)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private boolean matches(int state, int[] words) {
+		long position = (long) state * width;
+		for (int i = 0; i < width; i++) {
+			if (getWord(position + i) != words[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash(int[] words) {
+		int h = 1;
+		for (int word : words) {
+			h = 31 * h + word;
+		}
+		return mix(h);
+	}
+
+	private int hash(int state) {
+		long position = (long) state * width;
+		int h = 1;
+		for (int i = 0; i < width; i++) {
+			h = 31 * h + getWord(position + i);
+		}
+		return mix(h);
+	}
+
+	/*
+	 * Spreads the bits of a hash code, so that states differing in a single low bit do not
+	 * fill consecutive slots.
+	 */
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private void resize() {
+		if (slots.length == 1 << 30) {
+			throw new IllegalStateException("The state space is full.");
+		}
+		slots = new int[slots.length << 1];
+		int mask = slots.length - 1;
+		for (int state = 0; state < size; state++) {
+			int slot = hash(state) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = state + 1;
+		}
+	}
+
+	private int getWord(long position) {
+		return blocks[(int) (position >>> BLOCK_BITS)][(int) (position & (BLOCK_SIZE - 1))];
+	}
+
+	private void setWord(long position, int value) {
+		int block = (int) (position >>> BLOCK_BITS);
+		if (block == blocks.length) {
+			blocks = Arrays.copyOf(blocks, block + 1);
+			blocks[block] = new int[BLOCK_SIZE];
+		}
+		blocks[block][(int) (position & (BLOCK_SIZE - 1))] = value;
+	}
+
+	/**
+	 * Adds a transition between two states.
+	 * @param label
+	 * 		A number identifying the transition of the model that was fired.
+	 */
+	public void addTransition(int source, int target, double rate, int label) {
+		if (numTransitions == sources.length) {
+			int capacity = Math.max(16, sources.length << 1);
+			sources = Arrays.copyOf(sources, capacity);
+			targets = Arrays.copyOf(targets, capacity);
+			labels = Arrays.copyOf(labels, capacity);
+			rates = Arrays.copyOf(rates, capacity);
+		}
+		sources[numTransitions] = source;
+		targets[numTransitions] = target;
+		labels[numTransitions] = label;
+		rates[numTransitions] = rate;
+		numTransitions++;
+		outStart = null;
+	}
+
+	public int getNumTransitions() {
+		return numTransitions;
+	}
+
+	/**
+	 * Returns the first position of the transitions leaving a state.
+	 */
+	public int getOutStart(int state) {
+		compact();
+		return outStart[state];
+	}
+
+	/**
+	 * Returns the end position (exclusive) of the transitions leaving a state.
+	 */
+	public int getOutEnd(int state) {
+		compact();
+		return outStart[state + 1];
+	}
+
+	/**
+	 * Returns the number of transitions entering a state.
+	 */
+	public int getNumIncoming(int state) {
+		compact();
+		return inStart[state + 1] - inStart[state];
+	}
+
+	/**
+	 * Returns the position of the k-th transition entering a state.
+	 */
+	public int getIncoming(int state, int k) {
+		compact();
+		return incoming[inStart[state] + k];
+	}
+
+	public int getSource(int position) {
+		return sources[position];
+	}
+
+	public int getTarget(int position) {
+		return targets[position];
+	}
+
+	public int getLabel(int position) {
+		return labels[position];
+	}
+
+	public double getRate(int position) {
+		return rates[position];
+	}
+
+	/**
+	 * Sorts the transitions by source state with a stable counting sort, trims the transition
+	 * arrays and indexes the transitions entering each state.
+	 */
+	private void compact() {
+		if (outStart != null) {
+			return;
+		}
+		int m = numTransitions;
+		int[] start = new int[size + 1];
+		int[] inCount = new int[size + 1];
+		for (int t = 0; t < m; t++) {
+			start[sources[t] + 1]++;
+			inCount[targets[t] + 1]++;
+		}
+		for (int i = 0; i < size; i++) {
+			start[i + 1] += start[i];
+			inCount[i + 1] += inCount[i];
+		}
+		int[] next = Arrays.copyOf(start, size);
+		int[] newSources = new int[m];
+		int[] newTargets = new int[m];
+		int[] newLabels = new int[m];
+		double[] newRates = new double[m];
+		for (int t = 0; t < m; t++) {
+			int position = next[sources[t]]++;
+			newSources[position] = sources[t];
+			newTargets[position] = targets[t];
+			newLabels[position] = labels[t];
+			newRates[position] = rates[t];
+		}
+		sources = newSources;
+		targets = newTargets;
+		labels = newLabels;
+		rates = newRates;
+
+		incoming = new int[m];
+		next = Arrays.copyOf(inCount, size);
+		for (int position = 0; position < m; position++) {
+			incoming[next[targets[position]]++] = position;
+		}
+		inStart = inCount;
+		outStart = start;
+	}
+
+	/**
+	 * Returns the number of bytes used by the word store, the slot table and the transitions.
+	 */
+	public long getMemoryUsage() {
+		long transitions = 20L * sources.length;
+		if (outStart != null) {
+			transitions += 4L * (outStart.length + inStart.length + incoming.length);
+		}
+		return 4L * BLOCK_SIZE * blocks.length + 4L * slots.length + transitions;
+	}
+
+	public String stats() {
+		return "States: " + size
+				+ ", transitions: " + numTransitions
+				+ ", words per state: " + width
+				+ ", memory: " + getMemoryUsage() / 1000000 + " MB";
+	}
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.markov;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Checks that the packed state space numbers states and indexes the transitions leaving and
+ * entering each state, including after the transition arrays have been trimmed.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class PackedStateSpaceTest {
+
+	@Test
+	public void testStatesAreNumbered() {
+		PackedStateSpace space = new PackedStateSpace(3);
+		assertEquals(0, space.add(new int[] { 1, 0, 7 }));
+		assertEquals(1, space.add(new int[] { 0, 1, 7 }));
+		assertEquals(2, space.size());
+		assertEquals(1, space.indexOf(new int[] { 0, 1, 7 }));
+		assertEquals(-1, space.indexOf(new int[] { 0, 0, 7 }));
+		int[] words = new int[3];
+		space.get(1, words);
+		assertArrayEquals(new int[] { 0, 1, 7 }, words);
+	}
+
+	@Test
+	public void testTransitionsAreIndexed() {
+		PackedStateSpace space = new PackedStateSpace(1);
+		for (int i = 0; i < 3; i++) {
+			space.add(new int[] { i });
+		}
+		space.addTransition(2, 0, 1.5, 4);
+		space.addTransition(0, 1, 2.0, 5);
+		space.addTransition(0, 2, 3.0, 6);
+		assertEquals(0, space.getOutStart(0));
+		assertEquals(2, space.getOutEnd(0));
+		assertEquals(2, space.getOutEnd(1));
+		assertEquals(3, space.getOutEnd(2));
+		assertEquals(1, space.getTarget(0));
+		assertEquals(6, space.getLabel(1));
+		assertEquals(1.5, space.getRate(2), 0);
+		assertEquals(1, space.getNumIncoming(0));
+		assertEquals(2, space.getSource(space.getIncoming(0, 0)));
+	}
+
+	@Test
+	public void testAddTransitionAfterCompactingNone() {
+		// Compacting trims the transition arrays to length zero, which must still grow.
+		PackedStateSpace space = new PackedStateSpace(1);
+		space.add(new int[] { 0 });
+		space.add(new int[] { 1 });
+		assertEquals(0, space.getOutEnd(0));
+		space.addTransition(0, 1, 1.0, 0);
+		assertEquals(1, space.getNumTransitions());
+		assertEquals(1, space.getOutEnd(0));
+		assertEquals(1, space.getNumIncoming(1));
+	}
+}
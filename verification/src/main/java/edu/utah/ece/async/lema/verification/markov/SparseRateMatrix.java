@@ -0,0 +1,250 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.markov;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Transition rate matrix of a continuous-time Markov chain in compressed sparse row form.
+ * Row i holds the transitions entering state i, so a probability vector is multiplied by
+ * walking the rows, and every row can be computed independently of the others. The total
+ * exit rate of each state is kept separately as the negated diagonal of the generator.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public final class SparseRateMatrix {
+
+	/**
+	 * Rows below this size are multiplied by a single task.
+	 */
+	private static final int ROWS_PER_TASK = 4096;
+
+	private final int[] rowStart;
+
+	private final int[] columns;
+
+	private final double[] rates;
+
+	private final double[] exitRates;
+
+	private SparseRateMatrix(int[] rowStart, int[] columns, double[] rates, double[] exitRates) {
+		this.rowStart = rowStart;
+		this.columns = columns;
+		this.rates = rates;
+		this.exitRates = exitRates;
+	}
+
+	public int getNumStates() {
+		return exitRates.length;
+	}
+
+	public int getNumTransitions() {
+		return columns.length;
+	}
+
+	public double getExitRate(int state) {
+		return exitRates[state];
+	}
+
+	/**
+	 * Returns the largest exit rate, which is the smallest valid uniformization rate.
+	 */
+	public double getMaxExitRate() {
+		double max = 0;
+		for (double rate : exitRates) {
+			max = Math.max(max, rate);
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the first position of the transitions entering a state.
+	 */
+	public int getRowStart(int state) {
+		return rowStart[state];
+	}
+
+	/**
+	 * Returns the end position (exclusive) of the transitions entering a state.
+	 */
+	public int getRowEnd(int state) {
+		return rowStart[state + 1];
+	}
+
+	/**
+	 * Returns the source state of the transition at the given position.
+	 */
+	public int getColumn(int position) {
+		return columns[position];
+	}
+
+	public double getRate(int position) {
+		return rates[position];
+	}
+
+	/**
+	 * Computes out = in * (I + Q / gamma), the one-step distribution of the chain uniformized
+	 * at rate gamma. When weight is not zero, weight * out is also added to sum. Rows are split
+	 * into tasks that run on the given pool.
+	 */
+	public void multiplyUniformized(final double[] in, final double[] out, double gamma, final double[] sum,
+			final double weight, ForkJoinPool pool) {
+		final double scale = 1 / gamma;
+		forEachRows(pool, new RowRange() {
+			@Override
+			public void apply(int start, int end) {
+				for (int i = start; i < end; i++) {
+					double value = in[i] * (1 - exitRates[i] * scale);
+					for (int j = rowStart[i]; j < rowStart[i + 1]; j++) {
+						value += in[columns[j]] * rates[j] * scale;
+					}
+					out[i] = value;
+					if (weight != 0) {
+						sum[i] += weight * value;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Computes the probability flow into every state, out[i] = sum of in[j] * rate(j, i) over
+	 * the transitions entering i. Rows are split into tasks that run on the given pool.
+	 */
+	public void multiplyIncoming(final double[] in, final double[] out, ForkJoinPool pool) {
+		forEachRows(pool, new RowRange() {
+			@Override
+			public void apply(int start, int end) {
+				for (int i = start; i < end; i++) {
+					out[i] = getIncoming(in, i);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the probability flow into a single state.
+	 */
+	public double getIncoming(double[] in, int state) {
+		double value = 0;
+		for (int j = rowStart[state]; j < rowStart[state + 1]; j++) {
+			value += in[columns[j]] * rates[j];
+		}
+		return value;
+	}
+
+	private void forEachRows(ForkJoinPool pool, RowRange range) {
+		if (pool == null || exitRates.length <= ROWS_PER_TASK) {
+			range.apply(0, exitRates.length);
+		}
+		else {
+			pool.invoke(new RowTask(range, 0, exitRates.length));
+		}
+	}
+
+	private static interface RowRange {
+		void apply(int start, int end);
+	}
+
+	private static class RowTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final RowRange range;
+
+		private final int start, end;
+
+		private RowTask(RowRange range, int start, int end) {
+			this.range = range;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= ROWS_PER_TASK) {
+				range.apply(start, end);
+			}
+			else {
+				int middle = (start + end) >>> 1;
+				invokeAll(new RowTask(range, start, middle), new RowTask(range, middle, end));
+			}
+		}
+	}
+
+	/**
+	 * Collects the transitions of a chain in any order and sorts them into a
+	 * {@link SparseRateMatrix}. Transitions of a state to itself are ignored, and parallel
+	 * transitions between the same pair of states are kept as separate entries.
+	 */
+	public static class Builder {
+
+		private final int numStates;
+
+		private int[] sources;
+
+		private int[] targets;
+
+		private double[] rates;
+
+		private int size;
+
+		public Builder(int numStates) {
+			this.numStates = numStates;
+			this.sources = new int[16];
+			this.targets = new int[16];
+			this.rates = new double[16];
+		}
+
+		public void addTransition(int source, int target, double rate) {
+			if (source == target || rate == 0) {
+				return;
+			}
+			if (size == sources.length) {
+				sources = Arrays.copyOf(sources, 2 * size);
+				targets = Arrays.copyOf(targets, 2 * size);
+				rates = Arrays.copyOf(rates, 2 * size);
+			}
+			sources[size] = source;
+			targets[size] = target;
+			rates[size] = rate;
+			size++;
+		}
+
+		public SparseRateMatrix build() {
+			int[] rowStart = new int[numStates + 1];
+			double[] exitRates = new double[numStates];
+			for (int i = 0; i < size; i++) {
+				rowStart[targets[i] + 1]++;
+				exitRates[sources[i]] += rates[i];
+			}
+			for (int i = 0; i < numStates; i++) {
+				rowStart[i + 1] += rowStart[i];
+			}
+			int[] position = Arrays.copyOf(rowStart, numStates);
+			int[] columns = new int[size];
+			double[] values = new double[size];
+			for (int i = 0; i < size; i++) {
+				int p = position[targets[i]]++;
+				columns[p] = sources[i];
+				values[p] = rates[i];
+			}
+			return new SparseRateMatrix(rowStart, columns, values, exitRates);
+		}
+	}
+}
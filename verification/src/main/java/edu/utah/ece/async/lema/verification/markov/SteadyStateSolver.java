@@ -0,0 +1,302 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.markov;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Iterative steady-state solver for a continuous-time Markov chain given as a
+ * {@link SparseRateMatrix}. It solves pi * Q = 0 with the entries of pi summing to one, starting
+ * from a given distribution.
+ * <ul>
+ * <li>POWER iterates the chain uniformized at a rate slightly above the largest exit rate,
+ * which makes it aperiodic. The result is the limiting distribution from the starting
+ * distribution, even when the chain is not irreducible.</li>
+ * <li>JACOBI sets each state to its inflow divided by its exit rate, for all states at once.
+ * It is damped by the relaxation factor when that factor is below one.</li>
+ * <li>GAUSS_SEIDEL does the same update in place, state by state.</li>
+ * <li>SOR is Gauss-Seidel over-relaxed by the relaxation factor.</li>
+ * </ul>
+ * POWER and JACOBI run their sparse matrix-vector products on a fork/join pool. The
+ * Jacobi-type methods assume that the chain has a single closed class, so that the steady
+ * state does not depend on where the chain starts, and they start from the uniform
+ * distribution. They need every state to have an exit rate. When some state is absorbing,
+ * the steady state depends on the starting distribution, so POWER is used instead.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class SteadyStateSolver {
+
+	public static enum Method {
+		POWER, JACOBI, GAUSS_SEIDEL, SOR;
+	}
+
+	/**
+	 * The power method uniformizes at this multiple of the largest exit rate.
+	 */
+	private static final double UNIFORMIZATION_FACTOR = 1.02;
+
+	private final SparseRateMatrix matrix;
+
+	private final ForkJoinPool pool;
+
+	private Method method;
+
+	private double relaxation;
+
+	private int maxIterations;
+
+	private int iterations;
+
+	private double residual;
+
+	private Method usedMethod;
+
+	private volatile boolean stop;
+
+	public SteadyStateSolver(SparseRateMatrix matrix) {
+		this(matrix, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param pool
+	 *            the pool running the matrix-vector products, or null to run them on the
+	 *            calling thread.
+	 */
+	public SteadyStateSolver(SparseRateMatrix matrix, ForkJoinPool pool) {
+		this.matrix = matrix;
+		this.pool = pool;
+		this.method = Method.POWER;
+		this.relaxation = 1;
+		this.maxIterations = Integer.MAX_VALUE;
+	}
+
+	public void setMethod(Method method) {
+		this.method = method;
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	/**
+	 * Sets the relaxation factor used by SOR (between 0 and 2) and JACOBI (between 0 and 1).
+	 * Undamped Jacobi does not converge on chains that alternate between two sets of states,
+	 * such as birth-death chains.
+	 */
+	public void setRelaxation(double relaxation) {
+		this.relaxation = relaxation;
+	}
+
+	public double getRelaxation() {
+		return relaxation;
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * Computes the steady-state distribution, in place.
+	 *
+	 * @param probabilities
+	 *            the starting distribution, indexed by state. It holds the result on return.
+	 * @param tolerance
+	 *            the iteration stops when no probability changes by more than this relative
+	 *            amount in one iteration.
+	 * @return true if the iteration converged, false if it was stopped or reached the
+	 *         iteration limit.
+	 */
+	public boolean solve(double[] probabilities, double tolerance) {
+		iterations = 0;
+		residual = 0;
+		usedMethod = method;
+		if (method != Method.POWER) {
+			for (int i = 0; i < matrix.getNumStates(); i++) {
+				if (matrix.getExitRate(i) == 0) {
+					usedMethod = Method.POWER;
+					break;
+				}
+			}
+		}
+
+		if (usedMethod != Method.POWER) {
+			for (int i = 0; i < probabilities.length; i++) {
+				probabilities[i] = 1.0 / probabilities.length;
+			}
+		}
+
+		boolean converged;
+		switch (usedMethod) {
+		case JACOBI:
+			converged = solveJacobi(probabilities, tolerance);
+			break;
+		case GAUSS_SEIDEL:
+			converged = solveGaussSeidel(probabilities, tolerance, 1);
+			break;
+		case SOR:
+			converged = solveGaussSeidel(probabilities, tolerance, relaxation);
+			break;
+		default:
+			converged = solvePower(probabilities, tolerance);
+			break;
+		}
+
+		normalize(probabilities);
+		residual = computeResidual(probabilities);
+		return converged && !stop;
+	}
+
+	private boolean solvePower(double[] probabilities, double tolerance) {
+		double gamma = UNIFORMIZATION_FACTOR * matrix.getMaxExitRate();
+		if (gamma == 0) {
+			return true;
+		}
+		double[] current = probabilities;
+		double[] next = new double[probabilities.length];
+		boolean converged = false;
+		while (!converged && !stop && iterations < maxIterations) {
+			matrix.multiplyUniformized(current, next, gamma, null, 0, pool);
+			iterations++;
+			converged = !hasChanged(current, next, tolerance);
+			double[] swap = current;
+			current = next;
+			next = swap;
+		}
+		if (current != probabilities) {
+			System.arraycopy(current, 0, probabilities, 0, probabilities.length);
+		}
+		return converged;
+	}
+
+	private boolean solveJacobi(double[] probabilities, double tolerance) {
+		double[] current = probabilities;
+		double[] next = new double[probabilities.length];
+		boolean converged = false;
+		while (!converged && !stop && iterations < maxIterations) {
+			matrix.multiplyIncoming(current, next, pool);
+			for (int i = 0; i < next.length; i++) {
+				next[i] = next[i] / matrix.getExitRate(i);
+				if (relaxation < 1) {
+					next[i] = (1 - relaxation) * current[i] + relaxation * next[i];
+				}
+			}
+			normalize(next);
+			iterations++;
+			converged = !hasChanged(current, next, tolerance);
+			double[] swap = current;
+			current = next;
+			next = swap;
+		}
+		if (current != probabilities) {
+			System.arraycopy(current, 0, probabilities, 0, probabilities.length);
+		}
+		return converged;
+	}
+
+	private boolean solveGaussSeidel(double[] probabilities, double tolerance, double omega) {
+		boolean converged = false;
+		while (!converged && !stop && iterations < maxIterations) {
+			double sum = 0;
+			for (int i = 0; i < probabilities.length; i++) {
+				double value = matrix.getIncoming(probabilities, i) / matrix.getExitRate(i);
+				probabilities[i] = (1 - omega) * probabilities[i] + omega * value;
+				sum += probabilities[i];
+			}
+			// the change is measured on normalized values, since a sweep does not preserve the total
+			converged = true;
+			for (int i = 0; i < probabilities.length; i++) {
+				double value = probabilities[i] / sum;
+				if (isChanged(probabilities[i], value, tolerance)) {
+					converged = false;
+				}
+				probabilities[i] = value;
+			}
+			iterations++;
+		}
+		return converged;
+	}
+
+	private static boolean hasChanged(double[] current, double[] next, double tolerance) {
+		for (int i = 0; i < current.length; i++) {
+			if (isChanged(current[i], next[i], tolerance)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isChanged(double current, double next, double tolerance) {
+		if (current != 0) {
+			return Math.abs((current - next) / current) > tolerance;
+		}
+		return next > tolerance;
+	}
+
+	private static void normalize(double[] probabilities) {
+		double sum = 0;
+		for (double probability : probabilities) {
+			sum += probability;
+		}
+		if (sum != 0) {
+			for (int i = 0; i < probabilities.length; i++) {
+				probabilities[i] = probabilities[i] / sum;
+			}
+		}
+	}
+
+	/**
+	 * Returns the largest absolute entry of pi * Q.
+	 */
+	private double computeResidual(double[] probabilities) {
+		double max = 0;
+		for (int i = 0; i < probabilities.length; i++) {
+			double value = matrix.getIncoming(probabilities, i) - probabilities[i] * matrix.getExitRate(i);
+			max = Math.max(max, Math.abs(value));
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the number of iterations of the last solve.
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Returns the largest absolute entry of pi * Q for the result of the last solve.
+	 */
+	public double getResidual() {
+		return residual;
+	}
+
+	/**
+	 * Returns the method used by the last solve, which is POWER when the chain has absorbing
+	 * states.
+	 */
+	public Method getUsedMethod() {
+		return usedMethod;
+	}
+
+	public void stop() {
+		stop = true;
+	}
+
+	public boolean isStopped() {
+		return stop;
+	}
+}
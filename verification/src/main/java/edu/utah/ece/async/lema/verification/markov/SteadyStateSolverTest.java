@@ -0,0 +1,150 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.markov;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import edu.utah.ece.async.lema.verification.markov.SteadyStateSolver.Method;
+
+/**
+ * Checks every steady-state method against the closed-form stationary distribution of a
+ * birth-death chain, and the fallback to the power method on chains with absorbing states.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class SteadyStateSolverTest {
+
+	private static final double TOLERANCE = 1e-10;
+
+	private static final int MAX_ITERATIONS = 1000000;
+
+	/**
+	 * A birth-death chain on 0 .. size - 1 with birth rate lambda and death rate mu * k in
+	 * state k. Its stationary distribution is the Poisson distribution with mean lambda / mu
+	 * truncated to the states of the chain.
+	 */
+	private static SparseRateMatrix birthDeath(int size, double lambda, double mu) {
+		SparseRateMatrix.Builder builder = new SparseRateMatrix.Builder(size);
+		for (int k = 0; k < size - 1; k++) {
+			builder.addTransition(k, k + 1, lambda);
+			builder.addTransition(k + 1, k, mu * (k + 1));
+		}
+		return builder.build();
+	}
+
+	private static double[] truncatedPoisson(int size, double mean) {
+		double[] expected = new double[size];
+		double term = 1, sum = 0;
+		for (int k = 0; k < size; k++) {
+			expected[k] = term;
+			sum += term;
+			term *= mean / (k + 1);
+		}
+		for (int k = 0; k < size; k++) {
+			expected[k] /= sum;
+		}
+		return expected;
+	}
+
+	/**
+	 * Solves the birth-death chain with the given method, checks the result and returns the
+	 * number of iterations.
+	 */
+	private static int assertStationary(Method method, double relaxation, ForkJoinPool pool) {
+		int size = 60;
+		double lambda = 12, mu = 0.5;
+		SteadyStateSolver solver = new SteadyStateSolver(birthDeath(size, lambda, mu), pool);
+		solver.setMethod(method);
+		solver.setRelaxation(relaxation);
+		solver.setMaxIterations(MAX_ITERATIONS);
+		double[] probabilities = new double[size];
+		probabilities[0] = 1;
+		assertTrue(method + " did not converge", solver.solve(probabilities, TOLERANCE));
+		assertEquals(method, solver.getUsedMethod());
+
+		double[] expected = truncatedPoisson(size, lambda / mu);
+		double total = 0;
+		for (int k = 0; k < size; k++) {
+			assertEquals(method + ", state " + k, expected[k], probabilities[k], 1e-8);
+			total += probabilities[k];
+		}
+		assertEquals(1, total, 1e-9);
+		return solver.getIterations();
+	}
+
+	@Test
+	public void testPower() {
+		assertStationary(Method.POWER, 1, null);
+		assertStationary(Method.POWER, 1, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * The birth-death chain alternates between even and odd states, so Jacobi needs damping.
+	 */
+	@Test
+	public void testJacobi() {
+		assertStationary(Method.JACOBI, 0.8, null);
+		assertStationary(Method.JACOBI, 0.5, ForkJoinPool.commonPool());
+	}
+
+	@Test
+	public void testGaussSeidel() {
+		assertStationary(Method.GAUSS_SEIDEL, 1, null);
+	}
+
+	@Test
+	public void testSOR() {
+		int gaussSeidel = assertStationary(Method.GAUSS_SEIDEL, 1, null);
+		assertTrue(assertStationary(Method.SOR, 1.3, null) < gaussSeidel);
+		assertTrue(assertStationary(Method.SOR, 0.7, null) > gaussSeidel);
+	}
+
+	/**
+	 * A random walk on 0 .. size - 1 that moves up at rate p and down at rate q and is
+	 * absorbed at both ends. From state k it ends in the upper state with probability
+	 * (1 - (q / p)^k) / (1 - (q / p)^(size - 1)), so the steady state depends on where it
+	 * starts and only the power method can find it.
+	 */
+	@Test
+	public void testAbsorbingFallback() {
+		int size = 12, start = 4;
+		double p = 2, q = 1;
+		SparseRateMatrix.Builder builder = new SparseRateMatrix.Builder(size);
+		for (int k = 1; k < size - 1; k++) {
+			builder.addTransition(k, k + 1, p);
+			builder.addTransition(k, k - 1, q);
+		}
+		SparseRateMatrix matrix = builder.build();
+
+		double ratio = q / p;
+		double upper = (1 - Math.pow(ratio, start)) / (1 - Math.pow(ratio, size - 1));
+		for (Method method : Method.values()) {
+			SteadyStateSolver solver = new SteadyStateSolver(matrix, null);
+			solver.setMethod(method);
+			solver.setMaxIterations(MAX_ITERATIONS);
+			double[] probabilities = new double[size];
+			probabilities[start] = 1;
+			assertTrue(method + " did not converge", solver.solve(probabilities, TOLERANCE));
+			assertEquals(Method.POWER, solver.getUsedMethod());
+			assertEquals(method.toString(), upper, probabilities[size - 1], 1e-8);
+			assertEquals(method.toString(), 1 - upper, probabilities[0], 1e-8);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.markov;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Transient analysis of a continuous-time Markov chain by uniformization. The distribution
+ * after a time step is the Poisson weighted sum of the distributions of the uniformized
+ * discrete-time chain, truncated with {@link FoxGlynn}. The sparse matrix-vector products
+ * are split over the rows of the {@link SparseRateMatrix} and run on a fork/join pool.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class TransientSolver {
+
+	private final SparseRateMatrix matrix;
+
+	private final ForkJoinPool pool;
+
+	private double[] current, next, sum;
+
+	private int iterations;
+
+	private volatile boolean stop;
+
+	public TransientSolver(SparseRateMatrix matrix) {
+		this(matrix, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param pool
+	 *            the pool running the matrix-vector products, or null to run them on the
+	 *            calling thread.
+	 */
+	public TransientSolver(SparseRateMatrix matrix, ForkJoinPool pool) {
+		this.matrix = matrix;
+		this.pool = pool;
+	}
+
+	public SparseRateMatrix getMatrix() {
+		return matrix;
+	}
+
+	/**
+	 * Advances the given distribution by a time step, in place.
+	 *
+	 * @param probabilities
+	 *            the distribution at the start of the step, indexed by state.
+	 * @param time
+	 *            the length of the step.
+	 * @param gamma
+	 *            the uniformization rate, at least {@link SparseRateMatrix#getMaxExitRate()}.
+	 * @param error
+	 *            the largest probability mass that may be lost by truncation.
+	 * @return false if the solver was stopped before the step was completed.
+	 */
+	public boolean solve(double[] probabilities, double time, double gamma, double error) {
+		iterations = 0;
+		if (time == 0 || gamma == 0) {
+			return !stop;
+		}
+
+		int size = matrix.getNumStates();
+		if (current == null || current.length != size) {
+			current = new double[size];
+			next = new double[size];
+			sum = new double[size];
+		}
+
+		FoxGlynn foxGlynn = new FoxGlynn(gamma * time, error);
+		System.arraycopy(probabilities, 0, current, 0, size);
+		for (int i = 0; i < size; i++) {
+			sum[i] = foxGlynn.getLeft() == 0 ? foxGlynn.getWeight(0) * current[i] : 0;
+		}
+
+		for (int k = 1; k <= foxGlynn.getRight(); k++) {
+			if (stop) {
+				return false;
+			}
+			double weight = k >= foxGlynn.getLeft() ? foxGlynn.getWeight(k) : 0;
+			matrix.multiplyUniformized(current, next, gamma, sum, weight, pool);
+			double[] swap = current;
+			current = next;
+			next = swap;
+			iterations++;
+		}
+
+		double scale = 1 / foxGlynn.getTotalWeight();
+		for (int i = 0; i < size; i++) {
+			probabilities[i] = sum[i] * scale;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of matrix-vector products of the last step.
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	public void stop() {
+		stop = true;
+	}
+
+	public boolean isStopped() {
+		return stop;
+	}
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.markov;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.math3.distribution.PoissonDistribution;
+import org.junit.Test;
+
+/**
+ * Checks the Fox-Glynn weights against the Poisson distribution and the uniformization
+ * solver against chains whose transient distributions are known in closed form.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class TransientSolverTest {
+
+	private static final double ERROR = 1e-10;
+
+	@Test
+	public void testFoxGlynnWeights() {
+		for (double lambda : new double[] { 0.4, 7.3, 120, 2500 }) {
+			FoxGlynn foxGlynn = new FoxGlynn(lambda, ERROR);
+			PoissonDistribution poisson = new PoissonDistribution(lambda);
+			double inside = 0;
+			for (int k = foxGlynn.getLeft(); k <= foxGlynn.getRight(); k++) {
+				double expected = poisson.probability(k);
+				assertEquals("lambda " + lambda + ", k " + k, expected,
+						foxGlynn.getWeight(k) / foxGlynn.getTotalWeight(), 1e-9 * Math.max(expected, 1e-3));
+				inside += expected;
+			}
+			// The mass between the truncation points is all but the allowed error.
+			assertTrue("lambda " + lambda, 1 - inside <= ERROR + 1e-12);
+		}
+	}
+
+	@Test
+	public void testFoxGlynnLargeRate() {
+		// exp(-lambda) underflows here, so the weights must be built outward from the mode.
+		double lambda = 1e6;
+		FoxGlynn foxGlynn = new FoxGlynn(lambda, ERROR);
+		assertTrue(foxGlynn.getLeft() > 0 && foxGlynn.getLeft() < lambda);
+		assertTrue(foxGlynn.getRight() > lambda);
+		double mode = foxGlynn.getWeight((int) lambda) / foxGlynn.getTotalWeight();
+		assertEquals(1 / Math.sqrt(2 * Math.PI * lambda), mode, 1e-6);
+	}
+
+	@Test
+	public void testFoxGlynnZeroRate() {
+		FoxGlynn foxGlynn = new FoxGlynn(0, ERROR);
+		assertEquals(0, foxGlynn.getLeft());
+		assertEquals(0, foxGlynn.getRight());
+		assertEquals(1, foxGlynn.getWeight(0) / foxGlynn.getTotalWeight(), 0);
+	}
+
+	/**
+	 * A two-state chain, 0 -> 1 at rate alpha and 1 -> 0 at rate beta, started in state 0.
+	 */
+	@Test
+	public void testTwoStateChain() {
+		double alpha = 3, beta = 0.5;
+		SparseRateMatrix.Builder builder = new SparseRateMatrix.Builder(2);
+		builder.addTransition(0, 1, alpha);
+		builder.addTransition(1, 0, beta);
+		SparseRateMatrix matrix = builder.build();
+		assertEquals(alpha, matrix.getMaxExitRate(), 0);
+
+		TransientSolver solver = new TransientSolver(matrix, null);
+		double[] probabilities = { 1, 0 };
+		double time = 0;
+		for (double step : new double[] { 0.1, 0.4, 1.5, 100 }) {
+			assertTrue(solver.solve(probabilities, step, matrix.getMaxExitRate(), ERROR));
+			time += step;
+			double expected = beta / (alpha + beta) + alpha / (alpha + beta) * Math.exp(-(alpha + beta) * time);
+			assertEquals("time " + time, expected, probabilities[0], 1e-8);
+			assertEquals(1, probabilities[0] + probabilities[1], 1e-8);
+		}
+	}
+
+	/**
+	 * A pure birth chain 0 -> 1 -> ... -> n - 1 at rate lambda, whose state below the last one
+	 * at time t is Poisson distributed with mean lambda * t. The chain has enough states for the
+	 * rows to be split into parallel tasks, and the result must not depend on the pool.
+	 */
+	@Test
+	public void testBirthChain() {
+		int size = 10000;
+		double lambda = 2, time = 1500;
+		SparseRateMatrix.Builder builder = new SparseRateMatrix.Builder(size);
+		for (int i = 0; i < size - 1; i++) {
+			builder.addTransition(i, i + 1, lambda);
+		}
+		SparseRateMatrix matrix = builder.build();
+
+		double[] serial = new double[size];
+		serial[0] = 1;
+		double[] parallel = serial.clone();
+		TransientSolver solver = new TransientSolver(matrix, null);
+		assertTrue(solver.solve(serial, time, lambda, ERROR));
+		assertTrue(solver.getIterations() > lambda * time);
+		assertTrue(new TransientSolver(matrix, ForkJoinPool.commonPool()).solve(parallel, time, lambda, ERROR));
+
+		PoissonDistribution poisson = new PoissonDistribution(lambda * time);
+		for (int k = 0; k < size - 1; k++) {
+			assertEquals("state " + k, poisson.probability(k), serial[k], 1e-9);
+			assertEquals("state " + k, serial[k], parallel[k], 1e-15);
+		}
+	}
+
+	@Test
+	public void testStop() {
+		SparseRateMatrix.Builder builder = new SparseRateMatrix.Builder(2);
+		builder.addTransition(0, 1, 1);
+		TransientSolver solver = new TransientSolver(builder.build(), null);
+		solver.stop();
+		assertTrue(solver.isStopped());
+		assertFalse(solver.solve(new double[] { 1, 0 }, 1, 1, ERROR));
+	}
+}
@@ -27,6 +27,10 @@ import java.util.List;
 import java.util.Observable;
 import java.util.PriorityQueue;
 import java.util.Stack;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import edu.utah.ece.async.ibiosim.dataModels.util.Message;
 import edu.utah.ece.async.ibiosim.dataModels.util.observe.CoreObservable;
@@ -240,7 +244,7 @@ public class Analysis extends CoreObservable{
 		// Set of PrjStates that have been seen before. Set class documentation
 		// for how it behaves. Timing Change.
 //		HashMap<PrjState, PrjState> prjStateSet = generateStateSet();
-		StateSetInterface prjStateSet = generateStateSet();
+		StateSetInterface prjStateSet = generateStateSet(sgList);
 		
 		PrjState initPrjState;		
 		// Create the appropriate type for the PrjState depending on whether timing is 
@@ -589,6 +593,10 @@ public class Analysis extends CoreObservable{
 			+ ", max_stack_depth: " + max_stack_depth 
 			+ ", peak total memory: " + peakTotalMem / 1000000 + " MB"
 			+ ", peak used memory: " + peakUsedMem / 1000000 + " MB");
+		if (prjStateSet instanceof CompactStateSet)
+			System.out.println(((CompactStateSet) prjStateSet).stats());
+		if (prjStateSet instanceof TimedStateSet)
+			System.out.println(((TimedStateSet) prjStateSet).stats());
 		if(Options.getTimingAnalysisFlag()){// && !failure){
 			if(!failure){
 				if(Options.get_displayResults()){
@@ -666,6 +674,187 @@ public class Analysis extends CoreObservable{
 		return prjStateSet;
 	}
 	
+	/**
+	 * Parallel version of search_dfs for untimed, non-Markovian models. Every newly found
+	 * global state becomes a task in a fork/join pool, whose workers each keep a deque of
+	 * tasks and steal from the others when their own runs out. The visited states are kept in
+	 * a concurrent set, and each state records the state it was first reached from, so the
+	 * trace to a failure can be rebuilt. Each local state graph guards its state and firing
+	 * caches with its own lock, held only while a cache is read or updated, so the workers
+	 * fire transitions concurrently. Two workers computing the same next local state get the
+	 * same cached object back. The enabled sets are read from the local states, and the
+	 * failure, disabling error and deadlock checks run in parallel.
+	 * @param sgList
+	 * @param initStateArray
+	 * @return the set of reachable global states, or of those found before a failure.
+	 */
+	public StateSetInterface search_parallel(final StateGraph[] sgList, final State[] initStateArray) {
+		System.out.println("-------- Reachability Analysis ---------");
+		System.out.println("---> calling function search_parallel");
+		constructDstLpnList(sgList);
+		ParallelSearch search = new ParallelSearch(sgList);
+		PrjState initPrjState = new PrjState(initStateArray);
+		search.prjStateSet.add(initPrjState);
+		int threadCount = Options.getThreadCount();
+		if (threadCount <= 0)
+			threadCount = Runtime.getRuntime().availableProcessors();
+		ForkJoinPool pool = new ForkJoinPool(threadCount);
+		try {
+			pool.invoke(search.new ExpandTask(null, initPrjState));
+		}
+		finally {
+			pool.shutdown();
+		}
+		search.recordMemory();
+		double totalStateCnt = search.prjStateSet.size();
+		int tranFiringCnt = (int) search.tranFiringCnt.get();
+		System.out.println("---> final numbers: # LPN transition firings: "	+ tranFiringCnt 
+			+ ", # of prjStates found: " + totalStateCnt
+			+ ", # of threads: " + threadCount
+			+ ", peak total memory: " + search.peakTotalMem / 1000000 + " MB"
+			+ ", peak used memory: " + search.peakUsedMem / 1000000 + " MB");
+		PrjState failureState = search.failureState.get();
+		if (failureState != null) {
+			System.err.println(search.failureMessage);
+			System.out.println("Failure trace:");
+			for (Transition tran : getTrace(sgList, failureState))
+				System.out.println("\t" + tran.getFullLabel());
+		}
+		if (Options.getOutputLogFlag()) 
+			writePerformanceResultsToLogFile(false, tranFiringCnt, totalStateCnt, search.peakTotalMem / 1000000, 
+					search.peakUsedMem / 1000000);
+		return search.prjStateSet;
+	}
+	
+	/**
+	 * Returns the transitions leading from the initial state to the given state, following
+	 * the father of each state. The transition between two states is found by firing the
+	 * enabled transitions of the father again, which the state graphs answer from their caches.
+	 */
+	private static LinkedList<Transition> getTrace(final StateGraph[] sgList, PrjState state) {
+		LinkedList<Transition> trace = new LinkedList<Transition>();
+		while (state.getFather() != null) {
+			State[] fatherArray = state.getFather().toStateArray();
+			search_loop: for (int i = 0; i < sgList.length; i++) {
+				for (Transition tran : StateGraph.getEnabledFromTranVector(fatherArray[i])) {
+					if (Arrays.equals(sgList[i].fire(sgList, fatherArray, tran), state.toStateArray())) {
+						trace.addFirst(tran);
+						break search_loop;
+					}
+				}
+			}
+			state = state.getFather();
+		}
+		return trace;
+	}
+	
+	/**
+	 * The state shared by the workers of search_parallel.
+	 */
+	private static class ParallelSearch {
+		
+		private final StateGraph[] sgList;
+		private final ConcurrentStateSet prjStateSet = new ConcurrentStateSet();
+		private final AtomicLong tranFiringCnt = new AtomicLong();
+		private final AtomicReference<PrjState> failureState = new AtomicReference<PrjState>();
+		private volatile String failureMessage;
+		private volatile long peakTotalMem = 0;
+		private volatile long peakUsedMem = 0;
+		
+		ParallelSearch(StateGraph[] sgList) {
+			this.sgList = sgList;
+		}
+		
+		private void fail(PrjState state, String message) {
+			if (failureState.compareAndSet(null, state))
+				failureMessage = message;
+		}
+		
+		private synchronized void recordMemory() {
+			long curTotalMem = Runtime.getRuntime().totalMemory();
+			long curUsedMem = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+			if (curTotalMem > peakTotalMem)
+				peakTotalMem = curTotalMem;
+			if (curUsedMem > peakUsedMem)
+				peakUsedMem = curUsedMem;
+		}
+		
+		/**
+		 * Fires every enabled transition of one global state, and forks a task for each
+		 * global state that has not been seen before.
+		 */
+		private class ExpandTask extends CountedCompleter<Void> {
+
+			private static final long serialVersionUID = 1L;
+			
+			private final PrjState curPrjState;
+			
+			ExpandTask(CountedCompleter<?> completer, PrjState curPrjState) {
+				super(completer);
+				this.curPrjState = curPrjState;
+			}
+			
+			@Override
+			public void compute() {
+				if (failureState.get() == null)
+					expand();
+				tryComplete();
+			}
+			
+			private void expand() {
+				int numLpns = sgList.length;
+				State[] curStateArray = curPrjState.toStateArray();
+				List<LinkedList<Transition>> curEnabledArray = new ArrayList<LinkedList<Transition>>(); 
+				for (int i = 0; i < numLpns; i++) {
+					LinkedList<Transition> curEnabled = StateGraph.getEnabledFromTranVector(curStateArray[i]);
+					Transition failureTran = failureTranIsEnabled(curEnabled);
+					if (failureTran != null) {
+						fail(curPrjState, "*** Verification failed: failure transition " + failureTran.getFullLabel() + " is enabled.");
+						return;
+					}
+					curEnabledArray.add(curEnabled);
+				}
+				for (int curIndex = 0; curIndex < numLpns; curIndex++) {
+					for (Transition firedTran : curEnabledArray.get(curIndex)) {
+						State[] nextStateArray = sgList[curIndex].fire(sgList, curStateArray, firedTran);
+						tranFiringCnt.incrementAndGet();
+						PrjState nextPrjState = new PrjState(nextStateArray);
+						List<LinkedList<Transition>> nextEnabledArray = new ArrayList<LinkedList<Transition>>(); 
+						for (int i = 0; i < numLpns; i++) {
+							nextEnabledArray.add(StateGraph.getEnabledFromTranVector(nextStateArray[i]));
+							if (Options.getReportDisablingError()) {
+								Transition disabledTran = firedTran.disablingError(
+										curEnabledArray.get(i), nextEnabledArray.get(i));
+								if (disabledTran != null) {
+									nextPrjState.setFather(curPrjState);
+									fail(nextPrjState, "Disabling Error: " + disabledTran.getFullLabel() 
+											+ " is disabled by " + firedTran.getFullLabel());
+									return;
+								}
+							}
+						}
+						if (Analysis.deadLock(nextEnabledArray)) {
+							nextPrjState.setFather(curPrjState);
+							fail(nextPrjState, "*** Verification failed: deadlock.");
+							return;
+						}
+						nextPrjState.setFather(curPrjState);
+						if (prjStateSet.add(nextPrjState)) {
+							if (prjStateSet.size() % 100000 == 0) {
+								recordMemory();
+								System.out.println("---> # LPN transition firings: " + tranFiringCnt.get()
+										+ ", # of prjStates found: " + prjStateSet.size()
+										+ " used memory: " + (float) peakUsedMem / 1000000);
+							}
+							addToPendingCount(1);
+							new ExpandTask(this, nextPrjState).fork();
+						}
+					}
+				}
+			}
+		}
+	}
+	
 //	private boolean failureCheck(LinkedList<Transition> curEnabled) {
 //		boolean failureTranIsEnabled = false;
 //		for (Transition tran : curEnabled) {
@@ -707,10 +896,10 @@ public class Analysis extends CoreObservable{
 	 * Generates the appropriate version of a HashSet<PrjState> for storing
 	 * the "already seen" set of project states.
 	 * @return
-	 * 		Returns a HashSet<PrjState>, a StateSet, or a ProbGlobalStateSet
-	 * 				depending on the type.
+	 * 		Returns a HashSet<PrjState>, a StateSet, a ProbGlobalStateSet
+	 * 				or a CompactStateSet depending on the type.
 	 */
-	private static StateSetInterface generateStateSet(){
+	private static StateSetInterface generateStateSet(StateGraph[] sgList){
 		
 		boolean timed = Options.getTimingAnalysisFlag();
 		boolean subsets = Zone.getSubsetFlag();
@@ -722,6 +911,11 @@ public class Analysis extends CoreObservable{
 		else if(timed && (subsets || supersets)){
 			return new TimedStateSet();
 		}
+		// The compact set does not keep the PrjState objects, which timing analysis and 
+		// the global state graph output need.
+		else if(!timed && !Options.getOutputSgFlag() && Options.getStateFormat().startsWith("compact")){
+			return new CompactStateSet(sgList, Options.getStateFormat().equals("compactoffheap"));
+		}
 		
 		return new HashSetWrapper();
 	}
@@ -1463,7 +1657,7 @@ public class Analysis extends CoreObservable{
 				
 		HashSet<PrjState> stateStack = new HashSet<PrjState>();
 		Stack<LinkedList<Transition>> lpnTranStack = new Stack<LinkedList<Transition>>();
-		StateSetInterface prjStateSet = generateStateSet();
+		StateSetInterface prjStateSet = generateStateSet(sgList);
 		PrjState initPrjState;
 		// Create the appropriate type for the PrjState depending on whether timing is 
 		// being used or not. 
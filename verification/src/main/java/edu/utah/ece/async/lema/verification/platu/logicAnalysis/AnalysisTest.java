@@ -0,0 +1,158 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.platu.logicAnalysis;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+import edu.utah.ece.async.lema.verification.lpn.LPN;
+import edu.utah.ece.async.lema.verification.lpn.Transition;
+import edu.utah.ece.async.lema.verification.platu.main.Options;
+import edu.utah.ece.async.lema.verification.platu.project.PrjState;
+import edu.utah.ece.async.lema.verification.platu.stategraph.State;
+import edu.utah.ece.async.lema.verification.platu.stategraph.StateGraph;
+
+/**
+ * Checks that the parallel reachability search finds the same global states, local states
+ * and local transitions as the sequential depth-first search.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class AnalysisTest {
+
+	private static final int MODULES = 5;
+
+	private static final int COUNTER_LIMIT = 30;
+
+	@After
+	public void resetOptions() {
+		Options.setThreadCount(0);
+	}
+
+	/**
+	 * Creates a ring of modules that each copy the output of their predecessor, the first
+	 * one inverted, and a counter in the first module that runs independently of the ring.
+	 */
+	private static StateGraph[] ring() {
+		StateGraph[] sgList = new StateGraph[MODULES];
+		for (int i = 0; i < MODULES; i++) {
+			LPN lpn = new LPN();
+			lpn.setLabel("m" + i);
+			String in = "x" + ((i + MODULES - 1) % MODULES), out = "x" + i;
+			lpn.addInput(in, "boolean", "false");
+			lpn.addOutput(out, "boolean", "false");
+			lpn.addPlace("p0_" + i, true);
+			lpn.addPlace("p1_" + i, false);
+			lpn.addTransition("up" + i);
+			lpn.addTransition("dn" + i);
+			lpn.addMovement("p0_" + i, "up" + i);
+			lpn.addMovement("up" + i, "p1_" + i);
+			lpn.addMovement("p1_" + i, "dn" + i);
+			lpn.addMovement("dn" + i, "p0_" + i);
+			lpn.addEnabling("up" + i, i == 0 ? "~" + in : in);
+			lpn.addEnabling("dn" + i, i == 0 ? in : "~" + in);
+			lpn.addBoolAssign("up" + i, out, "true");
+			lpn.addBoolAssign("dn" + i, out, "false");
+			if (i == 0) {
+				lpn.addInteger("c", "0");
+				lpn.addPlace("q", true);
+				lpn.addTransition("inc");
+				lpn.addMovement("q", "inc");
+				lpn.addMovement("inc", "q");
+				lpn.addEnabling("inc", "c<" + COUNTER_LIMIT);
+				lpn.addIntAssign("inc", "c", "c+1");
+				lpn.addTransition("rst");
+				lpn.addMovement("q", "rst");
+				lpn.addMovement("rst", "q");
+				lpn.addEnabling("rst", "c>=" + COUNTER_LIMIT);
+				lpn.addIntAssign("rst", "c", "0");
+			}
+			lpn.setLpnIndex(i);
+			StateGraph sg = new StateGraph(lpn);
+			lpn.addStateGraph(sg);
+			sgList[i] = sg;
+		}
+		return sgList;
+	}
+
+	/**
+	 * Creates the initial global state the way Project does.
+	 */
+	private static State[] initialState(StateGraph[] sgList) {
+		State[] initStateArray = new State[sgList.length];
+		HashMap<String, Integer> varValMap = new HashMap<String, Integer>();
+		for (int i = 0; i < sgList.length; i++) {
+			initStateArray[i] = sgList[i].genInitialState();
+			varValMap.putAll(sgList[i].getLpn().getAllVarsWithValuesAsInt(initStateArray[i].getVariableVector()));
+		}
+		for (int i = 0; i < sgList.length; i++) {
+			initStateArray[i].update(sgList[i], varValMap, sgList[i].getLpn().getVarIndexMap());
+			initStateArray[i] = sgList[i].addState(initStateArray[i]);
+		}
+		return initStateArray;
+	}
+
+	/**
+	 * Describes a global state by the contents of its local states, which do not depend on
+	 * the order in which the local states were numbered.
+	 */
+	private static Set<String> describe(StateSetInterface states) {
+		Set<String> descriptions = new HashSet<String>();
+		for (PrjState state : states) {
+			StringBuilder description = new StringBuilder();
+			for (State local : state.toStateArray()) {
+				description.append(Arrays.toString(local.getMarking()))
+						.append(Arrays.toString(local.getVariableVector()));
+			}
+			descriptions.add(description.toString());
+		}
+		return descriptions;
+	}
+
+	private static int countLocalTransitions(StateGraph sg) {
+		int count = 0;
+		for (HashMap<Transition, State> next : sg.getNextStateMap().values()) {
+			count += next.size();
+		}
+		return count;
+	}
+
+	@Test
+	public void testParallelMatchesDepthFirst() {
+		StateGraph[] serialList = ring();
+		StateSetInterface serial = new Analysis(serialList).search_dfs(serialList, initialState(serialList));
+
+		Options.setThreadCount(4);
+		StateGraph[] parallelList = ring();
+		StateSetInterface parallel = new Analysis(parallelList).search_parallel(parallelList, initialState(parallelList));
+
+		// The ring has 2 * MODULES phases and the counter COUNTER_LIMIT + 1 values.
+		assertEquals(2 * MODULES * (COUNTER_LIMIT + 1), serial.size());
+		assertEquals(serial.size(), parallel.size());
+		assertEquals(describe(serial), describe(parallel));
+		for (int i = 0; i < MODULES; i++) {
+			assertEquals("module " + i, serialList[i].reachSize(), parallelList[i].reachSize());
+			assertEquals("module " + i, countLocalTransitions(serialList[i]), countLocalTransitions(parallelList[i]));
+		}
+	}
+}
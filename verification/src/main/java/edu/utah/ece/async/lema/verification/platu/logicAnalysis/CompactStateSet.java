@@ -0,0 +1,346 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.platu.logicAnalysis;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import edu.utah.ece.async.lema.verification.platu.project.PrjState;
+import edu.utah.ece.async.lema.verification.platu.stategraph.State;
+import edu.utah.ece.async.lema.verification.platu.stategraph.StateGraph;
+
+/**
+ * Set of visited global states that stores each global state as the tuple of the indices of
+ * its local states in their state graphs, instead of as a PrjState object. The tuples are
+ * appended to a block store in the order they are added, and an open-addressing table with
+ * linear probing maps their hash codes to their positions. Both can be kept off the Java heap
+ * in direct byte buffers. Only the local state indices are kept, so iterating the set creates
+ * new PrjState objects from the local states cached in the state graphs.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class CompactStateSet implements StateSetInterface {
+
+	/*
+	 * The tuple store grows by blocks of 2^BLOCK_BITS integers, so it is never copied.
+	 */
+	private static final int BLOCK_BITS = 20;
+
+	private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+
+	private static final int INITIAL_CAPACITY = 1 << 12;
+
+	/*
+	 * The slot table doubles up to these sizes. A direct buffer is sized in bytes by an int, so
+	 * it holds at most 2^29 - 1 integers.
+	 */
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	private static final int MAX_DIRECT_CAPACITY = 1 << 28;
+
+	private static final double MAX_LOAD_FACTOR = 0.7;
+
+	private final StateGraph[] sgList;
+
+	private final int width;
+
+	private final boolean offHeap;
+
+	/*
+	 * The local state indices of the states, width integers per state.
+	 */
+	private IntBlock[] tuples;
+
+	/*
+	 * Each slot holds one plus the number of a state in the tuple store, or zero when empty.
+	 */
+	private IntBlock slots;
+
+	private int capacity;
+
+	private int size;
+
+	private long lookups;
+
+	private long probes;
+
+	private int resizes;
+
+	public CompactStateSet(StateGraph[] sgList, boolean offHeap) {
+		this.sgList = sgList;
+		this.width = sgList.length;
+		this.offHeap = offHeap;
+		this.tuples = new IntBlock[0];
+		this.capacity = INITIAL_CAPACITY;
+		this.slots = IntBlock.allocate(capacity, offHeap);
+		this.size = 0;
+	}
+
+	@Override
+	public boolean contains(PrjState state) {
+		return find(state.toStateArray()) >= 0;
+	}
+
+	@Override
+	public boolean add(PrjState state) {
+		State[] stateArray = state.toStateArray();
+		int slot = find(stateArray);
+		if (slot >= 0) {
+			return false;
+		}
+		long position = (long) size * width;
+		for (int i = 0; i < width; i++) {
+			setTuple(position + i, stateArray[i].getIndex());
+		}
+		size++;
+		slots.put(-slot - 1, size);
+		if (size > capacity * MAX_LOAD_FACTOR) {
+			resize();
+		}
+		return true;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the slot holding the given global state, or -(slot + 1) for the empty slot where
+	 * it would be inserted.
+	 */
+	private int find(State[] stateArray) {
+		lookups++;
+		int mask = capacity - 1;
+		int slot = hash(stateArray) & mask;
+		while (true) {
+			probes++;
+			int entry = slots.get(slot);
+			if (entry == 0) {
+				return -slot - 1;
+			}
+			if (matches(entry - 1, stateArray)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private boolean matches(int number, State[] stateArray) {
+		long position = (long) number * width;
+		for (int i = 0; i < width; i++) {
+			if (getTuple(position + i) != stateArray[i].getIndex()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int hash(State[] stateArray) {
+		int h = 1;
+		for (State state : stateArray) {
+			h = 31 * h + state.getIndex();
+		}
+		return mix(h);
+	}
+
+	private int hash(int number) {
+		long position = (long) number * width;
+		int h = 1;
+		for (int i = 0; i < width; i++) {
+			h = 31 * h + getTuple(position + i);
+		}
+		return mix(h);
+	}
+
+	/*
+	 * Spreads the bits of a hash code, so that consecutive local state indices do not fill
+	 * consecutive slots.
+	 */
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private void resize() {
+		if (capacity == getMaxCapacity(offHeap)) {
+			throw new IllegalStateException("The compact state set is full.");
+		}
+		slots.free();
+		capacity = capacity << 1;
+		slots = IntBlock.allocate(capacity, offHeap);
+		int mask = capacity - 1;
+		for (int number = 0; number < size; number++) {
+			int slot = hash(number) & mask;
+			while (slots.get(slot) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots.put(slot, number + 1);
+		}
+		resizes++;
+	}
+
+	/**
+	 * Returns the largest number of slots of a set kept on or off the Java heap.
+	 */
+	static int getMaxCapacity(boolean offHeap) {
+		return offHeap ? MAX_DIRECT_CAPACITY : MAX_CAPACITY;
+	}
+
+	private int getTuple(long position) {
+		return tuples[(int) (position >>> BLOCK_BITS)].get((int) (position & (BLOCK_SIZE - 1)));
+	}
+
+	private void setTuple(long position, int value) {
+		int block = (int) (position >>> BLOCK_BITS);
+		if (block == tuples.length) {
+			IntBlock[] newTuples = new IntBlock[block + 1];
+			System.arraycopy(tuples, 0, newTuples, 0, block);
+			newTuples[block] = IntBlock.allocate(BLOCK_SIZE, offHeap);
+			tuples = newTuples;
+		}
+		tuples[block].put((int) (position & (BLOCK_SIZE - 1)), value);
+	}
+
+	/**
+	 * Returns the global state with the given number, in the order the states were added.
+	 */
+	public PrjState get(int number) {
+		long position = (long) number * width;
+		State[] stateArray = new State[width];
+		for (int i = 0; i < width; i++) {
+			stateArray[i] = sgList[i].getState(getTuple(position + i));
+		}
+		return new PrjState(stateArray);
+	}
+
+	@Override
+	public Iterator<PrjState> iterator() {
+		return new Iterator<PrjState>() {
+
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public PrjState next() {
+				if (next >= size) {
+					throw new NoSuchElementException();
+				}
+				return get(next++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Returns the number of bytes used by the tuple store and the slot table.
+	 */
+	public long getMemoryUsage() {
+		return 4L * BLOCK_SIZE * tuples.length + 4L * capacity;
+	}
+
+	public String stats() {
+		return "States in state table: " + size
+				+ ", table capacity: " + capacity
+				+ ", load factor: " + String.format("%.2f", (double) size / capacity)
+				+ ", average probe length: " + String.format("%.2f", lookups == 0 ? 0 : (double) probes / lookups)
+				+ ", resizes: " + resizes
+				+ ", memory: " + getMemoryUsage() / 1000000 + " MB" + (offHeap ? " (off-heap)" : "");
+	}
+
+	/*
+	 * Fixed-size block of integers, either a Java array or a direct buffer outside the heap.
+	 */
+	private static abstract class IntBlock {
+
+		static IntBlock allocate(int length, boolean offHeap) {
+			if (offHeap) {
+				return new DirectIntBlock(length);
+			}
+			return new HeapIntBlock(length);
+		}
+
+		abstract int get(int index);
+
+		abstract void put(int index, int value);
+
+		void free() {
+		}
+	}
+
+	private static final class HeapIntBlock extends IntBlock {
+
+		private int[] values;
+
+		HeapIntBlock(int length) {
+			values = new int[length];
+		}
+
+		@Override
+		int get(int index) {
+			return values[index];
+		}
+
+		@Override
+		void put(int index, int value) {
+			values[index] = value;
+		}
+
+		@Override
+		void free() {
+			values = null;
+		}
+	}
+
+	private static final class DirectIntBlock extends IntBlock {
+
+		private IntBuffer values;
+
+		DirectIntBlock(int length) {
+			values = ByteBuffer.allocateDirect(4 * length).order(ByteOrder.nativeOrder()).asIntBuffer();
+		}
+
+		@Override
+		int get(int index) {
+			return values.get(index);
+		}
+
+		@Override
+		void put(int index, int value) {
+			values.put(index, value);
+		}
+
+		@Override
+		void free() {
+			values = null;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.platu.logicAnalysis;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.utah.ece.async.lema.verification.lpn.LPN;
+import edu.utah.ece.async.lema.verification.platu.project.PrjState;
+import edu.utah.ece.async.lema.verification.platu.stategraph.State;
+import edu.utah.ece.async.lema.verification.platu.stategraph.StateGraph;
+
+/**
+ * Checks the compact state set against a set of local state index tuples, on the heap and
+ * off it, with enough states to resize the slot table several times.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class CompactStateSetTest {
+
+	private static final int MODULES = 3;
+
+	private static final int LOCAL_STATES = 40;
+
+	/**
+	 * Creates state graphs whose local states differ in the value of one integer variable.
+	 */
+	private static StateGraph[] stateGraphs() {
+		StateGraph[] sgList = new StateGraph[MODULES];
+		for (int i = 0; i < MODULES; i++) {
+			LPN lpn = new LPN();
+			lpn.setLabel("m" + i);
+			lpn.addInteger("x" + i, "0");
+			lpn.setLpnIndex(i);
+			StateGraph sg = new StateGraph(lpn);
+			for (int value = 0; value < LOCAL_STATES; value++) {
+				State state = sg.addState(new State(lpn, new int[0], new int[] { value }, new boolean[0]));
+				assertEquals(value, state.getIndex());
+			}
+			sgList[i] = sg;
+		}
+		return sgList;
+	}
+
+	private static PrjState globalState(StateGraph[] sgList, int[] tuple) {
+		State[] stateArray = new State[tuple.length];
+		for (int i = 0; i < tuple.length; i++) {
+			stateArray[i] = sgList[i].getState(tuple[i]);
+		}
+		return new PrjState(stateArray);
+	}
+
+	private static List<Integer> indices(PrjState state) {
+		List<Integer> indices = new ArrayList<Integer>();
+		for (State local : state.toStateArray()) {
+			indices.add(local.getIndex());
+		}
+		return indices;
+	}
+
+	private static void checkAgainstReference(boolean offHeap) {
+		StateGraph[] sgList = stateGraphs();
+		CompactStateSet set = new CompactStateSet(sgList, offHeap);
+		HashSet<List<Integer>> reference = new HashSet<List<Integer>>();
+		List<List<Integer>> order = new ArrayList<List<Integer>>();
+		Random random = new Random(17);
+		for (int round = 0; round < 40000; round++) {
+			int[] tuple = new int[MODULES];
+			for (int i = 0; i < MODULES; i++) {
+				tuple[i] = random.nextInt(LOCAL_STATES);
+			}
+			PrjState state = globalState(sgList, tuple);
+			List<Integer> key = indices(state);
+			assertEquals(reference.contains(key), set.contains(state));
+			boolean added = reference.add(key);
+			assertEquals(Arrays.toString(tuple), added, set.add(state));
+			if (added) {
+				order.add(key);
+			}
+			assertTrue(set.contains(state));
+			assertEquals(reference.size(), set.size());
+		}
+		// 40000 draws from 64000 tuples leave some unseen and force several resizes.
+		assertTrue(set.size() > 20000 && set.size() < LOCAL_STATES * LOCAL_STATES * LOCAL_STATES);
+
+		// The states come back in the order they were added, rebuilt from the state graphs.
+		Iterator<PrjState> iterator = set.iterator();
+		for (int number = 0; number < order.size(); number++) {
+			assertTrue(iterator.hasNext());
+			PrjState state = iterator.next();
+			assertEquals(order.get(number), indices(state));
+			assertEquals(order.get(number), indices(set.get(number)));
+			assertSame(sgList[0].getState(order.get(number).get(0)), state.toStateArray()[0]);
+		}
+		assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void testOnHeap() {
+		checkAgainstReference(false);
+	}
+
+	@Test
+	public void testOffHeap() {
+		checkAgainstReference(true);
+	}
+
+	/**
+	 * The largest slot table kept off the heap must have a byte size that fits in an int, or
+	 * allocating it fails with a negative capacity instead of reporting a full set.
+	 */
+	@Test
+	public void testMaxCapacity() {
+		int direct = CompactStateSet.getMaxCapacity(true);
+		assertEquals(1, Integer.bitCount(direct));
+		assertTrue(4 * direct > 0);
+		assertTrue(4 * (direct << 1) < 0);
+		assertEquals(1 << 30, CompactStateSet.getMaxCapacity(false));
+	}
+}
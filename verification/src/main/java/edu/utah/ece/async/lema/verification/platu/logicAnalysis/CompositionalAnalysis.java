@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.Stack;
 
+import edu.utah.ece.async.lema.verification.lpn.CompiledTransition;
 import edu.utah.ece.async.lema.verification.lpn.LPN;
 import edu.utah.ece.async.lema.verification.lpn.Transition;
 import edu.utah.ece.async.lema.verification.platu.common.Pair;
@@ -2397,18 +2398,10 @@ public class CompositionalAnalysis {
 //	}
 	
 	/**
-     * Constructs the compositional state graphs.
-     */
-	public static void compositionalFindSG(StateGraph[] sgArray){
-//		BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-//		try {
-//			br.readLine();
-//		} catch (IOException e) {
-//			e.printStackTrace();
-//		}
- 		int iter = 0;
-		int newTransitions = 0;
-		long start = System.currentTimeMillis();
+	 * Adds the initial state of each state graph and finds the interfaces between their LPNs.
+	 * @return For each state graph, the state graphs whose constraints apply to it.
+	 */
+	private static HashMap<StateGraph, List<StateGraph>> genInputSrcMap(StateGraph[] sgArray){
 		HashMap<StateGraph, List<StateGraph>> inputSrcMap = new HashMap<StateGraph, List<StateGraph>>();
 		for (StateGraph sg : sgArray) {
 			LPN lpn = sg.getLpn();
@@ -2495,6 +2488,23 @@ public class CompositionalAnalysis {
 			lpn.setOtherIndexList(otherInterfaceList);
 			inputSrcMap.put(sg, srcArray);
 		}
+		return inputSrcMap;
+	}
+	
+	/**
+     * Constructs the compositional state graphs.
+     */
+	public static void compositionalFindSG(StateGraph[] sgArray){
+//		BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+//		try {
+//			br.readLine();
+//		} catch (IOException e) {
+//			e.printStackTrace();
+//		}
+ 		int iter = 0;
+		int newTransitions = 0;
+		long start = System.currentTimeMillis();
+		HashMap<StateGraph, List<StateGraph>> inputSrcMap = genInputSrcMap(sgArray);
 		
 		// TODO: (temp) designUnitSet has been created already at this point. 
 //		LhpnFile[] lpnList = new LhpnFile[designUnitSet.size()];
@@ -2573,194 +2583,69 @@ public class CompositionalAnalysis {
 	}
 	
 	/**
-     * Constructs the compositional state graphs.
+     * Constructs the compositional state graphs, extracting and applying the constraints of each
+     * iteration in parallel (see CompositionalRefinement).
      */
 	public static void parallelCompositionalFindSG(List<StateGraph> designUnitSet){
-//		BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-//		try {
-//			br.readLine();
-//		} catch (IOException e) {
-//			e.printStackTrace();
-//		}
-		
 		int iter = 0;
 		int newTransitions = 0;
 		long start = System.currentTimeMillis();
-		HashMap<StateGraph, StateGraph[]> inputSrcMap = new HashMap<StateGraph, StateGraph[]>();
-		
-		for (StateGraph sg : designUnitSet) {
-			LPN lpn = sg.getLpn();
-			
-            // Add initial state to state graph
-			State init = sg.genInitialState();
-			sg.setInitialState(init);
-			sg.addState(init);
-			sg.addFrontierState(init);
-			
-			Set<String> inputSet = lpn.getAllInputs().keySet();
-			Set<String> outputSet = lpn.getAllOutputs().keySet();
-			int size = 0;
-			
-			// Find lpn interfaces
-			for(StateGraph sg2 : designUnitSet){				
-				if(sg == sg2) continue;
-				
-				Set<String> outputs = sg2.getLpn().getAllOutputs().keySet();
-				for(String output : outputs){
-					if (inputSet.contains(output)){
-						size++;
-						break;
-					}
-				}
-			}
-
-			List<int[]> thisInterfaceList = new ArrayList<int[]>(designUnitSet.size() + 1);
-			List<int[]> otherInterfaceList = new ArrayList<int[]>(designUnitSet.size() + 1);
-			for(int i = 0; i < designUnitSet.size() + 1; i++){
-				thisInterfaceList.add(null);
-				otherInterfaceList.add(null);
-			}
-			
-			StateGraph[] srcArray = new StateGraph[size];
-			
-			if(size > 0){
-				int index = 0;
-				for(StateGraph sg2 : designUnitSet){	
-					LPN lpn2 = sg2.getLpn();
-					if(sg == sg2) continue;
-					
-					boolean src = false;
-					//int interfaceSize = 0;
-					Set<String> outputs = lpn2.getAllOutputs().keySet();
-					for(String output : outputs){
-						if (inputSet.contains(output)){
-							//interfaceSize++;
-							src = true;
-						}
-					}
-
-					if(src){
-						Set<String> inputs = lpn2.getAllInputs().keySet();
-						for(String input : inputs){
-							if (outputSet.contains(input)){
-								//interfaceSize++;
-							}
-						}
-						
-						for(String input : inputs){
-							if (inputSet.contains(input)){
-								//interfaceSize++;
-							}
-						}
-						
-						for(String output : outputs){
-							if (outputSet.contains(output)){
-								//interfaceSize++;
-							}
-						}
-						
-						//int[] thisIndexList = new int[interfaceSize];
-						//int[] otherIndexList = new int[interfaceSize];
-						// TODO: (future) need to add getThisIndexArray in LhpnFile
-						/*
-						lpn.genIndexLists(thisIndexList, otherIndexList, lpn2);
-						
-						thisInterfaceList.set(lpn2.ID, thisIndexList);
-						otherInterfaceList.set(lpn2.ID, otherIndexList);
-						*/
-						srcArray[index] = sg2;
-						index++;
-					}
-				}
-			}
-			lpn.setThisIndexList(thisInterfaceList);
-			lpn.setOtherIndexList(otherInterfaceList);
-			inputSrcMap.put(sg, srcArray);
-		}
-		
-		LPN[] lpnList = new LPN[designUnitSet.size()];
-
-		int idx = 0;
-		for (StateGraph sg : designUnitSet) {
-			lpnList[idx] = sg.getLpn();
-			idx++;
-		}	
-		
+		StateGraph[] sgArray = designUnitSet.toArray(new StateGraph[designUnitSet.size()]);
+		HashMap<StateGraph, List<StateGraph>> inputSrcMap = genInputSrcMap(sgArray);
+		constructDstLpnList(sgArray);
 		// Run initial findSG
-		for (StateGraph sg : designUnitSet) {
-			int result = sg.constrFindSG(sg.getInitialState());
-			newTransitions += result;
+		for (StateGraph sg : sgArray) {
+			newTransitions += sg.constrFindSG(sg.getInitialState());
 		}
 
 		long peakUsed = 0;
 		long peakTotal = 0;
 
-		CompositionalThread[] threadArray = new CompositionalThread[designUnitSet.size()];
-		while(newTransitions > 0){
-			iter++;
-			newTransitions = 0;
-			
-			for(StateGraph sg : designUnitSet){
-				sg.genConstraints();
-				sg.genFrontier();
-			}
-			
-			int t = 0;
-			for(StateGraph sg : designUnitSet){
-				CompositionalThread newThread = new CompositionalThread(sg, inputSrcMap.get(sg), iter);
-			    newThread.start();
-			    threadArray[t++] = newThread;
-			}
-
-			for(CompositionalThread p : threadArray){
-				try {
-					p.join();
-					newTransitions += p.getNewTransitions();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
+		int threadCount = Options.getThreadCount();
+		if (threadCount <= 0)
+			threadCount = Runtime.getRuntime().availableProcessors();
+		CompositionalRefinement refinement = new CompositionalRefinement(threadCount);
+		try {
+			while(newTransitions > 0){
+				iter++;
+				newTransitions = refinement.refine(sgArray, inputSrcMap, iter);
+				long curTotalMem = Runtime.getRuntime().totalMemory();
+				if(curTotalMem > peakTotal)
+					peakTotal = curTotalMem;
+				long curUsedMem = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+				if(curUsedMem > peakUsed)
+					peakUsed = curUsedMem;
 			}
-			
-			long curTotalMem = Runtime.getRuntime().totalMemory();
-			if(curTotalMem > peakTotal)
-				peakTotal = curTotalMem;
-			
-			long curUsedMem = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
-			if(curUsedMem > peakUsed)
-				peakUsed = curUsedMem;
 		}
-		
+		finally {
+			refinement.shutdown();
+		}
 		System.out.println();
-		
 		int numStates = 0;
-		int numTrans = 0;
 		int numConstr = 0;
-		for (StateGraph sg : designUnitSet) {
+		for (StateGraph sg : sgArray) {
+			sg.genConstraints();
+			sg.genFrontier();
 			System.out.print("   ");
 			sg.printStates();
-			
 			numStates += sg.reachSize();
-			//numTrans += sg.numTransitions();
 			numConstr += sg.numConstraints();
 		}
 		
 		System.out.println("\n   --> # states: " + numStates);
-		System.out.println("   --> # transitions: " + numTrans);
 		System.out.println("   --> # constraints: " + numConstr);
 		System.out.println("   --> # iterations: " + iter);
-		
+		System.out.println("   --> # threads: " + refinement.getNumThreads());
 		System.out.println("\n   --> Peak used memory: " + peakUsed/1000000F + " MB");
 		System.out.println("   --> Peak total memory: " + peakTotal/1000000F + " MB");
 		System.out.println("   --> Final used memory: " + (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory())/1000000F + " MB");
-		
 		long elapsedTimeMillis = System.currentTimeMillis()-start; 
 		float elapsedTimeSec = elapsedTimeMillis/1000F;
 		System.out.println("   --> Elapsed time: " + elapsedTimeSec + " sec");
-		
 		if(elapsedTimeSec > 60){
 			float elapsedTime = elapsedTimeSec/60;
 			System.out.println("   --> Elapsed time: " + elapsedTime + " min");
-		}	
+		}
 	}
 	
 	/**
@@ -2828,7 +2713,7 @@ public class CompositionalAnalysis {
      * Determines whether a constraint is compatible with a state.
      * @return True if compatible, otherwise False.
      */
-	private static boolean compatible(State currentState, Constraint constr, int[] thisIndexList, int[] otherIndexList){
+	static boolean compatible(State currentState, Constraint constr, int[] thisIndexList, int[] otherIndexList){
 		int[] constraintVector = constr.getVector();
 		int[] currentVector = currentState.getVariableVector();
 		for(int i = 0; i < thisIndexList.length; i++){
@@ -2846,7 +2731,14 @@ public class CompositionalAnalysis {
      * @return Number of new transitions.
      */
 	private static int createNewState(StateGraph sg, State compatibleState, Constraint c){
-		int newTransitions = 0;
+		return addConstrainedState(sg, compatibleState, c, genConstrainedState(compatibleState, c));
+	}
+	
+	/**
+     * Creates the state reached from a compatible state by the variable changes of a constraint.
+     * Reads the compatible state only, so it may be called from several threads.
+     */
+	static State genConstrainedState(State compatibleState, Constraint c){
 		State newState = new State(compatibleState);
 		int[] newVector = newState.getVariableVector();		
 		//List<VarNode> variableList = c.getVariableList();
@@ -2861,6 +2753,15 @@ public class CompositionalAnalysis {
 			newVector[index] = valueList.get(i);
 		}
 		updateTranVectorByConstraint(newState.getLpn(), newState.getTranVector(), newState.getMarking(), newVector);
+		return newState;
+	}
+	
+	/**
+     * Inserts a state created by genConstrainedState into the state graph.  If the state is new, then findSG is called.
+     * @return Number of new transitions.
+     */
+	static int addConstrainedState(StateGraph sg, State compatibleState, Constraint c, State newState){
+		int newTransitions = 0;
 		State nextState = sg.addState(newState);
 		if(nextState == newState){
 			int result = 0;
@@ -2911,8 +2812,8 @@ public class CompositionalAnalysis {
     		if (Options.getDebugMode()) {
 //    			System.out.println("Checking " + tranName);
     		}
-    		if (lpn.getEnablingTree(tranName) != null 
-    				&& lpn.getEnablingTree(tranName).evaluateExpr(lpn.getAllVarsWithValuesAsString(newVector)) == 0.0) {
+    		CompiledTransition compiledTran = lpn.getCompiledTransition(tranName);
+    		if (compiledTran.isEnablingFalse(newVector)) {
     			if (Options.getDebugMode()) {
     				System.out.println(tran.getLabel() + " " + "Enabling condition is false");    			
     			}					
@@ -2920,8 +2821,7 @@ public class CompositionalAnalysis {
     				enabledTran[tranIndex] = false;
     			continue;
     		}
-    		if (lpn.getTransitionRateTree(tranName) != null 
-    				&& lpn.getTransitionRateTree(tranName).evaluateExpr(lpn.getAllVarsWithValuesAsString(newVector)) == 0.0) {
+    		if (compiledTran.isRateZero(newVector)) {
     			if (Options.getDebugMode()) {
     				System.out.println("Rate is zero");
     			}					
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.platu.logicAnalysis;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import edu.utah.ece.async.lema.verification.lpn.LPN;
+import edu.utah.ece.async.lema.verification.platu.main.Options;
+import edu.utah.ece.async.lema.verification.platu.stategraph.State;
+import edu.utah.ece.async.lema.verification.platu.stategraph.StateGraph;
+
+/**
+ * Checks that the parallel compositional state graph construction finds the same local states
+ * and constraints as the sequential one.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class CompositionalAnalysisTest {
+
+	private static final int MODULES = 6;
+
+	/*
+	 * Large enough for the states of the first module to be matched in several chunks.
+	 */
+	private static final int COUNTER_LIMIT = 200;
+
+	@After
+	public void resetOptions() {
+		Options.setThreadCount(0);
+	}
+
+	/**
+	 * Creates a ring of modules that each copy the output of their predecessor, the first
+	 * one inverted, and a counter in the first module that only runs while its input is
+	 * false. The states of the first module with a true input are then only reached by
+	 * applying constraints to each of its states with a false input.
+	 */
+	private static StateGraph[] ring() {
+		StateGraph[] sgList = new StateGraph[MODULES];
+		for (int i = 0; i < MODULES; i++) {
+			LPN lpn = new LPN();
+			lpn.setLabel("m" + i);
+			String in = "x" + ((i + MODULES - 1) % MODULES), out = "x" + i;
+			lpn.addInput(in, "boolean", "false");
+			lpn.addOutput(out, "boolean", "false");
+			lpn.addPlace("p0_" + i, true);
+			lpn.addPlace("p1_" + i, false);
+			lpn.addTransition("up" + i);
+			lpn.addTransition("dn" + i);
+			lpn.addMovement("p0_" + i, "up" + i);
+			lpn.addMovement("up" + i, "p1_" + i);
+			lpn.addMovement("p1_" + i, "dn" + i);
+			lpn.addMovement("dn" + i, "p0_" + i);
+			lpn.addEnabling("up" + i, i == 0 ? "~" + in : in);
+			lpn.addEnabling("dn" + i, i == 0 ? in : "~" + in);
+			lpn.addBoolAssign("up" + i, out, "true");
+			lpn.addBoolAssign("dn" + i, out, "false");
+			if (i == 0) {
+				lpn.addInteger("c", "0");
+				lpn.addPlace("q", true);
+				lpn.addTransition("inc");
+				lpn.addMovement("q", "inc");
+				lpn.addMovement("inc", "q");
+				lpn.addEnabling("inc", "~" + in + "&c<" + COUNTER_LIMIT);
+				lpn.addIntAssign("inc", "c", "c+1");
+				lpn.addTransition("rst");
+				lpn.addMovement("q", "rst");
+				lpn.addMovement("rst", "q");
+				lpn.addEnabling("rst", "~" + in + "&c>=" + COUNTER_LIMIT);
+				lpn.addIntAssign("rst", "c", "0");
+			}
+			lpn.setLpnIndex(i);
+			StateGraph sg = new StateGraph(lpn);
+			lpn.addStateGraph(sg);
+			sgList[i] = sg;
+		}
+		initialState(sgList);
+		return sgList;
+	}
+
+	/**
+	 * Creates the initial state of each state graph the way Project does.
+	 */
+	private static void initialState(StateGraph[] sgList) {
+		State[] initStateArray = new State[sgList.length];
+		HashMap<String, Integer> varValMap = new HashMap<String, Integer>();
+		for (int i = 0; i < sgList.length; i++) {
+			initStateArray[i] = sgList[i].genInitialState();
+			varValMap.putAll(sgList[i].getLpn().getAllVarsWithValuesAsInt(initStateArray[i].getVariableVector()));
+		}
+		for (int i = 0; i < sgList.length; i++) {
+			initStateArray[i].update(sgList[i], varValMap, sgList[i].getLpn().getVarIndexMap());
+			sgList[i].addState(initStateArray[i]);
+		}
+	}
+
+	@Test
+	public void testParallelMatchesSerial() {
+		StateGraph[] serialList = ring();
+		CompositionalAnalysis.compositionalFindSG(serialList);
+
+		Options.setThreadCount(4);
+		StateGraph[] parallelList = ring();
+		CompositionalAnalysis.parallelCompositionalFindSG(Arrays.asList(parallelList));
+
+		// The first module has two phases and two input values for each value of the counter.
+		assertEquals(4 * (COUNTER_LIMIT + 1), serialList[0].reachSize());
+		for (int i = 0; i < MODULES; i++) {
+			assertEquals("module " + i, serialList[i].reachSize(), parallelList[i].reachSize());
+			assertEquals("module " + i, serialList[i].numConstraints(), parallelList[i].numConstraints());
+		}
+	}
+}
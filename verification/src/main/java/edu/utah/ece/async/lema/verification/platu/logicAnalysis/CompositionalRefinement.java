@@ -0,0 +1,344 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.platu.logicAnalysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.utah.ece.async.lema.verification.lpn.LPN;
+import edu.utah.ece.async.lema.verification.platu.stategraph.State;
+import edu.utah.ece.async.lema.verification.platu.stategraph.StateGraph;
+
+/**
+ * Runs the iterations of the compositional state graph construction on a pool of threads
+ * that is reused across the iterations. Each iteration has three phases, separated by
+ * waiting for all their tasks:
+ * <ol>
+ * <li>extract: the new and old constraints of each state graph are grouped by the LPN that
+ * generated them, in tasks for the new and the old constraints of each state graph;</li>
+ * <li>match: the states and frontier states of each state graph are split into chunks, and
+ * each task finds the constraints compatible with the states of its chunk and creates the
+ * states they lead to. Nothing is written to the state graphs in this phase;</li>
+ * <li>apply: the new states are added to each state graph and explored from, one task per
+ * state graph, as a state graph is not thread-safe. The constraints found while exploring
+ * are added to the concurrent constraint sets of the other state graphs.</li>
+ * </ol>
+ * As the matching is split by chunks of states rather than by state graphs, a design with
+ * one large module and many small ones keeps all threads busy in that phase. The time
+ * spent in each phase, and in the slowest state graph of the apply phase, is printed for
+ * every iteration.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class CompositionalRefinement {
+
+	/*
+	 * The smallest number of states matched by a task, below which the cost of the task
+	 * outweighs the work.
+	 */
+	private static final int MIN_CHUNK_SIZE = 64;
+
+	/*
+	 * The number of chunks per thread the states of a state graph are split into, so that
+	 * the threads finishing early can take more.
+	 */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private final ExecutorService executor;
+
+	private final int numThreads;
+
+	/**
+	 * Creates a refinement running on one thread per available processor.
+	 */
+	public CompositionalRefinement(){
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a refinement running on the given number of threads.
+	 */
+	public CompositionalRefinement(int numThreads){
+		this.numThreads = Math.max(1, numThreads);
+		this.executor = Executors.newFixedThreadPool(this.numThreads, new ThreadFactory(){
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r){
+				Thread thread = new Thread(r, "compositional-refinement-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public int getNumThreads(){
+		return this.numThreads;
+	}
+
+	/**
+	 * Stops the threads of the refinement.
+	 */
+	public void shutdown(){
+		this.executor.shutdown();
+	}
+
+	/**
+	 * Runs one iteration: moves the constraints and frontier states found by the previous
+	 * iteration into the new constraint and frontier state sets, and applies the constraints
+	 * extracted from the source state graphs of each state graph to its states.
+	 * @param sgArray - The state graphs.
+	 * @param inputSrcMap - For each state graph, the state graphs whose constraints apply to it.
+	 * @param iter - The number of the iteration, for the report.
+	 * @return Number of new transitions.
+	 */
+	public int refine(StateGraph[] sgArray, Map<StateGraph, List<StateGraph>> inputSrcMap, int iter){
+		long start = System.currentTimeMillis();
+		for(StateGraph sg : sgArray){
+			sg.genConstraints();
+			sg.genFrontier();
+		}
+
+		// Extract
+		List<Future<Map<LPN, List<Constraint>>>> newBySrc = new ArrayList<Future<Map<LPN, List<Constraint>>>>(sgArray.length);
+		List<Future<Map<LPN, List<Constraint>>>> oldBySrc = new ArrayList<Future<Map<LPN, List<Constraint>>>>(sgArray.length);
+		for(StateGraph sg : sgArray){
+			newBySrc.add(this.executor.submit(new Extraction(sg.getNewConstraintSet())));
+			oldBySrc.add(this.executor.submit(new Extraction(sg.getOldConstraintSet())));
+		}
+		List<Map<LPN, List<Constraint>>> newConstraints = getAll(newBySrc);
+		List<Map<LPN, List<Constraint>>> oldConstraints = getAll(oldBySrc);
+		long extracted = System.currentTimeMillis();
+
+		// Match
+		List<List<Future<List<Match>>>> matchTasks = new ArrayList<List<Future<List<Match>>>>(sgArray.length);
+		for(int i = 0; i < sgArray.length; i++){
+			StateGraph sg = sgArray[i];
+			LPN lpn = sg.getLpn();
+			List<Future<List<Match>>> tasks = new ArrayList<Future<List<Match>>>();
+			for(StateGraph srcSG : inputSrcMap.get(sg)){
+				LPN srcLpn = srcSG.getLpn();
+				List<Constraint> newConstraintSet = constraintsOf(newConstraints.get(i), srcLpn);
+				List<Constraint> oldConstraintSet = constraintsOf(oldConstraints.get(i), srcLpn);
+				int[] thisIndexList = lpn.getThisIndexArray(srcLpn.getLpnIndex());
+				int[] otherIndexList = lpn.getOtherIndexArray(srcLpn.getLpnIndex());
+				// New constraints apply to the entire state set, old ones to the frontier state set only.
+				if(!newConstraintSet.isEmpty()){
+					submitMatches(tasks, sg.getStateSet(), newConstraintSet, thisIndexList, otherIndexList);
+				}
+				List<Constraint> frontierConstraints = new ArrayList<Constraint>(newConstraintSet.size() + oldConstraintSet.size());
+				frontierConstraints.addAll(newConstraintSet);
+				frontierConstraints.addAll(oldConstraintSet);
+				if(!frontierConstraints.isEmpty()){
+					submitMatches(tasks, sg.getFrontierStateSet(), frontierConstraints, thisIndexList, otherIndexList);
+				}
+			}
+			matchTasks.add(tasks);
+		}
+		int numMatches = 0;
+		List<List<Match>> matches = new ArrayList<List<Match>>(sgArray.length);
+		for(List<Future<List<Match>>> tasks : matchTasks){
+			List<Match> sgMatches = new ArrayList<Match>();
+			for(List<Match> chunk : getAll(tasks)){
+				sgMatches.addAll(chunk);
+			}
+			numMatches += sgMatches.size();
+			matches.add(sgMatches);
+		}
+		long matched = System.currentTimeMillis();
+
+		// Apply
+		List<Future<long[]>> applyTasks = new ArrayList<Future<long[]>>(sgArray.length);
+		for(int i = 0; i < sgArray.length; i++){
+			applyTasks.add(this.executor.submit(new Application(sgArray[i], matches.get(i))));
+		}
+		int newTransitions = 0;
+		long slowest = -1;
+		String slowestLabel = "";
+		List<long[]> results = getAll(applyTasks);
+		for(int i = 0; i < sgArray.length; i++){
+			long[] result = results.get(i);
+			newTransitions += result[0];
+			if(result[1] > slowest){
+				slowest = result[1];
+				slowestLabel = sgArray[i].getLpn().getLabel();
+			}
+		}
+		long applied = System.currentTimeMillis();
+
+		System.out.println("   --> Iteration " + iter + ": " + numMatches + " compatible states, "
+				+ newTransitions + " new transitions, extract " + (extracted - start) + " ms, match "
+				+ (matched - extracted) + " ms, apply " + (applied - matched) + " ms (slowest: "
+				+ slowestLabel + " " + slowest + " ms)");
+		return newTransitions;
+	}
+
+	private static List<Constraint> constraintsOf(Map<LPN, List<Constraint>> bySrc, LPN srcLpn){
+		List<Constraint> constraints = bySrc.get(srcLpn);
+		if(constraints == null){
+			return Collections.emptyList();
+		}
+		return constraints;
+	}
+
+	/**
+	 * Splits a state set into chunks and submits a match task for each of them.
+	 */
+	private void submitMatches(List<Future<List<Match>>> tasks, List<State> stateSet, List<Constraint> constraints,
+			int[] thisIndexList, int[] otherIndexList){
+		int size = stateSet.size();
+		int chunkSize = Math.max(MIN_CHUNK_SIZE, (size + this.numThreads * CHUNKS_PER_THREAD - 1) / (this.numThreads * CHUNKS_PER_THREAD));
+		for(int from = 0; from < size; from += chunkSize){
+			int to = Math.min(size, from + chunkSize);
+			tasks.add(this.executor.submit(new Matching(stateSet.subList(from, to), constraints, thisIndexList, otherIndexList)));
+		}
+	}
+
+	/**
+	 * Waits for the tasks and returns their results in order.
+	 */
+	private static <T> List<T> getAll(List<Future<T>> futures){
+		List<T> results = new ArrayList<T>(futures.size());
+		try {
+			for(Future<T> future : futures){
+				results.add(future.get());
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while constructing the compositional state graphs.", e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException){
+				throw (RuntimeException) cause;
+			}
+			if(cause instanceof Error){
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+		return results;
+	}
+
+	/**
+	 * A state, a constraint compatible with it and the state it leads to.
+	 */
+	private static class Match {
+
+		final State state;
+		final Constraint constraint;
+		final State newState;
+
+		Match(State state, Constraint constraint, State newState){
+			this.state = state;
+			this.constraint = constraint;
+			this.newState = newState;
+		}
+	}
+
+	/**
+	 * Groups a constraint set by the LPN that generated the constraints.
+	 */
+	private static class Extraction implements Callable<Map<LPN, List<Constraint>>> {
+
+		private final List<Constraint> constraintSet;
+
+		Extraction(List<Constraint> constraintSet){
+			this.constraintSet = constraintSet;
+		}
+
+		@Override
+		public Map<LPN, List<Constraint>> call(){
+			Map<LPN, List<Constraint>> bySrc = new HashMap<LPN, List<Constraint>>();
+			for(Constraint c : this.constraintSet){
+				List<Constraint> constraints = bySrc.get(c.getLpn());
+				if(constraints == null){
+					constraints = new ArrayList<Constraint>();
+					bySrc.put(c.getLpn(), constraints);
+				}
+				constraints.add(c);
+			}
+			return bySrc;
+		}
+	}
+
+	/**
+	 * Finds the constraints compatible with a chunk of states and creates the states they lead to.
+	 */
+	private static class Matching implements Callable<List<Match>> {
+
+		private final List<State> states;
+		private final List<Constraint> constraints;
+		private final int[] thisIndexList;
+		private final int[] otherIndexList;
+
+		Matching(List<State> states, List<Constraint> constraints, int[] thisIndexList, int[] otherIndexList){
+			this.states = states;
+			this.constraints = constraints;
+			this.thisIndexList = thisIndexList;
+			this.otherIndexList = otherIndexList;
+		}
+
+		@Override
+		public List<Match> call(){
+			List<Match> matches = new ArrayList<Match>();
+			for(State currentState : this.states){
+				for(Constraint c : this.constraints){
+					if(CompositionalAnalysis.compatible(currentState, c, this.thisIndexList, this.otherIndexList)){
+						matches.add(new Match(currentState, c, CompositionalAnalysis.genConstrainedState(currentState, c)));
+					}
+				}
+			}
+			return matches;
+		}
+	}
+
+	/**
+	 * Adds the states created by the matches to a state graph and explores from the new ones.
+	 * Returns the number of new transitions and the time taken in milliseconds.
+	 */
+	private static class Application implements Callable<long[]> {
+
+		private final StateGraph sg;
+		private final List<Match> matches;
+
+		Application(StateGraph sg, List<Match> matches){
+			this.sg = sg;
+			this.matches = matches;
+		}
+
+		@Override
+		public long[] call(){
+			long start = System.currentTimeMillis();
+			int newTransitions = 0;
+			for(Match m : this.matches){
+				newTransitions += CompositionalAnalysis.addConstrainedState(this.sg, m.state, m.constraint, m.newState);
+			}
+			return new long[] {newTransitions, System.currentTimeMillis() - start};
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.platu.logicAnalysis;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.utah.ece.async.lema.verification.platu.project.PrjState;
+
+/**
+ * Set of visited global states that can be shared by the worker threads of a parallel
+ * search. Adding a state is atomic, so exactly one worker finds each state new.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class ConcurrentStateSet implements StateSetInterface {
+
+	private final Set<PrjState> states = ConcurrentHashMap.newKeySet();
+
+	@Override
+	public boolean contains(PrjState state) {
+		return states.contains(state);
+	}
+
+	@Override
+	public boolean add(PrjState state) {
+		return states.add(state);
+	}
+
+	@Override
+	public int size() {
+		return states.size();
+	}
+
+	@Override
+	public Iterator<PrjState> iterator() {
+		return states.iterator();
+	}
+}
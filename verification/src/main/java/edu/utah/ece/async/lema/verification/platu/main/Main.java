@@ -219,6 +219,15 @@ public class Main {
         
         value = prop.getProperty("PARALLEL");
         if(value != null) if(value.equals("true") || value.equals("TRUE")) Options.setParallelFlag();
+        
+        value = prop.getProperty("THREADS");
+        if(value != null) Options.setThreadCount(Integer.parseInt(value));
+        
+        value = prop.getProperty("STEADY_STATE_METHOD");
+        if(value != null) Options.setSteadyStateMethod(value);
+        
+        value = prop.getProperty("RELAXATION");
+        if(value != null) Options.setRelaxation(Double.parseDouble(value));
     }
 
 //    static Properties storeOptions(File propFile) throws Exception {
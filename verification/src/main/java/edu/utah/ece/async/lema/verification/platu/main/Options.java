@@ -13,6 +13,8 @@
  *******************************************************************************/
 package edu.utah.ece.async.lema.verification.platu.main;
 
+import edu.utah.ece.async.lema.verification.markov.SteadyStateSolver;
+
 /**
  * 
  *
@@ -167,7 +169,9 @@ public class Options {
 		AIG,			// AIG
 		BINARY_TREE,		// Binary tree
 		DECOMPOSED, 	// decompose a global state into a set of triples of global vectors and two local states sharing variables.
-		NATIVE_HASH			// hash table in C/C++
+		NATIVE_HASH,			// hash table in C/C++
+		COMPACT,		// open-addressing table of local state index tuples
+		COMPACT_OFFHEAP	// same as COMPACT, kept in direct buffers outside the Java heap
 	}
 	private static String stateFormat = "explicit";
 	
@@ -176,6 +180,21 @@ public class Options {
 	 */
 	private static boolean parallelFlag = false;
 	
+	/*
+	 * Number of worker threads of a parallel search. Zero uses one thread per processor.
+	 */
+	private static int threadCount = 0;
+	
+	/*
+	 * Iterative method of steady-state Markovian analysis.
+	 */
+	private static SteadyStateSolver.Method steadyStateMethod = SteadyStateSolver.Method.POWER;
+	
+	/*
+	 * Relaxation factor of the SOR and damped Jacobi steady-state methods.
+	 */
+	private static double relaxation = 1;
+	
 	/*
 	 * Memory upper bound for a verification run. The unit is MB.
 	 */
@@ -384,6 +403,12 @@ public class Options {
     	else if (format.equals("mddbuf")){
     		stateFormat = format;
     	}
+    	else if (format.equals("compact")){
+    		stateFormat = format;
+    	}
+    	else if (format.equals("compactoffheap")){
+    		stateFormat = format;
+    	}
     	else{
     		System.out.println("warning: invalid STATE_FORMAT option - default is \"explicit\"");
     	}
@@ -401,6 +426,30 @@ public class Options {
 		return parallelFlag;
 	}
 	
+	public static void setThreadCount(int count){
+		threadCount = count;
+	}
+	
+	public static int getThreadCount(){
+		return threadCount;
+	}
+	
+	public static void setSteadyStateMethod(String method){
+		steadyStateMethod = SteadyStateSolver.Method.valueOf(method.toUpperCase());
+	}
+	
+	public static SteadyStateSolver.Method getSteadyStateMethod(){
+		return steadyStateMethod;
+	}
+	
+	public static void setRelaxation(double factor){
+		relaxation = factor;
+	}
+	
+	public static double getRelaxation(){
+		return relaxation;
+	}
+	
 	public static void setNewParser(){
 		newParser = true;
 	}
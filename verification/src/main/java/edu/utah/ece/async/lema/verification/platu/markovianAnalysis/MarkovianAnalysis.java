@@ -15,16 +15,19 @@ package edu.utah.ece.async.lema.verification.platu.markovianAnalysis;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Queue;
 
 import javax.swing.JProgressBar;
 
+import edu.utah.ece.async.ibiosim.dataModels.util.Message;
 import edu.utah.ece.async.ibiosim.dataModels.util.dataparser.DataParser;
 import edu.utah.ece.async.ibiosim.dataModels.util.exceptions.BioSimException;
+import edu.utah.ece.async.ibiosim.dataModels.util.observe.CoreObservable;
 import edu.utah.ece.async.lema.verification.lpn.ExprTree;
 import edu.utah.ece.async.lema.verification.lpn.Transition;
 import edu.utah.ece.async.lema.verification.lpn.Translator;
+import edu.utah.ece.async.lema.verification.markov.SparseRateMatrix;
+import edu.utah.ece.async.lema.verification.markov.SteadyStateSolver;
+import edu.utah.ece.async.lema.verification.platu.main.Options;
 import edu.utah.ece.async.lema.verification.platu.project.PrjState;
 import edu.utah.ece.async.lema.verification.platu.stategraph.State;
 
@@ -36,7 +39,7 @@ import edu.utah.ece.async.lema.verification.platu.stategraph.State;
  * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
  * @version %I%
  */
-public class MarkovianAnalysis implements Runnable{
+public class MarkovianAnalysis extends CoreObservable implements Runnable{
 	
 	private boolean stop;
 	private DataParser probData;
@@ -54,8 +57,11 @@ public class MarkovianAnalysis implements Runnable{
 	private ArrayList<String> varNameList;
 	
 	private ProbGlobalStateSet globalStateSet;
-	
-	
+
+	private SteadyStateSolver steadyStateSolver;
+
+	private final Message message = new Message();
+
 	public MarkovianAnalysis(ProbGlobalStateSet globalStateSet) {
 		this.globalStateSet = globalStateSet;
 		varNameList = new ArrayList<String>();
@@ -65,7 +71,7 @@ public class MarkovianAnalysis implements Runnable{
 					varNameList.add(intVarName);
 		}
 	}	
-	
+
 	public boolean performSteadyStateMarkovianAnalysis(double tolerance, ArrayList<Property> props,
 			PrjState initial, JProgressBar progress) throws BioSimException {
 		// Moved the test to perform Markovian analysis to the run method in Verification.java, where LPN(s) are loaded
@@ -91,107 +97,40 @@ public class MarkovianAnalysis implements Runnable{
 		}
 		//enableAllTransitions();
 		setAllGlobalStatesAsNonAbsorbing();
-		// --------------------
-		boolean change = false;
-		boolean converged = false;
-		int counter = 0;
 		computeTransitionRateSum();
-		// Set initial probability and period for all global states.		
-		if (!stop) {
-			for (PrjState m : globalStateSet.keySet()) {
-				((ProbGlobalState) m).setCurrentProb(0.0);
-			}
-			((ProbGlobalState) initial).setCurrentProb(1.0);
+		if (stop) {
+			return false;
 		}
-		resetColorsForMarkovianAnalysis();
-		int period = findPeriod(initial);
-		System.out.println("period = " + period);
-		if (period == 0) {
-			period = 1;
+		// Number the global states and compile their outgoing rates into a sparse matrix.
+		ArrayList<PrjState> states = new ArrayList<PrjState>(globalStateSet.keySet());
+		HashMap<PrjState, Integer> indices = new HashMap<PrjState, Integer>();
+		for (int i = 0; i < states.size(); i++) {
+			indices.put(states.get(i), i);
 		}
-		while (!converged && !stop) {
-			counter++;
-			counter = counter % period;
-			for (PrjState curGlobalSt : globalStateSet.keySet()) {				
-//				for (Transition outTran : ((ProbGlobalState) curGlobalSt).getOutgoingTranSetForProbGlobalState()) {
-//					PrjState nextGlobalSt = ((ProbGlobalState) curGlobalSt).getNextGlobalState(outTran);
-				for (Transition outTran : curGlobalSt.getNextGlobalStateMap().keySet()) {
-					PrjState nextGlobalSt = curGlobalSt.getNextGlobalStateMap().get(outTran);
-					double curStCurProb = ((ProbGlobalState) curGlobalSt).getCurrentProb();
-					if (curStCurProb > 0.0) {
-						double nextStNextProb = ((ProbGlobalState) nextGlobalSt).getNextProb();
-						double tranProb = ((ProbGlobalState) curGlobalSt).getTranProb(outTran);
-						((ProbGlobalState) nextGlobalSt).setNextProb(nextStNextProb + curStCurProb * tranProb);
-					}
-				}
-				if (stop) {
-					return false;
-				}
-			}
-			for (PrjState globalSt : globalStateSet.keySet()) {
-				if (((ProbGlobalState) globalSt).getColor() == counter) {
-					double nextProb = ((ProbGlobalState) globalSt).getNextProb();
-					double piProb = ((ProbGlobalState) globalSt).getPiProb();
-					if (Math.abs((nextProb - piProb)/nextProb) > tolerance) 
-						change = true;
-					((ProbGlobalState) globalSt).setPiProb(nextProb);											
-				}
-				((ProbGlobalState) globalSt).setCurrentProbToNext();
-				((ProbGlobalState) globalSt).setNextProb(0.0);
-				if (stop) {
-					return false;
-				}
-			}
-			if (counter == 0) {
-				if (!change)
-					converged = true;
-				change = false;
+		SparseRateMatrix.Builder builder = new SparseRateMatrix.Builder(states.size());
+		for (int i = 0; i < states.size(); i++) {
+			PrjState curGlobalSt = states.get(i);
+			for (Transition outTran : curGlobalSt.getNextGlobalStateMap().keySet()) {
+				PrjState nextGlobalSt = curGlobalSt.getNextGlobalStateMap().get(outTran);
+				builder.addTransition(i, indices.get(nextGlobalSt),
+						((ProbGlobalState) curGlobalSt).getOutgoingTranRate(outTran));
 			}
 		}
-		for (PrjState curGlobalSt : globalStateSet.keySet()) {
-			((ProbGlobalState) curGlobalSt).setPiProb(0.0);
-		}
-		for (int i=0; i<period; i++) {
-			for (PrjState curGlobalSt : globalStateSet.keySet()) {
-//				for (Transition outTran : ((ProbGlobalState) curGlobalSt).getOutgoingTranSetForProbGlobalState()) {
-//					PrjState nextGlobalSt = ((ProbGlobalState) curGlobalSt).getNextGlobalState(outTran);	
-				for (Transition outTran : curGlobalSt.getNextGlobalStateMap().keySet()) {
-					PrjState nextGlobalSt = curGlobalSt.getNextGlobalStateMap().get(outTran);
-					double nextStNextProb = ((ProbGlobalState) nextGlobalSt).getNextProb();
-					double curStCurProb = ((ProbGlobalState) curGlobalSt).getCurrentProb();
-					double tranProb = ((ProbGlobalState) curGlobalSt).getTranProb(outTran);
-					((ProbGlobalState) nextGlobalSt).setNextProb(nextStNextProb + curStCurProb * tranProb);
-					if (stop) {
-						return false;
-					}
-				}
-			}			
-			for (PrjState globalState : globalStateSet.keySet()) {
-				((ProbGlobalState) globalState).setCurrentProbToNext();
-				((ProbGlobalState) globalState).setNextProb(0.0);
-				double piProb = ((ProbGlobalState) globalState).getPiProb();
-				double curProb = ((ProbGlobalState) globalState).getCurrentProb();
-				((ProbGlobalState) globalState).setPiProb(piProb + curProb);
-				if (stop) {
-					return false;
-				}
-			}			
-		}		
-		double normalizationFactor = 0;
-		for (PrjState curGlobalSt : globalStateSet.keySet()) {
-			double piProb = ((ProbGlobalState) curGlobalSt).getPiProb();
-			double tranRateSum = ((ProbGlobalState) curGlobalSt).getTranRateSum();
-			//((ProbGlobalState) curGlobalSt).setCurrentProb(piProb/period);
-			((ProbGlobalState) curGlobalSt).setCurrentProb(piProb/period/tranRateSum);
-			normalizationFactor += ((ProbGlobalState) curGlobalSt).getCurrentProb();
-		}
-		System.out.println("normalizationFactor = " + normalizationFactor);
+		double[] probabilities = new double[states.size()];
+		probabilities[indices.get(initial)] = 1.0;
+		steadyStateSolver = new SteadyStateSolver(builder.build());
+		steadyStateSolver.setMethod(Options.getSteadyStateMethod());
+		steadyStateSolver.setRelaxation(Options.getRelaxation());
+		boolean converged = steadyStateSolver.solve(probabilities, tolerance);
+		message.setLog("Steady-state analysis (" + steadyStateSolver.getUsedMethod() + ") "
+				+ (converged ? "converged" : "did not converge") + " after " + steadyStateSolver.getIterations()
+				+ " iterations, residual " + steadyStateSolver.getResidual());
+		notifyObservers(message);
 		if (stop) {
 			return false;
-		}		
-		for (PrjState curGlobalSt : globalStateSet.keySet()) {
-			double curProb = ((ProbGlobalState) curGlobalSt).getCurrentProb();
-			((ProbGlobalState) curGlobalSt).setCurrentProb(curProb/normalizationFactor);
+		}
+		for (int i = 0; i < states.size(); i++) {
+			((ProbGlobalState) states.get(i)).setCurrentProb(probabilities[i]);
 		}
 		//printStateSetStatus(globalStateSet, "end of steady state analysis");		
 		return true;
@@ -235,73 +174,6 @@ public class MarkovianAnalysis implements Runnable{
 		}		
 	}
 
-	private void resetColorsForMarkovianAnalysis() {
-		for (PrjState m : globalStateSet.keySet()) {
-			((ProbGlobalState) m).setColor(-1);
-			if (stop) {
-				return;
-			}
-		}
-	}
-	
-	private int findPeriod(PrjState curSt) {
-		if (stop) {
-			return 0;
-		}
-		int period = 0;
-		int color = 0;
-		((ProbGlobalState) curSt).setColor(color);
-		color = ((ProbGlobalState) curSt).getColor() + 1;
-		Queue<PrjState> unVisitedStates = new LinkedList<PrjState>();
-		//for (PrjState nextSt : ((ProbGlobalState) curSt).getNextProbGlobalStateSet(globalStateSet)) {
-		for (PrjState nextSt : curSt.getNextGlobalStateMap().values()) {
-			if (((ProbGlobalState) nextSt).getColor() == -1) {
-				((ProbGlobalState) nextSt).setColor(color);
-				unVisitedStates.add(nextSt);
-			}
-			else {
-				if (period == 0) {
-					period = ((ProbGlobalState) curSt).getColor() - ((ProbGlobalState) nextSt).getColor() + 1;
-				}
-				else {
-					period = gcd(((ProbGlobalState) curSt).getColor() - ((ProbGlobalState) nextSt).getColor() + 1, period);
-				}
-			}
-			if (stop) {
-				return 0;
-			}
-		}
-		while (!unVisitedStates.isEmpty() && !stop) {
-			curSt = unVisitedStates.poll();
-			color = ((ProbGlobalState) curSt).getColor() + 1;
-			//for (PrjState nextSt : ((ProbGlobalState)curSt).getNextProbGlobalStateSet(globalStateSet)) {
-			for (PrjState nextSt : curSt.getNextGlobalStateMap().values()) {
-				if (((ProbGlobalState) nextSt).getColor() == -1) {
-					((ProbGlobalState) nextSt).setColor(color);
-					unVisitedStates.add(nextSt);
-				}
-				else {
-					if (period == 0) {
-						period = (((ProbGlobalState) curSt).getColor() - ((ProbGlobalState) nextSt).getColor() + 1);
-					}
-					else {
-						period = gcd(((ProbGlobalState) curSt).getColor() - ((ProbGlobalState) nextSt).getColor() + 1, period);
-					}
-				}
-				if (stop) {
-					return 0;
-				}
-			}
-		}
-		return period;
-	}
-
-	private int gcd(int a, int b) {
-		if (b == 0)
-			return a;
-		return gcd(b, a % b);
-	}
-	
 	//private String removeNesting(double error, double timeStep, String prop, JProgressBar progress) {
 	private String removeNesting(double error, double timeStep, String prop, JProgressBar progress) throws BioSimException {
 		if (prop.contains("Pr=?{") || prop.contains("St=?{")) {
@@ -18,6 +18,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Observer;
@@ -269,14 +270,20 @@ public class Project extends CoreObservable{
 		if (!Options.getMarkovianModelFlag()) {
 			if (Options.getPOR().toLowerCase().equals("off")) {
 				// DFS state exploration without any state reduction.
-				dfsStateExploration.search_dfs(sgArray, initStateArray);
+				if (Options.getParallelFlag() && !Options.getTimingAnalysisFlag() && !Options.getOutputSgFlag())
+					dfsStateExploration.search_parallel(sgArray, initStateArray);
+				else
+					dfsStateExploration.search_dfs(sgArray, initStateArray);
 			}
 			if (Options.getPOR().toLowerCase().equals("tb")) {
 				dfsStateExploration.searchPOR_taceback(sgArray, initStateArray);
 			}				
 			else if (Options.getPOR().toLowerCase().equals("behavioral")) {
 				//CompositionalAnalysis compAnalysis = new CompositionalAnalysis();
-				CompositionalAnalysis.compositionalFindSG(sgArray);
+				if (Options.getParallelFlag())
+					CompositionalAnalysis.parallelCompositionalFindSG(Arrays.asList(sgArray));
+				else
+					CompositionalAnalysis.compositionalFindSG(sgArray);
 				// TODO: temporarily commented out POR with behavioral analysis
 				//dfsStateExploration.searchPOR_behavioral(sgArray, initStateArray, lpnTranRelation, "state");
 			}			
@@ -334,6 +341,7 @@ public class Project extends CoreObservable{
 			System.out.println("--------- Transient Analysis ---------");
 			long startTransientAnalysis = System.currentTimeMillis();
 			MarkovianAnalysis markovianAnalysis = new MarkovianAnalysis(globalStateSet);
+			markovianAnalysis.addObservable(this);
 			
 
 			// --- toggle_switch ---
@@ -19,13 +19,18 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.PrintStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import edu.utah.ece.async.lema.verification.lpn.CompiledTransition;
 import edu.utah.ece.async.lema.verification.lpn.LPN;
 import edu.utah.ece.async.lema.verification.lpn.Place;
 import edu.utah.ece.async.lema.verification.lpn.Transition;
@@ -51,7 +56,6 @@ import edu.utah.ece.async.lema.verification.timed_state_exploration.zoneProject.
 import edu.utah.ece.async.lema.verification.timed_state_exploration.zoneProject.Zone;
 
 import java.util.Set;
-import java.util.Stack;
 
 
 /**
@@ -75,13 +79,17 @@ public class StateGraph {
      */
     protected HashMap<State, LpnTranList> enabledSetTbl;
     protected HashMap<State, HashMap<Transition, State>> nextStateMap;
-    protected List<State> stateSet = new LinkedList<State>();
-    protected List<State> frontierStateSet = new LinkedList<State>();
-    protected List<State> entryStateSet = new LinkedList<State>();
-    protected List<Constraint> oldConstraintSet = new LinkedList<Constraint>();
-    protected List<Constraint> newConstraintSet = new LinkedList<Constraint>();
-    protected List<Constraint> frontierConstraintSet = new LinkedList<Constraint>();
-    protected Set<Constraint> constraintSet = new HashSet<Constraint>();
+    protected List<State> stateSet = new ArrayList<State>();
+    protected List<State> frontierStateSet = new ArrayList<State>();
+    protected List<State> entryStateSet = new ArrayList<State>();
+    protected List<Constraint> oldConstraintSet = new ArrayList<Constraint>();
+    protected List<Constraint> newConstraintSet = new ArrayList<Constraint>();
+    /**
+     * The constraints are added by the state graphs of the other LPNs, which may be exploring
+     * in parallel (see CompositionalRefinement), so these two sets are concurrent.
+     */
+    protected Queue<Constraint> frontierConstraintSet = new ConcurrentLinkedQueue<Constraint>();
+    protected Set<Constraint> constraintSet = Collections.newSetFromMap(new ConcurrentHashMap<Constraint, Boolean>());
     protected LPN lpn;
     protected static Set<Entry<Transition, State>> emptySet = new HashSet<Entry<Transition, State>>(0);
     
@@ -116,8 +124,8 @@ public class StateGraph {
     	boolean newStateFlag = false;
     	int ptr = 1;
         int newTransitions = 0;
-        Stack<State> stStack = new Stack<State>();
-        Stack<LpnTranList> tranStack = new Stack<LpnTranList>();
+        ArrayDeque<State> stStack = new ArrayDeque<State>();
+        ArrayDeque<LpnTranList> tranStack = new ArrayDeque<LpnTranList>();
         // TODO: What if we just read tranVector from baseState?
         LpnTranList currentEnabledTransitions = getEnabled(baseState);
         stStack.push(baseState);
@@ -185,8 +193,8 @@ public class StateGraph {
     	boolean newStateFlag = false;
     	int ptr = 1;
         int newTransitions = 0;
-        Stack<State> stStack = new Stack<State>();
-        Stack<LpnTranList> tranStack = new Stack<LpnTranList>();
+        ArrayDeque<State> stStack = new ArrayDeque<State>();
+        ArrayDeque<LpnTranList> tranStack = new ArrayDeque<LpnTranList>();
         LpnTranList currentEnabledTransitions = getEnabled(baseState);
 
         stStack.push(baseState);
@@ -281,17 +289,13 @@ public class StateGraph {
     }
     
     /**
-	 * Adds constraint to the constraintSet.  Synchronized version of addConstraint().
+	 * Adds constraint to the constraintSet.  Kept for the callers of the former synchronized
+	 * version; addConstraint() is safe to call from several threads, as the constraint sets are concurrent.
 	 * @param c - Constraint to be added.
 	 * @return True if added, otherwise false.
 	 */
-    public synchronized boolean synchronizedAddConstraint(Constraint c){
-    	if(this.constraintSet.add(c)){
-    		this.frontierConstraintSet.add(c);
-    		return true;
-    	}
-    	
-    	return false;
+    public boolean synchronizedAddConstraint(Constraint c){
+    	return addConstraint(c);
     }
     
     public List<Constraint> getNewConstraintSet(){
@@ -501,16 +505,15 @@ public class StateGraph {
 			if (Options.getDebugMode()) {
 //				System.out.println("Checking " + tran);
 			}				
-			if (this.lpn.getEnablingTree(tranName) != null 
-					&& this.lpn.getEnablingTree(tranName).evaluateExpr(this.lpn.getAllVarsWithValuesAsString(varValuesVector)) == 0.0
+			CompiledTransition compiledTran = this.lpn.getCompiledTransition(tranName);
+			if (compiledTran.isEnablingFalse(varValuesVector)
 					&& !(tran.isPersistent() && curState.getTranVector()[tranIndex])) {
 				if (Options.getDebugMode()) {
 //					System.out.println(tran.getName() + " " + "Enabling condition is false");
 				}	
 				return false;
 			}
-			if (this.lpn.getTransitionRateTree(tranName) != null 
-					&& this.lpn.getTransitionRateTree(tranName).evaluateExpr(this.lpn.getAllVarsWithValuesAsString(varValuesVector)) == 0.0) {
+			if (compiledTran.isRateZero(varValuesVector)) {
 				if (Options.getDebugMode()) {
 //					System.out.println("Rate is zero");
 				}					
@@ -559,11 +562,12 @@ public class StateGraph {
     /**
      * Add the module state mState to the local cache, and also add its local portion to
      * the local portion cache, and build the mapping between the mState and lState for fast lookup
-     * in the future.
+     * in the future. The caches of a state graph are guarded by its own lock, so transitions
+     * of different modules can be fired concurrently.
      * @param mState
      * @return State
      */
-    public State addState(State mState) {
+    public synchronized State addState(State mState) {
     	State cachedState = this.stateCache.add(mState);
     	State lState = this.state2LocalMap.get(cachedState);
     	if(lState == null) {
@@ -577,15 +581,15 @@ public class StateGraph {
     /*
      * Get the local portion of mState from the cache..
      */
-    public State getLocalState(State mState) {
+    public synchronized State getLocalState(State mState) {
     	return this.state2LocalMap.get(mState);
     }
 
-    public State getState(int stateIdx) {
+    public synchronized State getState(int stateIdx) {
     	return this.stateCache.get(stateIdx);
     }
     
-    public void addStateTran(State curSt, Transition firedTran, State nextSt) {
+    public synchronized void addStateTran(State curSt, Transition firedTran, State nextSt) {
     	HashMap<Transition, State> nextMap = this.nextStateMap.get(curSt);
     	if(nextMap == null)  {
     		nextMap = new HashMap<Transition,State>();
@@ -599,7 +603,7 @@ public class StateGraph {
 //    		printNextStateForGivenState(curSt, "StateGraph.java -> addStateTran(State, Transition, State)");    	
     }
     
-    public State getNextState(State curSt, Transition firedTran) {
+    public synchronized State getNextState(State curSt, Transition firedTran) {
     	HashMap<Transition, State> nextMap = this.nextStateMap.get(curSt);
     	if(nextMap == null)
     		return null;   	
@@ -815,18 +819,7 @@ public class StateGraph {
         //  State vector update
         int[] newVariableVector = curState.getVariableVector().clone();
         int[] curVector = curState.getVariableVector();
-        HashMap<String, String> currentValuesAsString = this.lpn.getAllVarsWithValuesAsString(curVector);
-        for (String key : currentValuesAsString.keySet()) {
-        	if (this.lpn.getBoolAssignTree(firedTran.getLabel(), key) != null) {
-        		int newValue = (int)this.lpn.getBoolAssignTree(firedTran.getLabel(), key).evaluateExpr(currentValuesAsString);
-        		newVariableVector[this.lpn.getVarIndexMap().get(key)] = newValue;
-        	}
-        	
-        	if (this.lpn.getIntAssignTree(firedTran.getLabel(), key) != null) {
-        		int newValue = (int)this.lpn.getIntAssignTree(firedTran.getLabel(), key).evaluateExpr(currentValuesAsString);
-        		newVariableVector[this.lpn.getVarIndexMap().get(key)] = newValue;
-        	}
-        } 
+        this.lpn.getCompiledTransition(firedTran.getLabel()).assignTruncated(curVector, newVariableVector);
         
 //        // Update rates      
 //        final int OLD_ZERO = 0; 	// Case 0 in description.
@@ -1042,8 +1035,8 @@ public class StateGraph {
     		if (Options.getDebugMode()) {
 //    			System.out.println("Checking " + tranName);
     		}
-    		if (this.lpn.getEnablingTree(tranName) != null 
-    				&& this.lpn.getEnablingTree(tranName).evaluateExpr(this.lpn.getAllVarsWithValuesAsString(newVariableVector)) == 0.0) {
+    		CompiledTransition compiledTran = this.lpn.getCompiledTransition(tranName);
+    		if (compiledTran.isEnablingFalse(newVariableVector)) {
     			if (Options.getDebugMode()) {
 //    				System.out.println(tran.getName() + " " + "Enabling condition is false");    			
     			}					
@@ -1051,8 +1044,7 @@ public class StateGraph {
     				tranVectorAfterFiring[tranIndex] = false;
     			continue;
     		}
-    		if (this.lpn.getTransitionRateTree(tranName) != null 
-    				&& this.lpn.getTransitionRateTree(tranName).evaluateExpr(this.lpn.getAllVarsWithValuesAsString(newVariableVector)) == 0.0) {
+    		if (compiledTran.isRateZero(newVariableVector)) {
     			if (Options.getDebugMode()) {
 //    				System.out.println("Rate is zero");
     			}
@@ -1117,16 +1109,15 @@ public class StateGraph {
     		int tranIndex = tran.getIndex();
     		if (Options.getDebugMode())
 				System.out.println("Checking " + tranName);
-    		if (this.lpn.getEnablingTree(tranName) != null 
-    				&& this.lpn.getEnablingTree(tranName).evaluateExpr(this.lpn.getAllVarsWithValuesAsString(newVectorArray)) == 0.0) {
+    		CompiledTransition compiledTran = this.lpn.getCompiledTransition(tranName);
+    		if (compiledTran.isEnablingFalse(newVectorArray)) {
     			if (Options.getDebugMode())
 					System.out.println(tran.getLabel() + " " + "Enabling condition is false");    			
     			if (enabledTranAfterFiring[tranIndex] && !tran.isPersistent())
     				enabledTranAfterFiring[tranIndex] = false;
     			continue;
     		}
-    		if (this.lpn.getTransitionRateTree(tranName) != null 
-    				&& this.lpn.getTransitionRateTree(tranName).evaluateExpr(this.lpn.getAllVarsWithValuesAsString(newVectorArray)) == 0.0) {
+    		if (compiledTran.isRateZero(newVectorArray)) {
     			if (Options.getDebugMode())
 					System.out.println("Rate is zero");
     			continue;
@@ -1212,16 +1203,7 @@ public class StateGraph {
         System.arraycopy(oldVector, 0, newVectorArray, 0, size);
         
         int[] curVector = curState.getVariableVector();
-        for (String key : this.lpn.getAllVarsWithValuesAsString(curVector).keySet()) {
-        	if (this.lpn.getBoolAssignTree(firedTran.getLabel(), key) != null) {
-        		int newValue = (int)this.lpn.getBoolAssignTree(firedTran.getLabel(), key).evaluateExpr(this.lpn.getAllVarsWithValuesAsString(curVector));
-        		newVectorArray[this.lpn.getVarIndexMap().get(key)] = newValue;
-        	}
-        	if (this.lpn.getIntAssignTree(firedTran.getLabel(), key) != null) {
-        		int newValue = (int)this.lpn.getIntAssignTree(firedTran.getLabel(), key).evaluateExpr(this.lpn.getAllVarsWithValuesAsString(curVector));
-        		newVectorArray[this.lpn.getVarIndexMap().get(key)] = newValue;
-        	}
-        }       
+        this.lpn.getCompiledTransition(firedTran.getLabel()).assignTruncated(curVector, newVectorArray);
         // Enabled transition vector update
         /* Hao's code
         //boolean[] newEnabledTranArray = curState.getTranVector();
@@ -2213,9 +2195,7 @@ public class StateGraph {
 			
 			boolean needToUpdate = true;
         	String tranName = t.getLabel();
-    		if (this.lpn.getEnablingTree(tranName) != null 
-    				&& this.lpn.getEnablingTree(tranName)
-    					.evaluateExpr(this.lpn.getAllVarsWithValuesAsString(vector)) == 0.0) {
+    		if (this.lpn.getCompiledTransition(tranName).isEnablingFalse(vector)) {
     		   	if (previouslyEnabled[tranIndex] && !t.isPersistent())
     				previouslyEnabled[tranIndex] = false;
     			continue;
@@ -2272,11 +2252,12 @@ public class StateGraph {
 				presetNotMarked = false;
 				continue;
 			}
-			if (this.lpn.getEnablingTree(tranName) != null && this.lpn.getEnablingTree(tranName).evaluateExpr(this.lpn.getAllVarsWithValuesAsString(initialVector)) == 0.0) {
+			CompiledTransition compiledTran = this.lpn.getCompiledTransition(tranName);
+			if (compiledTran.isEnablingFalse(initialVector)) {
 				initEnabledTrans[i] = false;
 				continue;
 			}
-			else if (this.lpn.getTransitionRateTree(tranName) != null && this.lpn.getTransitionRateTree(tranName).evaluateExpr(this.lpn.getAllVarsWithValuesAsString(initialVector)) == 0.0) {
+			else if (compiledTran.isRateZero(initialVector)) {
 				initEnabledTrans[i] = false;
 				continue;
 			}
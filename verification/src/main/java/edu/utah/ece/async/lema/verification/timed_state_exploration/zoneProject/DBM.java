@@ -0,0 +1,438 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.timed_state_exploration.zoneProject;
+
+import java.util.Arrays;
+
+/**
+ * A Difference Bound Matrix stored in a flat int array in row major order. Index 0 is the
+ * zero clock and, as in a {@link Zone}, the entry (i, j) bounds xj - xi. So the entry (0, i)
+ * is the upper bound of xi and the entry (i, 0) is the negative of its lower bound.
+ *
+ * Each entry encodes a bound together with whether it is strict, as (bound << 1) | 1 for
+ * xj - xi <= bound and (bound << 1) for xj - xi < bound. With this encoding the order of
+ * the encoded values is the order of the constraints, so tighter entries are simply smaller
+ * ints. {@link #INFINITY} is the absence of a constraint.
+ *
+ * Besides the full closure, the DBM keeps itself canonical incrementally in O(n^2) when a
+ * single constraint is tightened, when a clock is reset and when time is let to pass up to
+ * the upper bounds of the clocks. These all require the DBM to be canonical beforehand.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class DBM {
+
+	/**
+	 * The encoding of the absence of a constraint.
+	 */
+	public static final int INFINITY = Integer.MAX_VALUE;
+
+	/**
+	 * The encoding of the constraint xj - xi <= 0.
+	 */
+	public static final int LE_ZERO = 1;
+
+	/**
+	 * The largest bound that can be encoded.
+	 */
+	public static final int MAX_BOUND = (Integer.MAX_VALUE >> 1) - 1;
+
+	/**
+	 * The smallest bound that can be encoded.
+	 */
+	public static final int MIN_BOUND = -MAX_BOUND;
+
+	private final int _size;
+
+	private final int[] _entries;
+
+	/**
+	 * Creates the DBM in which every clock is zero.
+	 * @param size
+	 * 		The number of clocks including the zero clock.
+	 */
+	public DBM(int size)
+	{
+		_size = size;
+		_entries = new int[size*size];
+		Arrays.fill(_entries, LE_ZERO);
+	}
+
+	/**
+	 * Creates a copy of a DBM.
+	 * @param other
+	 * 		The DBM to copy.
+	 */
+	public DBM(DBM other)
+	{
+		_size = other._size;
+		_entries = Arrays.copyOf(other._entries, other._entries.length);
+	}
+
+	/**
+	 * Creates a DBM from the non-strict bounds of a square matrix, such as the entries
+	 * of a {@link Zone}. Integer.MAX_VALUE is read as the absence of a constraint.
+	 * @param matrix
+	 * 		The bounds, with the zero clock in row and column 0.
+	 */
+	public DBM(int[][] matrix)
+	{
+		this(matrix.length);
+		for(int i=0; i<_size; i++)
+		{
+			for(int j=0; j<_size; j++)
+			{
+				_entries[i*_size + j] = matrix[i][j] == Zone.INFINITY ? INFINITY
+						: encode(matrix[i][j], false);
+			}
+		}
+	}
+
+	/**
+	 * Encodes a bound.
+	 * @param bound
+	 * 		The bound, between MIN_BOUND and MAX_BOUND.
+	 * @param strict
+	 * 		True for a strict bound, false for a non-strict one.
+	 * @return
+	 * 		The encoded bound.
+	 */
+	public static int encode(int bound, boolean strict)
+	{
+		if(bound > MAX_BOUND || bound < MIN_BOUND)
+		{
+			throw new IllegalArgumentException("The bound " + bound + " is out of range.");
+		}
+
+		return (bound << 1) | (strict ? 0 : 1);
+	}
+
+	/**
+	 * Gets the bound of an encoded bound that is not INFINITY.
+	 */
+	public static int getBound(int raw)
+	{
+		return raw >> 1;
+	}
+
+	/**
+	 * Determines if an encoded bound that is not INFINITY is strict.
+	 */
+	public static boolean isStrict(int raw)
+	{
+		return (raw & 1) == 0;
+	}
+
+	/**
+	 * Adds two encoded bounds. The sum is strict when either bound is strict.
+	 */
+	public static int add(int a, int b)
+	{
+		if(a == INFINITY || b == INFINITY)
+		{
+			return INFINITY;
+		}
+
+		return ((a & ~1) + (b & ~1)) | (a & b & 1);
+	}
+
+	/**
+	 * The number of clocks including the zero clock.
+	 */
+	public int size()
+	{
+		return _size;
+	}
+
+	/**
+	 * Gets the encoded bound of the entry (i, j).
+	 */
+	public int get(int i, int j)
+	{
+		return _entries[i*_size + j];
+	}
+
+	/**
+	 * Sets the encoded bound of the entry (i, j) without keeping the DBM canonical.
+	 */
+	public void set(int i, int j, int raw)
+	{
+		_entries[i*_size + j] = raw;
+	}
+
+	/**
+	 * Determines if the DBM has no solution. This is only reliable for a DBM that has been
+	 * closed since it was last changed by set.
+	 */
+	public boolean isEmpty()
+	{
+		for(int i=0; i<_size; i++)
+		{
+			if(_entries[i*_size + i] < LE_ZERO)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Makes the DBM canonical with the Floyd-Warshall algorithm in O(n^3).
+	 * @return
+	 * 		False if the DBM turns out to be empty, true otherwise.
+	 */
+	public boolean close()
+	{
+		int[] d = _entries;
+		int n = _size;
+
+		for(int k=0; k<n; k++)
+		{
+			int rowK = k*n;
+			for(int i=0; i<n; i++)
+			{
+				int rowI = i*n;
+				int ik = d[rowI + k];
+				if(ik == INFINITY)
+				{
+					continue;
+				}
+				for(int j=0; j<n; j++)
+				{
+					int sum = add(ik, d[rowK + j]);
+					if(sum < d[rowI + j])
+					{
+						d[rowI + j] = sum;
+					}
+				}
+				if(d[rowI + i] < LE_ZERO)
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tightens the entry (i, j) of a canonical DBM and keeps it canonical in O(n^2). Every
+	 * bound that changes is tightened by a path through the new entry, that is xv - xu is
+	 * bounded by the bound of xi - xu plus the new bound plus the bound of xv - xj.
+	 * @param i
+	 * 		The row of the entry.
+	 * @param j
+	 * 		The column of the entry.
+	 * @param raw
+	 * 		The new encoded bound. If it is no tighter than the current one, nothing changes.
+	 * @return
+	 * 		False if the DBM becomes empty, true otherwise. An empty DBM is no longer canonical.
+	 */
+	public boolean tighten(int i, int j, int raw)
+	{
+		int[] d = _entries;
+		int n = _size;
+
+		if(raw >= d[i*n + j])
+		{
+			return true;
+		}
+
+		d[i*n + j] = raw;
+
+		int cycle = add(raw, d[j*n + i]);
+		if(cycle < LE_ZERO)
+		{
+			d[i*n + i] = cycle;
+			return false;
+		}
+
+		// Since the cycle through the new entry is not negative, the column i and the
+		// row j do not change while they are read.
+		int rowJ = j*n;
+		for(int u=0; u<n; u++)
+		{
+			int ui = d[u*n + i];
+			if(ui == INFINITY)
+			{
+				continue;
+			}
+			int uj = add(ui, raw);
+			int rowU = u*n;
+			for(int v=0; v<n; v++)
+			{
+				int sum = add(uj, d[rowJ + v]);
+				if(sum < d[rowU + v])
+				{
+					d[rowU + v] = sum;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Resets a clock of a canonical DBM to a value in O(n). The DBM stays canonical.
+	 * @param clock
+	 * 		The clock to reset, which is not the zero clock.
+	 * @param value
+	 * 		The new value of the clock.
+	 */
+	public void reset(int clock, int value)
+	{
+		int[] d = _entries;
+		int n = _size;
+		int upper = encode(value, false);
+		int lower = encode(-value, false);
+
+		for(int v=0; v<n; v++)
+		{
+			// xv - xc <= (xv - x0) - value and xc - xv <= value + (x0 - xv).
+			d[clock*n + v] = add(d[v], lower);
+			d[v*n + clock] = add(d[v*n], upper);
+		}
+		d[clock*n + clock] = LE_ZERO;
+	}
+
+	/**
+	 * Removes the upper bounds of all the clocks in O(n). The DBM stays canonical.
+	 */
+	public void up()
+	{
+		for(int i=1; i<_size; i++)
+		{
+			_entries[i] = INFINITY;
+		}
+	}
+
+	/**
+	 * Lets time pass until a clock reaches its upper bound and keeps the DBM canonical in
+	 * O(n^2). This is up followed by tightening the whole row 0 at once: a shortest path
+	 * from the zero clock takes one of the new upper bounds and then a path that does not
+	 * leave the zero clock again, which the canonical DBM already holds.
+	 * @param upperBounds
+	 * 		The encoded upper bound of each clock. The entry for the zero clock is ignored.
+	 * @return
+	 * 		False if the DBM becomes empty, true otherwise.
+	 */
+	public boolean delay(int[] upperBounds)
+	{
+		int[] d = _entries;
+		int n = _size;
+		int[] zeroRow = new int[n];
+
+		zeroRow[0] = d[0];
+		for(int v=1; v<n; v++)
+		{
+			zeroRow[v] = upperBounds[v];
+		}
+		for(int w=1; w<n; w++)
+		{
+			int bound = upperBounds[w];
+			if(bound == INFINITY)
+			{
+				continue;
+			}
+			int rowW = w*n;
+			for(int v=0; v<n; v++)
+			{
+				int sum = add(bound, d[rowW + v]);
+				if(sum < zeroRow[v])
+				{
+					zeroRow[v] = sum;
+				}
+			}
+		}
+
+		System.arraycopy(zeroRow, 0, d, 0, n);
+		if(zeroRow[0] < LE_ZERO)
+		{
+			return false;
+		}
+
+		for(int u=1; u<n; u++)
+		{
+			int u0 = d[u*n];
+			if(u0 == INFINITY)
+			{
+				continue;
+			}
+			int rowU = u*n;
+			for(int v=1; v<n; v++)
+			{
+				int sum = add(u0, zeroRow[v]);
+				if(sum < d[rowU + v])
+				{
+					d[rowU + v] = sum;
+				}
+			}
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj)
+	{
+		if(this == obj)
+		{
+			return true;
+		}
+		if(!(obj instanceof DBM))
+		{
+			return false;
+		}
+		DBM other = (DBM) obj;
+		return _size == other._size && Arrays.equals(_entries, other._entries);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode()
+	{
+		return Arrays.hashCode(_entries);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder result = new StringBuilder();
+		for(int i=0; i<_size; i++)
+		{
+			for(int j=0; j<_size; j++)
+			{
+				int raw = get(i, j);
+				result.append(j == 0 ? "" : " ");
+				if(raw == INFINITY)
+				{
+					result.append("inf");
+				}
+				else
+				{
+					result.append(isStrict(raw) ? "<" : "<=").append(getBound(raw));
+				}
+			}
+			result.append('\n');
+		}
+		return result.toString();
+	}
+}
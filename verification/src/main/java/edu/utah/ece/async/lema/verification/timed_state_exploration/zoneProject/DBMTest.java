@@ -0,0 +1,441 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.timed_state_exploration.zoneProject;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.utah.ece.async.lema.verification.lpn.LPN;
+import edu.utah.ece.async.lema.verification.platu.main.Options;
+import edu.utah.ece.async.lema.verification.platu.platuLpn.LpnTranList;
+import edu.utah.ece.async.lema.verification.platu.stategraph.State;
+import edu.utah.ece.async.lema.verification.platu.stategraph.StateGraph;
+import edu.utah.ece.async.lema.verification.timed_state_exploration.zoneProject.Zone.DiagonalNonZeroException;
+
+/**
+ * Checks the incremental canonicalization of the DBM and the Zone against the full
+ * Floyd-Warshall closure, on random DBMs and along random firings of a timed LPN.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class DBMTest {
+
+	private static final int ROUNDS = 500;
+
+	/**
+	 * Creates a random matrix in the format taken by Zone(int[], int[][]). The DBM holds
+	 * a random point, so it is never empty, and some of its entries are infinite.
+	 */
+	private static int[][] randomMatrix(Random random, int timers)
+	{
+		int size = timers + 1;
+		int[] point = new int[size];
+		for(int i=1; i<size; i++)
+		{
+			point[i] = random.nextInt(20);
+		}
+
+		int[][] matrix = new int[size+1][size+1];
+		for(int i=0; i<size; i++)
+		{
+			for(int j=0; j<size; j++)
+			{
+				if(i == j)
+				{
+					continue;
+				}
+				matrix[i+1][j+1] = random.nextInt(4) == 0 ? Zone.INFINITY
+						: point[j] - point[i] + random.nextInt(10);
+			}
+		}
+
+		// The lower and upper bounds of the timers.
+		for(int i=2; i<=size; i++)
+		{
+			matrix[i][0] = -random.nextInt(10);
+			matrix[0][i] = random.nextInt(30);
+		}
+		return matrix;
+	}
+
+	private static int[] timers(int count)
+	{
+		int[] timers = new int[count];
+		for(int i=0; i<count; i++)
+		{
+			timers[i] = i;
+		}
+		return timers;
+	}
+
+	/**
+	 * Copies the DBM of a Zone into a matrix with the lower and upper bounds of another one.
+	 */
+	private static int[][] copyOf(Zone zone, int[][] bounds)
+	{
+		int[][] matrix = new int[bounds.length][bounds.length];
+		for(int i=0; i<bounds.length; i++)
+		{
+			matrix[i][0] = bounds[i][0];
+			matrix[0][i] = bounds[0][i];
+		}
+		for(int i=1; i<bounds.length; i++)
+		{
+			for(int j=1; j<bounds.length; j++)
+			{
+				matrix[i][j] = zone.getDbmEntry(i-1, j-1);
+			}
+		}
+		return matrix;
+	}
+
+	private static void assertSameDbm(Zone expected, Zone actual, int size)
+	{
+		for(int i=0; i<size; i++)
+		{
+			for(int j=0; j<size; j++)
+			{
+				assertEquals("Entry (" + i + ", " + j + ")", expected.getDbmEntry(i, j),
+						actual.getDbmEntry(i, j));
+			}
+		}
+	}
+
+	/**
+	 * Creates a random canonical DBM with strict and non-strict bounds, or null if it is empty.
+	 */
+	private static DBM randomDbm(Random random, int size)
+	{
+		DBM dbm = new DBM(size);
+		for(int i=0; i<size; i++)
+		{
+			for(int j=0; j<size; j++)
+			{
+				if(i != j)
+				{
+					dbm.set(i, j, random.nextInt(4) == 0 ? DBM.INFINITY
+							: DBM.encode(random.nextInt(30) - 10, random.nextBoolean()));
+				}
+			}
+		}
+		return dbm.close() ? dbm : null;
+	}
+
+	@Test
+	public void testCloseAgreesWithZone()
+	{
+		Random random = new Random(1);
+		for(int round=0; round<ROUNDS; round++)
+		{
+			int timers = 1 + random.nextInt(8);
+			int[][] matrix = randomMatrix(random, timers);
+
+			int[][] entries = new int[timers+1][timers+1];
+			for(int i=0; i<=timers; i++)
+			{
+				System.arraycopy(matrix[i+1], 1, entries[i], 0, timers+1);
+			}
+			DBM dbm = new DBM(entries);
+			assertTrue(dbm.close());
+
+			Zone zone = new Zone(timers(timers), matrix);
+			for(int i=0; i<=timers; i++)
+			{
+				for(int j=0; j<=timers; j++)
+				{
+					int raw = dbm.get(i, j);
+					assertEquals(raw == DBM.INFINITY ? Zone.INFINITY : DBM.getBound(raw),
+							zone.getDbmEntry(i, j));
+					assertFalse(raw != DBM.INFINITY && DBM.isStrict(raw));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testZoneTightenAgreesWithClosure()
+	{
+		Random random = new Random(2);
+		for(int round=0; round<ROUNDS; round++)
+		{
+			int timers = 1 + random.nextInt(8);
+			int[][] matrix = randomMatrix(random, timers);
+			Zone canonical = new Zone(timers(timers), matrix);
+
+			int i = random.nextInt(timers+1);
+			int j = random.nextInt(timers+1);
+			if(i == j)
+			{
+				continue;
+			}
+			int current = canonical.getDbmEntry(i, j);
+			int value = current == Zone.INFINITY ? random.nextInt(20)
+					: current + random.nextInt(10) - 7;
+
+			int[][] tightened = copyOf(canonical, matrix);
+			tightened[i+1][j+1] = value;
+
+			Zone expected = null;
+			try
+			{
+				expected = new Zone(timers(timers), tightened);
+			}
+			catch(DiagonalNonZeroException e)
+			{
+				// The tightened DBM is empty.
+			}
+
+			Zone incremental = new Zone(timers(timers), matrix);
+			try
+			{
+				incremental.tightenDbmEntry(i, j, value);
+				assertNotNull("The tightened DBM should be empty.", expected);
+			}
+			catch(DiagonalNonZeroException e)
+			{
+				assertNull("The tightened DBM should not be empty.", expected);
+				continue;
+			}
+			assertSameDbm(expected, incremental, timers+1);
+		}
+	}
+
+	@Test
+	public void testZoneAdvanceAgreesWithClosure()
+	{
+		Random random = new Random(3);
+		for(int round=0; round<ROUNDS; round++)
+		{
+			int timers = 1 + random.nextInt(8);
+			int[][] matrix = randomMatrix(random, timers);
+
+			int[][] advanced = copyOf(new Zone(timers(timers), matrix), matrix);
+			for(int i=2; i<matrix.length; i++)
+			{
+				advanced[1][i] = matrix[0][i];
+			}
+
+			Zone expected = null;
+			try
+			{
+				expected = new Zone(timers(timers), advanced);
+			}
+			catch(DiagonalNonZeroException e)
+			{
+				// Advancing made the DBM empty.
+			}
+
+			Zone incremental = new Zone(timers(timers), matrix);
+			incremental.advance();
+			try
+			{
+				incremental.recononicalizeAfterAdvance();
+				assertNotNull("The advanced DBM should be empty.", expected);
+			}
+			catch(DiagonalNonZeroException e)
+			{
+				assertNull("The advanced DBM should not be empty.", expected);
+				continue;
+			}
+			assertSameDbm(expected, incremental, timers+1);
+		}
+	}
+
+	/**
+	 * Checks that closing the DBM of a Zone leaves it unchanged.
+	 */
+	private static void assertCanonical(Zone zone)
+	{
+		Zone closed = zone.clone();
+		closed.recononicalize();
+		assertSameDbm(closed, zone, zone.dbmSize());
+	}
+
+	/**
+	 * Creates an LPN of independent cycles whose transitions have different delays, so
+	 * that the firings keep resetting some timers while the others keep running.
+	 */
+	private static StateGraph timedCycles()
+	{
+		String[][] delays = {{"1,3", "2,5"}, {"0,4", "3,3"}, {"2,6", "1,2"}};
+		LPN lpn = new LPN();
+		lpn.setLabel("cycles");
+		for(int k=0; k<delays.length; k++)
+		{
+			lpn.addPlace("a" + k, true);
+			lpn.addPlace("b" + k, false);
+			lpn.addTransition("go" + k);
+			lpn.addTransition("back" + k);
+			lpn.addMovement("a" + k, "go" + k);
+			lpn.addMovement("go" + k, "b" + k);
+			lpn.addMovement("b" + k, "back" + k);
+			lpn.addMovement("back" + k, "a" + k);
+			lpn.changeDelay("go" + k, delays[k][0]);
+			lpn.changeDelay("back" + k, delays[k][1]);
+		}
+		lpn.setLpnIndex(0);
+		StateGraph sg = new StateGraph(lpn);
+		lpn.addStateGraph(sg);
+		return sg;
+	}
+
+	@Test
+	public void testFireKeepsDbmCanonical()
+	{
+		String timing = Options.getTimingAnalysisType();
+		Options.setTimingAnalsysisType("zone");
+		try
+		{
+			StateGraph sg = timedCycles();
+			StateGraph[] sgList = {sg};
+			State[] initial = {sg.addState(sg.genInitialState())};
+			TimedPrjState start = new TimedPrjState(initial);
+
+			Random random = new Random(5);
+			for(int walk=0; walk<20; walk++)
+			{
+				TimedPrjState state = start;
+				for(int step=0; step<50; step++)
+				{
+					LpnTranList events = state.getPossibleEvents(0, 0);
+					assertFalse(events.isEmpty());
+					EventSet event = (EventSet) events.get(random.nextInt(events.size()));
+					Zone zone = (Zone) state.get_zones()[0];
+					state = sg.fire(sgList, state, event);
+					assertCanonical((Zone) state.get_zones()[0]);
+
+					// Firing skips the closure after resetting the timers, so the
+					// reset alone has to keep the DBM canonical.
+					State[] next = state.toStateArray();
+					int index = zone.timerIndexToDBMIndex(
+							new LPNTransitionPair(0, event.getTransition().getIndex()));
+					assertCanonical(zone.fireTransitionbydbmIndexNew(index,
+							sg.getEnabled(next[0]), next, new ContinuousRecordSet()));
+				}
+			}
+		}
+		finally
+		{
+			Options.setTimingAnalsysisType(timing);
+		}
+	}
+
+	@Test
+	public void testTightenAgreesWithClose()
+	{
+		Random random = new Random(4);
+		for(int round=0; round<ROUNDS; round++)
+		{
+			int size = 2 + random.nextInt(8);
+			DBM dbm = randomDbm(random, size);
+			if(dbm == null)
+			{
+				continue;
+			}
+
+			int i = random.nextInt(size);
+			int j = random.nextInt(size);
+			if(i == j)
+			{
+				continue;
+			}
+			int raw = DBM.encode(random.nextInt(30) - 15, random.nextBoolean());
+
+			DBM expected = new DBM(dbm);
+			if(raw < expected.get(i, j))
+			{
+				expected.set(i, j, raw);
+			}
+			boolean nonEmpty = expected.close();
+
+			assertEquals(nonEmpty, dbm.tighten(i, j, raw));
+			if(nonEmpty)
+			{
+				assertEquals(expected, dbm);
+			}
+		}
+	}
+
+	@Test
+	public void testResetAgreesWithClose()
+	{
+		Random random = new Random(5);
+		for(int round=0; round<ROUNDS; round++)
+		{
+			int size = 2 + random.nextInt(8);
+			DBM dbm = randomDbm(random, size);
+			if(dbm == null)
+			{
+				continue;
+			}
+
+			int clock = 1 + random.nextInt(size-1);
+			int value = random.nextInt(10);
+
+			DBM expected = new DBM(dbm);
+			for(int v=0; v<size; v++)
+			{
+				expected.set(clock, v, DBM.INFINITY);
+				expected.set(v, clock, DBM.INFINITY);
+			}
+			expected.set(clock, clock, DBM.LE_ZERO);
+			expected.set(0, clock, DBM.encode(value, false));
+			expected.set(clock, 0, DBM.encode(-value, false));
+			assertTrue(expected.close());
+
+			dbm.reset(clock, value);
+			assertEquals(expected, dbm);
+		}
+	}
+
+	@Test
+	public void testDelayAgreesWithClose()
+	{
+		Random random = new Random(6);
+		for(int round=0; round<ROUNDS; round++)
+		{
+			int size = 2 + random.nextInt(8);
+			DBM dbm = randomDbm(random, size);
+			if(dbm == null)
+			{
+				continue;
+			}
+
+			int[] upperBounds = new int[size];
+			for(int v=1; v<size; v++)
+			{
+				upperBounds[v] = random.nextInt(5) == 0 ? DBM.INFINITY
+						: DBM.encode(random.nextInt(30), random.nextBoolean());
+			}
+
+			DBM expected = new DBM(dbm);
+			for(int v=1; v<size; v++)
+			{
+				expected.set(0, v, upperBounds[v]);
+			}
+			boolean nonEmpty = expected.close();
+
+			assertEquals(nonEmpty, dbm.delay(upperBounds));
+			if(nonEmpty)
+			{
+				assertEquals(expected, dbm);
+			}
+		}
+	}
+}
@@ -16,7 +16,6 @@ package edu.utah.ece.async.lema.verification.timed_state_exploration.zoneProject
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 
 import edu.utah.ece.async.lema.verification.platu.main.Options;
 import edu.utah.ece.async.lema.verification.platu.project.PrjState;
@@ -24,9 +23,12 @@ import edu.utah.ece.async.lema.verification.platu.project.PrjState;
 /**
  * A StateSet object operates like a hash set of PrjState objects. It operates in one
  * of two modes. The first mode (called the set mode) is exactly like a HashSet<PrjState>.
- * The second mode is backed by a HashMap<PrjState, LinkedList<TimedPrjState>>. This
+ * The second mode is backed by a HashMap<PrjState, SubsumptionList>. This
  * second mode (called the subset/superset mode) allows TimedPrjStates to be keyed by 
  * their un-timed portions for quicker look-up when determining subsets and supersets.
+ * Each SubsumptionList orders its states by the signature of their zones, so most
+ * of the zone comparisons are skipped. The work done is counted in a
+ * SubsumptionStatistics that is reported by stateString().
  * The subset/superset mode is only enacted when the Options.getTimingAnalysisFlag() is
  * true and at least one of the ZoneType.getSubsetFlag() or ZoneType.getSupersetFlag() is
  * true.
@@ -69,13 +71,16 @@ public class StateSet implements Iterable<PrjState>{
 	 * 		In the set mode, operations should be simply passed to the _singletonList
 	 * 		thereby ensuring that the StateSet acts identical to a HashSet in this mode.
 	 * 
-	 * 		Given a key value pair (k, v) stored in the _setList, the LinkedList v should
+	 * 		Given a key value pair (k, v) stored in the _setList, the SubsumptionList v should
 	 * 		only contain TimedPrjStates that have an un-timed portion equal to k. Specifically,
 	 * 		s.getUntimedPrjState.equals(k) should return true for each TimedState in v.
 	 */
 	
 	protected HashSet<PrjState> _singletonList;
-	protected HashMap<PrjState, LinkedList<TimedPrjState>> _setList;
+	protected HashMap<PrjState, SubsumptionList> _setList;
+	
+	// Counts the subset and superset checks.
+	private SubsumptionStatistics _statistics;
 	
 	// Caches whether subsets, supersets, and timing is being used.
 	private boolean timed, subsets, supersets;
@@ -115,7 +120,8 @@ public class StateSet implements Iterable<PrjState>{
 		supersets = Zone.getSupersetFlag();
 		
 		if(timed && (subsets || supersets)){
-			_setList = new HashMap<PrjState, LinkedList<TimedPrjState>>();
+			_setList = new HashMap<PrjState, SubsumptionList>();
+			_statistics = new SubsumptionStatistics();
 		}
 		else{
 			_singletonList = new HashSet<PrjState>();
@@ -154,7 +160,7 @@ public class StateSet implements Iterable<PrjState>{
 		}
 		int result = 0;
 		
-		for(LinkedList<TimedPrjState> l : _setList.values()){
+		for(SubsumptionList l : _setList.values()){
 			result += l.size();
 		}
 		
@@ -185,13 +191,13 @@ public class StateSet implements Iterable<PrjState>{
 			
 			PrjState untimedState = ts.getUntimedPrjState();
 			
-			LinkedList<TimedPrjState> list = _setList.get(untimedState);
+			SubsumptionList list = _setList.get(untimedState);
 			
 			if(list == null){
 				
 				// No list is associated with this set of un-timed (local) states.
 				// So create a new list with this PrjState.
-				LinkedList<TimedPrjState> newList = new LinkedList<TimedPrjState>();
+				SubsumptionList newList = new SubsumptionList(_statistics);
 				newList.add(ts);
 				_setList.put(untimedState, newList);
 				
@@ -199,7 +205,7 @@ public class StateSet implements Iterable<PrjState>{
 				return true;
 			}
 			
-			if(list.contains(ts)){
+			if(list.containsEqual(ts)){
 				// The set already contains the timed project state. So nothing changes.
 				return false;
 			}
@@ -291,7 +297,7 @@ public class StateSet implements Iterable<PrjState>{
 			PrjState untimedState = ts.getUntimedPrjState();
 
 			// Get the list keyed to this set of (local) un-timed states.
-			LinkedList<TimedPrjState> list = _setList.get(untimedState);
+			SubsumptionList list = _setList.get(untimedState);
 
 			if(list == null){
 
@@ -301,40 +307,26 @@ public class StateSet implements Iterable<PrjState>{
 				return false;
 			}
 
-			// Get an iterator from the list to allow removal of elements as the list is 
-			// traversed.
-			Iterator<TimedPrjState> iterate = list.iterator();
+			// If subsets are selected, then the state is contained as soon as a superset
+			// of it is found. Since a state is a subset of itself, this also finds
+			// an equal state.
+			if(subsets && list.findSuperset(ts) != null){
+				return true;
+			}
 
 			boolean result = false;
 
-			while(iterate.hasNext()){
-				TimedPrjState listState = iterate.next();
-
-				// If subsets are selected, then iteration can be exited as soon as a subset is found.
-				if(subsets && ts.subset(listState)){
-					return true;
-				}
-
-				// If supersets are selected, items that are subsets of the new state may be
-				// removed.
-				if(supersets){
-					if(!subsets && ts.equals(listState)){
-						// When an equal state is found, the return value must be true and the
-						// state should not be removed. When not doing subsets, the superset check
-						// cannot end here (since other sets that are supersets may exist further in the
-						// list). If control has passed here, it can be deduced that subsets has not
-						// been selected even without the subset flag since the 
-						// if(subsets && s.subset(listState) would have already been taken.
-						// The subset flag is added here to allow a quick out of the extra equality check.
-						result |= true;
-					}
-					else if(ts.superset(listState)){
-						// The new state (s) is a strict superset of an existing state.
-						// Remove the existing state.
-						iterate.remove();
-					}
+			// If supersets are selected, items that are subsets of the new state may be
+			// removed.
+			if(supersets){
+				// When an equal state is found, the return value must be true and the
+				// state should not be removed.
+				if(!subsets){
+					result = list.containsEqual(ts);
 				}
-
+				
+				// Remove the existing states that the new state is a strict superset of.
+				list.removeSubsets(ts);
 			}
 
 			return result;
@@ -433,8 +425,10 @@ public class StateSet implements Iterable<PrjState>{
 		}
 		HashSet<PrjState> result = new HashSet<PrjState>();
 		//throw new IllegalStateException("Array initialized in subset/superset mode.");
-		for(LinkedList<TimedPrjState> list : _setList.values()){
-			result.addAll(list);
+		for(SubsumptionList list : _setList.values()){
+			for(TimedPrjState s : list){
+				result.add(s);
+			}
 		}
 		return result;
 	}
@@ -456,6 +450,9 @@ public class StateSet implements Iterable<PrjState>{
 			
 			// Report the largest Zone used.
 			result += ", Largest zone: " + Zone.ZoneSize;
+			
+			// Report the work done by the subset and superset checks.
+			result += ", " + _statistics;
 		}
 		
 		return result;
@@ -468,7 +465,7 @@ public class StateSet implements Iterable<PrjState>{
 	@Override
 	public Iterator<PrjState> iterator(){
 		Iterator<PrjState> hashIterator = null;
-		Iterator<LinkedList<TimedPrjState>> listIterator = null;
+		Iterator<SubsumptionList> listIterator = null;
 		
 		if(_singletonList != null){
 			hashIterator = _singletonList.iterator();
@@ -494,34 +491,34 @@ public class StateSet implements Iterable<PrjState>{
 		 * 		A StateSetIterator is the implementation for the Iterator<PrjState>
 		 * 		required by StateSet being iterable. The StateSet has two modes,
 		 * 		one where a HashSet<PrjState> is used and one where a
-		 * 		HashMap<PrjState, LinkedList<TimedPrjState>> is used. Correspondingly,
+		 * 		HashMap<PrjState, SubsumptionList> is used. Correspondingly,
 		 * 		This iterator has two modes. One that is meant iterate through the 
 		 * 		HashSet and the other that is meant to iterate through the HashMap.
 		 * 		The member variable _hashIterator is simply the HashSet's own iterator.
 		 * 		The member variables _hashListIterator and _listIterator together
-		 * 		iterate through all the TimedPrjStates that are stored in the LinkedLists
-		 * 		of a HashMap<PrjState, <LinkedList<TimedPrjState>>. The _hashListIterator
-		 * 		iterator goes through each of the LinkedList and the _listIterator goes
-		 * 		through a single list. Thus the idea is to get the first LinkedList,
-		 * 		traverse its elements, get the second LinkedList, traverse its elements
-		 * 		and so on until all elements of the LinkedLists have been traversed.
+		 * 		iterate through all the TimedPrjStates that are stored in the SubsumptionLists
+		 * 		of a HashMap<PrjState, SubsumptionList>. The _hashListIterator
+		 * 		iterator goes through each of the SubsumptionList and the _listIterator goes
+		 * 		through a single list. Thus the idea is to get the first SubsumptionList,
+		 * 		traverse its elements, get the second SubsumptionList, traverse its elements
+		 * 		and so on until all elements of the SubsumptionLists have been traversed.
 		 */
 		
 		
 		/*
 		 * Representation Invariant : Only one of _hashIterator or _hashListIterator
 		 * 		should be non-null at one time. The iterator should be iterating through
-		 * 		one mode at a time, either the HashSet mode or the LinkedList mode.
+		 * 		one mode at a time, either the HashSet mode or the SubsumptionList mode.
 		 * 
 		 * 		If _hashListIterator is not null, then _listIterator should either 
-		 * 		be the iterator for the last LinkedList returned by _hashListIterator
+		 * 		be the iterator for the last SubsumptionList returned by _hashListIterator
 		 * 		or an iterator that has not exhausted all its elements. The idea is
 		 * 		the _listIterator should be able to give the next element that is to
 		 * 		be return if there are still elements that can be returned.
 		 */
 		
 		Iterator<PrjState> _hashIterator;
-		Iterator<LinkedList<TimedPrjState>> _hashListIterator;
+		Iterator<SubsumptionList> _hashListIterator;
 		Iterator<TimedPrjState> _listIterator;
 		
 		/**
@@ -531,10 +528,10 @@ public class StateSet implements Iterable<PrjState>{
 		 * @param hashIterator
 		 * 			Iterator for a HashSet<PrjState.
 		 * @param listIterator
-		 * 			Iterator for a HashMap<PrjState, LinkedList<TimedPrjState>>.
+		 * 			Iterator for a HashMap<PrjState, SubsumptionList>.
 		 */
 		private StateSetIterator(Iterator<PrjState> hashIterator,
-				Iterator<LinkedList<TimedPrjState>> listIterator){
+				Iterator<SubsumptionList> listIterator){
 			
 			// This method initializes the iterator for the StateSet. It initializes
 			// the iterator member variables. The member variables that are initialized
@@ -0,0 +1,264 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.timed_state_exploration.zoneProject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Holds the TimedPrjStates that share an un-timed portion, ordered by the signature of
+ * their zones (see TimedPrjState.getZoneSignature()). A state can only be a subset of
+ * the states whose signature is at least its own and a superset of the states whose
+ * signature is at most its own, so the subset and superset checks only compare the
+ * zones of the states on one side of the signature of the state being looked up. Since
+ * the states share the un-timed portion, only the zones are compared.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class SubsumptionList implements Iterable<TimedPrjState>{
+
+	/*
+	 * Representation Invariant : The first _size entries of _states are the stored
+	 * states and _signatures holds their signatures in non-decreasing order.
+	 */
+
+	private TimedPrjState[] _states;
+	private long[] _signatures;
+	private int _size;
+
+	private final SubsumptionStatistics _statistics;
+
+	/**
+	 * Creates an empty list.
+	 * @param statistics
+	 * 		The counters to update on each lookup.
+	 */
+	public SubsumptionList(SubsumptionStatistics statistics){
+		_states = new TimedPrjState[4];
+		_signatures = new long[4];
+		_statistics = statistics;
+	}
+
+	/**
+	 * The number of states in the list.
+	 */
+	public int size(){
+		return _size;
+	}
+
+	/**
+	 * Finds a stored state whose zones are supersets of the zones of a state. The
+	 * states with the largest signatures are tried first.
+	 * @param s
+	 * 		The state to look up.
+	 * @return
+	 * 		A state covering s, or null if there is none.
+	 */
+	public TimedPrjState findSuperset(TimedPrjState s){
+		_statistics.lookup();
+
+		int start = lowerBound(s.getZoneSignature());
+		_statistics.skip(start);
+
+		for(int i=_size-1; i>=start; i--){
+			_statistics.compare();
+			if(s.subsetZone(_states[i])){
+				_statistics.cover();
+				return _states[i];
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Determines if the list contains a state equal to a given state. Only the states
+	 * with the same signature are compared.
+	 * @param s
+	 * 		The state to look up.
+	 * @return
+	 * 		True if an equal state is stored, false otherwise.
+	 */
+	public boolean containsEqual(TimedPrjState s){
+		_statistics.lookup();
+
+		long signature = s.getZoneSignature();
+		int start = lowerBound(signature);
+		int end = upperBound(signature);
+		_statistics.skip(_size - (end - start));
+
+		for(int i=start; i<end; i++){
+			_statistics.compare();
+			if(s.equals(_states[i])){
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Removes the stored states whose zones are subsets of the zones of a state, other
+	 * than the states equal to it.
+	 * @param s
+	 * 		The state that may cover stored states.
+	 * @return
+	 * 		The removed states.
+	 */
+	public List<TimedPrjState> removeSubsets(TimedPrjState s){
+		_statistics.lookup();
+
+		int end = upperBound(s.getZoneSignature());
+		_statistics.skip(_size - end);
+
+		List<TimedPrjState> removed = null;
+		int kept = 0;
+		for(int i=0; i<end; i++){
+			_statistics.compare();
+			if(s.supersetZone(_states[i]) && !s.equals(_states[i])){
+				if(removed == null){
+					removed = new ArrayList<TimedPrjState>();
+				}
+				removed.add(_states[i]);
+			}
+			else{
+				_states[kept] = _states[i];
+				_signatures[kept] = _signatures[i];
+				kept++;
+			}
+		}
+
+		if(removed == null){
+			return Collections.emptyList();
+		}
+
+		// Move the states past the end down over the removed ones.
+		System.arraycopy(_states, end, _states, kept, _size - end);
+		System.arraycopy(_signatures, end, _signatures, kept, _size - end);
+		Arrays.fill(_states, kept + _size - end, _size, null);
+		_size -= removed.size();
+		_statistics.evict(removed.size());
+
+		return removed;
+	}
+
+	/**
+	 * Adds a state to the list. No check is made for states covering or covered by it.
+	 * @param s
+	 * 		The state to add.
+	 */
+	public void add(TimedPrjState s){
+		long signature = s.getZoneSignature();
+		int index = upperBound(signature);
+
+		if(_size == _states.length){
+			_states = Arrays.copyOf(_states, 2*_size);
+			_signatures = Arrays.copyOf(_signatures, 2*_size);
+		}
+
+		System.arraycopy(_states, index, _states, index+1, _size - index);
+		System.arraycopy(_signatures, index, _signatures, index+1, _size - index);
+		_states[index] = s;
+		_signatures[index] = signature;
+		_size++;
+	}
+
+	/**
+	 * Removes the state at an index.
+	 */
+	private void remove(int index){
+		System.arraycopy(_states, index+1, _states, index, _size - index - 1);
+		System.arraycopy(_signatures, index+1, _signatures, index, _size - index - 1);
+		_size--;
+		_states[_size] = null;
+	}
+
+	/**
+	 * The index of the first state with a signature of at least the given one.
+	 */
+	private int lowerBound(long signature){
+		int low = 0;
+		int high = _size;
+		while(low < high){
+			int middle = (low + high) >>> 1;
+			if(_signatures[middle] < signature){
+				low = middle + 1;
+			}
+			else{
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * The index of the first state with a signature larger than the given one.
+	 */
+	private int upperBound(long signature){
+		int low = 0;
+		int high = _size;
+		while(low < high){
+			int middle = (low + high) >>> 1;
+			if(_signatures[middle] <= signature){
+				low = middle + 1;
+			}
+			else{
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public Iterator<TimedPrjState> iterator(){
+		return new Iterator<TimedPrjState>(){
+
+			private int _next;
+			private boolean _canRemove;
+
+			@Override
+			public boolean hasNext(){
+				return _next < _size;
+			}
+
+			@Override
+			public TimedPrjState next(){
+				if(_next >= _size){
+					throw new NoSuchElementException();
+				}
+				_canRemove = true;
+				return _states[_next++];
+			}
+
+			@Override
+			public void remove(){
+				if(!_canRemove){
+					throw new IllegalStateException();
+				}
+				_canRemove = false;
+				SubsumptionList.this.remove(--_next);
+			}
+		};
+	}
+}
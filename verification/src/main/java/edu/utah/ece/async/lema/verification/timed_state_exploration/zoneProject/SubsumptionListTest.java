@@ -0,0 +1,191 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.timed_state_exploration.zoneProject;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.utah.ece.async.lema.verification.platu.stategraph.State;
+import edu.utah.ece.async.lema.verification.timed_state_exploration.octagon.Equivalence;
+
+/**
+ * Checks the ordering, coverage and eviction of the subsumption list against a plain
+ * list that compares every pair of zones.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class SubsumptionListTest {
+
+	private static final int TIMERS = 2;
+
+	/*
+	 * The states in the list share their un-timed portion.
+	 */
+	private static final State[] STATES = new State[0];
+
+	/**
+	 * Creates a state whose zone lets each timer range from zero up to a bound. The zone
+	 * of one such state is a subset of the zone of another when every bound is at most
+	 * the other one.
+	 */
+	private static TimedPrjState box(int... upperBounds){
+		int[] timers = new int[TIMERS];
+		int[][] matrix = new int[TIMERS+2][TIMERS+2];
+		for(int i=0; i<=TIMERS; i++){
+			if(i < TIMERS){
+				timers[i] = i;
+			}
+			for(int j=0; j<=TIMERS; j++){
+				if(i != j){
+					matrix[i+1][j+1] = Zone.INFINITY;
+				}
+			}
+		}
+		for(int i=1; i<=TIMERS; i++){
+			// The lower and upper bounds of the delays.
+			matrix[i+1][0] = 0;
+			matrix[0][i+1] = 10;
+			
+			matrix[1][i+1] = upperBounds[i-1];
+			matrix[i+1][1] = 0;
+		}
+		return new TimedPrjState(STATES, new Equivalence[]{new Zone(timers, matrix)});
+	}
+
+	private static TimedPrjState randomBox(Random random){
+		int[] upperBounds = new int[TIMERS];
+		for(int i=0; i<TIMERS; i++){
+			upperBounds[i] = random.nextInt(6);
+		}
+		return box(upperBounds);
+	}
+
+	private static List<TimedPrjState> contents(SubsumptionList list){
+		List<TimedPrjState> contents = new ArrayList<TimedPrjState>();
+		for(TimedPrjState s : list){
+			contents.add(s);
+		}
+		return contents;
+	}
+
+	private static void assertSorted(SubsumptionList list){
+		long previous = Long.MIN_VALUE;
+		for(TimedPrjState s : list){
+			assertTrue(previous <= s.getZoneSignature());
+			previous = s.getZoneSignature();
+		}
+	}
+
+	@Test
+	public void testNestedZones(){
+		SubsumptionList list = new SubsumptionList(new SubsumptionStatistics());
+		TimedPrjState small = box(1, 1);
+		TimedPrjState middle = box(2, 3);
+		TimedPrjState large = box(4, 4);
+		TimedPrjState other = box(5, 0);
+
+		assertTrue(small.getZoneSignature() < middle.getZoneSignature());
+		assertTrue(middle.getZoneSignature() < large.getZoneSignature());
+		
+		list.add(middle);
+		list.add(other);
+		list.add(small);
+		assertEquals(3, list.size());
+		assertSorted(list);
+
+		// The small zone is covered by the middle one, but the middle one is not.
+		assertSame(middle, list.findSuperset(small));
+		assertNull(list.findSuperset(large));
+		assertTrue(list.containsEqual(box(2, 3)));
+		assertFalse(list.containsEqual(box(3, 2)));
+
+		// The large zone evicts the zones it covers, but not the other one or itself.
+		List<TimedPrjState> removed = list.removeSubsets(large);
+		assertEquals(2, removed.size());
+		assertTrue(removed.contains(small));
+		assertTrue(removed.contains(middle));
+		assertTrue(list.removeSubsets(box(5, 0)).isEmpty());
+		list.add(large);
+		assertEquals(2, list.size());
+		assertSorted(list);
+		assertSame(large, list.findSuperset(middle));
+
+		Iterator<TimedPrjState> iterator = list.iterator();
+		iterator.next();
+		iterator.remove();
+		assertEquals(1, list.size());
+	}
+
+	@Test
+	public void testAgreesWithPairwiseChecks(){
+		SubsumptionStatistics statistics = new SubsumptionStatistics();
+		SubsumptionList list = new SubsumptionList(statistics);
+		List<TimedPrjState> expected = new ArrayList<TimedPrjState>();
+
+		Random random = new Random(1);
+		for(int round=0; round<2000; round++){
+			TimedPrjState s = randomBox(random);
+
+			TimedPrjState cover = null;
+			boolean equal = false;
+			for(TimedPrjState t : expected){
+				if(cover == null && s.subsetZone(t)){
+					cover = t;
+				}
+				equal |= s.equals(t);
+			}
+
+			TimedPrjState found = list.findSuperset(s);
+			assertEquals(cover == null, found == null);
+			assertTrue(found == null || s.subsetZone(found));
+			assertEquals(equal, list.containsEqual(s));
+			if(found != null){
+				continue;
+			}
+
+			List<TimedPrjState> evicted = new ArrayList<TimedPrjState>();
+			for(Iterator<TimedPrjState> iterator = expected.iterator(); iterator.hasNext();){
+				TimedPrjState t = iterator.next();
+				if(s.supersetZone(t) && !s.equals(t)){
+					evicted.add(t);
+					iterator.remove();
+				}
+			}
+			List<TimedPrjState> removed = list.removeSubsets(s);
+			assertEquals(evicted.size(), removed.size());
+			assertTrue(removed.containsAll(evicted));
+
+			expected.add(s);
+			list.add(s);
+
+			List<TimedPrjState> contents = contents(list);
+			assertEquals(expected.size(), contents.size());
+			assertTrue(contents.containsAll(expected));
+			assertSorted(list);
+		}
+
+		// The signature rules out some of the comparisons.
+		assertTrue(statistics.getSkipped() > 0);
+		assertTrue(statistics.getCovered() > 0);
+		assertTrue(statistics.getEvicted() > 0);
+	}
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ *  
+ * This file is part of iBioSim. Please visit <http://www.async.ece.utah.edu/ibiosim>
+ * for the latest version of iBioSim.
+ *
+ * Copyright (C) 2017 University of Utah
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the Apache License. A copy of the license agreement is provided
+ * in the file named "LICENSE.txt" included with this software distribution
+ * and also available online at <http://www.async.ece.utah.edu/ibiosim/License>.
+ *  
+ *******************************************************************************/
+package edu.utah.ece.async.lema.verification.timed_state_exploration.zoneProject;
+
+/**
+ * Counts the work done by the SubsumptionLists of a state set: the number of lookups,
+ * the number of zone comparisons made and skipped by the signatures, the number of
+ * lookups that found a state covering the new one, and the number of states evicted
+ * for being subsets of a new one.
+ *
+ * @author Chris Myers
+ * @author <a href="http://www.async.ece.utah.edu/ibiosim#Credits"> iBioSim Contributors </a>
+ * @version %I%
+ */
+public class SubsumptionStatistics {
+
+	private long _lookups;
+	private long _comparisons;
+	private long _skipped;
+	private long _covered;
+	private long _evicted;
+
+	void lookup(){
+		_lookups++;
+	}
+
+	void compare(){
+		_comparisons++;
+	}
+
+	void skip(int count){
+		_skipped += count;
+	}
+
+	void cover(){
+		_covered++;
+	}
+
+	void evict(int count){
+		_evicted += count;
+	}
+
+	public long getLookups(){
+		return _lookups;
+	}
+
+	public long getComparisons(){
+		return _comparisons;
+	}
+
+	public long getSkipped(){
+		return _skipped;
+	}
+
+	public long getCovered(){
+		return _covered;
+	}
+
+	public long getEvicted(){
+		return _evicted;
+	}
+
+	@Override
+	public String toString(){
+		return "# of subsumption lookups: " + _lookups
+				+ ", # of zone comparisons: " + _comparisons
+				+ ", # of comparisons skipped: " + _skipped
+				+ ", # of states covered: " + _covered
+				+ ", # of states evicted: " + _evicted;
+	}
+}
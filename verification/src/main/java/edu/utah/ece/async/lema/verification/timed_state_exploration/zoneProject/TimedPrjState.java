@@ -107,6 +107,13 @@ public class TimedPrjState extends PrjState{
 //	protected Zone[] _zones;
 	protected Equivalence[] _zones;
 	
+	/*
+	 * The signature of the zones, computed the first time it is asked for since the
+	 * zones are not changed once the state is created. See getZoneSignature().
+	 */
+	private long _zoneSignature;
+	private boolean _hasZoneSignature;
+	
 	//*public TimedPrjState(final State[] other, final Zone[] otherZones){
 		//*super(other);
 		//*this._zones = otherZones;
@@ -310,13 +317,13 @@ public class TimedPrjState extends PrjState{
 	 * 		False otherwise.
 	 */
 	public boolean subsetZone(TimedPrjState other){
-		boolean result = true;
-		
 		for(int i=0; i<this._zones.length; i++){
-			result &= _zones[i].subset(other._zones[i]);
+			if(!_zones[i].subset(other._zones[i])){
+				return false;
+			}
 		}
 		
-		return result;
+		return true;
 	}
 	
 	/**
@@ -331,13 +338,39 @@ public class TimedPrjState extends PrjState{
 	 * 		False otherwise.
 	 */
 	public boolean supersetZone(TimedPrjState other){
-		boolean result = true;
-		
 		for(int i=0; i<this._zones.length; i++){
-			result &= _zones[i].superset(other._zones[i]);
+			if(!_zones[i].superset(other._zones[i])){
+				return false;
+			}
 		}
 		
-		return result;
+		return true;
+	}
+	
+	/**
+	 * Gives a signature of the zones for quickly ruling out subsets. If the zones of
+	 * this state are subsets of the zones of another state (see subsetZone), then the
+	 * signature of this state is no larger than the signature of the other state. Only
+	 * Zones contribute to the signature. The signature is computed once and then kept
+	 * with the state.
+	 * @return
+	 * 		The sum of the signatures of the Zones.
+	 */
+	public long getZoneSignature(){
+		if(!_hasZoneSignature){
+			long signature = 0;
+			
+			for(Equivalence z : _zones){
+				if(z instanceof Zone){
+					signature += ((Zone) z).getSubsetSignature();
+				}
+			}
+			
+			_zoneSignature = signature;
+			_hasZoneSignature = true;
+		}
+		
+		return _zoneSignature;
 	}
 	
 	/**
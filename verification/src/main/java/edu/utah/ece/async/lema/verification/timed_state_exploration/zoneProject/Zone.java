@@ -345,7 +345,7 @@ public class Zone implements Equivalence{
 		if(_indexToTimerPair[0].get_transitionIndex() != -1){
 			// Add the zeroth timer.
 			LPNTransitionPair[] newIndexToTimerPair = 
-					new LPNTransitionPair[_indexToTimerPair.length];
+					new LPNTransitionPair[_indexToTimerPair.length+1];
 			for(int i=0; i<_indexToTimerPair.length; i++){
 				newIndexToTimerPair[i+1] = _indexToTimerPair[i];
 			}
@@ -576,7 +576,7 @@ public class Zone implements Equivalence{
 		advance(localStates);
 		
 		// Re-canonicalize
-		recononicalize();
+		recononicalizeAfterAdvance();
 		
 		// Check the size of the DBM.
 		checkZoneMaxSize();
@@ -2166,6 +2166,25 @@ public class Zone implements Equivalence{
 		return otherZone.subset(this);
 	}
 	
+	/**
+	 * Gives a signature of this zone for quickly ruling out subsets. Since subset
+	 * compares the entries of the matrices, if this zone is a subset of another zone,
+	 * then the signature of this zone is no larger than the signature of the other.
+	 * @return
+	 * 		The sum of the entries of the matrix.
+	 */
+	public long getSubsetSignature(){
+		long signature = 0;
+		
+		for(int[] row : _matrix){
+			for(int entry : row){
+				signature += entry;
+			}
+		}
+		
+		return signature;
+	}
+	
 	/**
 	 * Overrides the hashCode.
 	 */
@@ -2203,7 +2222,7 @@ public class Zone implements Equivalence{
 	 * @return
 	 * 			The size of the DBM.
 	 */
-	private int dbmSize()
+	int dbmSize()
 	{
 		return _indexToTimerPair.length;
 	}
@@ -2226,26 +2245,155 @@ public class Zone implements Equivalence{
 	{
 		for(int k=0; k<dbmSize(); k++)
 		{
+			int[] rowK = _matrix[dbmIndexToMatrixIndex(k)];
+			int colK = dbmIndexToMatrixIndex(k);
+			
 			for (int i=0; i<dbmSize(); i++)
 			{
+				int[] rowI = _matrix[dbmIndexToMatrixIndex(i)];
+				
 				for(int j=0; j<dbmSize(); j++)
 				{
-					if(getDbmEntry(i, k) != INFINITY && getDbmEntry(k, j) != INFINITY
-							&& getDbmEntry(i, j) > getDbmEntry(i, k) + getDbmEntry(k, j))
+					int colJ = dbmIndexToMatrixIndex(j);
+					
+					if(rowI[colK] != INFINITY && rowK[colJ] != INFINITY
+							&& rowI[colJ] > rowI[colK] + rowK[colJ])
 					{
-						setDbmEntry(i, j, getDbmEntry(i, k) + getDbmEntry(k, j));
+						rowI[colJ] = rowI[colK] + rowK[colJ];
 					}
 					
-					if( (i==j) && getDbmEntry(i, j) != 0)
+					if( (i==j) && rowI[colJ] != 0)
 					{
 						throw new DiagonalNonZeroException("Entry (" + i + ", " + j + ")" +
-								" became " + getDbmEntry(i, j) + ".");
+								" became " + rowI[colJ] + ".");
 					}
 				}
 			}
 		}
 	}
 	
+	/**
+	 * Tightens an entry of the DBM and recanonicalizes it. When the new value is
+	 * smaller than the current one, only the paths through the entry can get shorter,
+	 * so the DBM is updated in O(n^2) instead of running Floyd's algorithm. This
+	 * requires the DBM to be canonical before the entry is changed, which holds for
+	 * every Zone since Zones are canonical once constructed.
+	 * @param i
+	 * 			The row of the DBM.
+	 * @param j
+	 * 			The column of the DBM.
+	 * @param value
+	 * 			The new value for the entry.
+	 */
+	void tightenDbmEntry(int i, int j, int value)
+	{
+		int current = getDbmEntry(i, j);
+		
+		setDbmEntry(i, j, value);
+		
+		if(value > current)
+		{
+			// The entry was loosened, so the shortest paths have to be found again.
+			recononicalize();
+			return;
+		}
+		
+		if(value == current)
+		{
+			return;
+		}
+		
+		int back = getDbmEntry(j, i);
+		if(back != INFINITY && value + back < 0)
+		{
+			throw new DiagonalNonZeroException("Entry (" + i + ", " + i + ")" +
+					" became " + (value + back) + ".");
+		}
+		
+		// The cycle through (i, j) is not negative, so column i and row j
+		// do not change while they are read.
+		int colI = dbmIndexToMatrixIndex(i);
+		int[] rowJ = _matrix[dbmIndexToMatrixIndex(j)];
+		for(int u=0; u<dbmSize(); u++)
+		{
+			int[] rowU = _matrix[dbmIndexToMatrixIndex(u)];
+			if(rowU[colI] == INFINITY)
+			{
+				continue;
+			}
+			
+			int throughEntry = rowU[colI] + value;
+			for(int v=0; v<dbmSize(); v++)
+			{
+				int colV = dbmIndexToMatrixIndex(v);
+				if(rowJ[colV] != INFINITY && rowU[colV] > throughEntry + rowJ[colV])
+				{
+					rowU[colV] = throughEntry + rowJ[colV];
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Recanonicalizes the DBM after advance has replaced the upper bounds in the
+	 * zeroth row. The DBM must have been canonical before the advance. Removing
+	 * the upper bounds keeps a DBM canonical, and a shortest path from the zero
+	 * timer takes one of the new upper bounds followed by a path that is already
+	 * in the DBM. So the new zeroth row is found in O(n^2) and the other entries are
+	 * then shortened through it, instead of running Floyd's algorithm.
+	 */
+	void recononicalizeAfterAdvance()
+	{
+		int[] zeroRow = _matrix[dbmIndexToMatrixIndex(0)];
+		int[] newZeroRow = Arrays.copyOf(zeroRow, zeroRow.length);
+		
+		for(int w=1; w<dbmSize(); w++)
+		{
+			int upperBound = zeroRow[dbmIndexToMatrixIndex(w)];
+			if(upperBound == INFINITY)
+			{
+				continue;
+			}
+			
+			int[] rowW = _matrix[dbmIndexToMatrixIndex(w)];
+			for(int v=0; v<dbmSize(); v++)
+			{
+				int colV = dbmIndexToMatrixIndex(v);
+				if(rowW[colV] != INFINITY && newZeroRow[colV] > upperBound + rowW[colV])
+				{
+					newZeroRow[colV] = upperBound + rowW[colV];
+				}
+			}
+		}
+		
+		_matrix[dbmIndexToMatrixIndex(0)] = newZeroRow;
+		
+		if(getDbmEntry(0, 0) != 0)
+		{
+			throw new DiagonalNonZeroException("Entry (0, 0) became "
+					+ getDbmEntry(0, 0) + ".");
+		}
+		
+		for(int u=1; u<dbmSize(); u++)
+		{
+			int[] rowU = _matrix[dbmIndexToMatrixIndex(u)];
+			int toZero = rowU[dbmIndexToMatrixIndex(0)];
+			if(toZero == INFINITY)
+			{
+				continue;
+			}
+			
+			for(int v=1; v<dbmSize(); v++)
+			{
+				int colV = dbmIndexToMatrixIndex(v);
+				if(newZeroRow[colV] != INFINITY && rowU[colV] > toZero + newZeroRow[colV])
+				{
+					rowU[colV] = toZero + newZeroRow[colV];
+				}
+			}
+		}
+	}
+	
 	/**
 	 * Determines if a timer associated with a given transitions has reached its lower bound.
 	 * @param t
@@ -2368,12 +2516,17 @@ public class Zone implements Equivalence{
 		// Warping can wreck the newly assigned values so correct them.
 		newZone.correctNewAssignemnts(newAssignValues);
 		
-		newZone.recononicalize();
+		// Firing resets the new timers to the zero timer and projects out the
+		// disabled ones, which keeps the canonical DBM of this Zone canonical.
+		// Only warping and assigning the continuous variables can break it.
+		if(this.hasContinuousVariables() || newZone.hasContinuousVariables()){
+			newZone.recononicalize();
+		}
 		
 		newZone.advance(localStates);
 		
 		// Recanonicalize
-		newZone.recononicalize();
+		newZone.recononicalizeAfterAdvance();
 		
 		
 		newZone.checkZoneMaxSize();
@@ -2466,7 +2619,6 @@ public class Zone implements Equivalence{
 		Zone tempZone = this.clone();
 		
 		tempZone.restrictTimer(index);
-		tempZone.recononicalize();
 		
 		// Copy the tempZone to the new zone.
 		for(int i=0; i<tempZone.dbmSize(); i++)
@@ -2702,7 +2854,6 @@ public class Zone implements Equivalence{
 		Zone tempZone = this.clone();
 		
 		tempZone.restrictTimer(index);
-		tempZone.recononicalize();
 		
 		// Copy the tempZone to the new zone.
 		for(int i=0; i<tempZone.dbmSize(); i++)
@@ -3462,7 +3613,7 @@ public class Zone implements Equivalence{
 	/**
 	 * Advances time.
 	 */
-	private void advance()
+	void advance()
 	{
 		for(int i=0; i<dbmSize(); i++)
 		{
@@ -4565,7 +4716,20 @@ public class Zone implements Equivalence{
 	}
 	
 	/**
-	 * Restricts the lower bound of a timer.
+	 * Determines whether the Zone has any continuous variables. The continuous variables
+	 * are sorted before the timers, so only the first entry after the zero timer needs
+	 * to be checked.
+	 * 
+	 * @return
+	 * 			True if the Zone has a continuous variable, false otherwise.
+	 */
+	private boolean hasContinuousVariables(){
+		return _indexToTimerPair.length > 1
+				&& _indexToTimerPair[1] instanceof LPNContinuousPair;
+	}
+	
+	/**
+	 * Restricts the lower bound of a timer and recanonicalizes the DBM.
 	 * 
 	 * @param timer
 	 * 			The timer to tighten the lower bound.
@@ -4574,8 +4738,7 @@ public class Zone implements Equivalence{
 	{
 		//int dbmIndex = Arrays.binarySearch(_indexToTimer, timer);
 		
-		_matrix[dbmIndexToMatrixIndex(timer)][dbmIndexToMatrixIndex(0)]
-		                                            = getLowerBoundbydbmIndex(timer);
+		tightenDbmEntry(timer, 0, getLowerBoundbydbmIndex(timer));
 	}
 	
 	/**